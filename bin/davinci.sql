@@ -136,6 +136,33 @@ CREATE TABLE `download_record`
 ) ENGINE = InnoDB
   DEFAULT CHARSET = utf8mb4;
 
+-- ----------------------------
+-- Table structure for export_task
+-- ----------------------------
+DROP TABLE IF EXISTS `export_task`;
+CREATE TABLE `export_task`
+(
+    `id`             bigint(20)   NOT NULL AUTO_INCREMENT,
+    `action`         varchar(20)  NOT NULL COMMENT 'DOWNLOAD/SHAREDOWNLOAD',
+    `record_id`      bigint(20)   NOT NULL,
+    `user_id`        bigint(20)   DEFAULT NULL,
+    `type`           varchar(20)  NOT NULL COMMENT 'widget/dashboard/folder',
+    `entity_id`      bigint(20)   NOT NULL,
+    `params`         text         DEFAULT NULL,
+    `priority`       int(11)      NOT NULL DEFAULT 0,
+    `status`         smallint(1)  NOT NULL COMMENT '0:waiting 1:running 2:finished 3:failed',
+    `node`           varchar(255) DEFAULT NULL,
+    `progress`       int(11)      NOT NULL DEFAULT 0,
+    `heartbeat_time` datetime     DEFAULT NULL,
+    `create_time`    datetime     NOT NULL,
+    `start_time`     datetime     DEFAULT NULL,
+    `finish_time`    datetime     DEFAULT NULL,
+    PRIMARY KEY (`id`) USING BTREE,
+    KEY `idx_status_priority` (`status`, `priority`) USING BTREE,
+    KEY `idx_record` (`record_id`) USING BTREE
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+
 -- ----------------------------
 -- Table structure for favorite
 -- ----------------------------
@@ -465,6 +492,18 @@ CREATE TABLE `role`
 ) ENGINE = InnoDB
   DEFAULT CHARSET = utf8mb4 COMMENT ='权限表';
 
+-- ----------------------------
+-- Table structure for scheduler_node
+-- ----------------------------
+DROP TABLE IF EXISTS `scheduler_node`;
+CREATE TABLE `scheduler_node`
+(
+    `node`           varchar(255) NOT NULL,
+    `heartbeat_time` datetime     NOT NULL,
+    PRIMARY KEY (`node`) USING BTREE
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+
 -- ----------------------------
 -- Table structure for source
 -- ----------------------------
@@ -556,6 +595,14 @@ CREATE TABLE `view`
     `full_parent_id` varchar(255) DEFAULT NULL,
     `is_folder`      tinyint(1)   DEFAULT NULL,
     `index`          int(5)       DEFAULT NULL,
+    `extract_version` bigint(20)  DEFAULT NULL,
+    `extract_rows`   bigint(20)   DEFAULT NULL,
+    `extract_size`   bigint(20)   DEFAULT NULL,
+    `extract_time`   datetime     DEFAULT NULL,
+    `extract_watermark_column` varchar(255) DEFAULT NULL,
+    `extract_merge_key` varchar(255) DEFAULT NULL,
+    `extract_watermark` varchar(255) DEFAULT NULL,
+    `extract_history` text,
     PRIMARY KEY (`id`) USING BTREE,
     KEY `idx_project_id` (`project_id`) USING BTREE
 ) ENGINE = InnoDB
@@ -0,0 +1,60 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ */
+
+DROP TABLE IF EXISTS `export_task`;
+CREATE TABLE `export_task`
+(
+    `id`             bigint(20)   NOT NULL AUTO_INCREMENT,
+    `action`         varchar(20)  NOT NULL COMMENT 'DOWNLOAD/SHAREDOWNLOAD',
+    `record_id`      bigint(20)   NOT NULL,
+    `user_id`        bigint(20)   DEFAULT NULL,
+    `type`           varchar(20)  NOT NULL COMMENT 'widget/dashboard/folder',
+    `entity_id`      bigint(20)   NOT NULL,
+    `params`         text         DEFAULT NULL,
+    `priority`       int(11)      NOT NULL DEFAULT 0,
+    `status`         smallint(1)  NOT NULL COMMENT '0:waiting 1:running 2:finished 3:failed',
+    `node`           varchar(255) DEFAULT NULL,
+    `progress`       int(11)      NOT NULL DEFAULT 0,
+    `heartbeat_time` datetime     DEFAULT NULL,
+    `create_time`    datetime     NOT NULL,
+    `start_time`     datetime     DEFAULT NULL,
+    `finish_time`    datetime     DEFAULT NULL,
+    PRIMARY KEY (`id`) USING BTREE,
+    KEY `idx_status_priority` (`status`, `priority`) USING BTREE,
+    KEY `idx_record` (`record_id`) USING BTREE
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+
+DROP TABLE IF EXISTS `scheduler_node`;
+CREATE TABLE `scheduler_node`
+(
+    `node`           varchar(255) NOT NULL,
+    `heartbeat_time` datetime     NOT NULL,
+    PRIMARY KEY (`node`) USING BTREE
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+
+ALTER TABLE `view`
+    ADD COLUMN `extract_version` bigint(20) DEFAULT NULL AFTER `index`,
+    ADD COLUMN `extract_rows` bigint(20) DEFAULT NULL AFTER `extract_version`,
+    ADD COLUMN `extract_size` bigint(20) DEFAULT NULL AFTER `extract_rows`,
+    ADD COLUMN `extract_time` datetime DEFAULT NULL AFTER `extract_size`,
+    ADD COLUMN `extract_watermark_column` varchar(255) DEFAULT NULL AFTER `extract_time`,
+    ADD COLUMN `extract_merge_key` varchar(255) DEFAULT NULL AFTER `extract_watermark_column`,
+    ADD COLUMN `extract_watermark` varchar(255) DEFAULT NULL AFTER `extract_merge_key`,
+    ADD COLUMN `extract_history` text AFTER `extract_watermark`;
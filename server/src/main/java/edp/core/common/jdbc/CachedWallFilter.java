@@ -0,0 +1,218 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import com.alibaba.druid.filter.FilterAdapter;
+import com.alibaba.druid.filter.FilterChain;
+import com.alibaba.druid.proxy.jdbc.CallableStatementProxy;
+import com.alibaba.druid.proxy.jdbc.ConnectionProxy;
+import com.alibaba.druid.proxy.jdbc.DataSourceProxy;
+import com.alibaba.druid.proxy.jdbc.PreparedStatementProxy;
+import com.alibaba.druid.proxy.jdbc.ResultSetProxy;
+import com.alibaba.druid.proxy.jdbc.StatementProxy;
+import com.alibaba.druid.wall.WallConfig;
+import com.alibaba.druid.wall.WallFilter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 数据源独立的防火墙过滤器
+ * 执行前由WallFilter检查SQL，缓存已通过检查的SQL，相同的SQL不再重复解析，并记录检查耗时
+ */
+public class CachedWallFilter extends FilterAdapter {
+
+    private final WallFilter wallFilter = new WallFilter();
+
+    private final Cache<String, String> verdictCache;
+
+    private final AtomicLong hits = new AtomicLong(0);
+
+    private final AtomicLong checks = new AtomicLong(0);
+
+    private final AtomicLong rejects = new AtomicLong(0);
+
+    private final AtomicLong totalCheckNanos = new AtomicLong(0);
+
+    private final AtomicLong maxCheckNanos = new AtomicLong(0);
+
+    public CachedWallFilter(WallConfig config, String dbType, int cacheSize) {
+        wallFilter.setConfig(config);
+        if (dbType != null) {
+            wallFilter.setDbType(dbType);
+        }
+        this.verdictCache = cacheSize > 0 ? CacheBuilder.newBuilder().maximumSize(cacheSize).build() : null;
+    }
+
+    @Override
+    public void init(DataSourceProxy dataSource) {
+        wallFilter.init(dataSource);
+    }
+
+    @Override
+    public void destroy() {
+        wallFilter.destroy();
+    }
+
+    public String check(String sql) throws SQLException {
+        if (verdictCache != null && sql != null) {
+            String checked = verdictCache.getIfPresent(sql);
+            if (checked != null) {
+                hits.incrementAndGet();
+                return checked;
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            String checked = wallFilter.check(sql);
+            if (verdictCache != null && sql != null && checked != null) {
+                verdictCache.put(sql, checked);
+            }
+            return checked;
+        } catch (SQLException e) {
+            rejects.incrementAndGet();
+            throw e;
+        } finally {
+            long cost = System.nanoTime() - start;
+            checks.incrementAndGet();
+            totalCheckNanos.addAndGet(cost);
+            maxCheckNanos.accumulateAndGet(cost, Math::max);
+        }
+    }
+
+    @Override
+    public PreparedStatementProxy connection_prepareStatement(FilterChain chain, ConnectionProxy connection, String sql) throws SQLException {
+        return chain.connection_prepareStatement(connection, check(sql));
+    }
+
+    @Override
+    public PreparedStatementProxy connection_prepareStatement(FilterChain chain, ConnectionProxy connection, String sql, int autoGeneratedKeys) throws SQLException {
+        return chain.connection_prepareStatement(connection, check(sql), autoGeneratedKeys);
+    }
+
+    @Override
+    public PreparedStatementProxy connection_prepareStatement(FilterChain chain, ConnectionProxy connection, String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        return chain.connection_prepareStatement(connection, check(sql), resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public PreparedStatementProxy connection_prepareStatement(FilterChain chain, ConnectionProxy connection, String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return chain.connection_prepareStatement(connection, check(sql), resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public PreparedStatementProxy connection_prepareStatement(FilterChain chain, ConnectionProxy connection, String sql, int[] columnIndexes) throws SQLException {
+        return chain.connection_prepareStatement(connection, check(sql), columnIndexes);
+    }
+
+    @Override
+    public PreparedStatementProxy connection_prepareStatement(FilterChain chain, ConnectionProxy connection, String sql, String[] columnNames) throws SQLException {
+        return chain.connection_prepareStatement(connection, check(sql), columnNames);
+    }
+
+    @Override
+    public CallableStatementProxy connection_prepareCall(FilterChain chain, ConnectionProxy connection, String sql) throws SQLException {
+        return chain.connection_prepareCall(connection, check(sql));
+    }
+
+    @Override
+    public CallableStatementProxy connection_prepareCall(FilterChain chain, ConnectionProxy connection, String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        return chain.connection_prepareCall(connection, check(sql), resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public CallableStatementProxy connection_prepareCall(FilterChain chain, ConnectionProxy connection, String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return chain.connection_prepareCall(connection, check(sql), resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public void statement_addBatch(FilterChain chain, StatementProxy statement, String sql) throws SQLException {
+        chain.statement_addBatch(statement, check(sql));
+    }
+
+    @Override
+    public boolean statement_execute(FilterChain chain, StatementProxy statement, String sql) throws SQLException {
+        return chain.statement_execute(statement, check(sql));
+    }
+
+    @Override
+    public boolean statement_execute(FilterChain chain, StatementProxy statement, String sql, int autoGeneratedKeys) throws SQLException {
+        return chain.statement_execute(statement, check(sql), autoGeneratedKeys);
+    }
+
+    @Override
+    public boolean statement_execute(FilterChain chain, StatementProxy statement, String sql, int[] columnIndexes) throws SQLException {
+        return chain.statement_execute(statement, check(sql), columnIndexes);
+    }
+
+    @Override
+    public boolean statement_execute(FilterChain chain, StatementProxy statement, String sql, String[] columnNames) throws SQLException {
+        return chain.statement_execute(statement, check(sql), columnNames);
+    }
+
+    @Override
+    public ResultSetProxy statement_executeQuery(FilterChain chain, StatementProxy statement, String sql) throws SQLException {
+        return chain.statement_executeQuery(statement, check(sql));
+    }
+
+    @Override
+    public int statement_executeUpdate(FilterChain chain, StatementProxy statement, String sql) throws SQLException {
+        return chain.statement_executeUpdate(statement, check(sql));
+    }
+
+    @Override
+    public int statement_executeUpdate(FilterChain chain, StatementProxy statement, String sql, int autoGeneratedKeys) throws SQLException {
+        return chain.statement_executeUpdate(statement, check(sql), autoGeneratedKeys);
+    }
+
+    @Override
+    public int statement_executeUpdate(FilterChain chain, StatementProxy statement, String sql, int[] columnIndexes) throws SQLException {
+        return chain.statement_executeUpdate(statement, check(sql), columnIndexes);
+    }
+
+    @Override
+    public int statement_executeUpdate(FilterChain chain, StatementProxy statement, String sql, String[] columnNames) throws SQLException {
+        return chain.statement_executeUpdate(statement, check(sql), columnNames);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getChecks() {
+        return checks.get();
+    }
+
+    public long getRejects() {
+        return rejects.get();
+    }
+
+    public String getStats() {
+        long count = checks.get();
+        return String.format("wallHits:%d, wallChecks:%d, wallRejects:%d, wallAvgCheck:%dus, wallMaxCheck:%dus",
+                hits.get(), count, rejects.get(),
+                count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalCheckNanos.get() / count),
+                TimeUnit.NANOSECONDS.toMicros(maxCheckNanos.get()));
+    }
+}
@@ -23,7 +23,7 @@ import com.alibaba.druid.filter.Filter;
 import com.alibaba.druid.pool.DruidDataSource;
 import com.alibaba.druid.util.StringUtils;
 import com.alibaba.druid.wall.WallConfig;
-import com.alibaba.druid.wall.WallFilter;
+import com.google.common.util.concurrent.Striped;
 import edp.core.consts.Consts;
 import edp.core.enums.DataTypeEnum;
 import edp.core.exception.SourceException;
@@ -38,22 +38,28 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.DependsOn;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 import static edp.core.consts.Consts.JDBC_DATASOURCE_DEFAULT_VERSION;
 
 @Slf4j
 @Component
+@ManagedResource(objectName = "edp.davinci:name=jdbcDataSourcePools", description = "Davinci jdbc datasource pools")
 public class JdbcDataSource {
 
     @Bean(name = "wallConfig")
@@ -81,16 +87,15 @@ public class JdbcDataSource {
         return config;
     }
 
-    @Bean(name = "wallFilter")
-    @DependsOn("wallConfig")
-    WallFilter wallFilter(WallConfig wallConfig) {
-        WallFilter wfilter = new WallFilter();
-        wfilter.setConfig(wallConfig);
-        return wfilter;
-    }
-
     @Autowired
-    WallFilter wallFilter;
+    WallConfig wallConfig;
+
+    /**
+     * 每个数据源的防火墙缓存已通过检查的SQL数量，为0时不缓存
+     */
+    @Value("${source.wall-verdict-cache-size:2000}")
+    @Getter
+    protected int wallVerdictCacheSize;
 	
     @Value("${source.max-active:8}")
     @Getter
@@ -160,23 +165,48 @@ public class JdbcDataSource {
     @Getter
     protected String filters;
 
-    private static volatile Map<String, DruidDataSource> dataSourceMap = new ConcurrentHashMap<>();
-    private static volatile Map<String, Lock> dataSourceLockMap = new ConcurrentHashMap<>();
-    private static final Object lockLock = new Object();
-    
+    /**
+     * 数据源连续未使用超过该时间且无活跃连接时关闭，下次使用时重新创建，为0时不回收
+     */
+    @Value("${source.pool-idle-timeout-minutes:30}")
+    @Getter
+    protected int poolIdleTimeoutMinutes;
+
+    /**
+     * 所有数据源max-active之和的上限，超出时按最近最少使用关闭空闲数据源，为0时不限制
+     */
+    @Value("${source.max-total-connections:0}")
+    @Getter
+    protected int maxTotalConnections;
+
+    /**
+     * 每个连接缓存的PreparedStatement数量，配合绑定变量执行复用语句，为0时不缓存
+     */
+    @Value("${source.prepared-statement-cache-size:0}")
+    @Getter
+    protected int preparedStatementCacheSize;
+
+    private static final Map<String, PooledDataSource> dataSourceMap = new ConcurrentHashMap<>();
+
+    /**
+     * 按数据源key分段的锁，数量固定，不随数据源增减而保留key
+     */
+    private static final Striped<Lock> dataSourceLocks = Striped.lock(64);
+
+    private static final Object capacityLock = new Object();
+
+    /**
+     * 已通过上限检查、尚未加入dataSourceMap的连接数
+     */
+    private static int reservedConnections = 0;
+
+    /**
+     * 数据源被取出后的租约时间，期间视为使用中不会被关闭，保证调用方能够取得连接
+     */
+    private static final long LEASE_MILLIS = 60_000L;
+
     private Lock getDataSourceLock(String key) {
-		if (dataSourceLockMap.containsKey(key)) {
-			return dataSourceLockMap.get(key);
-		}
-
-		synchronized (lockLock) {
-			if (dataSourceLockMap.containsKey(key)) {
-				return dataSourceLockMap.get(key);
-			}
-			Lock lock = new ReentrantLock();
-			dataSourceLockMap.put(key, lock);
-			return lock;
-		}
+        return dataSourceLocks.get(key);
     }
     
     /**
@@ -200,12 +230,10 @@ public class JdbcDataSource {
         }
     
         try {
-            DruidDataSource druidDataSource = dataSourceMap.remove(key);
-            if (druidDataSource != null) {
-                druidDataSource.close();
+            PooledDataSource pooled = dataSourceMap.remove(key);
+            if (pooled != null) {
+                pooled.dataSource.close();
             }
-            
-            dataSourceLockMap.remove(key);
         }finally {
             lock.unlock();
         }
@@ -223,17 +251,17 @@ public class JdbcDataSource {
 
         String key = getDataSourceKey(jdbcSourceInfo);
 
-		DruidDataSource druidDataSource = dataSourceMap.get(key);
-		if (druidDataSource != null && !druidDataSource.isClosed()) {
-			return druidDataSource;
-		}
+        DruidDataSource druidDataSource = getAvailable(key);
+        if (druidDataSource != null) {
+            return druidDataSource;
+        }
         
         Lock lock = getDataSourceLock(key);
         
         try {
             if (!lock.tryLock(30L, TimeUnit.SECONDS)) {
-                druidDataSource = dataSourceMap.get(key);
-                if (druidDataSource != null && !druidDataSource.isClosed()) {
+                druidDataSource = getAvailable(key);
+                if (druidDataSource != null) {
                     return druidDataSource;
                 }
                 throw new SourceException("Unable to get datasource for jdbcUrl: " + jdbcUrl);
@@ -243,13 +271,14 @@ public class JdbcDataSource {
             throw new SourceException("Unable to get datasource for jdbcUrl: " + jdbcUrl);
         }
         
-		druidDataSource = dataSourceMap.get(key);
-		if (druidDataSource != null && !druidDataSource.isClosed()) {
+        druidDataSource = getAvailable(key);
+        if (druidDataSource != null) {
             lock.unlock();
-			return druidDataSource;
-		}
+            return druidDataSource;
+        }
         
         druidDataSource = new DruidDataSource();
+        CachedWallFilter wallFilter = null;
         
         try {
 
@@ -298,6 +327,7 @@ public class JdbcDataSource {
             druidDataSource.setRemoveAbandoned(true);
             druidDataSource.setRemoveAbandonedTimeout(3600 + 5 * 60);
             druidDataSource.setLogAbandoned(true);
+            setPreparedStatementCache(druidDataSource, preparedStatementCacheSize);
 
             // default validation query
             String driverName = druidDataSource.getDriverClassName();
@@ -314,6 +344,8 @@ public class JdbcDataSource {
                 druidDataSource.setValidationQuery(null);
             }
 
+            String wallDbType = null;
+
             // druid wall filter not support some database so set type mysql
             if (DataTypeEnum.MOONBOX == DataTypeEnum.urlOf(jdbcUrl) ||
                     DataTypeEnum.MONGODB == DataTypeEnum.urlOf(jdbcUrl) ||
@@ -324,7 +356,7 @@ public class JdbcDataSource {
                     DataTypeEnum.HANA == DataTypeEnum.urlOf(jdbcUrl) ||
                     DataTypeEnum.IMPALA == DataTypeEnum.urlOf(jdbcUrl) ||
                     DataTypeEnum.TDENGINE == DataTypeEnum.urlOf(jdbcUrl)) {
-                wallFilter.setDbType(DataTypeEnum.MYSQL.getFeature());
+                wallDbType = DataTypeEnum.MYSQL.getFeature();
             }
 
             Properties properties = new Properties();
@@ -336,7 +368,7 @@ public class JdbcDataSource {
                 for (Dict dict : jdbcSourceInfo.getProperties()) {
 
                     if ("davinci.db-type".equalsIgnoreCase(dict.getKey())) {
-                        wallFilter.setDbType(dict.getValue());
+                        wallDbType = dict.getValue();
                         continue;
                     }
 
@@ -355,6 +387,15 @@ public class JdbcDataSource {
                         continue;
                     }
 
+                    if ("davinci.prepared-statement-cache-size".equalsIgnoreCase(dict.getKey())) {
+                        setPreparedStatementCache(druidDataSource, Integer.parseInt(dict.getValue()));
+                        continue;
+                    }
+
+                    if ("davinci.bind-params".equalsIgnoreCase(dict.getKey())) {
+                        continue;
+                    }
+
                     properties.setProperty(dict.getKey(), dict.getValue());
                 }
             }
@@ -365,17 +406,33 @@ public class JdbcDataSource {
 
                 // davinci's statistic source & csv source don't need wall filter
                 if (!"statistic".equals(name) && SourceTypeEnum.JDBC.getType().equalsIgnoreCase(type)) {
+                    wallFilter = new CachedWallFilter(wallConfig, wallDbType, wallVerdictCacheSize);
                     druidDataSource.setProxyFilters(Arrays.asList(new Filter[]{wallFilter}));
                 }
 
                 druidDataSource.setFilters(filters);
-                druidDataSource.init();
             } catch (Exception e) {
+                druidDataSource.close();
                 log.error("Exception during pool initialization", e);
                 throw new SourceException(e.getMessage());
             }
 
-            dataSourceMap.put(key, druidDataSource);
+            int maxActive = druidDataSource.getMaxActive();
+            try {
+                reserveCapacity(key, maxActive);
+            } catch (SourceException e) {
+                druidDataSource.close();
+                throw e;
+            }
+            try {
+                druidDataSource.init();
+            } catch (Exception e) {
+                releaseCapacity(maxActive, null, null);
+                druidDataSource.close();
+                log.error("Exception during pool initialization", e);
+                throw new SourceException(e.getMessage());
+            }
+            releaseCapacity(maxActive, key, new PooledDataSource(druidDataSource, wallFilter));
 
         }finally {
             lock.unlock();
@@ -384,6 +441,150 @@ public class JdbcDataSource {
         return druidDataSource;
     }
     
+    private DruidDataSource getAvailable(String key) {
+        PooledDataSource pooled = dataSourceMap.get(key);
+        if (pooled == null) {
+            return null;
+        }
+        // 与closeIfIdle互斥：续约后不会被关闭，已关闭时重新创建
+        synchronized (pooled) {
+            if (pooled.dataSource.isClosed()) {
+                return null;
+            }
+            pooled.lastAccessTime = System.currentTimeMillis();
+            return pooled.dataSource;
+        }
+    }
+
+    private void setPreparedStatementCache(DruidDataSource druidDataSource, int cacheSize) {
+        druidDataSource.setPoolPreparedStatements(cacheSize > 0);
+        if (cacheSize > 0) {
+            druidDataSource.setMaxPoolPreparedStatementPerConnectionSize(cacheSize);
+        }
+    }
+
+    /**
+     * 创建数据源前检查连接总数上限，不足时按最近最少使用关闭无活跃连接的数据源
+     * 通过检查的连接数计入预留，直到数据源加入dataSourceMap或创建失败
+     *
+     * @param key
+     * @param maxActive
+     * @throws SourceException
+     */
+    private void reserveCapacity(String key, int maxActive) throws SourceException {
+        if (maxTotalConnections <= 0) {
+            return;
+        }
+
+        synchronized (capacityLock) {
+            int total = reservedConnections + dataSourceMap.values().stream().mapToInt(p -> p.dataSource.getMaxActive()).sum();
+            if (total + maxActive <= maxTotalConnections) {
+                reservedConnections += maxActive;
+                return;
+            }
+
+            List<Map.Entry<String, PooledDataSource>> candidates = dataSourceMap.entrySet().stream()
+                    .filter(e -> !e.getKey().equals(key))
+                    .sorted(Comparator.comparingLong(e -> e.getValue().lastAccessTime))
+                    .collect(Collectors.toList());
+
+            for (Map.Entry<String, PooledDataSource> entry : candidates) {
+                if (total + maxActive <= maxTotalConnections) {
+                    break;
+                }
+                int released = entry.getValue().dataSource.getMaxActive();
+                if (closeIfIdle(entry.getKey(), entry.getValue(), "shed by max-total-connections")) {
+                    total -= released;
+                }
+            }
+
+            if (total + maxActive > maxTotalConnections) {
+                throw new SourceException("Too many datasource connections, max-total-connections:" + maxTotalConnections + ", in use:" + total);
+            }
+            reservedConnections += maxActive;
+        }
+    }
+
+    /**
+     * 释放预留的连接数，pooled不为空时在同一临界区内加入dataSourceMap
+     */
+    private void releaseCapacity(int maxActive, String key, PooledDataSource pooled) {
+        synchronized (capacityLock) {
+            if (maxTotalConnections > 0) {
+                reservedConnections -= maxActive;
+            }
+            if (pooled != null) {
+                dataSourceMap.put(key, pooled);
+            }
+        }
+    }
+
+    /**
+     * 关闭长时间未使用的数据源
+     */
+    @Scheduled(fixedDelay = 60_000L)
+    @ManagedOperation(description = "Close datasource pools idle longer than pool-idle-timeout-minutes")
+    public void evictIdlePools() {
+        if (poolIdleTimeoutMinutes <= 0) {
+            return;
+        }
+
+        long deadline = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(poolIdleTimeoutMinutes);
+        for (Map.Entry<String, PooledDataSource> entry : dataSourceMap.entrySet()) {
+            if (entry.getValue().lastAccessTime < deadline) {
+                closeIfIdle(entry.getKey(), entry.getValue(), "idle timeout");
+            }
+        }
+    }
+
+    private boolean closeIfIdle(String key, PooledDataSource pooled, String reason) {
+        Lock lock = getDataSourceLock(key);
+        if (!lock.tryLock()) {
+            return false;
+        }
+
+        try {
+            synchronized (pooled) {
+                // 租约内的数据源可能刚被取出、尚未借出连接
+                if (dataSourceMap.get(key) != pooled || pooled.dataSource.getActiveCount() > 0
+                        || System.currentTimeMillis() - pooled.lastAccessTime < LEASE_MILLIS) {
+                    return false;
+                }
+                dataSourceMap.remove(key);
+                pooled.dataSource.close();
+            }
+            log.info("Close datasource({}) {}, {}", pooled.dataSource.getName(), pooled.dataSource.getUrl(), reason);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @ManagedAttribute(description = "Number of datasource pools")
+    public int getPoolCount() {
+        return dataSourceMap.size();
+    }
+
+    @ManagedAttribute(description = "Sum of max-active of all datasource pools")
+    public int getTotalMaxActive() {
+        return dataSourceMap.values().stream().mapToInt(p -> p.dataSource.getMaxActive()).sum();
+    }
+
+    @ManagedAttribute(description = "Statistics of each datasource pool")
+    public String[] getPoolStats() {
+        long now = System.currentTimeMillis();
+        return dataSourceMap.values().stream()
+                .sorted(Comparator.comparingLong(p -> -p.lastAccessTime))
+                .map(p -> {
+                    DruidDataSource ds = p.dataSource;
+                    String stats = String.format("name:%s, url:%s, active:%d, pooling:%d, maxActive:%d, connectCount:%d, createCount:%d, idle:%ds",
+                            ds.getName(), ds.getUrl(), ds.getActiveCount(), ds.getPoolingCount(), ds.getMaxActive(),
+                            ds.getConnectCount(), ds.getCreateCount(), (now - p.lastAccessTime) / 1000);
+                    return p.wallFilter == null ? stats : stats + ", " + p.wallFilter.getStats();
+                })
+                .toArray(String[]::new);
+    }
+
     private String getDataSourceKey (JdbcSourceInfo jdbcSourceInfo) {
         return SourceUtils.getKey(jdbcSourceInfo.getName(),
                 jdbcSourceInfo.getJdbcUrl(),
@@ -392,5 +593,18 @@ public class JdbcDataSource {
                 jdbcSourceInfo.getDbVersion(),
                 jdbcSourceInfo.isExt());
     }
-    
+
+    private static class PooledDataSource {
+
+        private final DruidDataSource dataSource;
+
+        private final CachedWallFilter wallFilter;
+
+        private volatile long lastAccessTime = System.currentTimeMillis();
+
+        private PooledDataSource(DruidDataSource dataSource, CachedWallFilter wallFilter) {
+            this.dataSource = dataSource;
+            this.wallFilter = wallFilter;
+        }
+    }
 }
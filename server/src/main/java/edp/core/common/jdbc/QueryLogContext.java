@@ -0,0 +1,64 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+/**
+ * 当前线程执行查询所属的view及用户，用于查询日志
+ */
+public class QueryLogContext {
+
+    private static final ThreadLocal<QueryLogContext> CONTEXT = new ThreadLocal<>();
+
+    private final Long viewId;
+
+    private final Long projectId;
+
+    private final Long userId;
+
+    private QueryLogContext(Long viewId, Long projectId, Long userId) {
+        this.viewId = viewId;
+        this.projectId = projectId;
+        this.userId = userId;
+    }
+
+    public static void set(Long viewId, Long projectId, Long userId) {
+        CONTEXT.set(new QueryLogContext(viewId, projectId, userId));
+    }
+
+    public static QueryLogContext get() {
+        return CONTEXT.get();
+    }
+
+    public static void clear() {
+        CONTEXT.remove();
+    }
+
+    public Long getViewId() {
+        return viewId;
+    }
+
+    public Long getProjectId() {
+        return projectId;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+}
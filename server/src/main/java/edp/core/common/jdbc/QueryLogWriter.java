@@ -0,0 +1,290 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import edp.core.enums.DataTypeEnum;
+import edp.core.model.QueryLogRecord;
+import edp.core.model.ViewQueryStats;
+import edp.core.utils.MD5Util;
+import edp.core.utils.SqlUtils;
+import edp.davinci.core.enums.LogNameEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * 异步查询日志
+ * 请求线程只生成记录并放入无锁队列，MD5、SQL格式化及输出均在后台线程完成；
+ * 超过慢查询阈值的记录输出完整SQL，其余记录按采样率输出摘要，所有记录都计入view耗时统计
+ */
+@Slf4j
+@Component
+public class QueryLogWriter {
+
+    private static final Logger sqlLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SQL.getName());
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final int BYTES_SAMPLE_ROWS = 100;
+
+    @Value("${source.enable-query-log:false}")
+    private boolean enable;
+
+    @Value("${source.query-log.slow-threshold-millis:3000}")
+    private long slowThresholdMillis;
+
+    /**
+     * 非慢查询的输出比例，0~1
+     */
+    @Value("${source.query-log.sample-rate:0.01}")
+    private double sampleRate;
+
+    @Value("${source.query-log.queue-capacity:10000}")
+    private int queueCapacity;
+
+    private final ConcurrentLinkedQueue<QueryLogRecord> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger queued = new AtomicInteger(0);
+
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    private final Map<Long, ViewQueryStats> viewStats = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    @PostConstruct
+    public void init() {
+        if (!enable) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this::drain, "query-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    public boolean isEnable() {
+        return enable;
+    }
+
+    /**
+     * 提交查询日志，队列已满时丢弃
+     *
+     * @param operation
+     * @param source
+     * @param dataType
+     * @param sql
+     * @param resultList  用于估算结果大小，可为空
+     * @param rows
+     * @param fetchMillis
+     */
+    public void submit(String operation, String source, DataTypeEnum dataType, String sql,
+                       List<Map<String, Object>> resultList, int rows, long fetchMillis) {
+        if (!running) {
+            return;
+        }
+
+        QueryLogRecord record = new QueryLogRecord();
+        record.setOperation(operation);
+        record.setSource(source);
+        record.setDataType(dataType);
+        record.setSql(sql);
+        record.setRows(rows);
+        record.setFetchMillis(fetchMillis);
+        record.setSlow(fetchMillis >= slowThresholdMillis);
+        record.setSampled(record.isSlow() || ThreadLocalRandom.current().nextDouble() < sampleRate);
+        if (record.isSampled()) {
+            record.setBytes(estimateBytes(resultList, rows));
+        }
+        offer(record);
+    }
+
+    /**
+     * 提交执行失败的语句，不采样，输出完整SQL及错误信息
+     *
+     * @param operation
+     * @param source
+     * @param dataType
+     * @param sql
+     * @param error
+     * @param fetchMillis
+     */
+    public void submitError(String operation, String source, DataTypeEnum dataType, String sql, Throwable error, long fetchMillis) {
+        if (!running) {
+            return;
+        }
+
+        QueryLogRecord record = new QueryLogRecord();
+        record.setOperation(operation);
+        record.setSource(source);
+        record.setDataType(dataType);
+        record.setSql(sql);
+        record.setFetchMillis(fetchMillis);
+        record.setError(error.toString());
+        offer(record);
+    }
+
+    private void offer(QueryLogRecord record) {
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+
+        QueryLogContext context = QueryLogContext.get();
+        if (context != null) {
+            record.setViewId(context.getViewId());
+            record.setProjectId(context.getProjectId());
+            record.setUserId(context.getUserId());
+        }
+
+        record.setEnqueueTime(System.currentTimeMillis());
+        queue.offer(record);
+    }
+
+    /**
+     * 获取项目下平均耗时最长的view
+     *
+     * @param projectId
+     * @param top
+     * @return
+     */
+    public List<ViewQueryStats> getSlowestViews(Long projectId, int top) {
+        return viewStats.values().stream()
+                .filter(stats -> projectId.equals(stats.getProjectId()))
+                .map(this::copy)
+                .sorted(Comparator.comparingLong(ViewQueryStats::getAvgMillis).reversed())
+                .limit(top)
+                .collect(Collectors.toList());
+    }
+
+    public String getStats() {
+        return String.format("queued:%d, dropped:%d, views:%d", queued.get(), dropped.get(), viewStats.size());
+    }
+
+    private void drain() {
+        while (running || !queue.isEmpty()) {
+            QueryLogRecord record = queue.poll();
+            if (record == null) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            queued.decrementAndGet();
+            try {
+                write(record);
+            } catch (Exception e) {
+                log.warn("Write query log error:{}", e.getMessage());
+            }
+        }
+    }
+
+    private void write(QueryLogRecord record) {
+        long queueMillis = System.currentTimeMillis() - record.getEnqueueTime();
+        String md5 = MD5Util.getMD5(record.getSql(), true, 16);
+
+        // 失败的语句不计入view耗时统计
+        if (record.getError() != null) {
+            sqlLogger.error("{} failed {} source:{}, view:{}, user:{}, fetch:{}ms, queue:{}ms, error:{}, sql:{}",
+                    md5, record.getOperation(), record.getSource(), record.getViewId(), record.getUserId(),
+                    record.getFetchMillis(), queueMillis, record.getError(),
+                    SqlUtils.formatSql(record.getSql(), record.getDataType()));
+            return;
+        }
+
+        if (record.getViewId() != null) {
+            ViewQueryStats stats = viewStats.computeIfAbsent(record.getViewId(), id -> new ViewQueryStats(id, record.getProjectId()));
+            synchronized (stats) {
+                stats.setCount(stats.getCount() + 1);
+                stats.setTotalMillis(stats.getTotalMillis() + record.getFetchMillis());
+                if (record.isSlow()) {
+                    stats.setSlowCount(stats.getSlowCount() + 1);
+                }
+                if (record.getFetchMillis() >= stats.getMaxMillis()) {
+                    stats.setMaxMillis(record.getFetchMillis());
+                    stats.setMaxSqlMd5(md5);
+                }
+                stats.setLastQueryTime(record.getEnqueueTime());
+            }
+        }
+
+        if (record.isSlow()) {
+            sqlLogger.warn("{} slow {} source:{}, view:{}, user:{}, rows:{}, bytes:{}, fetch:{}ms, queue:{}ms, sql:{}",
+                    md5, record.getOperation(), record.getSource(), record.getViewId(), record.getUserId(),
+                    record.getRows(), record.getBytes(), record.getFetchMillis(), queueMillis,
+                    SqlUtils.formatSql(record.getSql(), record.getDataType()));
+        } else if (record.isSampled()) {
+            sqlLogger.info("{} {} source:{}, view:{}, user:{}, rows:{}, bytes:{}, fetch:{}ms, queue:{}ms",
+                    md5, record.getOperation(), record.getSource(), record.getViewId(), record.getUserId(),
+                    record.getRows(), record.getBytes(), record.getFetchMillis(), queueMillis);
+        }
+    }
+
+    private ViewQueryStats copy(ViewQueryStats stats) {
+        synchronized (stats) {
+            return stats.copy();
+        }
+    }
+
+    /**
+     * 按前若干行估算结果集大小
+     */
+    private long estimateBytes(List<Map<String, Object>> resultList, int rows) {
+        if (resultList == null || resultList.isEmpty()) {
+            return 0L;
+        }
+
+        int sampled = Math.min(resultList.size(), BYTES_SAMPLE_ROWS);
+        long bytes = 0L;
+        for (int i = 0; i < sampled; i++) {
+            for (Map.Entry<String, Object> entry : resultList.get(i).entrySet()) {
+                bytes += entry.getKey().length();
+                Object value = entry.getValue();
+                bytes += value == null ? 4 : String.valueOf(value).length();
+            }
+        }
+        return bytes * rows / sampled;
+    }
+}
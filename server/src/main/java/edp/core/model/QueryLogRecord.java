@@ -0,0 +1,61 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.model;
+
+import edp.core.enums.DataTypeEnum;
+import lombok.Data;
+
+/**
+ * 查询日志记录，由请求线程生成后交给后台线程输出
+ */
+@Data
+public class QueryLogRecord {
+
+    private String operation;
+
+    private String source;
+
+    private DataTypeEnum dataType;
+
+    private Long viewId;
+
+    private Long projectId;
+
+    private Long userId;
+
+    private String sql;
+
+    private int rows;
+
+    private long bytes;
+
+    private long fetchMillis;
+
+    private boolean slow;
+
+    private boolean sampled;
+
+    /**
+     * 执行失败时的错误信息
+     */
+    private String error;
+
+    private long enqueueTime;
+}
@@ -0,0 +1,67 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.model;
+
+import lombok.Data;
+
+/**
+ * View查询耗时统计
+ */
+@Data
+public class ViewQueryStats {
+
+    private Long viewId;
+
+    private Long projectId;
+
+    private long count;
+
+    private long slowCount;
+
+    private long totalMillis;
+
+    private long maxMillis;
+
+    private long avgMillis;
+
+    private String maxSqlMd5;
+
+    private long lastQueryTime;
+
+    public ViewQueryStats() {
+    }
+
+    public ViewQueryStats(Long viewId, Long projectId) {
+        this.viewId = viewId;
+        this.projectId = projectId;
+    }
+
+    public ViewQueryStats copy() {
+        ViewQueryStats copy = new ViewQueryStats(viewId, projectId);
+        copy.count = count;
+        copy.slowCount = slowCount;
+        copy.totalMillis = totalMillis;
+        copy.maxMillis = maxMillis;
+        copy.avgMillis = count == 0 ? 0 : totalMillis / count;
+        copy.maxSqlMd5 = maxSqlMd5;
+        copy.lastQueryTime = lastQueryTime;
+        return copy;
+    }
+}
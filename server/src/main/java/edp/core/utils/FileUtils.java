@@ -29,21 +29,29 @@ import edp.davinci.service.excel.MsgWrapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
 import org.springframework.util.FileCopyUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.imageio.ImageIO;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 import java.util.regex.Matcher;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -55,6 +63,18 @@ public class FileUtils {
 
     private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
 
+    private static final String RANGE_BYTES_PREFIX = "bytes=";
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * tomcat sendfile 相关 request attribute
+     */
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
     @Value("${file.userfiles-path}")
     public String fileBasePath;
 
@@ -132,9 +152,10 @@ public class FileUtils {
      * 下载文件
      *
      * @param filePath
+     * @param request
      * @param response
      */
-    public void download(String filePath, HttpServletResponse response) {
+    public void download(String filePath, HttpServletRequest request, HttpServletResponse response) {
         if (!StringUtils.isEmpty(filePath)) {
             File file = null;
             if (!filePath.startsWith(fileBasePath)) {
@@ -143,31 +164,233 @@ public class FileUtils {
                 file = new File(filePath);
             }
             if (file.exists()) {
-                byte[] buffer = null;
-                InputStream is = null;
-                OutputStream os = null;
                 try {
-                    is = new BufferedInputStream(new FileInputStream(filePath));
-                    buffer = new byte[is.available()];
-                    is.read(buffer);
                     response.reset();
                     response.addHeader("Content-Disposition", "attachment;filename=" + new String(file.getName().getBytes(), "UTF-8"));
-                    response.addHeader("Content-Length", EMPTY + file.length());
-                    os = new BufferedOutputStream(response.getOutputStream());
                     response.setContentType("application/octet-stream;charset=UTF-8");
-                    os.write(buffer);
-                    os.flush();
+                    // 下载后文件会被删除，不能交给容器异步 sendfile
+                    transferFile(file, request, response, false);
                 } catch (IOException e) {
                     e.printStackTrace();
                 } finally {
-                    closeCloseable(os);
-                    closeCloseable(is);
                     remove(filePath);
                 }
             }
         }
     }
 
+    /**
+     * 输出文件到response
+     * 支持 Range 断点续传及 ETag/Last-Modified 协商，文件内容不经过堆内存：
+     * 容器支持时交由 sendfile 输出，否则通过 FileChannel.transferTo 输出；
+     * 客户端接受 gzip 时 csv 文件整体下载会压缩输出
+     *
+     * @param file
+     * @param request
+     * @param response
+     * @param sendfile 是否允许使用容器 sendfile，文件在输出后会被删除时不可开启
+     * @throws IOException
+     */
+    public static void transferFile(File file, HttpServletRequest request, HttpServletResponse response, boolean sendfile) throws IOException {
+        if (!file.exists() || !file.isFile()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        long length = file.length();
+        // http 日期精确到秒
+        long lastModified = file.lastModified() / 1000L * 1000L;
+        String version = length + MINUS + lastModified;
+        String eTag = DOUBLE_QUOTES + version + DOUBLE_QUOTES;
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.ETAG, eTag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+
+        if (isNotModified(request, version, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long start = 0L;
+        long end = length - 1;
+        boolean partial = false;
+
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (!StringUtils.isEmpty(range) && isIfRangeMatched(request, eTag, lastModified)) {
+            long[] bytes = parseRange(range, length);
+            if (bytes == null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (bytes.length == 2) {
+                start = bytes[0];
+                end = bytes[1];
+                partial = true;
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + MINUS + end + SLASH + length);
+            }
+        }
+
+        if (!partial && length > 0 && file.getName().toLowerCase().endsWith(FileTypeEnum.CSV.getFormat()) && isGzipAccepted(request)) {
+            response.setHeader(HttpHeaders.ETAG, DOUBLE_QUOTES + version + "-gzip" + DOUBLE_QUOTES);
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            try (OutputStream os = new GZIPOutputStream(response.getOutputStream(), GZIP_BUFFER_SIZE)) {
+                Files.copy(file.toPath(), os);
+            }
+            return;
+        }
+
+        long count = end - start + 1;
+        response.setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(count));
+        if (count <= 0) {
+            return;
+        }
+
+        if (sendfile && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, file.getAbsolutePath());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, end + 1);
+            return;
+        }
+
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (count > 0) {
+                long transferred = in.transferTo(position, count, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                count -= transferred;
+            }
+        }
+        response.flushBuffer();
+    }
+
+    /**
+     * 解析单段 Range 请求头
+     *
+     * @param range
+     * @param length
+     * @return null: 范围不可满足; 空数组: 忽略 Range 返回整个文件; 否则为 [start, end]
+     */
+    private static long[] parseRange(String range, long length) {
+        if (!range.startsWith(RANGE_BYTES_PREFIX) || range.contains(COMMA)) {
+            return new long[0];
+        }
+        String spec = range.substring(RANGE_BYTES_PREFIX.length()).trim();
+        int index = spec.indexOf(MINUS);
+        if (index < 0) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, index).trim();
+            String last = spec.substring(index + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // bytes=-500 表示最后 500 字节
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0L, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start >= length || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static boolean isNotModified(HttpServletRequest request, String version, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            // 同时匹配原始及 gzip 压缩后的 ETag
+            return "*".equals(ifNoneMatch.trim()) || isETagMatched(ifNoneMatch, version, version + "-gzip");
+        }
+        long ifModifiedSince = getDateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince != -1 && lastModified <= ifModifiedSince;
+    }
+
+    /**
+     * If-None-Match 为逗号分隔的 ETag 列表，按弱比较去掉 W/ 前缀及引号后与版本逐个精确比较
+     *
+     * @param header
+     * @param versions
+     * @return
+     */
+    static boolean isETagMatched(String header, String... versions) {
+        int i = 0;
+        int length = header.length();
+        while (i < length) {
+            char c = header.charAt(i);
+            if (c == ',' || Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            if (header.startsWith("W/", i)) {
+                i += 2;
+            }
+            String tag;
+            if (i < length && header.charAt(i) == '"') {
+                int end = header.indexOf('"', i + 1);
+                if (end < 0) {
+                    return false;
+                }
+                tag = header.substring(i + 1, end);
+                i = end + 1;
+            } else {
+                int end = header.indexOf(',', i);
+                end = end < 0 ? length : end;
+                tag = header.substring(i, end).trim();
+                i = end;
+            }
+            for (String version : versions) {
+                if (version.equals(tag)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isIfRangeMatched(HttpServletRequest request, String eTag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (StringUtils.isEmpty(ifRange)) {
+            return true;
+        }
+        if (ifRange.trim().startsWith(DOUBLE_QUOTES) || ifRange.trim().startsWith("W/")) {
+            // If-Range 仅允许强校验
+            return eTag.equals(ifRange.trim());
+        }
+        long date = getDateHeader(request, HttpHeaders.IF_RANGE);
+        return date != -1 && lastModified <= date;
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    private static boolean isGzipAccepted(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    }
+
     /**
      * 删除文件
      *
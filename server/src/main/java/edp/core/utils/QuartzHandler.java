@@ -26,6 +26,7 @@ import edp.core.model.ScheduleJob;
 import edp.davinci.core.enums.LogNameEnum;
 import lombok.extern.slf4j.Slf4j;
 import org.quartz.*;
+import org.quartz.impl.matchers.GroupMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,6 +34,8 @@ import org.springframework.scheduling.quartz.SchedulerFactoryBean;
 import org.springframework.stereotype.Component;
 
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 
 @Slf4j
 @Component
@@ -49,7 +52,13 @@ public class QuartzHandler {
         return triggerKey.getGroup() + Consts.DOT + triggerKey.getName();
     }
 
-    public void addJob(ScheduleJob scheduleJob) throws ServerException, SchedulerException {
+    /**
+     * 校验job是否可以加入调度
+     *
+     * @param scheduleJob
+     * @throws ServerException
+     */
+    public void checkJob(ScheduleJob scheduleJob) throws ServerException {
 
         if (null == scheduleJob) {
             throw new ServerException("EMPTY job");
@@ -68,6 +77,15 @@ public class QuartzHandler {
             throw new ServerException("Current time is not within the planned execution time!");
         }
 
+        if (!CronExpression.isValidExpression(scheduleJob.getCronExpression())) {
+            throw new ServerException("Invalid cron expression: " + scheduleJob.getCronExpression());
+        }
+    }
+
+    public void addJob(ScheduleJob scheduleJob) throws ServerException, SchedulerException {
+
+        checkJob(scheduleJob);
+
         Scheduler scheduler = schedulerFactoryBean.getScheduler();
         TriggerKey triggerKey = TriggerKey.triggerKey(JOB_NAME_PREFIX + scheduleJob.getId());
         CronTrigger trigger = (CronTrigger) scheduler.getTrigger(triggerKey);
@@ -170,6 +188,27 @@ public class QuartzHandler {
         return false;
     }
 
+    /**
+     * 获取当前节点已调度的job
+     *
+     * @return
+     * @throws ServerException
+     */
+    public Set<Long> getScheduledJobIds() throws ServerException {
+        Scheduler scheduler = schedulerFactoryBean.getScheduler();
+        Set<Long> ids = new HashSet<>();
+        try {
+            for (TriggerKey triggerKey : scheduler.getTriggerKeys(GroupMatcher.anyTriggerGroup())) {
+                if (triggerKey.getName().startsWith(JOB_NAME_PREFIX)) {
+                    ids.add(Long.parseLong(triggerKey.getName().substring(JOB_NAME_PREFIX.length())));
+                }
+            }
+        } catch (Exception e) {
+            throw new ServerException(e.getMessage());
+        }
+        return ids;
+    }
+
     public void shutdownJobs() throws ServerException {
         Scheduler scheduler = schedulerFactoryBean.getScheduler();
         try {
@@ -21,14 +21,16 @@ package edp.core.utils;
 import com.alibaba.druid.sql.SQLUtils;
 import com.alibaba.druid.util.StringUtils;
 import edp.core.common.jdbc.JdbcDataSource;
+import edp.core.common.jdbc.QueryLogWriter;
 import edp.core.consts.Consts;
 import edp.core.enums.DataTypeEnum;
 import edp.core.enums.SqlTypeEnum;
 import edp.core.exception.ServerException;
 import edp.core.exception.SourceException;
 import edp.core.model.*;
-import edp.davinci.core.enums.LogNameEnum;
+import edp.davinci.core.enums.SourceTypeEnum;
 import edp.davinci.core.enums.SqlColumnEnum;
+import edp.davinci.core.model.BindParams;
 import edp.davinci.core.utils.SourcePasswordEncryptUtils;
 import edp.davinci.core.utils.SqlParseUtils;
 import edp.davinci.model.Source;
@@ -41,12 +43,11 @@ import net.sf.jsqlparser.schema.Table;
 import net.sf.jsqlparser.statement.Statement;
 import net.sf.jsqlparser.statement.select.*;
 import org.joda.time.DateTime;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.stereotype.Component;
 
 import javax.sql.DataSource;
@@ -64,11 +65,12 @@ import static edp.core.enums.DataTypeEnum.*;
 @Scope("prototype")
 public class SqlUtils {
 
-    private static final Logger sqlLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SQL.getName());
-
     @Autowired
     private JdbcDataSource jdbcDataSource;
 
+    @Autowired
+    private QueryLogWriter queryLogWriter;
+
     @Value("${source.result-limit:1000000}")
     private int resultLimit;
 
@@ -99,6 +101,16 @@ public class SqlUtils {
         this.sqlTempDelimiter = delimiter;
     }
 
+    private static boolean bindParams;
+
+    /**
+     * 是否以绑定变量的方式执行过滤条件与查询变量
+     */
+    @Value("${source.bind-params:false}")
+    public void setBindParams(boolean bind) {
+        bindParams = bind;
+    }
+
     public SqlUtils init(Source source) {
         // Password decryption
         String decrypt = SourcePasswordEncryptUtils.decrypt(source.getPassword());
@@ -115,6 +127,7 @@ public class SqlUtils {
                 .withJdbcDataSource(this.jdbcDataSource)
                 .withResultLimit(this.resultLimit)
                 .withIsQueryLogEnable(this.isQueryLogEnable)
+                .withQueryLogWriter(this.queryLogWriter)
                 .build();
     }
 
@@ -134,23 +147,53 @@ public class SqlUtils {
                 .withJdbcDataSource(this.jdbcDataSource)
                 .withResultLimit(this.resultLimit)
                 .withIsQueryLogEnable(this.isQueryLogEnable)
+                .withQueryLogWriter(this.queryLogWriter)
+                .build();
+    }
+
+    /**
+     * 初始化本地嵌入式数据库，无需解密密码
+     *
+     * @param name
+     * @param jdbcUrl
+     * @return
+     */
+    public SqlUtils initEmbedded(String name, String jdbcUrl) {
+        return SqlUtilsBuilder
+                .getBuilder()
+                .withName(name)
+                .withType(SourceTypeEnum.CSV.getType())
+                .withJdbcUrl(jdbcUrl)
+                .withUsername("sa")
+                .withPassword(EMPTY)
+                .withJdbcDataSource(this.jdbcDataSource)
+                .withResultLimit(this.resultLimit)
+                .withIsQueryLogEnable(this.isQueryLogEnable)
+                .withQueryLogWriter(this.queryLogWriter)
                 .build();
     }
 
     public void execute(String sql) throws ServerException {
-        if (isQueryLogEnable) {
-            String md5 = MD5Util.getMD5(sql, true, 16);
-            sqlLogger.info("{} execute for sql:{}", md5, formatSql(sql));
-        }
+        long before = System.currentTimeMillis();
         try {
             jdbcTemplate().execute(sql);
+            if (isQueryLogEnable) {
+                queryLogWriter.submit("execute", getSourceName(), dataTypeEnum, sql, null, 0, System.currentTimeMillis() - before);
+            }
         } catch (Exception e) {
+            if (isQueryLogEnable) {
+                queryLogWriter.submitError("execute", getSourceName(), dataTypeEnum, sql, e, System.currentTimeMillis() - before);
+            }
             log.error(e.toString(), e);
             throw new ServerException(e.getMessage());
         }
     }
 
     public PaginateWithQueryColumns syncQuery4Paginate(String sql, Integer pageNo, Integer pageSize, Integer totalCount, Integer limit, Set<String> excludeColumns) throws Exception {
+        return syncQuery4Paginate(sql, null, pageNo, pageSize, totalCount, limit, excludeColumns);
+    }
+
+    public PaginateWithQueryColumns syncQuery4Paginate(String sql, BindParams bindParams, Integer pageNo, Integer pageSize, Integer totalCount, Integer limit, Set<String> excludeColumns) throws Exception {
         if (null == pageNo || pageNo < 1) {
             pageNo = 0;
         }
@@ -163,7 +206,7 @@ public class SqlUtils {
         if (null == limit) {
             limit = -1;
         }
-        PaginateWithQueryColumns paginate = query4Paginate(sql, pageNo, pageSize, totalCount, limit, excludeColumns);
+        PaginateWithQueryColumns paginate = query4Paginate(sql, bindParams, pageNo, pageSize, totalCount, limit, excludeColumns);
         return paginate;
     }
 
@@ -176,14 +219,78 @@ public class SqlUtils {
         List<Map<String, Object>> list = jdbcTemplate.queryForList(sql);
 
         if (isQueryLogEnable) {
-            String md5 = MD5Util.getMD5(sql, true, 16);
-            sqlLogger.info("{} query for {} ms, total count:{} sql:{}", md5, System.currentTimeMillis() - before, list.size(), formatSql(sql));
+            queryLogWriter.submit("query", getSourceName(), dataTypeEnum, sql, list, list.size(), System.currentTimeMillis() - before);
+        }
+
+        return list;
+    }
+
+    /**
+     * 带绑定参数的查询，limit大于0时按方言下推到sql
+     *
+     * @param sql
+     * @param args
+     * @param limit
+     * @return
+     */
+    public List<Map<String, Object>> query4List(String sql, Object[] args, int limit) {
+        JdbcTemplate jdbcTemplate = jdbcTemplate();
+        jdbcTemplate.setMaxRows(limit > resultLimit ? resultLimit : limit > 0 ? limit : resultLimit);
+        if (limit > 0) {
+            sql = getLimitSql(sql, Math.min(limit, resultLimit));
+        }
+
+        long before = System.currentTimeMillis();
+
+        List<Map<String, Object>> list = args == null ? jdbcTemplate.queryForList(sql) : jdbcTemplate.queryForList(sql, args);
+
+        if (isQueryLogEnable) {
+            queryLogWriter.submit("query", getSourceName(), dataTypeEnum, sql, list, list.size(), System.currentTimeMillis() - before);
         }
 
         return list;
     }
 
+    /**
+     * 按数据源方言追加行数限制，不支持的方言仅依赖maxRows
+     *
+     * @param sql
+     * @param limit
+     * @return
+     */
+    public String getLimitSql(String sql, int limit) {
+        if (limit <= 0 || dataTypeEnum == null) {
+            return sql;
+        }
+
+        switch (dataTypeEnum) {
+            case ORACLE:
+                return "SELECT * FROM (" + sql + ") WHERE ROWNUM <= " + limit;
+            case SQLSERVER:
+            case MONGODB:
+            case CASSANDRA:
+                return sql;
+            default:
+                return sql + " LIMIT " + limit;
+        }
+    }
+
     public PaginateWithQueryColumns query4Paginate(String sql, int pageNo, int pageSize, int totalCount, int limit, Set<String> excludeColumns) {
+        return query4Paginate(sql, null, pageNo, pageSize, totalCount, limit, excludeColumns);
+    }
+
+    /**
+     * bindParams 不为空时 sql 中的绑定变量标记替换为 ?，以 PreparedStatement 执行
+     * 查询与计数语句分别生成各自的参数列表
+     */
+    public PaginateWithQueryColumns query4Paginate(String sql, BindParams bindParams, int pageNo, int pageSize, int totalCount, int limit, Set<String> excludeColumns) {
+        String markedSql = sql;
+        Object[] args = null;
+        if (bindParams != null) {
+            List<Object> argList = new ArrayList<>();
+            sql = bindParams.bind(markedSql, argList);
+            args = argList.toArray();
+        }
 
         PaginateWithQueryColumns paginateWithQueryColumns = new PaginateWithQueryColumns();
 
@@ -202,7 +309,7 @@ public class SqlUtils {
                 jdbcTemplate.setFetchSize(Integer.MIN_VALUE);
             }
 
-            getResultForPaginate(sql, paginateWithQueryColumns, jdbcTemplate, excludeColumns, -1);
+            getResultForPaginate(sql, args, paginateWithQueryColumns, jdbcTemplate, excludeColumns, -1);
             paginateWithQueryColumns.setPageNo(1);
             int size = paginateWithQueryColumns.getResultList().size();
             paginateWithQueryColumns.setPageSize(size);
@@ -215,7 +322,14 @@ public class SqlUtils {
             int startRow = (pageNo - 1) * pageSize;
 
             if (pageNo == 1 || totalCount == 0) {
-                Object o = jdbcTemplate.queryForList(getCountSql(sql), Object.class).get(0);
+                // 计数语句可能去掉了部分带参数的子句（如 ORDER BY），由标记sql生成后再绑定
+                String countSql = getCountSql(markedSql);
+                List<Object> countArgs = new ArrayList<>();
+                if (bindParams != null) {
+                    countSql = bindParams.bind(countSql, countArgs);
+                }
+                Object o = countArgs.isEmpty() ? jdbcTemplate.queryForList(countSql, Object.class).get(0)
+                        : jdbcTemplate.queryForList(countSql, Object.class, countArgs.toArray()).get(0);
                 totalCount = Integer.parseInt(String.valueOf(o));
             }
 
@@ -234,31 +348,28 @@ public class SqlUtils {
 
             if (this.dataTypeEnum == MYSQL) {
                 sql = sql + " LIMIT " + startRow + ", " + pageSize;
-                getResultForPaginate(sql, paginateWithQueryColumns, jdbcTemplate, excludeColumns, -1);
+                getResultForPaginate(sql, args, paginateWithQueryColumns, jdbcTemplate, excludeColumns, -1);
             } else if (this.dataTypeEnum == KYLIN) {
                 sql = sql + " LIMIT " + pageSize + " OFFSET "+ startRow;
-                getResultForPaginate(sql, paginateWithQueryColumns, jdbcTemplate, excludeColumns, -1);
+                getResultForPaginate(sql, args, paginateWithQueryColumns, jdbcTemplate, excludeColumns, -1);
             }
             else {
-                getResultForPaginate(sql, paginateWithQueryColumns, jdbcTemplate, excludeColumns, startRow);
+                getResultForPaginate(sql, args, paginateWithQueryColumns, jdbcTemplate, excludeColumns, startRow);
             }
         }
 
         if (isQueryLogEnable) {
-            String md5 = MD5Util.getMD5(sql + pageNo + pageSize + limit, true, 16);
-            sqlLogger.info("{} query for {} ms, total count:{}, page size:{}, sql:{}",
-                    md5, System.currentTimeMillis() - before,
-                    paginateWithQueryColumns.getTotalCount(),
-                    paginateWithQueryColumns.getPageSize(),
-                    formatSql(sql));
+            List<Map<String, Object>> resultList = paginateWithQueryColumns.getResultList();
+            queryLogWriter.submit("paginate", getSourceName(), dataTypeEnum, sql, resultList,
+                    resultList == null ? 0 : resultList.size(), System.currentTimeMillis() - before);
         }
 
         return paginateWithQueryColumns;
     }
 
-    private void getResultForPaginate(String sql, PaginateWithQueryColumns paginateWithQueryColumns, JdbcTemplate jdbcTemplate, Set<String> excludeColumns, int startRow) {
+    private void getResultForPaginate(String sql, Object[] args, PaginateWithQueryColumns paginateWithQueryColumns, JdbcTemplate jdbcTemplate, Set<String> excludeColumns, int startRow) {
         Set<String> queryFromsAndJoins = getQueryFromsAndJoins(sql);
-        jdbcTemplate.query(sql, rs -> {
+        ResultSetExtractor<PaginateWithQueryColumns> extractor = rs -> {
             if (null == rs) {
                 return paginateWithQueryColumns;
             }
@@ -296,7 +407,17 @@ public class SqlUtils {
             paginateWithQueryColumns.setResultList(resultList);
 
             return paginateWithQueryColumns;
-        });
+        };
+
+        if (isEmptyArgs(args)) {
+            jdbcTemplate.query(sql, extractor);
+        } else {
+            jdbcTemplate.query(sql, args, extractor);
+        }
+    }
+
+    private static boolean isEmptyArgs(Object[] args) {
+        return null == args || args.length == 0;
     }
 
     private Map<String, Object> getResultObjectMap(Set<String> excludeColumns, ResultSet rs, ResultSetMetaData metaData, Set<String> queryFromsAndJoins) throws SQLException {
@@ -916,6 +1037,21 @@ public class SqlUtils {
         return sqlTempDelimiter;
     }
 
+    public static boolean isBindParams(List<Dict> properties) {
+
+        if (CollectionUtils.isEmpty(properties)) {
+            return bindParams;
+        }
+
+        Optional<Dict> optional = properties.stream().filter(d -> d.getKey().equalsIgnoreCase("davinci.bind-params")).findFirst();
+        if (optional.isPresent()) {
+            String value = optional.get().getValue();
+            return null != value && Boolean.parseBoolean(value.trim());
+        }
+
+        return bindParams;
+    }
+
     public static String formatSqlType(String type) throws ServerException {
         if (!StringUtils.isEmpty(type.trim())) {
             type = type.trim().toUpperCase();
@@ -976,6 +1112,7 @@ public class SqlUtils {
         private JdbcDataSource jdbcDataSource;
         private int resultLimit;
         private boolean isQueryLogEnable;
+        private QueryLogWriter queryLogWriter;
         private String name;
         private String type;
         private String jdbcUrl;
@@ -1008,6 +1145,11 @@ public class SqlUtils {
             return this;
         }
 
+        SqlUtilsBuilder withQueryLogWriter(QueryLogWriter queryLogWriter) {
+            this.queryLogWriter = queryLogWriter;
+            return this;
+        }
+
         SqlUtilsBuilder withName(String name) {
             this.name = name;
             return this;
@@ -1069,7 +1211,8 @@ public class SqlUtils {
             SqlUtils sqlUtils = new SqlUtils(jdbcSourceInfo);
             sqlUtils.jdbcDataSource = this.jdbcDataSource;
             sqlUtils.resultLimit = this.resultLimit;
-            sqlUtils.isQueryLogEnable = this.isQueryLogEnable;
+            sqlUtils.isQueryLogEnable = this.isQueryLogEnable && this.queryLogWriter != null;
+            sqlUtils.queryLogWriter = this.queryLogWriter;
             sqlUtils.sourceUtils = new SourceUtils(this.jdbcDataSource);
 
             return sqlUtils;
@@ -1083,7 +1226,21 @@ public class SqlUtils {
         return this.jdbcSourceInfo.getJdbcUrl();
     }
 
+    public String getSourceName() {
+        if (this.jdbcSourceInfo == null) {
+            return null;
+        }
+        return this.jdbcSourceInfo.getName();
+    }
+
     public String formatSql(String sql) {
+        return formatSql(sql, dataTypeEnum);
+    }
+
+    public static String formatSql(String sql, DataTypeEnum dataTypeEnum) {
+        if (dataTypeEnum == null) {
+            return sql;
+        }
         try {
             switch (dataTypeEnum) {
                 case ORACLE:
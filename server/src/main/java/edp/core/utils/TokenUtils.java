@@ -221,6 +221,20 @@ public class TokenUtils {
         return password;
     }
 
+    /**
+     * 解析 token claims，解析失败返回null
+     *
+     * @param token
+     * @return
+     */
+    public Claims parseClaims(String token) {
+        try {
+            return getClaims(token);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     /**
      * 获取token claims
      *
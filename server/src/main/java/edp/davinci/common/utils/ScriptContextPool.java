@@ -0,0 +1,299 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.common.utils;
+
+import edp.core.exception.ServerException;
+import edp.davinci.core.common.Constants;
+import lombok.extern.slf4j.Slf4j;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.Source;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JS脚本执行上下文池
+ * 所有Context共享同一个Engine，已解析的脚本在Context之间复用；Context非线程安全，借出期间由单个线程独占
+ */
+@Slf4j
+@Component
+public class ScriptContextPool {
+
+    private static final String LANGUAGE = "js";
+
+    /**
+     * 为0时取CPU核数
+     */
+    @Value("${script.pool_size:0}")
+    private int poolSize;
+
+    @Value("${script.warm_up_size:1}")
+    private int warmUpSize;
+
+    @Value("${script.borrow_timeout_second:60}")
+    private int borrowTimeoutSecond;
+
+    private Engine engine;
+
+    private final Map<ScriptFunction, FunctionPool> pools = new EnumMap<>(ScriptFunction.class);
+
+    public enum ScriptFunction {
+        FIELDS_HEADER(Constants.TABLE_FORMAT_JS, "getFieldsHeader"),
+        DASHBOARD_ITEM_EXECUTE_PARAM(Constants.EXECUTE_PARAM_FORMAT_JS, "getDashboardItemExecuteParam");
+
+        private final String sourcePath;
+        private final String member;
+
+        ScriptFunction(String sourcePath, String member) {
+            this.sourcePath = sourcePath;
+            this.member = member;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (poolSize <= 0) {
+            poolSize = Runtime.getRuntime().availableProcessors();
+        }
+
+        ClassLoader classLoader = ScriptContextPool.class.getClassLoader();
+        try {
+            engine = Engine.create();
+            for (ScriptFunction function : ScriptFunction.values()) {
+                Source source = Source.newBuilder(LANGUAGE, Objects.requireNonNull(classLoader.getResource(function.sourcePath))).build();
+                pools.put(function, new FunctionPool(function, source));
+            }
+        } catch (Exception e) {
+            log.error("Init script engine error", e);
+            return;
+        }
+
+        ScriptUtils.setContextPool(this);
+
+        int size = Math.min(warmUpSize, poolSize);
+        if (size > 0) {
+            Thread thread = new Thread(() -> pools.values().forEach(pool -> pool.warmUp(size)), "script-context-warm-up");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * 借出可执行指定函数的脚本上下文
+     *
+     * @param function
+     * @return
+     */
+    public PooledContext borrow(ScriptFunction function) {
+        FunctionPool pool = pools.get(function);
+        if (pool == null) {
+            throw new ServerException("Script engine is not available");
+        }
+        return pool.borrow();
+    }
+
+    /**
+     * 归还脚本上下文
+     *
+     * @param pooled
+     * @param discard 执行异常时直接销毁，避免脚本全局状态被污染
+     */
+    public void release(PooledContext pooled, boolean discard) {
+        if (pooled == null) {
+            return;
+        }
+        pooled.pool.release(pooled, discard);
+    }
+
+    @Scheduled(cron = "0 0/10 * * * *")
+    public void logStats() {
+        pools.values().stream()
+                .filter(pool -> pool.borrowed.get() > 0)
+                .forEach(pool -> log.info("Script context pool stats: {}", pool.getStats()));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        pools.values().forEach(FunctionPool::destroy);
+        if (engine != null) {
+            engine.close();
+        }
+    }
+
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        pools.values().forEach(pool -> sb.append(pool.getStats()).append("; "));
+        return sb.toString();
+    }
+
+    private class FunctionPool {
+
+        private final ScriptFunction function;
+
+        private final Source source;
+
+        private final LinkedBlockingDeque<PooledContext> idleContexts = new LinkedBlockingDeque<>();
+
+        private final Semaphore permits = new Semaphore(poolSize, true);
+
+        private final AtomicLong created = new AtomicLong(0);
+
+        private final AtomicLong borrowed = new AtomicLong(0);
+
+        private final AtomicLong broken = new AtomicLong(0);
+
+        private final AtomicLong totalWaitMillis = new AtomicLong(0);
+
+        private final AtomicLong maxWaitMillis = new AtomicLong(0);
+
+        private FunctionPool(ScriptFunction function, Source source) {
+            this.function = function;
+            this.source = source;
+        }
+
+        private void warmUp(int size) {
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < size; i++) {
+                if (!permits.tryAcquire()) {
+                    break;
+                }
+                try {
+                    idleContexts.offerFirst(createContext());
+                } catch (Exception e) {
+                    log.warn("Warm up script context({}) error:{}", function, e.getMessage());
+                    break;
+                } finally {
+                    permits.release();
+                }
+            }
+            log.info("Script context pool({}) warmed up {} context(s) in {}ms", function, idleContexts.size(), System.currentTimeMillis() - start);
+        }
+
+        private PooledContext borrow() {
+            long start = System.currentTimeMillis();
+            try {
+                if (!permits.tryAcquire(borrowTimeoutSecond, TimeUnit.SECONDS)) {
+                    throw new ServerException("Wait for script context timeout, " + getStats());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServerException("Interrupted while waiting for script context");
+            }
+
+            long wait = System.currentTimeMillis() - start;
+            borrowed.incrementAndGet();
+            totalWaitMillis.addAndGet(wait);
+            maxWaitMillis.accumulateAndGet(wait, Math::max);
+
+            PooledContext pooled = idleContexts.pollFirst();
+            if (pooled != null) {
+                return pooled;
+            }
+            try {
+                return createContext();
+            } catch (Exception e) {
+                permits.release();
+                log.error("Create script context({}) error", function, e);
+                throw new ServerException("Create script context error: " + e.getMessage());
+            }
+        }
+
+        private void release(PooledContext pooled, boolean discard) {
+            try {
+                if (discard) {
+                    broken.incrementAndGet();
+                    close(pooled);
+                    return;
+                }
+                idleContexts.offerFirst(pooled);
+            } finally {
+                permits.release();
+            }
+        }
+
+        private void destroy() {
+            PooledContext pooled;
+            while ((pooled = idleContexts.pollFirst()) != null) {
+                close(pooled);
+            }
+        }
+
+        private String getStats() {
+            long count = borrowed.get();
+            return String.format("%s poolSize:%d, idle:%d, available:%d, created:%d, borrowed:%d, broken:%d, avgWait:%dms, maxWait:%dms",
+                    function, poolSize, idleContexts.size(), permits.availablePermits(), created.get(), count, broken.get(),
+                    count == 0 ? 0 : totalWaitMillis.get() / count, maxWaitMillis.get());
+        }
+
+        private PooledContext createContext() {
+            Context context = Context.newBuilder(LANGUAGE).engine(engine).build();
+            try {
+                context.eval(source);
+                org.graalvm.polyglot.Value member = context.getBindings(LANGUAGE).getMember(function.member);
+                if (member == null || !member.canExecute()) {
+                    throw new IllegalStateException("Script function " + function.member + " is not executable");
+                }
+                created.incrementAndGet();
+                return new PooledContext(this, context, member);
+            } catch (RuntimeException e) {
+                context.close();
+                throw e;
+            }
+        }
+
+        private void close(PooledContext pooled) {
+            try {
+                pooled.context.close(true);
+            } catch (Exception e) {
+                log.warn("Close script context({}) error:{}", function, e.getMessage());
+            }
+        }
+    }
+
+    public static class PooledContext {
+
+        private final FunctionPool pool;
+
+        private final Context context;
+
+        private final org.graalvm.polyglot.Value function;
+
+        private PooledContext(FunctionPool pool, Context context, org.graalvm.polyglot.Value function) {
+            this.pool = pool;
+            this.context = context;
+            this.function = function;
+        }
+
+        public org.graalvm.polyglot.Value getFunction() {
+            return function;
+        }
+    }
+}
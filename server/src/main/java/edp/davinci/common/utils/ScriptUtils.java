@@ -22,66 +22,63 @@ package edp.davinci.common.utils;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
-import edp.davinci.core.common.Constants;
+import edp.core.exception.ServerException;
+import edp.davinci.common.utils.ScriptContextPool.PooledContext;
+import edp.davinci.common.utils.ScriptContextPool.ScriptFunction;
 import edp.davinci.core.model.ExcelHeader;
 import edp.davinci.dto.viewDto.Param;
 import edp.davinci.dto.viewDto.SimpleView;
 import edp.davinci.dto.viewDto.ViewExecuteParam;
-import org.graalvm.polyglot.Context;
-import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
 
 import java.util.List;
-import java.util.Objects;
 import java.util.Set;
 
 public class ScriptUtils {
 
-    private static final String LANGUAGE = "js";
-    private static final String FUNC_FIELDS_HEADER = "getFieldsHeader";
-    private static final String FUNC_DASHBOARD_ITEM_EXECUTE_PARAM = "getDashboardItemExecuteParam";
+    private static volatile ScriptContextPool contextPool;
 
-    private static final ClassLoader classLoader = ScriptUtils.class.getClassLoader();
-
-    private enum ScriptEnum {
-        INSTANCE;
-
-        private Value tableFormatJs;
-        private Value executeParamFormatJs;
-
-        ScriptEnum() {
-            try {
-                tableFormatJs = createScriptEngine(Constants.TABLE_FORMAT_JS, FUNC_FIELDS_HEADER);
-                executeParamFormatJs = createScriptEngine(Constants.EXECUTE_PARAM_FORMAT_JS, FUNC_DASHBOARD_ITEM_EXECUTE_PARAM);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-
-        private static Value createScriptEngine(String sourcePath, String member) throws Exception {
-            Context context = Context.create(LANGUAGE);
-            Source source = Source.newBuilder(LANGUAGE, Objects.requireNonNull(classLoader.getResource(sourcePath))).build();
-            context.eval(source);
-            Value function = context.getBindings(LANGUAGE).getMember(member);
-            return function.canExecute() ? function : null;
-        }
+    static void setContextPool(ScriptContextPool pool) {
+        contextPool = pool;
     }
 
+    public static ViewExecuteParam getViewExecuteParam(String dashboardConfig, String widgetConfig, Set<SimpleView> views,
+                                                       Long relationId) {
 
-    public static synchronized ViewExecuteParam getViewExecuteParam(String dashboardConfig, String widgetConfig, Set<SimpleView> views,
-                                                                    Long relationId) {
-
-        Value js = ScriptEnum.INSTANCE.executeParamFormatJs;
-        Value result = js.execute(dashboardConfig, widgetConfig, JSON.toJSONString(views), relationId);
-        ViewExecuteParam viewExecuteParam = JSONObject.parseObject(result.asString(), ViewExecuteParam.class);
+        String result = execute(ScriptFunction.DASHBOARD_ITEM_EXECUTE_PARAM, dashboardConfig, widgetConfig, JSON.toJSONString(views), relationId);
+        ViewExecuteParam viewExecuteParam = JSONObject.parseObject(result, ViewExecuteParam.class);
         return viewExecuteParam;
     }
 
-    public static synchronized List<ExcelHeader> formatHeader(String widgetConfig, List<Param> params) {
+    public static List<ExcelHeader> formatHeader(String widgetConfig, List<Param> params) {
 
-        Value js = ScriptEnum.INSTANCE.tableFormatJs;
-        Value result = js.execute(widgetConfig, JSON.toJSONString(params));
-        List<ExcelHeader> excelHeaders = JSONArray.parseArray(result.toString(), ExcelHeader.class);
+        String result = execute(ScriptFunction.FIELDS_HEADER, widgetConfig, JSON.toJSONString(params));
+        List<ExcelHeader> excelHeaders = JSONArray.parseArray(result, ExcelHeader.class);
         return excelHeaders;
     }
-}
\ No newline at end of file
+
+    /**
+     * 借用上下文执行脚本函数，结果须在归还前转换为字符串
+     *
+     * @param function
+     * @param args
+     * @return
+     */
+    private static String execute(ScriptFunction function, Object... args) {
+        ScriptContextPool pool = contextPool;
+        if (pool == null) {
+            throw new ServerException("Script engine is not available");
+        }
+
+        PooledContext pooled = pool.borrow(function);
+        boolean discard = true;
+        try {
+            Value result = pooled.getFunction().execute(args);
+            String value = result.isString() ? result.asString() : result.toString();
+            discard = false;
+            return value;
+        } finally {
+            pool.release(pooled, discard);
+        }
+    }
+}
@@ -22,6 +22,7 @@ package edp.davinci.controller;
 import edp.core.annotation.CurrentUser;
 import edp.core.model.Paginate;
 import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.ViewQueryStats;
 import edp.davinci.common.controller.BaseController;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.common.ResultMap;
@@ -85,6 +86,32 @@ public class ViewController extends BaseController {
     }
 
 
+    /**
+     * 获取项目下平均查询耗时最长的view
+     *
+     * @param projectId
+     * @param top
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get slowest views")
+    @GetMapping("/slowest")
+    public ResponseEntity getSlowestViews(@RequestParam Long projectId,
+                                          @RequestParam(required = false, defaultValue = "10") int top,
+                                          @ApiIgnore @CurrentUser User user,
+                                          HttpServletRequest request) {
+
+        if (invalidId(projectId)) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("Invalid project id");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        List<ViewQueryStats> views = viewService.getSlowestViews(projectId, Math.max(1, Math.min(top, 100)), user);
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payloads(views));
+    }
+
+
     /**
      * get view info
      *
@@ -109,6 +136,30 @@ public class ViewController extends BaseController {
     }
 
 
+    /**
+     * 获取view上卷命中统计
+     *
+     * @param id
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get view rollup stats")
+    @GetMapping("/{id}/rollups")
+    public ResponseEntity getRollupStats(@PathVariable Long id,
+                                         @ApiIgnore @CurrentUser User user,
+                                         HttpServletRequest request) {
+
+        if (invalidId(id)) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("Invalid view id");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        ViewRollupStats stats = viewService.getRollupStats(id, user);
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(stats));
+    }
+
+
     /**
      * 新建view
      *
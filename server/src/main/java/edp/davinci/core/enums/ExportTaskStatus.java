@@ -0,0 +1,37 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.enums;
+
+public enum ExportTaskStatus {
+    WAITING((short) 0),
+    RUNNING((short) 1),
+    FINISHED((short) 2),
+    FAILED((short) 3);
+
+    private short status;
+
+    ExportTaskStatus(short status) {
+        this.status = status;
+    }
+
+    public short getStatus() {
+        return status;
+    }
+}
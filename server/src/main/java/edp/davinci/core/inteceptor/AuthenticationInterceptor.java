@@ -28,8 +28,8 @@ import edp.core.utils.TokenUtils;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.common.ErrorMsg;
 import edp.davinci.core.common.ResultMap;
+import edp.davinci.core.service.AuthUserCache;
 import edp.davinci.model.User;
-import edp.davinci.service.UserService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.method.HandlerMethod;
@@ -47,7 +47,7 @@ public class AuthenticationInterceptor implements HandlerInterceptor {
     private TokenUtils tokenUtils;
 
     @Autowired
-    private UserService userService;
+    private AuthUserCache authUserCache;
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
@@ -73,8 +73,8 @@ public class AuthenticationInterceptor implements HandlerInterceptor {
         AuthShare authShareMethod = method.getAnnotation(AuthShare.class);
         if (null != authShareMethod) {
             if (!StringUtils.isEmpty(token) && token.startsWith(Constants.TOKEN_PREFIX)) {
-                String username = tokenUtils.getUsername(token);
-                User user = userService.getByUsername(username);
+                AuthUserCache.TokenClaims claims = authUserCache.getClaims(token);
+                User user = claims == null ? null : authUserCache.getUser(claims.getUsername());
                 request.setAttribute(Constants.CURRENT_USER, user);
             }
             return true;
@@ -88,8 +88,8 @@ public class AuthenticationInterceptor implements HandlerInterceptor {
             response.getWriter().print(ErrorMsg.ERR_MSG_AUTHENTICATION);
             return false;
         }
-        String username = tokenUtils.getUsername(token);
-        User user = userService.getByUsername(username);
+        AuthUserCache.TokenClaims claims = authUserCache.getClaims(token);
+        User user = claims == null ? null : authUserCache.getUser(claims.getUsername());
         if (null == user) {
             if (!request.getServletPath().endsWith("/download/page")) {
                 log.debug("{} : token user not found", request.getServletPath());
@@ -99,7 +99,7 @@ public class AuthenticationInterceptor implements HandlerInterceptor {
             return false;
 
         }
-        if (!tokenUtils.validateToken(token, user)) {
+        if (!authUserCache.validate(claims, user)) {
             if (!request.getServletPath().endsWith("/download/page")) {
                 log.debug("{} : token validation fails", request.getServletPath());
             }
@@ -0,0 +1,438 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.model;
+
+import edp.core.consts.Consts;
+import edp.davinci.core.enums.SqlVariableTypeEnum;
+import edp.davinci.core.enums.SqlVariableValueTypeEnum;
+import edp.davinci.model.SqlVariable;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 绑定变量
+ * 过滤条件与查询变量中的字面量先以占位标记写入sql，执行前按标记在sql中的顺序替换为?并收集参数
+ * 参数按字段类型转换为 String/BigDecimal/Date/Timestamp/Boolean，无法转换的类型保留字面量
+ */
+public class BindParams {
+
+    private static final String MARKER_PREFIX = "__davinci_bind_";
+
+    private static final String MARKER_SUFFIX = "__";
+
+    private static final Pattern MARKER_PATTERN = Pattern.compile(MARKER_PREFIX + "\\d+" + MARKER_SUFFIX);
+
+    private static final String STRING_TYPE = "VARCHAR";
+
+    private final Map<String, List<Object>> values = new HashMap<>();
+
+    private final Map<String, String> literals = new HashMap<>();
+
+    /**
+     * 可绑定的查询变量，仅字符串类型的变量以参数传入
+     */
+    private final Set<String> stringVariables = new HashSet<>();
+
+    private int index = 0;
+
+    public BindParams() {
+    }
+
+    public BindParams(List<SqlVariable> variables) {
+        if (null == variables) {
+            return;
+        }
+        for (SqlVariable variable : variables) {
+            if (SqlVariableTypeEnum.QUERYVAR == SqlVariableTypeEnum.typeOf(variable.getType()) && !variable.isUdf()
+                    && null != variable.getValueType()
+                    && SqlVariableValueTypeEnum.STRING == SqlVariableValueTypeEnum.valueTypeOf(variable.getValueType().toLowerCase())) {
+                stringVariables.add(variable.getName().trim());
+            }
+        }
+    }
+
+    /**
+     * 登记查询变量的字面量，非字符串变量原样返回
+     */
+    public String markVariable(String name, String literal) {
+        return stringVariables.contains(name) ? mark(literal, STRING_TYPE) : literal;
+    }
+
+    /**
+     * 登记字面量，无法按字段类型转换为参数时原样返回
+     *
+     * @param literal  已渲染的字面量，如 'a' 或 'a','b' 或 123
+     * @param dataType 字段类型，如 VARCHAR、DECIMAL、DATE、DATETIME
+     * @return 占位标记或原字面量
+     */
+    public String mark(String literal, String dataType) {
+        ParamType type = ParamType.of(dataType);
+        if (null == type) {
+            return literal;
+        }
+        List<Object> params = parse(literal, type);
+        if (null == params || params.isEmpty()) {
+            return literal;
+        }
+        String marker = MARKER_PREFIX + (index++) + MARKER_SUFFIX;
+        values.put(marker, params);
+        literals.put(marker, literal);
+        return marker;
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    /**
+     * 将sql中的占位标记替换为?，参数按出现顺序追加到 args
+     * 位于引号、注释内或与标识符相连的标记还原为字面量
+     */
+    public String bind(String sql, List<Object> args) {
+        if (null == sql || values.isEmpty()) {
+            return sql;
+        }
+        Matcher matcher = MARKER_PATTERN.matcher(sql);
+        QuoteScanner scanner = new QuoteScanner(sql);
+        StringBuffer buffer = new StringBuffer();
+        while (matcher.find()) {
+            String marker = matcher.group();
+            List<Object> params = values.get(marker);
+            String replacement;
+            if (null == params) {
+                replacement = marker;
+            } else if (scanner.isQuoted(matcher.start()) || isEmbedded(sql, matcher.start(), matcher.end())) {
+                replacement = literals.get(marker);
+            } else {
+                StringBuilder placeholders = new StringBuilder();
+                for (int i = 0; i < params.size(); i++) {
+                    placeholders.append(i == 0 ? Consts.QUESTION_MARK : Consts.COMMA + Consts.SPACE + Consts.QUESTION_MARK);
+                }
+                args.addAll(params);
+                replacement = placeholders.toString();
+            }
+            matcher.appendReplacement(buffer, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * 将sql中的占位标记还原为字面量
+     */
+    public String inline(String sql) {
+        if (null == sql || values.isEmpty()) {
+            return sql;
+        }
+        Matcher matcher = MARKER_PATTERN.matcher(sql);
+        StringBuffer buffer = new StringBuffer();
+        while (matcher.find()) {
+            String literal = literals.get(matcher.group());
+            matcher.appendReplacement(buffer, Matcher.quoteReplacement(null == literal ? matcher.group() : literal));
+        }
+        matcher.appendTail(buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * 字段是否可做关键字匹配（LIKE），数值、日期及布尔类型不支持，无法识别的类型按字符处理
+     *
+     * @param dataType
+     * @return
+     */
+    public static boolean isSearchable(String dataType) {
+        ParamType type = ParamType.of(dataType);
+        return null == type || ParamType.STRING == type;
+    }
+
+    /**
+     * 按字段类型转换单个绑定值，日期类型接受毫秒时间戳（接口中日期序列化为时间戳）
+     *
+     * @param value
+     * @param dataType
+     * @return 无法识别类型时返回原值
+     * @throws IllegalArgumentException 值与类型不符
+     */
+    public static Object convert(Object value, String dataType) {
+        ParamType type = ParamType.of(dataType);
+        if (null == value || null == type) {
+            return value;
+        }
+        if (value instanceof Number) {
+            long millis = ((Number) value).longValue();
+            switch (type) {
+                case DATE:
+                    return new Date(millis);
+                case TIMESTAMP:
+                    return new Timestamp(millis);
+                case STRING:
+                    return String.valueOf(value);
+                default:
+                    break;
+            }
+        }
+        Object converted = type.convert(String.valueOf(value));
+        if (null == converted) {
+            throw new IllegalArgumentException("Invalid " + dataType + " value: " + value);
+        }
+        return converted;
+    }
+
+    private static boolean isEmbedded(String sql, int start, int end) {
+        return (start > 0 && isIdentifierPart(sql.charAt(start - 1))) || (end < sql.length() && isIdentifierPart(sql.charAt(end)));
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * 按类型转换字面量中的值，任一值无法转换时返回null
+     */
+    private static List<Object> parse(String literal, ParamType type) {
+        List<String> texts = split(literal);
+        if (null == texts) {
+            return null;
+        }
+        boolean quoted = literal.trim().startsWith(Consts.APOSTROPHE);
+        if (type == ParamType.STRING && !quoted) {
+            return null;
+        }
+        List<Object> list = new ArrayList<>(texts.size());
+        try {
+            for (String text : texts) {
+                Object value = type.convert(quoted ? text : text.trim());
+                if (null == value) {
+                    return null;
+                }
+                list.add(value);
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return list;
+    }
+
+    /**
+     * 拆分单引号字符串列表或不带引号的逗号分隔列表
+     */
+    private static List<String> split(String literal) {
+        if (null == literal) {
+            return null;
+        }
+        String text = literal.trim();
+        if (text.isEmpty()) {
+            return null;
+        }
+
+        List<String> list = new ArrayList<>();
+        if (!text.startsWith(Consts.APOSTROPHE)) {
+            for (String value : text.split(Consts.COMMA)) {
+                if (value.contains(Consts.APOSTROPHE)) {
+                    return null;
+                }
+                list.add(value);
+            }
+            return list;
+        }
+
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            if (text.charAt(i) != '\'') {
+                return null;
+            }
+            StringBuilder value = new StringBuilder();
+            i++;
+            boolean closed = false;
+            while (i < length) {
+                char c = text.charAt(i);
+                if (c == '\'') {
+                    if (i + 1 < length && text.charAt(i + 1) == '\'') {
+                        value.append(c);
+                        i += 2;
+                        continue;
+                    }
+                    closed = true;
+                    i++;
+                    break;
+                }
+                if (c == '\\') {
+                    // 反斜杠转义在不同数据库中含义不同，保留字面量
+                    return null;
+                }
+                value.append(c);
+                i++;
+            }
+            if (!closed) {
+                return null;
+            }
+            list.add(value.toString());
+
+            while (i < length && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            if (text.charAt(i) != ',') {
+                return null;
+            }
+            i++;
+            while (i < length && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                return null;
+            }
+        }
+        return list;
+    }
+
+    private enum ParamType {
+        STRING,
+        NUMBER,
+        DATE,
+        TIMESTAMP,
+        BOOLEAN;
+
+        private static ParamType of(String dataType) {
+            if (null == dataType) {
+                return null;
+            }
+            String type = dataType.trim().toUpperCase();
+            for (SqlFilter.NumericDataType numericDataType : SqlFilter.NumericDataType.values()) {
+                if (numericDataType.getType().equals(type)) {
+                    return NUMBER;
+                }
+            }
+            switch (type) {
+                case "REAL":
+                case "NUMBER":
+                    return NUMBER;
+                case "DATE":
+                    return DATE;
+                case "DATETIME":
+                case "TIMESTAMP":
+                    return TIMESTAMP;
+                case "BOOLEAN":
+                case "BOOL":
+                case "BIT":
+                    return BOOLEAN;
+                case "STRING":
+                    return STRING;
+                default:
+                    return type.contains("CHAR") || type.contains("TEXT") ? STRING : null;
+            }
+        }
+
+        private Object convert(String text) {
+            switch (this) {
+                case STRING:
+                    return text;
+                case NUMBER:
+                    return new BigDecimal(text.trim());
+                case DATE:
+                    return Date.valueOf(text.trim());
+                case TIMESTAMP:
+                    String value = text.trim();
+                    // 只有日期时按当天零点
+                    return Timestamp.valueOf(value.length() == 10 ? value + " 00:00:00" : value);
+                case BOOLEAN:
+                    String bool = text.trim();
+                    if ("true".equalsIgnoreCase(bool) || "false".equalsIgnoreCase(bool)) {
+                        return Boolean.valueOf(bool);
+                    }
+                    return null;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * 顺序扫描sql，判断位置是否处于字符串、带引号的标识符或注释中
+     */
+    private static final class QuoteScanner {
+
+        private static final char LINE_COMMENT = '-';
+
+        private static final char BLOCK_COMMENT = '*';
+
+        private final String sql;
+
+        private int position = 0;
+
+        private char quote = 0;
+
+        private QuoteScanner(String sql) {
+            this.sql = sql;
+        }
+
+        private boolean isQuoted(int offset) {
+            int length = sql.length();
+            while (position < offset) {
+                char c = sql.charAt(position);
+                char next = position + 1 < length ? sql.charAt(position + 1) : 0;
+                if (quote == 0) {
+                    if (c == '\'' || c == '"' || c == '`') {
+                        quote = c;
+                    } else if (c == '-' && next == '-') {
+                        quote = LINE_COMMENT;
+                        position++;
+                    } else if (c == '/' && next == '*') {
+                        quote = BLOCK_COMMENT;
+                        position++;
+                    }
+                } else if (quote == LINE_COMMENT) {
+                    if (c == '\n') {
+                        quote = 0;
+                    }
+                } else if (quote == BLOCK_COMMENT) {
+                    if (c == '*' && next == '/') {
+                        quote = 0;
+                        position++;
+                    }
+                } else if (c == '\\' && quote != '`') {
+                    // 按转义处理，误判时只会多还原字面量
+                    position++;
+                } else if (c == quote) {
+                    if (next == quote) {
+                        position++;
+                    } else {
+                        quote = 0;
+                    }
+                }
+                position++;
+            }
+            return quote != 0;
+        }
+    }
+}
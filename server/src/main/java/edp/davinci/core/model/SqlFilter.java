@@ -57,18 +57,25 @@ public class SqlFilter {
     }
 
     public static String dealFilter(SqlFilter filter){
+        return dealFilter(filter, null);
+    }
+
+    /**
+     * bindParams 不为空时条件值以绑定变量标记代入
+     */
+    public static String dealFilter(SqlFilter filter, BindParams bindParams){
         StringBuilder condition = new StringBuilder();
         String type = filter.getType();
 
         if(Type.filter.equalsIgnoreCase(type)){
-            condition.append(dealOperator(filter));
+            condition.append(dealOperator(filter, bindParams));
         }
 
         if(Type.relation.equalsIgnoreCase(type)){
             List<SqlFilter> children = filter.getChildren();
             condition.append(Consts.PARENTHESES_START);
             for(int i=0; i<children.size(); i++){
-                condition.append(i == 0 ? dealFilter(children.get(i)) : Consts.SPACE + filter.getValue().toString() + Consts.SPACE + dealFilter(children.get(i)));
+                condition.append(i == 0 ? dealFilter(children.get(i), bindParams) : Consts.SPACE + filter.getValue().toString() + Consts.SPACE + dealFilter(children.get(i), bindParams));
             }
             condition.append(Consts.PARENTHESES_END);
         }
@@ -76,7 +83,7 @@ public class SqlFilter {
         return condition.toString();
     }
 
-    private static String dealOperator(SqlFilter filter){
+    private static String dealOperator(SqlFilter filter, BindParams bindParams){
         String name     = filter.getName();
         Object value    = filter.getValue();
         String operator = filter.getOperator();
@@ -90,10 +97,10 @@ public class SqlFilter {
             criterion = new Criterion(name, operator, value, sqlType);
         }
 
-        return generator(criterion);
+        return generator(criterion, bindParams);
     }
 
-    private static String generator(Criterion criterion){
+    private static String generator(Criterion criterion, BindParams bindParams){
 
         StringBuilder whereClause = new StringBuilder();
 
@@ -108,11 +115,7 @@ public class SqlFilter {
             }
 
             whereClause.append(criterion.getColumn() + Consts.SPACE + criterion.getOperator() + Consts.SPACE);
-            if(criterion.isNeedApostrophe() && !Pattern.matches(pattern, value)){
-                whereClause.append(Consts.APOSTROPHE + value + Consts.APOSTROPHE);
-            }else{
-                whereClause.append(value);
-            }
+            whereClause.append(literal(criterion, value, bindParams));
 
         }else if(criterion.isBetweenValue()){
             //column>='' and column<=''
@@ -120,20 +123,12 @@ public class SqlFilter {
 
             whereClause.append(Consts.PARENTHESES_START);
             whereClause.append(criterion.getColumn()+ Consts.SPACE + SqlOperatorEnum.GREATERTHANEQUALS.getValue() + Consts.SPACE);
-            if(criterion.isNeedApostrophe() && !Pattern.matches(pattern, value)){
-                whereClause.append(Consts.APOSTROPHE + value + Consts.APOSTROPHE);
-            }else{
-                whereClause.append(value);
-            }
+            whereClause.append(literal(criterion, value, bindParams));
 
             whereClause.append(Consts.SPACE + SqlFilter.Type.and + Consts.SPACE);
             whereClause.append(criterion.getColumn()+ Consts.SPACE + SqlOperatorEnum.MINORTHANEQUALS.getValue() + Consts.SPACE);
             String secondValue = criterion.getSecondValue().toString();
-            if(criterion.isNeedApostrophe() && !Pattern.matches(pattern, secondValue)){
-                whereClause.append(Consts.APOSTROPHE + secondValue + Consts.APOSTROPHE);
-            }else{
-                whereClause.append(secondValue);
-            }
+            whereClause.append(literal(criterion, secondValue, bindParams));
 
             whereClause.append(Consts.PARENTHESES_END);
 
@@ -142,16 +137,26 @@ public class SqlFilter {
             //column in ()
             whereClause.append(criterion.getColumn() + Consts.SPACE + criterion.getOperator() + Consts.SPACE);
             whereClause.append(Consts.PARENTHESES_START);
+            String list;
             if(criterion.isNeedApostrophe() && !Pattern.matches(pattern, values.get(0).toString())){
-                whereClause.append(Consts.APOSTROPHE +
+                list = Consts.APOSTROPHE +
                         StringUtils.join(values,Consts.APOSTROPHE + Consts.COMMA + Consts.APOSTROPHE) +
-                        Consts.APOSTROPHE);
+                        Consts.APOSTROPHE;
             }else{
-                whereClause.append(StringUtils.join(values, Consts.COMMA));
+                list = StringUtils.join(values, Consts.COMMA);
             }
+            whereClause.append(null == bindParams ? list : bindParams.mark(list, criterion.getDataType()));
             whereClause.append(Consts.PARENTHESES_END);
         }
 
         return whereClause.toString();
     }
+
+    private static String literal(Criterion criterion, String value, BindParams bindParams){
+        String literal = value;
+        if(criterion.isNeedApostrophe() && !Pattern.matches(pattern, value)){
+            literal = Consts.APOSTROPHE + value + Consts.APOSTROPHE;
+        }
+        return null == bindParams ? literal : bindParams.mark(literal, criterion.getDataType());
+    }
 }
@@ -0,0 +1,218 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.model;
+
+import com.alibaba.druid.util.StringUtils;
+import com.alibaba.fastjson.JSONObject;
+import edp.core.utils.CollectionUtils;
+import edp.davinci.core.enums.SqlVariableTypeEnum;
+import edp.davinci.dto.viewDto.AuthParamValue;
+import edp.davinci.model.RelRoleView;
+import edp.davinci.model.SqlVariable;
+import org.springframework.beans.BeanUtils;
+
+import java.util.*;
+
+import static edp.davinci.core.common.Constants.NO_AUTH_PERMISSION;
+import static edp.davinci.core.enums.SqlVariableTypeEnum.AUTHVAR;
+
+/**
+ * 用户在单个view上的行列权限，由用户所属角色的rowAuth/columnAuth预先解析合并而成，创建后不可变
+ */
+public final class ViewAccessPolicy {
+
+    private final Set<Long> roleIds;
+
+    /**
+     * 配置了行权限的角色，按角色顺序保存各变量的授权值
+     */
+    private final List<Map<String, AuthParamValue>> rowAuthRules;
+
+    /**
+     * 变量初始值为空时合并后的授权值
+     */
+    private final Map<String, List<Object>> rowAuthValues;
+
+    private final Set<String> excludeColumns;
+
+    private ViewAccessPolicy(Set<Long> roleIds, List<Map<String, AuthParamValue>> rowAuthRules, Set<String> excludeColumns) {
+        this.roleIds = roleIds;
+        this.rowAuthRules = rowAuthRules;
+        this.excludeColumns = excludeColumns;
+
+        Set<String> names = new HashSet<>();
+        rowAuthRules.forEach(r -> names.addAll(r.keySet()));
+        Map<String, List<Object>> values = new HashMap<>();
+        names.forEach(name -> values.put(name, Collections.unmodifiableList(merge(null, name))));
+        this.rowAuthValues = Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * 解析角色与view的关联
+     *
+     * @param roleViewList
+     * @return
+     */
+    public static ViewAccessPolicy compile(List<RelRoleView> roleViewList) {
+        if (CollectionUtils.isEmpty(roleViewList)) {
+            return new ViewAccessPolicy(Collections.emptySet(), Collections.emptyList(), null);
+        }
+
+        Set<Long> roleIds = new HashSet<>();
+        List<Map<String, AuthParamValue>> rules = new ArrayList<>();
+        List<List<String>> columnAuths = new ArrayList<>();
+        boolean isFullAuth = false;
+
+        for (RelRoleView r : roleViewList) {
+            roleIds.add(r.getRoleId());
+
+            if (!StringUtils.isEmpty(r.getRowAuth())) {
+                Map<String, AuthParamValue> rule = new HashMap<>();
+                List<AuthParamValue> authParamValues = JSONObject.parseArray(r.getRowAuth(), AuthParamValue.class);
+                if (authParamValues != null) {
+                    authParamValues.forEach(p -> {
+                        if (p.getName() != null) {
+                            rule.putIfAbsent(p.getName(), p);
+                        }
+                    });
+                }
+                rules.add(Collections.unmodifiableMap(rule));
+            }
+
+            if (!isFullAuth) {
+                List<String> authColumns = StringUtils.isEmpty(r.getColumnAuth()) ? null : JSONObject.parseArray(r.getColumnAuth(), String.class);
+                if (CollectionUtils.isEmpty(authColumns)) {
+                    isFullAuth = true;
+                } else {
+                    columnAuths.add(authColumns);
+                }
+            }
+        }
+
+        Set<String> excludeColumns = null;
+        if (!isFullAuth) {
+            // 所有角色都限制的列才排除
+            Set<String> columns = new HashSet<>(columnAuths.get(0));
+            columnAuths.forEach(columns::retainAll);
+            if (!columns.isEmpty()) {
+                excludeColumns = Collections.unmodifiableSet(columns);
+            }
+        }
+
+        return new ViewAccessPolicy(Collections.unmodifiableSet(roleIds), Collections.unmodifiableList(rules), excludeColumns);
+    }
+
+    public Set<Long> getRoleIds() {
+        return roleIds;
+    }
+
+    /**
+     * 需要排除的列，为null表示不限制
+     */
+    public Set<String> getExcludeColumns() {
+        return excludeColumns;
+    }
+
+    /**
+     * 获取需要计算权限值的变量，返回的变量为副本，不修改传入的变量
+     *
+     * @param variables
+     * @return
+     */
+    public List<SqlVariable> getAuthVariables(List<SqlVariable> variables) {
+        if (CollectionUtils.isEmpty(variables)) {
+            return null;
+        }
+
+        boolean hasRowAuth = !rowAuthRules.isEmpty();
+        Map<SqlVariable, SqlVariable> resolved = new IdentityHashMap<>();
+        List<SqlVariable> list = new ArrayList<>();
+
+        variables.forEach(v -> {
+            if (null != v.getChannel()) {
+                list.add(resolved.computeIfAbsent(v, this::resolve));
+            }
+        });
+
+        if (hasRowAuth) {
+            variables.forEach(v -> {
+                if (AUTHVAR == SqlVariableTypeEnum.typeOf(v.getType()) && !resolved.containsKey(v)) {
+                    list.add(resolved.computeIfAbsent(v, this::resolve));
+                }
+            });
+        }
+
+        return list;
+    }
+
+    private SqlVariable resolve(SqlVariable variable) {
+        SqlVariable copy = new SqlVariable();
+        BeanUtils.copyProperties(variable, copy);
+        if (rowAuthRules.isEmpty() || AUTHVAR != SqlVariableTypeEnum.typeOf(variable.getType())) {
+            return copy;
+        }
+
+        if (variable.getDefaultValues() == null) {
+            List<Object> values = rowAuthValues.get(variable.getName());
+            copy.setDefaultValues(values == null ? new ArrayList<>() : new ArrayList<>(values));
+        } else {
+            copy.setDefaultValues(merge(variable.getDefaultValues(), variable.getName()));
+        }
+        return copy;
+    }
+
+    /**
+     * 按角色顺序合并授权值
+     * 空列表表示拥有全部数据权限，NO_AUTH_PERMISSION表示无权限
+     */
+    private List<Object> merge(List<Object> initial, String name) {
+        List<Object> values = initial == null ? null : new ArrayList<>(initial);
+        for (Map<String, AuthParamValue> rule : rowAuthRules) {
+            AuthParamValue p = rule.get(name);
+
+            if (values == null) {
+                values = new ArrayList<>();
+                if (p != null && p.isEnable()) {
+                    if (CollectionUtils.isEmpty(p.getValues())) {
+                        values.add(NO_AUTH_PERMISSION);
+                    } else {
+                        values.addAll(p.getValues());
+                    }
+                }
+                continue;
+            }
+
+            if (p == null || !p.isEnable()) {
+                values = new ArrayList<>();
+                continue;
+            }
+
+            if (!CollectionUtils.isEmpty(p.getValues())) {
+                boolean denied = values.size() == 1 && values.get(0).equals(NO_AUTH_PERMISSION);
+                if (denied) {
+                    values = new ArrayList<>(p.getValues());
+                } else if (!values.isEmpty()) {
+                    values.addAll(p.getValues());
+                }
+            }
+        }
+        return values;
+    }
+}
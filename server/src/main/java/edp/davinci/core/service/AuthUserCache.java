@@ -0,0 +1,238 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edp.core.consts.Consts;
+import edp.core.utils.MD5Util;
+import edp.core.utils.RedisUtils;
+import edp.core.utils.TokenUtils;
+import edp.davinci.core.model.RedisMessageEntity;
+import edp.davinci.dao.UserMapper;
+import edp.davinci.model.User;
+import edp.davinci.service.impl.UserCacheMessageHandler;
+import io.jsonwebtoken.Claims;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static edp.davinci.core.common.Constants.DAVINCI_TOPIC_CHANNEL;
+
+/**
+ * 登录用户缓存
+ * 已校验签名的token按hash缓存其claims，用户按用户名缓存，用户信息变更时通过redis通知各节点失效
+ */
+@Slf4j
+@Component
+public class AuthUserCache {
+
+    @Value("${auth.cache.enable:true}")
+    private boolean enable;
+
+    @Value("${auth.cache.token-max-size:100000}")
+    private long tokenMaxSize;
+
+    @Value("${auth.cache.token-ttl-seconds:1800}")
+    private long tokenTtlSeconds;
+
+    @Value("${auth.cache.user-max-size:10000}")
+    private long userMaxSize;
+
+    @Value("${auth.cache.user-ttl-seconds:300}")
+    private long userTtlSeconds;
+
+    @Autowired
+    private TokenUtils tokenUtils;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private RedisUtils redisUtils;
+
+    private Cache<String, TokenClaims> tokenCache;
+
+    private Cache<String, User> userCache;
+
+    @PostConstruct
+    public void init() {
+        tokenCache = CacheBuilder.newBuilder()
+                .maximumSize(tokenMaxSize)
+                .expireAfterWrite(tokenTtlSeconds, TimeUnit.SECONDS)
+                .build();
+        userCache = CacheBuilder.newBuilder()
+                .maximumSize(userMaxSize)
+                .expireAfterWrite(userTtlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 解析token，已解析过的token直接返回缓存的claims，token无法解析返回null
+     *
+     * @param token
+     * @return
+     */
+    public TokenClaims getClaims(String token) {
+        if (!enable) {
+            return parse(token);
+        }
+
+        String key = MD5Util.getMD5(token, true, 32);
+        TokenClaims claims = tokenCache.getIfPresent(key);
+        if (claims != null) {
+            if (!claims.isExpired()) {
+                return claims;
+            }
+            tokenCache.invalidate(key);
+            return null;
+        }
+
+        claims = parse(token);
+        if (claims != null && !claims.isExpired()) {
+            tokenCache.put(key, claims);
+        }
+        return claims;
+    }
+
+    /**
+     * 获取用户，返回副本避免请求间互相修改
+     *
+     * @param username
+     * @return
+     */
+    public User getUser(String username) {
+        if (username == null) {
+            return null;
+        }
+        if (!enable) {
+            return userMapper.selectByUsername(username);
+        }
+
+        User user = userCache.getIfPresent(username);
+        if (user == null) {
+            user = userMapper.selectByUsername(username);
+            if (user == null) {
+                return null;
+            }
+            userCache.put(username, user);
+        }
+        return copy(user);
+    }
+
+    /**
+     * 校验token与用户是否匹配
+     *
+     * @param claims
+     * @param user
+     * @return
+     */
+    public boolean validate(TokenClaims claims, User user) {
+        return claims != null && user != null
+                && claims.getUsername().equals(user.getUsername())
+                && claims.getPassword().equals(user.getPassword())
+                && !claims.isExpired();
+    }
+
+    /**
+     * 用户信息变更后失效缓存，事务中调用时在提交后失效
+     *
+     * @param username
+     */
+    public void invalidate(String username) {
+        if (!enable || username == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    doInvalidate(username);
+                }
+            });
+        } else {
+            doInvalidate(username);
+        }
+    }
+
+    public void invalidateLocal(String username) {
+        userCache.invalidate(username);
+    }
+
+    private void doInvalidate(String username) {
+        invalidateLocal(username);
+        if (redisUtils.isRedisEnable()) {
+            redisUtils.convertAndSend(DAVINCI_TOPIC_CHANNEL, new RedisMessageEntity(UserCacheMessageHandler.class, username, "-1"));
+        }
+    }
+
+    private TokenClaims parse(String token) {
+        Claims claims = tokenUtils.parseClaims(token);
+        if (claims == null || claims.get(Consts.TOKEN_USER_NAME) == null || claims.get(Consts.TOKEN_USER_PASSWORD) == null) {
+            return null;
+        }
+        return new TokenClaims(claims.get(Consts.TOKEN_USER_NAME).toString(),
+                claims.get(Consts.TOKEN_USER_PASSWORD).toString(), claims.getExpiration());
+    }
+
+    private static User copy(User user) {
+        User copy = new User();
+        BeanUtils.copyProperties(user, copy);
+        return copy;
+    }
+
+    public static class TokenClaims {
+
+        private final String username;
+
+        private final String password;
+
+        private final Date expiration;
+
+        private TokenClaims(String username, String password, Date expiration) {
+            this.username = username;
+            this.password = password;
+            this.expiration = expiration;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        /**
+         * 超时时间为空则永久有效
+         */
+        public boolean isExpired() {
+            return expiration != null && expiration.before(new Date());
+        }
+    }
+}
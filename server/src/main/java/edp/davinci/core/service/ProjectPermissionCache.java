@@ -0,0 +1,273 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edp.core.utils.RedisUtils;
+import edp.davinci.core.model.RedisMessageEntity;
+import edp.davinci.dto.projectDto.ProjectDetail;
+import edp.davinci.dto.projectDto.ProjectPermission;
+import edp.davinci.model.Organization;
+import edp.davinci.service.impl.ProjectPermissionMessageHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static edp.davinci.core.common.Constants.DAVINCI_TOPIC_CHANNEL;
+
+/**
+ * 项目权限缓存
+ * 按(userId, projectId)缓存项目详情与用户在项目中的权限，同一请求内只解析一次
+ */
+@Slf4j
+@Component
+public class ProjectPermissionCache {
+
+    private static final String REQUEST_MEMO_ATTRIBUTE = ProjectPermissionCache.class.getName() + ".MEMO";
+
+    public static final String PROJECT_PREFIX = "project:";
+
+    public static final String ORGANIZATION_PREFIX = "org:";
+
+    @Value("${project.permission-cache.enable:true}")
+    private boolean enable;
+
+    @Value("${project.permission-cache.max-size:50000}")
+    private long maxSize;
+
+    @Value("${project.permission-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Autowired
+    private RedisUtils redisUtils;
+
+    private Cache<String, ProjectAccess> cache;
+
+    /**
+     * 每次失效递增，避免加载过程中发生的失效被旧数据覆盖
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 获取用户在项目中的访问信息，项目不存在时返回null
+     *
+     * @param projectId
+     * @param userId
+     * @param loader
+     * @return
+     */
+    public ProjectAccess get(Long projectId, Long userId, Supplier<ProjectAccess> loader) {
+        String key = userId + "@" + projectId;
+
+        Map<String, ProjectAccess> memo = requestMemo();
+        if (memo != null) {
+            ProjectAccess access = memo.get(key);
+            if (access != null) {
+                return access;
+            }
+        }
+
+        ProjectAccess access = enable ? cache.getIfPresent(key) : null;
+        if (access == null) {
+            long current = generation.get();
+            access = loader.get();
+            if (access == null) {
+                return null;
+            }
+            if (enable && current == generation.get()) {
+                cache.put(key, access);
+            }
+        }
+
+        if (memo != null) {
+            memo.put(key, access);
+        }
+        return access;
+    }
+
+    /**
+     * 项目信息、管理员或角色授权变更后失效
+     *
+     * @param projectId
+     */
+    public void invalidateProject(Long projectId) {
+        invalidate(PROJECT_PREFIX + projectId);
+    }
+
+    /**
+     * 组织成员、成员角色或组织权限变更后失效
+     *
+     * @param orgId
+     */
+    public void invalidateOrganization(Long orgId) {
+        invalidate(ORGANIZATION_PREFIX + orgId);
+    }
+
+    /**
+     * 按消息失效本地缓存
+     *
+     * @param target project:{id} 或 org:{id}
+     */
+    public void invalidateLocal(String target) {
+        generation.incrementAndGet();
+        Predicate<ProjectAccess> predicate = parse(target);
+        if (predicate != null) {
+            cache.asMap().values().removeIf(predicate);
+        }
+    }
+
+    private void invalidate(String target) {
+        Map<String, ProjectAccess> memo = requestMemo();
+        if (memo != null) {
+            memo.clear();
+        }
+
+        if (!enable) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    doInvalidate(target);
+                }
+            });
+        } else {
+            doInvalidate(target);
+        }
+    }
+
+    private void doInvalidate(String target) {
+        invalidateLocal(target);
+        if (redisUtils.isRedisEnable()) {
+            redisUtils.convertAndSend(DAVINCI_TOPIC_CHANNEL, new RedisMessageEntity(ProjectPermissionMessageHandler.class, target, "-1"));
+        }
+    }
+
+    private Predicate<ProjectAccess> parse(String target) {
+        try {
+            if (target.startsWith(PROJECT_PREFIX)) {
+                Long projectId = Long.valueOf(target.substring(PROJECT_PREFIX.length()));
+                return a -> projectId.equals(a.projectDetail.getId());
+            }
+            if (target.startsWith(ORGANIZATION_PREFIX)) {
+                Long orgId = Long.valueOf(target.substring(ORGANIZATION_PREFIX.length()));
+                return a -> orgId.equals(a.projectDetail.getOrgId());
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Invalid project permission cache target:{}", target);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, ProjectAccess> requestMemo() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        Map<String, ProjectAccess> memo = (Map<String, ProjectAccess>) attributes.getAttribute(REQUEST_MEMO_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (memo == null) {
+            memo = new ConcurrentHashMap<>();
+            attributes.setAttribute(REQUEST_MEMO_ATTRIBUTE, memo, RequestAttributes.SCOPE_REQUEST);
+        }
+        return memo;
+    }
+
+    /**
+     * 用户在项目中的访问信息，对外只返回副本
+     */
+    public static class ProjectAccess {
+
+        private final ProjectDetail projectDetail;
+
+        /**
+         * 项目创建者、项目admin或组织owner
+         */
+        private final boolean owner;
+
+        /**
+         * 在owner基础上包含组织创建者
+         */
+        private final boolean maintainer;
+
+        private volatile ProjectPermission permission;
+
+        public ProjectAccess(ProjectDetail projectDetail, boolean owner, boolean maintainer) {
+            this.projectDetail = projectDetail;
+            this.owner = owner;
+            this.maintainer = maintainer;
+        }
+
+        public ProjectDetail getProjectDetail() {
+            ProjectDetail copy = new ProjectDetail();
+            BeanUtils.copyProperties(projectDetail, copy);
+            if (projectDetail.getOrganization() != null) {
+                Organization organization = new Organization();
+                BeanUtils.copyProperties(projectDetail.getOrganization(), organization);
+                copy.setOrganization(organization);
+            }
+            return copy;
+        }
+
+        public boolean isOwner() {
+            return owner;
+        }
+
+        public boolean isMaintainer() {
+            return maintainer;
+        }
+
+        public ProjectPermission getPermission(Supplier<ProjectPermission> loader) {
+            ProjectPermission p = permission;
+            if (p == null) {
+                p = loader.get();
+                permission = p;
+            }
+            ProjectPermission copy = new ProjectPermission();
+            BeanUtils.copyProperties(p, copy);
+            return copy;
+        }
+    }
+}
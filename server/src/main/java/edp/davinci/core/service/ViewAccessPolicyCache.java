@@ -0,0 +1,196 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edp.core.utils.RedisUtils;
+import edp.davinci.core.model.RedisMessageEntity;
+import edp.davinci.core.model.ViewAccessPolicy;
+import edp.davinci.dao.RelRoleViewMapper;
+import edp.davinci.service.impl.ViewAccessPolicyMessageHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+
+import static edp.davinci.core.common.Constants.DAVINCI_TOPIC_CHANNEL;
+
+/**
+ * view行列权限缓存
+ * 按(userId, viewId)缓存预解析的ViewAccessPolicy，取数时不再查询角色关联和解析权限json
+ */
+@Slf4j
+@Component
+public class ViewAccessPolicyCache {
+
+    public static final String VIEW_PREFIX = "view:";
+
+    public static final String ROLE_PREFIX = "role:";
+
+    public static final String USER_PREFIX = "user:";
+
+    @Value("${view.access-policy-cache.enable:true}")
+    private boolean enable;
+
+    @Value("${view.access-policy-cache.max-size:50000}")
+    private long maxSize;
+
+    @Value("${view.access-policy-cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    @Autowired
+    private RelRoleViewMapper relRoleViewMapper;
+
+    @Autowired
+    private RedisUtils redisUtils;
+
+    private Cache<String, ViewAccessPolicy> cache;
+
+    /**
+     * 每次失效递增，避免加载过程中发生的失效被旧数据覆盖
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 获取用户在view上的行列权限
+     *
+     * @param userId
+     * @param viewId
+     * @return
+     */
+    public ViewAccessPolicy get(Long userId, Long viewId) {
+        if (!enable) {
+            return ViewAccessPolicy.compile(relRoleViewMapper.getByUserAndView(userId, viewId));
+        }
+
+        String key = userId + "@" + viewId;
+        ViewAccessPolicy policy = cache.getIfPresent(key);
+        if (policy != null) {
+            return policy;
+        }
+
+        long current = generation.get();
+        policy = ViewAccessPolicy.compile(relRoleViewMapper.getByUserAndView(userId, viewId));
+        if (current == generation.get()) {
+            cache.put(key, policy);
+        }
+        return policy;
+    }
+
+    /**
+     * view的角色授权变更后失效
+     *
+     * @param viewId
+     */
+    public void invalidateView(Long viewId) {
+        invalidate(VIEW_PREFIX + viewId);
+    }
+
+    /**
+     * 角色删除或成员移除后失效
+     *
+     * @param roleId
+     */
+    public void invalidateRole(Long roleId) {
+        invalidate(ROLE_PREFIX + roleId);
+    }
+
+    /**
+     * 用户加入角色后失效
+     *
+     * @param userId
+     */
+    public void invalidateUser(Long userId) {
+        invalidate(USER_PREFIX + userId);
+    }
+
+    /**
+     * 按消息失效本地缓存
+     *
+     * @param target view:{id}、role:{id} 或 user:{id}
+     */
+    public void invalidateLocal(String target) {
+        generation.incrementAndGet();
+        BiPredicate<String, ViewAccessPolicy> predicate = parse(target);
+        if (predicate != null) {
+            cache.asMap().entrySet().removeIf(e -> predicate.test(e.getKey(), e.getValue()));
+        }
+    }
+
+    private void invalidate(String target) {
+        if (!enable) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    doInvalidate(target);
+                }
+            });
+        } else {
+            doInvalidate(target);
+        }
+    }
+
+    private void doInvalidate(String target) {
+        invalidateLocal(target);
+        if (redisUtils.isRedisEnable()) {
+            redisUtils.convertAndSend(DAVINCI_TOPIC_CHANNEL, new RedisMessageEntity(ViewAccessPolicyMessageHandler.class, target, "-1"));
+        }
+    }
+
+    private BiPredicate<String, ViewAccessPolicy> parse(String target) {
+        try {
+            if (target.startsWith(VIEW_PREFIX)) {
+                String suffix = "@" + Long.valueOf(target.substring(VIEW_PREFIX.length()));
+                return (k, p) -> k.endsWith(suffix);
+            }
+            if (target.startsWith(USER_PREFIX)) {
+                String prefix = Long.valueOf(target.substring(USER_PREFIX.length())) + "@";
+                return (k, p) -> k.startsWith(prefix);
+            }
+            if (target.startsWith(ROLE_PREFIX)) {
+                Long roleId = Long.valueOf(target.substring(ROLE_PREFIX.length()));
+                return (k, p) -> p.getRoleIds().contains(roleId);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Invalid view access policy cache target:{}", target);
+        }
+        return null;
+    }
+}
@@ -29,6 +29,7 @@ import edp.davinci.core.enums.SqlOperatorEnum;
 import edp.davinci.core.enums.SqlVariableTypeEnum;
 import edp.davinci.core.enums.SqlVariableValueTypeEnum;
 import edp.davinci.core.enums.SystemVariableEnum;
+import edp.davinci.core.model.BindParams;
 import edp.davinci.core.model.SqlEntity;
 import edp.davinci.model.SqlVariable;
 import edp.davinci.model.SqlVariableChannel;
@@ -167,6 +168,20 @@ public class SqlParseUtils {
      * @return
      */
     public String replaceParams(String sql, Map<String, Object> queryParamMap, Map<String, List<String>> authParamMap, String sqlTempDelimiter) {
+        return replaceParams(sql, queryParamMap, authParamMap, sqlTempDelimiter, null);
+    }
+
+    /**
+     * 替换参数，bindParams 不为空时字符串类型查询变量的字面量以绑定变量标记代入
+     *
+     * @param sql              sql 模板
+     * @param queryParamMap    普通查询变量
+     * @param authParamMap     权限变量
+     * @param sqlTempDelimiter ST 界定符
+     * @param bindParams       绑定变量
+     * @return
+     */
+    public String replaceParams(String sql, Map<String, Object> queryParamMap, Map<String, List<String>> authParamMap, String sqlTempDelimiter, BindParams bindParams) {
         if (StringUtils.isEmpty(sql)) {
             return null;
         }
@@ -238,7 +253,12 @@ public class SqlParseUtils {
 
         // 替换query@var
         if (!CollectionUtils.isEmpty(queryParamMap)) {
-            queryParamMap.forEach(st::add);
+            queryParamMap.forEach((k, v) -> {
+                if (null != bindParams && v instanceof String) {
+                    v = bindParams.markVariable(k, (String) v);
+                }
+                st.add(k, v);
+            });
         }
 
         sql = st.render();
@@ -30,7 +30,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 @Component
 public class VizUtils {
@@ -46,12 +45,28 @@ public class VizUtils {
     }
 
     public static Set<SimpleView> getControllerViews(List<Map<String, Object>> config) {
-        Set<SimpleView> simpleViews = new HashSet<>();
+        return getSimpleViews(getControllerViewIds(config));
+    }
+
+    /**
+     * 获取控制器关联的view id，多个配置的id合并后通过getSimpleViews一次查询
+     *
+     * @param config
+     * @return
+     */
+    public static Set<Long> getControllerViewIds(List<Map<String, Object>> config) {
+        Set<Long> viewIds = new HashSet<>();
         if (!CollectionUtils.isEmpty(config)) {
-            config.stream().filter(m -> m.containsKey("valueViewId")).collect(Collectors.toList()).forEach(m -> {
-                simpleViews.add(staticViewMapper.getSimpleViewById(Long.parseLong(String.valueOf(m.get("valueViewId")))));
-            });
+            config.stream().filter(m -> m.containsKey("valueViewId"))
+                    .forEach(m -> viewIds.add(Long.parseLong(String.valueOf(m.get("valueViewId")))));
+        }
+        return viewIds;
+    }
+
+    public static Set<SimpleView> getSimpleViews(Set<Long> viewIds) {
+        if (CollectionUtils.isEmpty(viewIds)) {
+            return new HashSet<>();
         }
-        return simpleViews;
+        return staticViewMapper.selectSimpleByIds(viewIds);
     }
 }
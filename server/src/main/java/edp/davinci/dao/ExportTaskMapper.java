@@ -0,0 +1,100 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dao;
+
+import edp.davinci.model.ExportTask;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+@Component
+public interface ExportTaskMapper {
+
+    int insert(ExportTask exportTask);
+
+    @Select({"select * from export_task where id = #{id}"})
+    ExportTask getById(@Param("id") Long id);
+
+    @Select({
+            "select * from export_task where status = 0",
+            "and (user_id is null or user_id not in (",
+            "   select r.user_id from export_task r where r.status = 1 and r.user_id is not null",
+            "   group by r.user_id having count(1) >= #{userConcurrency}",
+            "))",
+            "order by priority desc, id asc limit #{limit}"
+    })
+    List<ExportTask> getWaitingTasks(@Param("userConcurrency") int userConcurrency, @Param("limit") int limit);
+
+    @Select({"select count(1) from export_task where status = 1 and user_id = #{userId}"})
+    int countRunningByUser(@Param("userId") Long userId);
+
+    @Select({"select id from export_task where status = 0 order by priority desc, id asc"})
+    List<Long> getWaitingTaskIds();
+
+    @Select({
+            "<script>",
+            "select * from export_task where action = #{action} and status in (0, 1) and record_id in",
+            "<foreach collection='recordIds' index='index' item='item' open='(' close=')' separator=','>",
+            "#{item}",
+            "</foreach>",
+            "</script>"
+    })
+    List<ExportTask> getUnfinishedByRecords(@Param("action") String action, @Param("recordIds") List<Long> recordIds);
+
+    /**
+     * 锁定用户行，同一用户的任务抢占在事务内串行执行
+     */
+    @Select({"select id from `user` where id = #{userId} for update"})
+    Long lockUser(@Param("userId") Long userId);
+
+    /**
+     * 抢占任务
+     */
+    @Update({
+            "update export_task set status = 1, node = #{node}, progress = 0, start_time = NOW(), heartbeat_time = NOW()",
+            "where id = #{id} and status = 0"
+    })
+    int claim(@Param("id") Long id, @Param("node") String node);
+
+    @Update({
+            "update export_task set heartbeat_time = NOW(), progress = #{progress}",
+            "where id = #{id} and status = 1 and node = #{node}"
+    })
+    int heartbeat(@Param("id") Long id, @Param("node") String node, @Param("progress") Integer progress);
+
+    @Update({
+            "update export_task set status = #{status}, progress = #{progress}, finish_time = NOW()",
+            "where id = #{id} and node = #{node}"
+    })
+    int finish(@Param("id") Long id, @Param("node") String node, @Param("status") Short status, @Param("progress") Integer progress);
+
+    @Update({"update export_task set status = 0, node = null, progress = 0 where status = 1 and heartbeat_time < NOW() - INTERVAL #{timeoutSeconds} SECOND"})
+    int requeueExpired(@Param("timeoutSeconds") int timeoutSeconds);
+
+    @Update({"update export_task set status = 0, node = null, progress = 0 where status = 1 and node = #{node}"})
+    int requeueByNode(@Param("node") String node);
+
+    @Delete({"delete from export_task where status in (2, 3) and create_time < DATE_FORMAT((NOW() - INTERVAL 7 DAY),'%Y%m%d')"})
+    int deleteBeforeAWeekTask();
+}
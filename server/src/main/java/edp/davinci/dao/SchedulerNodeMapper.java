@@ -0,0 +1,47 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dao;
+
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+@Component
+public interface SchedulerNodeMapper {
+
+    @Insert({
+            "insert into scheduler_node (node, heartbeat_time) values (#{node}, NOW())",
+            "on duplicate key update heartbeat_time = NOW()"
+    })
+    int heartbeat(@Param("node") String node);
+
+    @Select({"select node from scheduler_node where heartbeat_time >= NOW() - INTERVAL #{timeoutSeconds} SECOND order by node"})
+    List<String> getLiveNodes(@Param("timeoutSeconds") int timeoutSeconds);
+
+    @Delete({"delete from scheduler_node where node = #{node}"})
+    int deleteByNode(@Param("node") String node);
+
+    @Delete({"delete from scheduler_node where heartbeat_time < NOW() - INTERVAL #{timeoutSeconds} SECOND"})
+    int deleteExpired(@Param("timeoutSeconds") int timeoutSeconds);
+}
@@ -37,6 +37,11 @@ public interface ShareDownloadRecordMapper {
 
     int insertSelective(ShareDownloadRecord record);
 
+    @Select({
+            "SELECT * FROM share_download_record WHERE id = #{id, jdbcType=BIGINT}"
+    })
+    ShareDownloadRecord getById(@Param("id") Long id);
+
     @Select({
             "SELECT * FROM share_download_record WHERE id = #{id, jdbcType=BIGINT} and `uuid` = #{uuid, jdbcType=VARCHAR}"
     })
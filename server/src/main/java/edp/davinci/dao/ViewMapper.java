@@ -27,6 +27,7 @@ import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.Update;
 import org.springframework.stereotype.Component;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Set;
 
@@ -61,12 +62,36 @@ public interface ViewMapper {
             "`model` = #{model,jdbcType=LONGVARCHAR},",
             "`variable` = #{variable,jdbcType=LONGVARCHAR},",
             "`config` = #{config,jdbcType=LONGVARCHAR},",
+            "`extract_watermark_column` = #{extractWatermarkColumn,jdbcType=VARCHAR},",
+            "`extract_merge_key` = #{extractMergeKey,jdbcType=VARCHAR},",
             "`update_by` = #{updateBy,jdbcType=BIGINT},",
             "`update_time` = #{updateTime,jdbcType=TIMESTAMP}",
             "where id = #{id,jdbcType=BIGINT}"
     })
     int update(View view);
 
+    @Update({
+            "update `view`",
+            "set `extract_version` = #{version,jdbcType=BIGINT},",
+            "`extract_rows` = #{rows,jdbcType=BIGINT},",
+            "`extract_size` = #{size,jdbcType=BIGINT},",
+            "`extract_time` = #{time,jdbcType=TIMESTAMP},",
+            "`extract_watermark` = #{watermark,jdbcType=VARCHAR},",
+            "`extract_history` = #{history,jdbcType=LONGVARCHAR}",
+            "where id = #{id,jdbcType=BIGINT}"
+    })
+    int updateExtract(@Param("id") Long id, @Param("version") Long version, @Param("rows") Long rows,
+                      @Param("size") Long size, @Param("time") Date time,
+                      @Param("watermark") String watermark, @Param("history") String history);
+
+    @Update({
+            "update `view`",
+            "set `extract_version` = null, `extract_rows` = null, `extract_size` = null, `extract_time` = null,",
+            "`extract_watermark` = null, `extract_history` = null",
+            "where id = #{id,jdbcType=BIGINT}"
+    })
+    int clearExtract(@Param("id") Long id);
+
     @Select({"select * from `view` where source_id = #{sourceId}"})
     List<View> getBySourceId(@Param("sourceId") Long sourceId);
 
@@ -110,4 +135,6 @@ public interface ViewMapper {
     Set<View> selectByWidgetIds(@Param("widgetIds") Set<Long> widgetIds);
 
     Set<SimpleView> selectSimpleByWidgetIds(@Param("widgetIds") Set<Long> widgetIds);
+
+    Set<SimpleView> selectSimpleByIds(@Param("ids") Set<Long> ids);
 }
\ No newline at end of file
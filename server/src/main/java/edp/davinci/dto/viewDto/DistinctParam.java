@@ -30,6 +30,9 @@ import java.util.List;
 @Data
 @NotNull(message = "request parameter cannot be null")
 public class DistinctParam  extends ConcurrencyStrategy{
+
+    public static final String MATCH_PREFIX = "prefix";
+
     @NotEmpty(message = "distinct column cannot be EMPTY")
     private List<String> columns;
 
@@ -40,4 +43,38 @@ public class DistinctParam  extends ConcurrencyStrategy{
     private Boolean cache;
 
     private Long expired;
+
+    /**
+     * 搜索关键字，以下分页搜索参数仅支持单列
+     */
+    private String keyword;
+
+    /**
+     * prefix / contains，默认contains
+     */
+    private String matchMode;
+
+    /**
+     * 每页条数
+     */
+    private int limit = 0;
+
+    /**
+     * 上一页最后一个值，返回排序在其后的值
+     */
+    private Object after;
+
+    /**
+     * 使用缓存的有序字典
+     */
+    private Boolean dictionary;
+
+    public boolean isPaged() {
+        return columns != null && columns.size() == 1
+                && (keyword != null && !keyword.isEmpty() || limit > 0 || after != null || Boolean.TRUE.equals(dictionary));
+    }
+
+    public boolean isPrefixMatch() {
+        return MATCH_PREFIX.equalsIgnoreCase(matchMode);
+    }
 }
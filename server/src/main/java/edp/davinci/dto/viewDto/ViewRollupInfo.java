@@ -0,0 +1,54 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dto.viewDto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * View上卷表及其候选查询签名
+ */
+@Data
+public class ViewRollupInfo {
+
+    /**
+     * 已构建的上卷表名，候选签名为null
+     */
+    private String name;
+
+    private List<String> groups;
+
+    /**
+     * 度量，格式为 FUNC(column)
+     */
+    private List<String> measures;
+
+    private List<String> filterColumns;
+
+    private long rows;
+
+    /**
+     * 命中次数（上卷表）或出现次数（候选签名）
+     */
+    private long count;
+
+    private boolean supported;
+}
@@ -49,5 +49,12 @@ public class ViewUpdate {
 
     private String config;
 
+    /**
+     * 增量抽取水位列，为null时不修改，空串时清除
+     */
+    private String extractWatermarkColumn;
+
+    private String extractMergeKey;
+
     private List<RelRoleViewDto> roles;
 }
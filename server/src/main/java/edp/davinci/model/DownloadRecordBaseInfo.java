@@ -37,4 +37,14 @@ public class DownloadRecordBaseInfo {
     private Date createTime;
 
     private Date lastDownloadTime;
+
+    /**
+     * 排队位置，0表示正在执行，仅处理中的记录有值
+     */
+    private Integer queuePosition;
+
+    /**
+     * 执行进度（百分比），仅处理中的记录有值
+     */
+    private Integer progress;
 }
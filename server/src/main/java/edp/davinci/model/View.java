@@ -25,6 +25,8 @@ import com.alibaba.fastjson.annotation.JSONField;
 import edp.core.model.RecordInfo;
 import lombok.Data;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 @Data
@@ -47,6 +49,31 @@ public class View extends RecordInfo<View> {
 
     private String config;
 
+    /**
+     * 抽取数据版本，为空表示未抽取
+     */
+    private Long extractVersion;
+
+    private Long extractRows;
+
+    private Long extractSize;
+
+    private Date extractTime;
+
+    /**
+     * 增量抽取的水位列，需单调递增（时间或id）
+     */
+    private String extractWatermarkColumn;
+
+    /**
+     * 增量抽取时按该列（逗号分隔）合并，为空时追加
+     */
+    private String extractMergeKey;
+
+    private String extractWatermark;
+
+    private String extractHistory;
+
     @Override
     public String toString() {
         return "View{" +
@@ -63,6 +90,19 @@ public class View extends RecordInfo<View> {
     }
 
 
+    @JSONField(serialize = false)
+    public List<ViewExtractRefresh> getExtractRefreshes() {
+        if (StringUtils.isEmpty(extractHistory)) {
+            return new ArrayList<>();
+        }
+
+        try {
+            return JSONObject.parseArray(extractHistory, ViewExtractRefresh.class);
+        } catch (Exception e) {
+            return new ArrayList<>();
+        }
+    }
+
     @JSONField(serialize = false)
     public List<SqlVariable> getVariables() {
         if (StringUtils.isEmpty(variable) || StringUtils.isEmpty(sql)) {
@@ -0,0 +1,52 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.model;
+
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * View抽取刷新记录
+ */
+@Data
+public class ViewExtractRefresh {
+
+    public static final String MODE_FULL = "full";
+
+    public static final String MODE_INCREMENTAL = "incremental";
+
+    private String mode;
+
+    /**
+     * 本次拉取行数
+     */
+    private long rows;
+
+    private long totalRows;
+
+    private long costMillis;
+
+    private boolean compacted;
+
+    private String watermark;
+
+    private Date time;
+}
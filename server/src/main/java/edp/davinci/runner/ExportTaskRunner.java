@@ -0,0 +1,51 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.runner;
+
+import edp.davinci.service.impl.ExportTaskScheduler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+@Order(4)
+@Component
+@Slf4j
+public class ExportTaskRunner implements ApplicationRunner {
+
+    @Autowired
+    private ExportTaskScheduler exportTaskScheduler;
+
+    /**
+     * 应用启动后恢复本节点遗留的下载任务并开始调度
+     *
+     * @param args
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            exportTaskScheduler.start();
+        } finally {
+            log.info("Start export task scheduler finish");
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.schedule;
+
+import com.google.common.hash.Hashing;
+import edp.core.exception.ServerException;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.QuartzHandler;
+import edp.core.utils.ServerUtils;
+import edp.davinci.core.enums.CronJobStatusEnum;
+import edp.davinci.core.enums.LogNameEnum;
+import edp.davinci.dao.CronJobMapper;
+import edp.davinci.dao.SchedulerNodeMapper;
+import edp.davinci.model.CronJob;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.SchedulerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 定时任务集群分区
+ * 各节点定时在scheduler_node表中上报心跳，按存活节点构建一致性哈希环，每个job只由环上的归属节点调度，
+ * 节点加入或下线后在下一次心跳时重新分配
+ */
+@Slf4j
+@Component
+public class CronJobPartitioner {
+
+    private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
+
+    @Value("${cronjob.cluster.enable:true}")
+    private boolean enable;
+
+    @Value("${cronjob.cluster.node-timeout-seconds:30}")
+    private int nodeTimeoutSeconds;
+
+    @Value("${cronjob.cluster.virtual-nodes:64}")
+    private int virtualNodes;
+
+    @Autowired
+    private SchedulerNodeMapper schedulerNodeMapper;
+
+    @Autowired
+    private CronJobMapper cronJobMapper;
+
+    @Autowired
+    private QuartzHandler quartzHandler;
+
+    @Autowired
+    private ServerUtils serverUtils;
+
+    private volatile String node;
+
+    private volatile List<String> liveNodes = Collections.emptyList();
+
+    private volatile TreeMap<Integer, String> ring = new TreeMap<>();
+
+    /**
+     * 当前节点已调度job的版本（cron、起止时间、更新时间），用于发现在其他节点上修改过的job
+     */
+    private final Map<Long, String> scheduledVersions = new HashMap<>();
+
+    /**
+     * 加入调度失败的job版本，版本未变化前不再重试
+     */
+    private final Map<Long, String> failedVersions = new HashMap<>();
+
+    public boolean isEnable() {
+        return enable;
+    }
+
+    /**
+     * 加入集群并调度归属于当前节点的job
+     */
+    public synchronized void join() {
+        node = serverUtils.getLocalHost();
+        schedulerNodeMapper.heartbeat(node);
+        refreshRing();
+        scheduleLogger.info("CronJob partition node {} joined, live nodes:{}", node, liveNodes);
+        rebalance();
+    }
+
+    @Scheduled(fixedDelayString = "${cronjob.cluster.heartbeat-millis:10000}")
+    public synchronized void heartbeat() {
+        if (!enable || node == null) {
+            return;
+        }
+        try {
+            schedulerNodeMapper.heartbeat(node);
+            // 存活判断均使用数据库时钟，与心跳写入的时间一致，避免节点间时钟偏差
+            schedulerNodeMapper.deleteExpired(nodeTimeoutSeconds * 10);
+            if (refreshRing()) {
+                scheduleLogger.info("CronJob partition live nodes changed:{}", liveNodes);
+            }
+            rebalance();
+        } catch (Exception e) {
+            log.warn("CronJob partition heartbeat error:{}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void leave() {
+        if (node == null) {
+            return;
+        }
+        try {
+            schedulerNodeMapper.deleteByNode(node);
+        } catch (Exception e) {
+            log.warn("CronJob partition node {} leave error:{}", node, e.getMessage());
+        }
+    }
+
+    /**
+     * job是否归属于当前节点，未开启集群分区时所有节点都调度
+     *
+     * @param jobId
+     * @return
+     */
+    public boolean isOwner(Long jobId) {
+        if (!enable || node == null) {
+            return true;
+        }
+        TreeMap<Integer, String> current = ring;
+        if (current.isEmpty()) {
+            return true;
+        }
+        Map.Entry<Integer, String> entry = current.ceilingEntry(hash(String.valueOf(jobId)));
+        return node.equals(entry == null ? current.firstEntry().getValue() : entry.getValue());
+    }
+
+    private boolean refreshRing() {
+        List<String> nodes = new ArrayList<>(schedulerNodeMapper.getLiveNodes(nodeTimeoutSeconds));
+        if (!nodes.contains(node)) {
+            nodes.add(node);
+            Collections.sort(nodes);
+        }
+        if (nodes.equals(liveNodes)) {
+            return false;
+        }
+
+        TreeMap<Integer, String> newRing = new TreeMap<>();
+        for (String n : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                newRing.put(hash(n + "#" + i), n);
+            }
+        }
+        ring = newRing;
+        liveNodes = nodes;
+        return true;
+    }
+
+    /**
+     * 调度归属于当前节点的已启动job，移除已停止或不再归属于当前节点的job
+     */
+    private void rebalance() {
+        List<CronJob> startedJobs = cronJobMapper.getStartedJobs();
+        Set<Long> scheduledIds;
+        try {
+            scheduledIds = quartzHandler.getScheduledJobIds();
+        } catch (ServerException e) {
+            log.warn("CronJob partition get scheduled jobs error:{}", e.getMessage());
+            return;
+        }
+
+        Set<Long> ownedIds = new HashSet<>();
+        long now = System.currentTimeMillis();
+        if (!CollectionUtils.isEmpty(startedJobs)) {
+            for (CronJob cronJob : startedJobs) {
+                if (!isOwner(cronJob.getId())) {
+                    continue;
+                }
+                Long id = cronJob.getId();
+                ownedIds.add(id);
+                String version = getVersion(cronJob);
+                if (scheduledIds.contains(id)) {
+                    String scheduledVersion = scheduledVersions.putIfAbsent(id, version);
+                    if (scheduledVersion == null || scheduledVersion.equals(version)) {
+                        continue;
+                    }
+                    // 在其他节点上停止、修改并重新启动过，按最新配置重新调度
+                    try {
+                        quartzHandler.removeJob(cronJob);
+                        scheduledVersions.remove(id);
+                        scheduleLogger.info("CronJob({}) is changed, reschedule on node {}", id, node);
+                    } catch (ServerException e) {
+                        log.warn("CronJob:({}), reschedule error, {}", id, e.getMessage());
+                        continue;
+                    }
+                }
+                if (cronJob.getEndDate().getTime() < now || version.equals(failedVersions.get(id))) {
+                    continue;
+                }
+                try {
+                    quartzHandler.addJob(cronJob);
+                    scheduledVersions.put(id, version);
+                    failedVersions.remove(id);
+                    scheduleLogger.info("CronJob({}) is assigned to node {}", id, node);
+                } catch (SchedulerException e) {
+                    log.warn("CronJob:({}), start error, {}", id, e.getMessage());
+                    failedVersions.put(id, version);
+                    cronJob.setJobStatus(CronJobStatusEnum.FAILED.getStatus());
+                    cronJobMapper.update(cronJob);
+                } catch (ServerException e) {
+                    log.warn("CronJob:({}), start error, {}", id, e.getMessage());
+                    failedVersions.put(id, version);
+                }
+            }
+        }
+
+        scheduledVersions.keySet().retainAll(ownedIds);
+        failedVersions.keySet().retainAll(ownedIds);
+
+        for (Long id : scheduledIds) {
+            if (ownedIds.contains(id)) {
+                continue;
+            }
+            CronJob cronJob = new CronJob();
+            cronJob.setId(id);
+            try {
+                quartzHandler.removeJob(cronJob);
+                scheduleLogger.info("CronJob({}) is released by node {}", id, node);
+            } catch (ServerException e) {
+                log.warn("CronJob:({}), release error, {}", id, e.getMessage());
+            }
+        }
+    }
+
+    private static String getVersion(CronJob cronJob) {
+        return cronJob.getCronExpression() + "|" + getTime(cronJob.getStartDate()) + "|" + getTime(cronJob.getEndDate())
+                + "|" + getTime(cronJob.getUpdateTime());
+    }
+
+    private static long getTime(Date date) {
+        return date == null ? 0L : date.getTime();
+    }
+
+    private static int hash(String key) {
+        return Hashing.murmur3_32().hashString(key, StandardCharsets.UTF_8).asInt();
+    }
+}
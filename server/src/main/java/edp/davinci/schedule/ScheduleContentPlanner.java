@@ -0,0 +1,136 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.schedule;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 定时任务内容共享
+ * 同一时间窗口内触发的job对相同的内容(dashboard/display页面 + 用户权限范围)只生成一次截图或excel，其余job复用生成结果
+ */
+@Slf4j
+@Component
+public class ScheduleContentPlanner {
+
+    @Value("${cronjob.content-share.enable:true}")
+    private boolean enable;
+
+    @Value("${cronjob.content-share.window-seconds:60}")
+    private int windowSeconds;
+
+    @Value("${cronjob.content-share.wait-minutes:60}")
+    private int waitMinutes;
+
+    private final Map<String, SharedContent> contents = new ConcurrentHashMap<>();
+
+    private final AtomicLong generated = new AtomicLong(0);
+
+    private final AtomicLong shared = new AtomicLong(0);
+
+    public boolean isEnable() {
+        return enable;
+    }
+
+    /**
+     * 认领内容的生成，返回null时由调用方生成并调用complete，否则返回其他job正在生成或已生成的结果
+     *
+     * @param key
+     * @return
+     */
+    public CompletableFuture<String> claim(String key) {
+        if (!enable) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        long window = TimeUnit.SECONDS.toMillis(windowSeconds);
+        SharedContent[] owned = {null};
+        SharedContent content = contents.compute(key, (k, v) -> {
+            if (v == null || (v.future.isDone() && now - v.createTime > window)) {
+                owned[0] = new SharedContent(now);
+                return owned[0];
+            }
+            return v;
+        });
+        if (content == owned[0]) {
+            generated.incrementAndGet();
+            return null;
+        }
+        shared.incrementAndGet();
+        return content.future;
+    }
+
+    /**
+     * 完成内容生成，生成失败时path为null
+     *
+     * @param key
+     * @param path
+     */
+    public void complete(String key, String path) {
+        SharedContent content = contents.get(key);
+        if (content != null) {
+            content.future.complete(path);
+        }
+    }
+
+    /**
+     * 等待其他job生成的结果
+     *
+     * @param future
+     * @return
+     */
+    public String await(CompletableFuture<String> future) {
+        try {
+            return future.get(waitMinutes, TimeUnit.MINUTES);
+        } catch (Exception e) {
+            log.warn("Wait for shared schedule content error:{}", e.getMessage());
+            return null;
+        }
+    }
+
+    @Scheduled(fixedDelay = 60_000L)
+    public void evictExpired() {
+        long deadline = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(windowSeconds);
+        contents.entrySet().removeIf(entry -> entry.getValue().future.isDone() && entry.getValue().createTime < deadline);
+    }
+
+    public String getStats() {
+        return String.format("contents:%d, generated:%d, shared:%d", contents.size(), generated.get(), shared.get());
+    }
+
+    private static class SharedContent {
+
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private final long createTime;
+
+        private SharedContent(long createTime) {
+            this.createTime = createTime;
+        }
+    }
+}
@@ -27,6 +27,7 @@ import edp.davinci.dao.CronJobMapper;
 import edp.davinci.dao.ShareDownloadRecordMapper;
 import edp.davinci.model.CronJob;
 import edp.davinci.model.ShareDownloadRecord;
+import edp.davinci.service.excel.ExportCache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -56,6 +57,9 @@ public class SystemSchedule {
     @Autowired
     private ShareDownloadRecordMapper shareDownloadRecordMapper;
 
+    @Autowired
+    private ExportCache exportCache;
+
     private static final ExecutorService CLEAR_TEMPDIR_THREADPOOL = Executors.newFixedThreadPool(3);
 
     @Scheduled(cron = "0 0 1 * * *")
@@ -73,6 +77,12 @@ public class SystemSchedule {
         CLEAR_TEMPDIR_THREADPOOL.execute(() -> FileUtils.deleteDir(new File(download)));
         CLEAR_TEMPDIR_THREADPOOL.execute(() -> FileUtils.deleteDir(new File(temp)));
         CLEAR_TEMPDIR_THREADPOOL.execute(() -> FileUtils.deleteDir(new File(csv)));
+
+        // 下载文件缓存随下载目录一同清理
+        CLEAR_TEMPDIR_THREADPOOL.execute(() -> {
+            exportCache.evictExpired();
+            log.info("Export cache {}", exportCache.getStats());
+        });
     }
 
     @Scheduled(cron = "0 0/2 * * * *")
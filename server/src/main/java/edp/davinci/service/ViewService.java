@@ -24,6 +24,7 @@ import edp.core.exception.ServerException;
 import edp.core.exception.UnAuthorizedException;
 import edp.core.model.Paginate;
 import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.ViewQueryStats;
 import edp.davinci.core.model.SqlEntity;
 import edp.davinci.core.service.CheckEntityService;
 import edp.davinci.dto.viewDto.*;
@@ -40,6 +41,10 @@ public interface ViewService extends CheckEntityService {
 
     List<ViewBaseInfo> getViews(Long projectId, User user) throws NotFoundException, UnAuthorizedException, ServerException;
 
+    List<ViewQueryStats> getSlowestViews(Long projectId, int top, User user) throws NotFoundException, UnAuthorizedException;
+
+    ViewRollupStats getRollupStats(Long id, User user) throws NotFoundException, UnAuthorizedException;
+
     ViewWithSourceBaseInfo createView(ViewCreate viewCreate, User user) throws NotFoundException, UnAuthorizedException, ServerException;
 
     boolean updateView(ViewUpdate viewUpdate, User user) throws NotFoundException, UnAuthorizedException, ServerException;
@@ -0,0 +1,220 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.distinct;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 控制器distinct值字典缓存
+ * 按(view, 列, 权限范围)缓存数据库排序的全部distinct值，在内存中完成前缀/包含搜索和keyset分页，
+ * 顺序及匹配规则与回退到数据源查询时一致：保持数据库顺序，关键字匹配不区分大小写
+ */
+@Slf4j
+@Component
+public class DistinctValueDictionary {
+
+    /**
+     * 超过上限的字典只缓存标记，查询回退到数据源
+     */
+    private static final Dictionary TOO_LARGE = new Dictionary(new Object[0]);
+
+    @Value("${distinct.dictionary.enable:true}")
+    private boolean enable;
+
+    @Value("${distinct.dictionary.max-values:100000}")
+    private int maxValues;
+
+    @Value("${distinct.dictionary.max-size:200}")
+    private long maxSize;
+
+    @Value("${distinct.dictionary.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    private Cache<String, Dictionary> dictionaries;
+
+    @PostConstruct
+    public void init() {
+        dictionaries = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public int getMaxValues() {
+        return maxValues;
+    }
+
+    /**
+     * 获取字典，未启用或值数量超过上限时返回null
+     *
+     * @param key
+     * @param loader 加载有序distinct值，至多 maxValues + 1 个
+     * @return
+     */
+    public Dictionary get(String key, Supplier<List<Object>> loader) {
+        if (!enable) {
+            return null;
+        }
+
+        Dictionary dictionary;
+        try {
+            dictionary = dictionaries.get(key, () -> {
+                List<Object> values = loader.get();
+                if (values.size() > maxValues) {
+                    log.info("Distinct dictionary({}) exceeds {} values", key, maxValues);
+                    return TOO_LARGE;
+                }
+                return Dictionary.of(values);
+            });
+        } catch (Exception e) {
+            log.warn("Load distinct dictionary({}) error: {}", key, e.getMessage());
+            return null;
+        }
+        return dictionary == TOO_LARGE ? null : dictionary;
+    }
+
+    public static class Dictionary {
+
+        /**
+         * 与加载sql的 ORDER BY 一致的数据库顺序
+         */
+        private final Object[] values;
+
+        /**
+         * 转为大写的文本，用于不区分大小写的关键字匹配
+         */
+        private final String[] texts;
+
+        /**
+         * 值的比较键 -> 位置，用于定位 after
+         */
+        private final Map<String, Integer> positions;
+
+        private Dictionary(Object[] values) {
+            this.values = values;
+            this.texts = new String[values.length];
+            this.positions = new HashMap<>(values.length * 4 / 3 + 1);
+            for (int i = 0; i < values.length; i++) {
+                texts[i] = getText(values[i]).toUpperCase(Locale.ROOT);
+                positions.putIfAbsent(getKey(values[i]), i);
+            }
+        }
+
+        private static Dictionary of(List<Object> list) {
+            List<Object> ordered = new ArrayList<>(list);
+            ordered.removeIf(v -> v == null);
+            return new Dictionary(ordered.toArray());
+        }
+
+        /**
+         * 按数据库顺序返回匹配关键字（不区分大小写）且排在after之后的至多limit个值
+         *
+         * @param keyword 为空时不过滤
+         * @param prefix  前缀匹配，否则包含匹配
+         * @param after
+         * @param limit
+         * @return
+         */
+        public List<Object> search(String keyword, boolean prefix, Object after, int limit) {
+            int start = after == null ? 0 : indexAfter(after);
+            String upperKeyword = keyword == null || keyword.isEmpty() ? null : keyword.toUpperCase(Locale.ROOT);
+
+            List<Object> result = new ArrayList<>();
+            for (int i = start; i < values.length && result.size() < limit; i++) {
+                if (upperKeyword != null) {
+                    if (prefix ? !texts[i].startsWith(upperKeyword) : !texts[i].contains(upperKeyword)) {
+                        continue;
+                    }
+                }
+                result.add(values[i]);
+            }
+            return result;
+        }
+
+        /**
+         * after 通常是上一页的最后一个值，直接定位；值已不存在时按类型比较找到第一个更大的值
+         */
+        private int indexAfter(Object after) {
+            Integer index = positions.get(getKey(after));
+            if (index != null) {
+                return index + 1;
+            }
+            for (int i = 0; i < values.length; i++) {
+                if (compare(values[i], after) > 0) {
+                    return i;
+                }
+            }
+            return values.length;
+        }
+
+        private static int compare(Object value, Object after) {
+            BigDecimal number = (value instanceof Number || value instanceof Date) ? toNumber(value) : null;
+            BigDecimal afterNumber = toNumber(after);
+            if (number != null && afterNumber != null) {
+                return number.compareTo(afterNumber);
+            }
+            return getText(value).compareTo(getText(after));
+        }
+
+        /**
+         * 数值及时间（毫秒，与接口返回的json一致）按数值比较
+         */
+        private static BigDecimal toNumber(Object value) {
+            if (value instanceof Date) {
+                return BigDecimal.valueOf(((Date) value).getTime());
+            }
+            if (value instanceof Number || value instanceof String) {
+                try {
+                    return new BigDecimal(value.toString().trim());
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        private static String getKey(Object value) {
+            BigDecimal number = (value instanceof Number || value instanceof Date) ? toNumber(value) : null;
+            return number == null ? getText(value) : number.stripTrailingZeros().toPlainString();
+        }
+
+        private static String getText(Object value) {
+            if (value instanceof BigDecimal) {
+                return ((BigDecimal) value).toPlainString();
+            }
+            return String.valueOf(value);
+        }
+    }
+}
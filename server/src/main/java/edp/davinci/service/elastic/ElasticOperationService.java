@@ -2,69 +2,165 @@ package edp.davinci.service.elastic;
 
 import edp.core.exception.ServerException;
 import lombok.extern.slf4j.Slf4j;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-
-import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 @Slf4j
 public class ElasticOperationService extends ElasticConfiguration {
 
-    public void batchInsert(String index, String type, List<?> objects) {
-        
-        try{
+    /**
+     * 每个类的字段及getter只解析一次
+     */
+    private static final ClassValue<List<FieldAccessor>> ACCESSORS = new ClassValue<List<FieldAccessor>>() {
+        @Override
+        protected List<FieldAccessor> computeValue(Class<?> type) {
+            return buildAccessors(type);
+        }
+    };
+
+    private BulkProcessor bulkProcessor;
+
+    private final AtomicLong indexed = new AtomicLong(0);
 
-            BulkRequestBuilder bulkRequest = client.prepareBulk();
+    private final AtomicLong failed = new AtomicLong(0);
 
-            for(Object object : objects){
-                XContentBuilder builder = jsonBuilder().startObject();
-                String[] fileNames = getFiledName(object);
-                for(String fileName : fileNames){
-                    Object value = getFieldValueByName(fileName, object);
-                    builder.field(fileName, value);
+    @PostConstruct
+    public void initBulkProcessor() {
+        if (client == null) {
+            return;
+        }
+
+        int bulkActions = environment.getProperty("statistic.elastic_bulk_actions", Integer.class, 1000);
+        int bulkSizeMb = environment.getProperty("statistic.elastic_bulk_size_mb", Integer.class, 5);
+        int flushIntervalSeconds = environment.getProperty("statistic.elastic_flush_interval_seconds", Integer.class, 5);
+        int concurrentRequests = environment.getProperty("statistic.elastic_concurrent_requests", Integer.class, 2);
+
+        bulkProcessor = BulkProcessor.builder((request, listener) -> client.bulk(request, listener), new BulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request) {
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                if (response.hasFailures()) {
+                    long count = 0;
+                    for (BulkItemResponse item : response.getItems()) {
+                        if (item.isFailed()) {
+                            count++;
+                        }
+                    }
+                    failed.addAndGet(count);
+                    indexed.addAndGet(request.numberOfActions() - count);
+                    log.error("ElasticOperation bulk({}) failed. {}", executionId, response.buildFailureMessage());
+                } else {
+                    indexed.addAndGet(request.numberOfActions());
                 }
-                builder.endObject();
-                bulkRequest.add(client.prepareIndex(index, type).setSource(builder));
             }
 
-            BulkResponse bulkResponse = bulkRequest.get();
-            if (bulkResponse.hasFailures()) {
-                // process failures by iterating through each bulk response item
-                log.error("ElasticOperation batchInsert failed. {}", bulkResponse.toString());
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                failed.addAndGet(request.numberOfActions());
+                log.error("ElasticOperation bulk({}) error, actions:{}", executionId, request.numberOfActions(), failure);
             }
+        })
+                .setBulkActions(bulkActions)
+                .setBulkSize(new ByteSizeValue(bulkSizeMb, ByteSizeUnit.MB))
+                .setFlushInterval(TimeValue.timeValueSeconds(flushIntervalSeconds))
+                .setConcurrentRequests(concurrentRequests)
+                .setBackoffPolicy(BackoffPolicy.exponentialBackoff(TimeValue.timeValueMillis(100), 3))
+                .build();
+    }
+
+    @PreDestroy
+    public void closeBulkProcessor() {
+        if (bulkProcessor == null) {
+            return;
+        }
+        try {
+            bulkProcessor.awaitClose(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("ElasticOperation bulk processor closed, indexed:{}, failed:{}", indexed.get(), failed.get());
+    }
+
+    public void batchInsert(String index, String type, List<?> objects) {
+
+        if (bulkProcessor == null) {
+            throw new ServerException("Elasticsearch client is not initialized");
+        }
 
-        }catch (Exception e){
+        try {
+            for (Object object : objects) {
+                List<FieldAccessor> accessors = ACCESSORS.get(object.getClass());
+                Map<String, Object> source = new HashMap<>(accessors.size() * 2);
+                for (FieldAccessor accessor : accessors) {
+                    source.put(accessor.name, accessor.get(object));
+                }
+                bulkProcessor.add(client.prepareIndex(index, type).setSource(source).request());
+            }
+        } catch (Exception e) {
             log.error("ElasticOperation batchInsert error. ", e);
             throw new ServerException(e.getMessage());
         }
     }
 
-    private static String[] getFiledName(Object o) {
-        Field[] fields = o.getClass().getDeclaredFields();
-        String[] fieldNames = new String[fields.length];
-        for (int i = 0; i < fields.length; i++) {
-            fieldNames[i] = fields[i].getName();
+    private static List<FieldAccessor> buildAccessors(Class<?> clz) {
+        Field[] fields = clz.getDeclaredFields();
+        List<FieldAccessor> accessors = new ArrayList<>(fields.length);
+        for (Field field : fields) {
+            String fieldName = field.getName();
+            String getter = "get" + fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1);
+            Method method = null;
+            try {
+                method = clz.getMethod(getter);
+            } catch (NoSuchMethodException e) {
+                // ignore
+            }
+            accessors.add(new FieldAccessor(fieldName, method));
         }
-        return fieldNames;
+        return accessors;
     }
 
-    private static Object getFieldValueByName(String fieldName, Object o) {
-        try {
-            String firstLetter = fieldName.substring(0, 1).toUpperCase();
-            String getter = "get" + firstLetter + fieldName.substring(1);
-            Method method = o.getClass().getMethod(getter, new Class[]{});
-            Object value = method.invoke(o, new Object[]{});
-            return value;
-        } catch (Exception e) {
-            // ignore
+    private static class FieldAccessor {
+
+        private final String name;
+
+        private final Method getter;
+
+        private FieldAccessor(String name, Method getter) {
+            this.name = name;
+            this.getter = getter;
+        }
+
+        private Object get(Object o) {
+            if (getter == null) {
+                return null;
+            }
+            try {
+                return getter.invoke(o);
+            } catch (Exception e) {
+                return null;
+            }
         }
-        return null;
     }
 }
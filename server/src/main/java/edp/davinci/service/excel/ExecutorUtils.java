@@ -35,16 +35,19 @@ import java.util.concurrent.*;
 @Slf4j
 public class ExecutorUtils {
 
+    /**
+     * 队列有界，队列满后线程数才会增长到最大值，线程数达到最大值后由调用线程执行
+     */
     private static final ThreadPoolExecutor JOB_WORKERS = new ThreadPoolExecutor(8, 64,
-            60_000, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>(), new ThreadPoolExecutor.CallerRunsPolicy());
+            60_000, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>(256), new ThreadPoolExecutor.CallerRunsPolicy());
 
     private static final ThreadPoolExecutor WORKBOOK_WORKERS = new ThreadPoolExecutor(16, 128,
-            60_000, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>(),
+            60_000, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>(256),
             new ThreadFactoryBuilder().setNameFormat("Workbook-worker-%d").setDaemon(true).build(), new ThreadPoolExecutor.CallerRunsPolicy());
 
 
     private static final ThreadPoolExecutor SHEET_WORKERS = new ThreadPoolExecutor(32, 256,
-            60_000, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>(),
+            60_000, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>(1024),
             new ThreadFactoryBuilder().setNameFormat("Sheet-worker-%d").setDaemon(true).build(), new ThreadPoolExecutor.CallerRunsPolicy());
 
     public static <T> Future<T> submitWorkbookTask(WorkBookContext context, Logger customLogger) {
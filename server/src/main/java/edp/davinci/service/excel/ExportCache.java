@@ -0,0 +1,250 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.excel;
+
+import com.alibaba.fastjson.JSON;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.MD5Util;
+import edp.davinci.core.enums.FileTypeEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下载文件缓存
+ * 以最终执行的sql、排除列、表头配置及文件格式的摘要为key，在有效期内复用已生成的下载文件，
+ * 同时合并并发提交的相同下载任务
+ */
+@Slf4j
+@Component
+public class ExportCache {
+
+    @Value("${download.cache.enable:true}")
+    private boolean enable;
+
+    @Value("${download.cache.fresh-minutes:30}")
+    private int freshMinutes;
+
+    @Value("${download.cache.max-entries:1000}")
+    private int maxEntries;
+
+    /**
+     * 等待相同任务的最长时间，从该任务开始生成时计算，与导出超时一致
+     */
+    @Value("${download.cache.wait-minutes:60}")
+    private int waitMinutes;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong(0);
+
+    private final AtomicLong merged = new AtomicLong(0);
+
+    private final AtomicLong misses = new AtomicLong(0);
+
+    private final AtomicLong waitTimeouts = new AtomicLong(0);
+
+    public boolean isEnable() {
+        return enable;
+    }
+
+    /**
+     * 计算下载内容摘要
+     *
+     * @param sheetContexts
+     * @param fileType
+     * @param resultLimit
+     * @return
+     */
+    public String fingerprint(List<SheetContext> sheetContexts, FileTypeEnum fileType, int resultLimit) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(fileType.getFormat()).append('|').append(resultLimit);
+        for (SheetContext sheetContext : sheetContexts) {
+            List<String> excludeColumns = new ArrayList<>();
+            if (!CollectionUtils.isEmpty(sheetContext.getExcludeColumns())) {
+                excludeColumns.addAll(sheetContext.getExcludeColumns());
+                Collections.sort(excludeColumns);
+            }
+            sb.append('|').append(sheetContext.getName())
+                    .append('|').append(sheetContext.getSqlUtils().getSourceName())
+                    .append('|').append(sheetContext.getSqlUtils().getJdbcUrl())
+                    .append('|').append(sheetContext.getExecuteSql())
+                    .append('|').append(sheetContext.getQuerySql())
+                    .append('|').append(excludeColumns)
+                    .append('|').append(sheetContext.getIsTable())
+                    .append('|').append(JSON.toJSONString(sheetContext.getExcelHeaders()));
+        }
+        return MD5Util.getMD5(sb.toString(), true, 32);
+    }
+
+    /**
+     * 获取缓存
+     *
+     * @param key
+     * @return null: 缓存未命中，调用方负责生成文件并调用 complete；否则为已生成或正在生成的文件路径
+     */
+    public CompletableFuture<String> claim(String key) {
+        if (entries.size() > maxEntries) {
+            evictExpired();
+        }
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (!entry.future.isDone()) {
+                    merged.incrementAndGet();
+                    return entry.future;
+                }
+                if (entry.isFresh(freshMinutes)) {
+                    hits.incrementAndGet();
+                    return entry.future;
+                }
+                entries.remove(key, entry);
+                continue;
+            }
+            Entry created = new Entry();
+            if (entries.putIfAbsent(key, created) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 等待正在生成的相同任务
+     *
+     * @param key
+     * @param future claim 返回的文件路径
+     * @return 文件路径；超时或生成失败时为null，由调用方自行生成文件
+     * @throws InterruptedException
+     */
+    public String await(String key, Future<String> future) throws InterruptedException {
+        Entry entry = entries.get(key);
+        long startTime = entry != null && entry.future == future ? entry.startTime : System.currentTimeMillis();
+        long waitMillis = startTime + TimeUnit.MINUTES.toMillis(waitMinutes) - System.currentTimeMillis();
+        try {
+            return future.get(Math.max(waitMillis, 0L), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            waitTimeouts.incrementAndGet();
+            return null;
+        } catch (ExecutionException | CancellationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 文件生成结束，通知等待中的相同任务
+     *
+     * @param key
+     * @param filePath 生成失败时为空
+     */
+    public void complete(String key, String filePath) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return;
+        }
+        if (StringUtils.isEmpty(filePath) || !new File(filePath).exists()) {
+            entries.remove(key, entry);
+            entry.future.complete(null);
+            return;
+        }
+        entry.createTime = System.currentTimeMillis();
+        entry.future.complete(filePath);
+    }
+
+    /**
+     * 复用缓存文件到新的下载路径，优先使用硬链接，各下载记录的文件可独立删除
+     *
+     * @param source
+     * @param target
+     * @return
+     */
+    public static boolean link(String source, String target) {
+        Path sourcePath = Paths.get(source);
+        Path targetPath = Paths.get(target);
+        try {
+            Files.createLink(targetPath, sourcePath);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            // ignore, fall back to copy
+        }
+        try {
+            Files.copy(sourcePath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            log.warn("Reuse export cache file {} error:{}", source, e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * 清理过期及文件已被删除的缓存
+     */
+    public void evictExpired() {
+        entries.entrySet().removeIf(e -> e.getValue().future.isDone() && !e.getValue().isFresh(freshMinutes));
+    }
+
+    public double getHitRatio() {
+        long reused = hits.get() + merged.get();
+        long total = reused + misses.get();
+        return total == 0 ? 0D : (double) reused / total;
+    }
+
+    public String getStats() {
+        return String.format("entries:%d, hits:%d, merged:%d, misses:%d, waitTimeouts:%d, hitRatio:%.2f%%",
+                entries.size(), hits.get(), merged.get(), misses.get(), waitTimeouts.get(), getHitRatio() * 100);
+    }
+
+    private static class Entry {
+
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private final long startTime = System.currentTimeMillis();
+
+        private volatile long createTime = System.currentTimeMillis();
+
+        private boolean isFresh(int freshMinutes) {
+            if (System.currentTimeMillis() - createTime > TimeUnit.MINUTES.toMillis(freshMinutes)) {
+                return false;
+            }
+            String filePath = future.getNow(null);
+            return filePath != null && new File(filePath).exists();
+        }
+    }
+}
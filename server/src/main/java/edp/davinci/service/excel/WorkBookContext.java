@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.function.BiConsumer;
 
 /**
  * Created by IntelliJ IDEA.
@@ -48,6 +49,11 @@ public class WorkBookContext implements Serializable {
 
     private Logger customLogger;
 
+    /**
+     * (已完成sheet数, sheet总数)
+     */
+    private BiConsumer<Integer, Integer> progressListener;
+
     private WorkBookContext() {
 
     }
@@ -59,6 +65,7 @@ public class WorkBookContext implements Serializable {
         private int resultLimit;
         private String taskKey;
         private Logger customLogger;
+        private BiConsumer<Integer, Integer> progressListener;
 
         private WorkBookContextBuilder() {
         
@@ -98,6 +105,11 @@ public class WorkBookContext implements Serializable {
             return this;
         }
 
+        public WorkBookContextBuilder withProgressListener(BiConsumer<Integer, Integer> progressListener) {
+            this.progressListener = progressListener;
+            return this;
+        }
+
         public WorkBookContext build() {
             WorkBookContext workBookContext = new WorkBookContext();
             workBookContext.setWrapper(wrapper);
@@ -106,6 +118,7 @@ public class WorkBookContext implements Serializable {
             workBookContext.setResultLimit(resultLimit);
             workBookContext.setTaskKey(taskKey);
             workBookContext.setCustomLogger(customLogger);
+            workBookContext.setProgressListener(progressListener);
             return workBookContext;
         }
     }
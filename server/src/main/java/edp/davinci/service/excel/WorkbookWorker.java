@@ -83,6 +83,8 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
         }
 
         String filePath = null;
+        ExportCache exportCache = null;
+        String cacheKey = null;
         try {
 
             List<SheetContext> sheetContextList = buildSheetContextList();
@@ -91,6 +93,34 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
                         "Task(" + context.getTaskKey() + ") workbook worker sheetContextList is empty");
             }
 
+            if (wrapper.getAction() == ActionEnum.DOWNLOAD || wrapper.getAction() == ActionEnum.SHAREDOWNLOAD) {
+                exportCache = SpringContextHolder.getBean(ExportCache.class);
+                if (exportCache.isEnable()) {
+                    String key = exportCache.fingerprint(sheetContextList, FileTypeEnum.XLSX, context.getResultLimit());
+                    Future<String> cached = exportCache.claim(key);
+                    if (cached == null) {
+                        cacheKey = key;
+                    } else {
+                        String cachedPath = exportCache.await(key, cached);
+                        if (StringUtils.isEmpty(cachedPath) && log) {
+                            logger.info("Task({}) workbook worker export cache key={} is not available, generate the file itself, {}", context.getTaskKey(), key, exportCache.getStats());
+                        }
+                        if (StringUtils.isNotEmpty(cachedPath)) {
+                            filePath = ((FileUtils) SpringContextHolder.getBean(FileUtils.class)).getFilePath(FileTypeEnum.XLSX, this.context.getWrapper());
+                            if (ExportCache.link(cachedPath, filePath)) {
+                                if (log) {
+                                    logger.info("Task({}) workbook worker reuse export cache key={}, file={}, {}", context.getTaskKey(), key, cachedPath, exportCache.getStats());
+                                }
+                                wrapper.setRst(filePath);
+                                super.tell(wrapper);
+                                return (T) filePath;
+                            }
+                            filePath = null;
+                        }
+                    }
+                }
+            }
+
             wb = new SXSSFWorkbook(1000);
             List<Future> futures = Lists.newArrayList();
             int sheetNo = 0;
@@ -107,11 +137,15 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
 
             Boolean rst = true;
             try {
+                int finished = 0;
                 for (Future<Boolean> future : futures) {
                     if (!future.get(1, TimeUnit.HOURS)) {
                         rst = false;
                         break;
                     }
+                    if (context.getProgressListener() != null) {
+                        context.getProgressListener().accept(++finished, futures.size());
+                    }
                 }
             } catch (InterruptedException | ExecutionException | TimeoutException e) {
 
@@ -173,6 +207,9 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
 
         } finally {
             workbookDispose(wb);
+            if (cacheKey != null) {
+                exportCache.complete(cacheKey, wrapper.getRst());
+            }
         }
 
         if (wrapper.getAction() == ActionEnum.DOWNLOAD) {
@@ -0,0 +1,539 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.extract;
+
+import com.alibaba.druid.util.StringUtils;
+import com.alibaba.fastjson.JSONObject;
+import edp.core.enums.DataTypeEnum;
+import edp.core.exception.ServerException;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.SqlUtils;
+import edp.davinci.core.enums.SourceTypeEnum;
+import edp.davinci.core.model.SqlEntity;
+import edp.davinci.core.utils.SqlParseUtils;
+import edp.davinci.dao.ViewMapper;
+import edp.davinci.dto.viewDto.ViewWithSource;
+import edp.davinci.model.Source;
+import edp.davinci.model.ViewExtractRefresh;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * View数据抽取
+ * 将view的基础查询结果快照到本地H2文件，查询时在快照上执行分组、聚合及过滤；
+ * 每次刷新写入新版本文件，完成后更新view上的版本号实现原子切换；
+ * 设置水位列后，刷新在上一版本快照的副本上追加（或按合并键合并）水位之后的数据，并周期性压缩文件
+ */
+@Slf4j
+@Component
+public class ViewExtractManager {
+
+    private static final String FILE_PREFIX = "view_";
+
+    private static final String FILE_SUFFIX = ".mv.db";
+
+    static final String TABLE_PREFIX = "EXTRACT_";
+
+    private static final String H2_URL_FORMATTER = "jdbc:h2:file:%s;MODE=MySQL";
+
+    private static final String H2_READ_URL_SUFFIX = ";ACCESS_MODE_DATA=r;IFEXISTS=TRUE";
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final int SIZE_CHECK_ROWS = 10000;
+
+    private static final int HISTORY_SIZE = 20;
+
+    private static final String DELTA_ALIAS = "DELTA_T";
+
+    @Value("${extract.dir:${file.userfiles-path}/extracts}")
+    private String extractDir;
+
+    @Value("${extract.max-rows:1000000}")
+    private long maxRows;
+
+    @Value("${extract.max-size-mb:1024}")
+    private long maxSizeMb;
+
+    @Value("${extract.compact-every-refreshes:24}")
+    private int compactEveryRefreshes;
+
+    @Autowired
+    private ViewMapper viewMapper;
+
+    @Autowired
+    private SqlUtils sqlUtils;
+
+    @Autowired
+    private SqlParseUtils sqlParseUtils;
+
+    @Autowired
+    private ViewRollupManager viewRollupManager;
+
+    private final Map<Long, Object> refreshLocks = new ConcurrentHashMap<>();
+
+    /**
+     * 获取view当前可用的抽取数据源，未抽取或本节点无快照文件时返回null
+     *
+     * @param view
+     * @return
+     */
+    public Source getExtractSource(ViewWithSource view) {
+        if (view == null || view.getExtractVersion() == null) {
+            return null;
+        }
+
+        String path = getFilePath(view.getId(), view.getExtractVersion());
+        if (!new File(path + FILE_SUFFIX).exists()) {
+            return null;
+        }
+
+        JSONObject config = new JSONObject();
+        config.put("url", String.format(H2_URL_FORMATTER, path) + H2_READ_URL_SUFFIX);
+
+        Source source = new Source();
+        source.setName(TABLE_PREFIX + view.getId());
+        // 本地文件无需防火墙检查
+        source.setType(SourceTypeEnum.CSV.getType());
+        source.setConfig(config.toJSONString());
+        return source;
+    }
+
+    public SqlUtils getSqlUtils(Source extractSource) {
+        return sqlUtils.initEmbedded(extractSource.getName(), extractSource.getJdbcUrl());
+    }
+
+    /**
+     * 抽取数据上的基础查询
+     *
+     * @param viewId
+     * @return
+     */
+    public List<String> getQuerySqls(Long viewId) {
+        List<String> list = new ArrayList<>();
+        list.add("SELECT * FROM `" + TABLE_PREFIX + viewId + "`");
+        return list;
+    }
+
+    /**
+     * 刷新view抽取数据
+     *
+     * @param viewId
+     * @throws ServerException
+     */
+    public void refresh(Long viewId) throws ServerException {
+        Object lock = refreshLocks.computeIfAbsent(viewId, id -> new Object());
+        synchronized (lock) {
+            doRefresh(viewId);
+        }
+    }
+
+    /**
+     * 清除view抽取数据，view的sql或数据源变更、删除及抽取任务删除时调用
+     *
+     * @param viewId
+     */
+    public void drop(Long viewId) {
+        viewMapper.clearExtract(viewId);
+        viewRollupManager.clear(viewId);
+        deleteFiles(viewId, null);
+    }
+
+    private void doRefresh(Long viewId) {
+        ViewWithSource view = viewMapper.getViewWithSource(viewId);
+        if (view == null) {
+            throw new ServerException("View(" + viewId + ") is not found");
+        }
+
+        String sql = getBaseQuerySql(view);
+
+        File dir = new File(extractDir);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new ServerException("Create extract dir(" + extractDir + ") fail");
+        }
+
+        String watermarkColumn = StringUtils.isEmpty(view.getExtractWatermarkColumn()) ? null : view.getExtractWatermarkColumn().trim();
+        Long previous = view.getExtractVersion();
+        File previousFile = previous == null ? null : new File(getFilePath(viewId, previous) + FILE_SUFFIX);
+        List<ViewExtractRefresh> history = view.getExtractRefreshes();
+
+        // 已有快照且记录过水位时仅拉取水位之后的数据
+        boolean incremental = watermarkColumn != null && !StringUtils.isEmpty(view.getExtractWatermark())
+                && previousFile != null && previousFile.exists();
+
+        long version = System.currentTimeMillis();
+        String path = getFilePath(viewId, version);
+        File file = new File(path + FILE_SUFFIX);
+
+        long start = System.currentTimeMillis();
+        ViewExtractRefresh refresh = new ViewExtractRefresh();
+        try {
+            long rows = incremental ? loadIncremental(view, sql, watermarkColumn, previousFile, path) : -1L;
+            if (rows < 0) {
+                incremental = false;
+                deleteFile(file);
+                rows = loadFull(view, sql, path);
+            }
+
+            boolean compact = !incremental || (compactEveryRefreshes > 0 && getIncrementalCount(history) + 1 >= compactEveryRefreshes);
+            try (Connection connection = DriverManager.getConnection(String.format(H2_URL_FORMATTER, path), "sa", "");
+                 Statement statement = connection.createStatement()) {
+                refresh.setTotalRows(queryLong(statement, "SELECT COUNT(*) FROM `" + TABLE_PREFIX + viewId + "`"));
+                if (refresh.getTotalRows() > maxRows) {
+                    throw new ServerException("Extract rows exceed limit " + maxRows);
+                }
+                if (watermarkColumn != null) {
+                    refresh.setWatermark(getWatermark(statement, viewId, watermarkColumn));
+                }
+                viewRollupManager.build(viewId, connection, refresh.getTotalRows());
+                // 增量写入后文件会有碎片，周期性重写
+                if (compact && incremental) {
+                    statement.execute("SHUTDOWN COMPACT");
+                }
+            }
+
+            refresh.setMode(incremental ? ViewExtractRefresh.MODE_INCREMENTAL : ViewExtractRefresh.MODE_FULL);
+            refresh.setRows(rows);
+            refresh.setCompacted(compact);
+        } catch (Exception e) {
+            deleteFile(file);
+            log.error("Extract view({}) error", viewId, e);
+            throw new ServerException("Extract view(" + viewId + ") error: " + e.getMessage());
+        }
+
+        if (incremental && refresh.getWatermark() == null) {
+            refresh.setWatermark(view.getExtractWatermark());
+        }
+        refresh.setCostMillis(System.currentTimeMillis() - start);
+        refresh.setTime(new java.util.Date());
+
+        history.add(refresh);
+        if (history.size() > HISTORY_SIZE) {
+            history = new ArrayList<>(history.subList(history.size() - HISTORY_SIZE, history.size()));
+        }
+
+        long size = file.length();
+        viewMapper.updateExtract(viewId, version, refresh.getTotalRows(), size, refresh.getTime(),
+                refresh.getWatermark(), JSONObject.toJSONString(history));
+        log.info("Extract view({}) finish, mode:{}, version:{}, rows:{}, total:{}, size:{}, watermark:{}, cost:{}ms",
+                viewId, refresh.getMode(), version, refresh.getRows(), refresh.getTotalRows(), size, refresh.getWatermark(), refresh.getCostMillis());
+
+        // 保留上一版本供正在执行的查询使用
+        Set<Long> keep = new HashSet<>();
+        keep.add(version);
+        if (previous != null) {
+            keep.add(previous);
+        }
+        deleteFiles(viewId, keep);
+    }
+
+    private long loadFull(ViewWithSource view, String sql, String path) throws SQLException {
+        Long viewId = view.getId();
+        File file = new File(path + FILE_SUFFIX);
+        try (Connection connection = DriverManager.getConnection(String.format(H2_URL_FORMATTER, path), "sa", "")) {
+            return getStreamingTemplate(view.getSource()).query(sql, (ResultSetExtractor<Long>) rs -> {
+                ResultSetMetaData metaData = rs.getMetaData();
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(getCreateSql(viewId, metaData));
+                }
+                return write(rs, connection, getInsertSql(viewId, metaData, null), file);
+            });
+        }
+    }
+
+    /**
+     * 复制上一版本快照并追加或合并水位之后的数据，列结构变化或快照中没有水位值时返回-1，由调用方全量加载
+     */
+    private long loadIncremental(ViewWithSource view, String sql, String watermarkColumn, File previousFile, String path) throws Exception {
+        Long viewId = view.getId();
+        File file = new File(path + FILE_SUFFIX);
+        Files.copy(previousFile.toPath(), file.toPath());
+
+        Source source = view.getSource();
+        String prefix = SqlUtils.getKeywordPrefix(source.getJdbcUrl(), source.getDbVersion());
+        String suffix = SqlUtils.getKeywordSuffix(source.getJdbcUrl(), source.getDbVersion());
+
+        List<String> mergeKeys = new ArrayList<>();
+        if (!StringUtils.isEmpty(view.getExtractMergeKey())) {
+            for (String key : view.getExtractMergeKey().split(",")) {
+                if (!StringUtils.isEmpty(key.trim())) {
+                    mergeKeys.add(key.trim());
+                }
+            }
+        }
+
+        try (Connection connection = DriverManager.getConnection(String.format(H2_URL_FORMATTER, path), "sa", "")) {
+            List<String> columns = new ArrayList<>();
+            Object watermark;
+            try (Statement statement = connection.createStatement()) {
+                try (ResultSet rs = statement.executeQuery("SELECT * FROM `" + TABLE_PREFIX + viewId + "` WHERE 1 = 0")) {
+                    ResultSetMetaData metaData = rs.getMetaData();
+                    for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                        columns.add(metaData.getColumnLabel(i));
+                    }
+                }
+                if (!columns.contains(watermarkColumn) || !columns.containsAll(mergeKeys)) {
+                    return -1L;
+                }
+                // 以本地快照中的最大值为准，类型与源端一致
+                try (ResultSet rs = statement.executeQuery("SELECT MAX(`" + watermarkColumn.replace("`", "``") + "`) FROM `" + TABLE_PREFIX + viewId + "`")) {
+                    watermark = rs.next() ? rs.getObject(1) : null;
+                }
+            }
+            // 快照为空或水位列全为空时无法确定增量范围，追加全部数据会产生重复
+            if (watermark == null) {
+                return -1L;
+            }
+
+            String deltaSql = "SELECT * FROM (" + sql + ") " + DELTA_ALIAS
+                    + " WHERE " + DELTA_ALIAS + "." + prefix + watermarkColumn + suffix + " > ?";
+            return getStreamingTemplate(source).query(deltaSql, (PreparedStatementSetter) ps -> ps.setObject(1, watermark), (ResultSetExtractor<Long>) rs -> {
+                ResultSetMetaData metaData = rs.getMetaData();
+                if (metaData.getColumnCount() != columns.size()) {
+                    return -1L;
+                }
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    if (!columns.get(i - 1).equals(metaData.getColumnLabel(i))) {
+                        return -1L;
+                    }
+                }
+                return write(rs, connection, getInsertSql(viewId, metaData, mergeKeys), file);
+            });
+        }
+    }
+
+    private JdbcTemplate getStreamingTemplate(Source source) {
+        SqlUtils sourceSqlUtils = sqlUtils.init(source);
+        JdbcTemplate jdbcTemplate = sourceSqlUtils.jdbcTemplate();
+        jdbcTemplate.setMaxRows(0);
+        if (sourceSqlUtils.getDataTypeEnum() == DataTypeEnum.MYSQL) {
+            jdbcTemplate.setFetchSize(Integer.MIN_VALUE);
+        }
+        return jdbcTemplate;
+    }
+
+    private int getIncrementalCount(List<ViewExtractRefresh> history) {
+        int count = 0;
+        for (int i = history.size() - 1; i >= 0; i--) {
+            if (history.get(i).isCompacted()) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private String getWatermark(Statement statement, Long viewId, String watermarkColumn) throws SQLException {
+        try (ResultSet rs = statement.executeQuery("SELECT MAX(`" + watermarkColumn.replace("`", "``") + "`) FROM `" + TABLE_PREFIX + viewId + "`")) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    private long queryLong(Statement statement, String sql) throws SQLException {
+        try (ResultSet rs = statement.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : 0L;
+        }
+    }
+
+    /**
+     * 抽取仅支持与用户无关的基础查询：无变量、无系统变量、无非查询语句
+     */
+    private String getBaseQuerySql(ViewWithSource view) {
+        if (StringUtils.isEmpty(view.getSql()) || view.getSource() == null) {
+            throw new ServerException("View(" + view.getId() + ") sql or source is empty");
+        }
+        if (!CollectionUtils.isEmpty(view.getVariables())) {
+            throw new ServerException("View(" + view.getId() + ") with variables can not be extracted");
+        }
+
+        String sqlTempDelimiter = SqlUtils.getSqlTempDelimiter(view.getSource().getProperties());
+        SqlEntity maintainerEntity = sqlParseUtils.parseSql(view.getSql(), null, sqlTempDelimiter, null, true);
+        SqlEntity anonymousEntity = sqlParseUtils.parseSql(view.getSql(), null, sqlTempDelimiter, null, false);
+        if (!maintainerEntity.getSql().equals(anonymousEntity.getSql())) {
+            throw new ServerException("View(" + view.getId() + ") with system variables can not be extracted");
+        }
+
+        String srcSql = sqlParseUtils.replaceParams(maintainerEntity.getSql(), maintainerEntity.getQueryParams(), maintainerEntity.getAuthParams(), sqlTempDelimiter);
+        if (!CollectionUtils.isEmpty(sqlParseUtils.getSqls(srcSql, false))) {
+            throw new ServerException("View(" + view.getId() + ") with non-query statements can not be extracted");
+        }
+
+        List<String> querySqlList = sqlParseUtils.getSqls(srcSql, true);
+        if (CollectionUtils.isEmpty(querySqlList)) {
+            throw new ServerException("View(" + view.getId() + ") has no query statement");
+        }
+        return SqlParseUtils.rebuildSqlWithFragment(querySqlList.get(querySqlList.size() - 1));
+    }
+
+    private String getCreateSql(Long viewId, ResultSetMetaData metaData) throws SQLException {
+        StringBuilder create = new StringBuilder("CREATE TABLE `").append(TABLE_PREFIX).append(viewId).append("` (");
+        Set<String> labels = new HashSet<>();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            String label = metaData.getColumnLabel(i);
+            if (!labels.add(label)) {
+                throw new ServerException("Duplicate column " + label);
+            }
+            create.append(i > 1 ? ", " : "").append('`').append(label.replace("`", "``")).append("` ")
+                    .append(getColumnType(metaData.getColumnType(i), metaData.getPrecision(i), metaData.getScale(i)));
+        }
+        return create.append(")").toString();
+    }
+
+    /**
+     * 有合并键时按键合并，否则追加
+     */
+    private String getInsertSql(Long viewId, ResultSetMetaData metaData, List<String> mergeKeys) throws SQLException {
+        boolean merge = !CollectionUtils.isEmpty(mergeKeys);
+        StringBuilder insert = new StringBuilder(merge ? "MERGE INTO `" : "INSERT INTO `").append(TABLE_PREFIX).append(viewId).append("` ");
+        if (merge) {
+            insert.append("(");
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                insert.append(i > 1 ? ", " : "").append('`').append(metaData.getColumnLabel(i).replace("`", "``")).append('`');
+            }
+            insert.append(") KEY (");
+            for (int i = 0; i < mergeKeys.size(); i++) {
+                insert.append(i > 0 ? ", " : "").append('`').append(mergeKeys.get(i).replace("`", "``")).append('`');
+            }
+            insert.append(") ");
+        }
+        insert.append("VALUES (");
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            insert.append(i > 1 ? ", ?" : "?");
+        }
+        return insert.append(")").toString();
+    }
+
+    private long write(ResultSet rs, Connection connection, String insertSql, File file) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        int[] types = new int[columnCount];
+        for (int i = 1; i <= columnCount; i++) {
+            types[i - 1] = metaData.getColumnType(i);
+        }
+
+        connection.setAutoCommit(false);
+        long rows = 0;
+        try (PreparedStatement ps = connection.prepareStatement(insertSql)) {
+            while (rs.next()) {
+                for (int i = 1; i <= columnCount; i++) {
+                    if (isStringType(types[i - 1])) {
+                        ps.setString(i, rs.getString(i));
+                    } else {
+                        ps.setObject(i, rs.getObject(i));
+                    }
+                }
+                ps.addBatch();
+                rows++;
+
+                if (rows > maxRows) {
+                    throw new ServerException("Extract rows exceed limit " + maxRows);
+                }
+                if (rows % BATCH_SIZE == 0) {
+                    ps.executeBatch();
+                    connection.commit();
+                }
+                if (rows % SIZE_CHECK_ROWS == 0 && file.length() > maxSizeMb * 1024 * 1024) {
+                    throw new ServerException("Extract size exceed limit " + maxSizeMb + "MB");
+                }
+            }
+            ps.executeBatch();
+            connection.commit();
+        }
+        return rows;
+    }
+
+    private String getColumnType(int type, int precision, int scale) {
+        switch (type) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return "BOOLEAN";
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return "INT";
+            case Types.BIGINT:
+                return "BIGINT";
+            case Types.FLOAT:
+            case Types.REAL:
+            case Types.DOUBLE:
+                return "DOUBLE";
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return precision > 0 && precision <= 100 && scale >= 0 && scale <= precision
+                        ? "DECIMAL(" + precision + ", " + scale + ")" : "DECIMAL";
+            case Types.DATE:
+                return "DATE";
+            case Types.TIME:
+                return "TIME";
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return "TIMESTAMP";
+            default:
+                return "VARCHAR";
+        }
+    }
+
+    private boolean isStringType(int type) {
+        return "VARCHAR".equals(getColumnType(type, 0, 0));
+    }
+
+    private String getFilePath(Long viewId, Long version) {
+        return new File(extractDir, FILE_PREFIX + viewId + "_" + version).getAbsolutePath();
+    }
+
+    private void deleteFiles(Long viewId, Set<Long> keep) {
+        File[] files = new File(extractDir).listFiles((d, name) -> name.startsWith(FILE_PREFIX + viewId + "_"));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String version = file.getName().substring((FILE_PREFIX + viewId + "_").length());
+            int index = version.indexOf('.');
+            if (index > 0) {
+                version = version.substring(0, index);
+            }
+            try {
+                if (keep != null && keep.contains(Long.parseLong(version))) {
+                    continue;
+                }
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            deleteFile(file);
+        }
+    }
+
+    private void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            log.warn("Delete extract file({}) fail", file.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,565 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.extract;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.SqlUtils;
+import edp.davinci.core.model.SqlFilter;
+import edp.davinci.dto.viewDto.Aggregator;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import edp.davinci.dto.viewDto.ViewRollupInfo;
+import edp.davinci.dto.viewDto.ViewRollupStats;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * View上卷预聚合
+ * 记录在view上执行的分组聚合查询签名（分组、聚合、过滤列），抽取刷新时在快照文件中为高频签名构建上卷表；
+ * 查询时选择能覆盖请求的最小上卷表，在其上重新聚合
+ */
+@Slf4j
+@Component
+public class ViewRollupManager {
+
+    private static final String META_TABLE_SUFFIX = "_ROLLUPS";
+
+    private static final String ROLLUP_TABLE_INFIX = "_R";
+
+    private static final int MAX_SIGNATURES_PER_VIEW = 100;
+
+    private static final String SUM = "SUM";
+
+    private static final String COUNT = "COUNT";
+
+    private static final String MAX = "MAX";
+
+    private static final String MIN = "MIN";
+
+    private static final String AVG = "AVG";
+
+    private static final Set<String> SUPPORTED_FUNCS = new HashSet<>(Arrays.asList(SUM, COUNT, MAX, MIN, AVG));
+
+    @Value("${rollup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rollup.min-hits:5}")
+    private long minHits;
+
+    @Value("${rollup.max-per-view:3}")
+    private int maxPerView;
+
+    /**
+     * 上卷表行数超过基础数据该比例时不保留
+     */
+    @Value("${rollup.max-ratio:0.5}")
+    private double maxRatio;
+
+    private final Map<Long, Map<String, Signature>> signatures = new ConcurrentHashMap<>();
+
+    private final Map<Long, ViewCounter> counters = new ConcurrentHashMap<>();
+
+    private final Cache<String, List<Rollup>> rollupCache = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
+    /**
+     * 记录查询签名
+     *
+     * @param viewId
+     * @param executeParam
+     */
+    public void record(Long viewId, ViewExecuteParam executeParam) {
+        if (!enabled) {
+            return;
+        }
+
+        Signature signature = parse(executeParam);
+        if (signature == null) {
+            return;
+        }
+
+        Map<String, Signature> map = signatures.computeIfAbsent(viewId, id -> new ConcurrentHashMap<>());
+        if (!map.containsKey(signature.getKey()) && map.size() >= MAX_SIGNATURES_PER_VIEW) {
+            return;
+        }
+        map.computeIfAbsent(signature.getKey(), k -> signature).getCount().incrementAndGet();
+    }
+
+    /**
+     * 为抽取数据上的查询选择最小的覆盖上卷表，无可用上卷表时返回null
+     *
+     * @param viewId
+     * @param version         抽取版本
+     * @param extractSqlUtils
+     * @param executeParam
+     * @return
+     */
+    public RollupRoute route(Long viewId, Long version, SqlUtils extractSqlUtils, ViewExecuteParam executeParam) {
+        if (!enabled) {
+            return null;
+        }
+
+        ViewCounter counter = counters.computeIfAbsent(viewId, id -> new ViewCounter());
+        counter.getQueries().incrementAndGet();
+
+        Signature signature = parse(executeParam);
+        if (signature == null || !signature.isSupported()) {
+            return null;
+        }
+
+        Rollup best = null;
+        for (Rollup rollup : getRollups(viewId, version, extractSqlUtils)) {
+            if (rollup.covers(signature) && (best == null || rollup.getRows() < best.getRows())) {
+                best = rollup;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+
+        counter.getHits().incrementAndGet();
+        counter.getRollupHits().computeIfAbsent(best.getName(), name -> new AtomicLong()).incrementAndGet();
+
+        String jdbcUrl = extractSqlUtils.getJdbcUrl();
+        String aliasPrefix = SqlUtils.getAliasPrefix(jdbcUrl, null);
+        String aliasSuffix = SqlUtils.getAliasSuffix(jdbcUrl, null);
+
+        List<String> aggregators = new ArrayList<>();
+        if (!CollectionUtils.isEmpty(executeParam.getAggregators())) {
+            for (Aggregator aggregator : executeParam.getAggregators()) {
+                String func = aggregator.getFunc().trim().toUpperCase();
+                String column = aggregator.getColumn().trim();
+                String expression;
+                switch (func) {
+                    case COUNT:
+                        expression = SUM + "(" + quote(COUNT + "(" + column + ")") + ")";
+                        break;
+                    case AVG:
+                        expression = "CAST(" + SUM + "(" + quote(SUM + "(" + column + ")") + ") AS DOUBLE) / NULLIF("
+                                + SUM + "(" + quote(COUNT + "(" + column + ")") + "), 0)";
+                        break;
+                    default:
+                        expression = func + "(" + quote(func + "(" + column + ")") + ")";
+                        break;
+                }
+                aggregators.add(expression + " AS " + aliasPrefix + aggregator.getFunc().trim() + "(" + aggregator.getColumn() + ")" + aliasSuffix);
+            }
+        }
+
+        RollupRoute route = new RollupRoute();
+        route.setTable(best.getName());
+        route.setQuerySqls(new ArrayList<>(Collections.singletonList("SELECT * FROM " + quote(best.getName()))));
+        route.setAggregators(aggregators);
+        return route;
+    }
+
+    /**
+     * 在新版本抽取文件中重建上卷表，抽取刷新时调用
+     *
+     * @param viewId
+     * @param connection 新版本抽取文件连接
+     * @param baseRows   基础数据行数
+     * @throws SQLException
+     */
+    public void build(Long viewId, Connection connection, long baseRows) throws SQLException {
+        String baseTable = ViewExtractManager.TABLE_PREFIX + viewId;
+        String metaTable = baseTable + META_TABLE_SUFFIX;
+
+        try (Statement statement = connection.createStatement()) {
+            // 增量刷新复制了上一版本的上卷表，全部重建
+            statement.execute("CREATE TABLE IF NOT EXISTS " + quote(metaTable)
+                    + " (`NAME` VARCHAR, `GROUPS` VARCHAR, `MEASURES` VARCHAR, `ROW_COUNT` BIGINT)");
+            List<String> names = new ArrayList<>();
+            try (ResultSet rs = statement.executeQuery("SELECT `NAME` FROM " + quote(metaTable))) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+            for (String name : names) {
+                statement.execute("DROP TABLE IF EXISTS " + quote(name));
+            }
+            statement.execute("DELETE FROM " + quote(metaTable));
+
+            ViewCounter counter = counters.get(viewId);
+            if (counter != null) {
+                counter.getRollupHits().clear();
+            }
+            if (!enabled) {
+                return;
+            }
+
+            Set<String> columns = new HashSet<>();
+            try (ResultSet rs = statement.executeQuery("SELECT * FROM " + quote(baseTable) + " WHERE 1 = 0")) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    columns.add(metaData.getColumnLabel(i));
+                }
+            }
+
+            int index = 0;
+            for (Rollup candidate : getCandidates(viewId, columns)) {
+                String name = baseTable + ROLLUP_TABLE_INFIX + index;
+                long start = System.currentTimeMillis();
+                try {
+                    statement.execute(getCreateSql(name, baseTable, candidate));
+                    long rows;
+                    try (ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM " + quote(name))) {
+                        rows = rs.next() ? rs.getLong(1) : 0L;
+                    }
+                    if (baseRows > 0 && rows > baseRows * maxRatio) {
+                        statement.execute("DROP TABLE " + quote(name));
+                        log.info("Rollup of view({}) on {} is too large, rows:{}, base rows:{}", viewId, candidate.getGroups(), rows, baseRows);
+                        continue;
+                    }
+
+                    try (PreparedStatement ps = connection.prepareStatement("INSERT INTO " + quote(metaTable) + " VALUES (?, ?, ?, ?)")) {
+                        ps.setString(1, name);
+                        ps.setString(2, JSONObject.toJSONString(candidate.getGroups()));
+                        ps.setString(3, JSONObject.toJSONString(candidate.getMeasures()));
+                        ps.setLong(4, rows);
+                        ps.executeUpdate();
+                    }
+                    index++;
+                    log.info("Rollup {} of view({}) built, groups:{}, measures:{}, rows:{}, cost:{}ms",
+                            name, viewId, candidate.getGroups(), candidate.getMeasures(), rows, System.currentTimeMillis() - start);
+                } catch (SQLException e) {
+                    log.warn("Build rollup {} of view({}) error: {}", name, viewId, e.getMessage());
+                    statement.execute("DROP TABLE IF EXISTS " + quote(name));
+                }
+            }
+        }
+    }
+
+    /**
+     * 清除view的签名与统计，view的sql或数据源变更、删除时调用
+     *
+     * @param viewId
+     */
+    public void clear(Long viewId) {
+        signatures.remove(viewId);
+        counters.remove(viewId);
+    }
+
+    /**
+     * 获取view上卷命中率、已构建上卷表及候选签名
+     *
+     * @param viewId
+     * @param version         当前抽取版本，未抽取时为null
+     * @param extractSqlUtils 未抽取时为null
+     * @return
+     */
+    public ViewRollupStats getStats(Long viewId, Long version, SqlUtils extractSqlUtils) {
+        ViewRollupStats stats = new ViewRollupStats();
+        stats.setViewId(viewId);
+        stats.setExtractVersion(version);
+
+        ViewCounter counter = counters.get(viewId);
+        if (counter != null) {
+            stats.setQueries(counter.getQueries().get());
+            stats.setHits(counter.getHits().get());
+            stats.setHitRate(stats.getQueries() == 0 ? 0D : (double) stats.getHits() / stats.getQueries());
+        }
+
+        List<ViewRollupInfo> rollups = new ArrayList<>();
+        if (version != null && extractSqlUtils != null) {
+            for (Rollup rollup : getRollups(viewId, version, extractSqlUtils)) {
+                ViewRollupInfo info = new ViewRollupInfo();
+                info.setName(rollup.getName());
+                info.setGroups(new ArrayList<>(rollup.getGroups()));
+                info.setMeasures(new ArrayList<>(rollup.getMeasures()));
+                info.setRows(rollup.getRows());
+                AtomicLong hits = counter == null ? null : counter.getRollupHits().get(rollup.getName());
+                info.setCount(hits == null ? 0L : hits.get());
+                info.setSupported(true);
+                rollups.add(info);
+            }
+        }
+        stats.setRollups(rollups);
+
+        Map<String, Signature> map = signatures.get(viewId);
+        List<ViewRollupInfo> proposals = new ArrayList<>();
+        if (map != null) {
+            for (Signature signature : map.values()) {
+                ViewRollupInfo info = new ViewRollupInfo();
+                info.setGroups(new ArrayList<>(signature.getGroups()));
+                info.setMeasures(new ArrayList<>(signature.getMeasures()));
+                info.setFilterColumns(new ArrayList<>(signature.getFilterColumns()));
+                info.setCount(signature.getCount().get());
+                info.setSupported(signature.isSupported());
+                proposals.add(info);
+            }
+            proposals.sort(Comparator.comparingLong(ViewRollupInfo::getCount).reversed());
+        }
+        stats.setProposals(proposals);
+        return stats;
+    }
+
+    private List<Rollup> getRollups(Long viewId, Long version, SqlUtils extractSqlUtils) {
+        String metaTable = ViewExtractManager.TABLE_PREFIX + viewId + META_TABLE_SUFFIX;
+        try {
+            return rollupCache.get(viewId + "_" + version, () -> {
+                List<Rollup> list = new ArrayList<>();
+                try {
+                    List<Map<String, Object>> rows = extractSqlUtils.jdbcTemplate()
+                            .queryForList("SELECT `NAME`, `GROUPS`, `MEASURES`, `ROW_COUNT` FROM " + quote(metaTable));
+                    for (Map<String, Object> row : rows) {
+                        Rollup rollup = new Rollup();
+                        rollup.setName((String) row.get("NAME"));
+                        rollup.getGroups().addAll(JSON.parseArray((String) row.get("GROUPS"), String.class));
+                        rollup.getMeasures().addAll(JSON.parseArray((String) row.get("MEASURES"), String.class));
+                        rollup.setRows(((Number) row.get("ROW_COUNT")).longValue());
+                        list.add(rollup);
+                    }
+                } catch (Exception e) {
+                    // 构建上卷前的抽取文件没有元数据表
+                    log.debug("Load rollups of view({}) error: {}", viewId, e.getMessage());
+                }
+                return list;
+            });
+        } catch (Exception e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 按出现次数选取候选签名，相同维度的签名合并度量
+     */
+    private List<Rollup> getCandidates(Long viewId, Set<String> columns) {
+        Map<String, Signature> map = signatures.get(viewId);
+        if (map == null) {
+            return Collections.emptyList();
+        }
+
+        List<Signature> list = map.values().stream()
+                .filter(s -> s.isSupported() && s.getCount().get() >= minHits)
+                .sorted(Comparator.comparingLong((Signature s) -> s.getCount().get()).reversed())
+                .collect(Collectors.toList());
+
+        Map<String, Rollup> candidates = new LinkedHashMap<>();
+        for (Signature signature : list) {
+            TreeSet<String> groups = new TreeSet<>(signature.getGroups());
+            groups.addAll(signature.getFilterColumns());
+            if (!columns.containsAll(groups)) {
+                continue;
+            }
+
+            TreeSet<String> measures = new TreeSet<>();
+            for (String measure : signature.getMeasures()) {
+                measures.addAll(getStoredMeasures(measure));
+            }
+            if (!measures.stream().allMatch(m -> columns.contains(getMeasureColumn(m)))) {
+                continue;
+            }
+            if (groups.isEmpty() && measures.isEmpty()) {
+                continue;
+            }
+
+            String key = String.join(",", groups);
+            Rollup rollup = candidates.get(key);
+            if (rollup == null) {
+                if (candidates.size() >= maxPerView) {
+                    continue;
+                }
+                rollup = new Rollup();
+                rollup.getGroups().addAll(groups);
+                candidates.put(key, rollup);
+            }
+            rollup.getMeasures().addAll(measures);
+        }
+        return new ArrayList<>(candidates.values());
+    }
+
+    private String getCreateSql(String name, String baseTable, Rollup rollup) {
+        String groups = rollup.getGroups().stream().map(this::quote).collect(Collectors.joining(", "));
+        String measures = rollup.getMeasures().stream()
+                .map(m -> getMeasureFunc(m) + "(" + quote(getMeasureColumn(m)) + ") AS " + quote(m))
+                .collect(Collectors.joining(", "));
+
+        StringBuilder sql = new StringBuilder("CREATE TABLE ").append(quote(name)).append(" AS SELECT ");
+        sql.append(groups);
+        if (!groups.isEmpty() && !measures.isEmpty()) {
+            sql.append(", ");
+        }
+        sql.append(measures).append(" FROM ").append(quote(baseTable));
+        if (!groups.isEmpty()) {
+            sql.append(" GROUP BY ").append(groups);
+        }
+        return sql.toString();
+    }
+
+    private Signature parse(ViewExecuteParam executeParam) {
+        if (executeParam == null || executeParam.isNativeQuery()) {
+            return null;
+        }
+
+        Signature signature = new Signature();
+        boolean supported = true;
+        if (!CollectionUtils.isEmpty(executeParam.getGroups())) {
+            executeParam.getGroups().forEach(g -> signature.getGroups().add(g.trim()));
+        }
+        if (!CollectionUtils.isEmpty(executeParam.getAggregators())) {
+            for (Aggregator aggregator : executeParam.getAggregators()) {
+                String func = aggregator.getFunc() == null ? "" : aggregator.getFunc().trim().toUpperCase();
+                if (!SUPPORTED_FUNCS.contains(func)) {
+                    supported = false;
+                }
+                signature.getMeasures().add(func + "(" + aggregator.getColumn().trim() + ")");
+            }
+        }
+        if (!CollectionUtils.isEmpty(executeParam.getFilters())) {
+            for (String filter : executeParam.getFilters()) {
+                try {
+                    collectFilterColumns(JSON.parseObject(filter, SqlFilter.class), signature.getFilterColumns());
+                } catch (Exception e) {
+                    supported = false;
+                }
+            }
+        }
+        if (signature.getGroups().isEmpty() && signature.getMeasures().isEmpty()) {
+            return null;
+        }
+
+        signature.setSupported(supported);
+        signature.setKey(String.join(",", signature.getGroups()) + "|" + String.join(",", signature.getMeasures())
+                + "|" + String.join(",", signature.getFilterColumns()));
+        return signature;
+    }
+
+    private void collectFilterColumns(SqlFilter filter, Set<String> columns) {
+        if (filter == null) {
+            return;
+        }
+        if (SqlFilter.Type.relation.equalsIgnoreCase(filter.getType())) {
+            if (filter.getChildren() != null) {
+                filter.getChildren().forEach(child -> collectFilterColumns(child, columns));
+            }
+            return;
+        }
+        if (filter.getName() == null) {
+            throw new IllegalArgumentException("Filter without name");
+        }
+        columns.add(filter.getName().trim());
+    }
+
+    /**
+     * 请求度量在上卷表中需要存储的预聚合列
+     */
+    private static List<String> getStoredMeasures(String measure) {
+        String func = getMeasureFunc(measure);
+        String column = getMeasureColumn(measure);
+        switch (func) {
+            case COUNT:
+                return Collections.singletonList(COUNT + "(" + column + ")");
+            case AVG:
+                return Arrays.asList(SUM + "(" + column + ")", COUNT + "(" + column + ")");
+            default:
+                return Collections.singletonList(measure);
+        }
+    }
+
+    private static String getMeasureFunc(String measure) {
+        return measure.substring(0, measure.indexOf('('));
+    }
+
+    private static String getMeasureColumn(String measure) {
+        return measure.substring(measure.indexOf('(') + 1, measure.lastIndexOf(')'));
+    }
+
+    private String quote(String name) {
+        return "`" + name.replace("`", "``") + "`";
+    }
+
+    @Data
+    public static class RollupRoute {
+
+        private String table;
+
+        private List<String> querySqls;
+
+        /**
+         * 在上卷表上重新聚合的表达式，别名与原查询一致
+         */
+        private List<String> aggregators;
+    }
+
+    @Data
+    private static class Signature {
+
+        private String key;
+
+        private final Set<String> groups = new TreeSet<>();
+
+        private final Set<String> measures = new TreeSet<>();
+
+        private final Set<String> filterColumns = new TreeSet<>();
+
+        private boolean supported;
+
+        private final AtomicLong count = new AtomicLong();
+    }
+
+    @Data
+    private static class Rollup {
+
+        private String name;
+
+        private final Set<String> groups = new TreeSet<>();
+
+        private final Set<String> measures = new TreeSet<>();
+
+        private long rows;
+
+        boolean covers(Signature signature) {
+            if (!groups.containsAll(signature.getGroups()) || !groups.containsAll(signature.getFilterColumns())) {
+                return false;
+            }
+            for (String measure : signature.getMeasures()) {
+                if (!measures.containsAll(getStoredMeasures(measure))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    @Data
+    private static class ViewCounter {
+
+        private final AtomicLong queries = new AtomicLong();
+
+        private final AtomicLong hits = new AtomicLong();
+
+        private final Map<String, AtomicLong> rollupHits = new ConcurrentHashMap<>();
+    }
+}
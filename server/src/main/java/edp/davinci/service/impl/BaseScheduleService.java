@@ -6,13 +6,17 @@ import edp.core.utils.ServerUtils;
 import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.dao.DashboardMapper;
 import edp.davinci.dao.DisplaySlideMapper;
+import edp.davinci.dao.UserMapper;
 import edp.davinci.dto.cronJobDto.CronJobConfig;
 import edp.davinci.dto.cronJobDto.CronJobContent;
 import edp.davinci.dto.dashboardDto.DashboardTree;
 import edp.davinci.model.Dashboard;
 import edp.davinci.model.DisplaySlide;
+import edp.davinci.model.User;
+import edp.davinci.schedule.ScheduleContentPlanner;
 import edp.davinci.service.ShareService;
 import edp.davinci.service.screenshot.ImageContent;
+import edp.davinci.service.screenshot.ScreenshotCache;
 import edp.davinci.service.screenshot.ScreenshotUtil;
 import edp.davinci.service.share.ShareDataPermission;
 import edp.davinci.service.share.ShareFactor;
@@ -23,7 +27,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static edp.core.consts.Consts.AT_SYMBOL;
@@ -39,6 +45,15 @@ public class BaseScheduleService {
     @Autowired
     protected ScreenshotUtil screenshotUtil;
 
+    @Autowired
+    protected ScreenshotCache screenshotCache;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    protected ScheduleContentPlanner scheduleContentPlanner;
+
     @Autowired
     protected DisplaySlideMapper displaySlideMapper;
 
@@ -96,14 +111,18 @@ public class BaseScheduleService {
                         int finalOrder = order;
                         slidePageMap.forEach((slide, page) -> {
                             String url = getContentUrl(userId, cronJobContent.getContentType(), cronJobContent.getId(), page);
-                            imageContents.add(new ImageContent(finalOrder + page, cronJobContent.getId(), cronJobContent.getContentType(), url));
+                            ImageContent imageContent = new ImageContent(finalOrder + page, cronJobContent.getId(), cronJobContent.getContentType(), url);
+                            imageContent.setVizId(slide);
+                            imageContents.add(imageContent);
                         });
                     } else {
                         for (Long slideId : cronJobContent.getItems()) {
                             if (slidePageMap.containsKey(slideId)) {
                                 int page = slidePageMap.get(slideId);
                                 String url = getContentUrl(userId, cronJobContent.getContentType(), cronJobContent.getId(), page);
-                                imageContents.add(new ImageContent(order + page, cronJobContent.getId(), cronJobContent.getContentType(), url));
+                                ImageContent imageContent = new ImageContent(order + page, cronJobContent.getId(), cronJobContent.getContentType(), url);
+                                imageContent.setVizId(slideId);
+                                imageContents.add(imageContent);
                             }
                         }
                     }
@@ -118,13 +137,95 @@ public class BaseScheduleService {
         }
 
         if (!CollectionUtils.isEmpty(imageContents)) {
-            screenshotUtil.screenshot(jobId, imageContents, cronJobConfig.getImageWidth());
+            List<ImageContent> renderContents = reuseUnchangedImages(jobId, imageContents, cronJobConfig.getImageWidth(), userId);
+            if (!CollectionUtils.isEmpty(renderContents)) {
+                screenshotShared(jobId, renderContents, cronJobConfig.getImageWidth(), userId);
+                renderContents.forEach(content -> screenshotCache.put(jobId, content, content.getFingerprint()));
+            }
+            imageContents.sort(Comparator.comparing(ImageContent::getOrder));
         }
 
         scheduleLogger.info("CronJob({}) fetched images contents, count:{}", jobId, imageContents.size());
         return imageContents;
     }
 
+    /**
+     * 数据指纹未变化的页面复用上次截图，返回需要重新渲染的内容
+     *
+     * @param jobId
+     * @param imageContents
+     * @param imageWidth
+     * @param userId
+     * @return
+     */
+    private List<ImageContent> reuseUnchangedImages(long jobId, List<ImageContent> imageContents, Integer imageWidth, Long userId) {
+        if (!screenshotCache.isEnable()) {
+            return imageContents;
+        }
+
+        User user = userMapper.getById(userId);
+        List<ImageContent> renderContents = new ArrayList<>();
+        for (ImageContent content : imageContents) {
+            String fingerprint = screenshotCache.fingerprint(jobId, content, imageWidth, user);
+            content.setFingerprint(fingerprint);
+            File image = screenshotCache.get(jobId, content, fingerprint);
+            if (image == null) {
+                renderContents.add(content);
+            } else {
+                content.setContent(image);
+            }
+        }
+
+        scheduleLogger.info("CronJob({}) reuse {} unchanged images, render {} images, screenshot cache {}",
+                jobId, imageContents.size() - renderContents.size(), renderContents.size(), screenshotCache.getStats());
+        return renderContents;
+    }
+
+    /**
+     * 同一时间窗口内其他job已认领的相同页面不再重复截图，等待其结果
+     *
+     * @param jobId
+     * @param renderContents
+     * @param imageWidth
+     * @param userId
+     */
+    private void screenshotShared(long jobId, List<ImageContent> renderContents, Integer imageWidth, Long userId) {
+        List<ImageContent> ownContents = new ArrayList<>();
+        Map<ImageContent, CompletableFuture<String>> sharedContents = new IdentityHashMap<>();
+        for (ImageContent content : renderContents) {
+            CompletableFuture<String> future = scheduleContentPlanner.claim(getImageShareKey(content, imageWidth, userId));
+            if (future == null) {
+                ownContents.add(content);
+            } else {
+                sharedContents.put(content, future);
+            }
+        }
+
+        try {
+            if (!CollectionUtils.isEmpty(ownContents)) {
+                screenshotUtil.screenshot(jobId, ownContents, imageWidth);
+            }
+        } finally {
+            ownContents.forEach(content -> scheduleContentPlanner.complete(getImageShareKey(content, imageWidth, userId),
+                    content.getImageFile() == null ? null : content.getImageFile().getPath()));
+        }
+
+        if (!sharedContents.isEmpty()) {
+            sharedContents.forEach((content, future) -> {
+                String path = scheduleContentPlanner.await(future);
+                if (path != null) {
+                    content.setContent(new File(path));
+                }
+            });
+            scheduleLogger.info("CronJob({}) shared {} images with other jobs, {}", jobId, sharedContents.size(), scheduleContentPlanner.getStats());
+        }
+    }
+
+    private String getImageShareKey(ImageContent content, Integer imageWidth, Long userId) {
+        return "IMAGE" + AT_SYMBOL + content.getDesc() + AT_SYMBOL + content.getCId() + AT_SYMBOL + content.getVizId()
+                + AT_SYMBOL + userId + AT_SYMBOL + imageWidth;
+    }
+
     protected List<CronJobContent> getCronJobContents(CronJobConfig cronJobConfig, Map<String, Integer> orderMap,
                                                     Map<Long, Map<Long, Integer>> displayPageMap) {
         List<CronJobContent> jobContentList = new ArrayList<>();
@@ -32,13 +32,17 @@ import edp.davinci.core.enums.LockType;
 import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.model.RedisMessageEntity;
 import edp.davinci.dao.CronJobMapper;
+import edp.davinci.dao.ViewMapper;
 import edp.davinci.dto.cronJobDto.CronJobBaseInfo;
 import edp.davinci.dto.cronJobDto.CronJobInfo;
 import edp.davinci.dto.cronJobDto.CronJobUpdate;
 import edp.davinci.model.CronJob;
 import edp.davinci.model.User;
+import edp.davinci.model.View;
+import edp.davinci.schedule.CronJobPartitioner;
 import edp.davinci.service.CronJobService;
 import edp.davinci.service.excel.ExecutorUtils;
+import edp.davinci.service.extract.ViewExtractManager;
 import lombok.extern.slf4j.Slf4j;
 import org.quartz.SchedulerException;
 import org.slf4j.Logger;
@@ -77,6 +81,21 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 	@Autowired
 	private WeChatWorkScheduleServiceImpl weChatWorkScheduleService;
 
+	@Autowired
+	private ExtractScheduleServiceImpl extractScheduleService;
+
+	@Autowired
+	private WarmUpScheduleServiceImpl warmUpScheduleService;
+
+	@Autowired
+	private ViewMapper viewMapper;
+
+	@Autowired
+	private ViewExtractManager viewExtractManager;
+
+	@Autowired
+	private CronJobPartitioner cronJobPartitioner;
+
 	private static final CheckEntityEnum entity = CheckEntityEnum.CRONJOB;
 
 	@Override
@@ -251,12 +270,41 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 		if (cronJobMapper.deleteById(id) == 1) {
 			optLogger.info("Cronjob({}) is delete by user({})", cronJob.toString(), user.getId());
 			quartzHandler.removeJob(cronJob);
+			if (ExtractScheduleServiceImpl.JOB_TYPE.equals(cronJob.getJobType())) {
+				dropUnusedExtract(cronJob);
+			}
 			return true;
 		}
 
 		return false;
 	}
 
+	/**
+	 * 删除抽取任务后，view属于任务所在项目且没有其他抽取任务引用时删除抽取数据
+	 *
+	 * @param cronJob
+	 */
+	private void dropUnusedExtract(CronJob cronJob) {
+		Long viewId = ExtractScheduleServiceImpl.getViewId(cronJob);
+		if (viewId == null) {
+			return;
+		}
+
+		View view = viewMapper.getById(viewId);
+		if (view == null || !view.getProjectId().equals(cronJob.getProjectId())) {
+			return;
+		}
+
+		List<CronJob> cronJobs = cronJobMapper.getByProject(cronJob.getProjectId());
+		boolean referenced = cronJobs != null && cronJobs.stream()
+				.anyMatch(job -> !job.getId().equals(cronJob.getId())
+						&& ExtractScheduleServiceImpl.JOB_TYPE.equals(job.getJobType())
+						&& viewId.equals(ExtractScheduleServiceImpl.getViewId(job)));
+		if (!referenced) {
+			viewExtractManager.drop(viewId);
+		}
+	}
+
 	@Override
 	@Transactional
 	public CronJob startCronJob(Long id, User user) throws NotFoundException, UnAuthorizedException, ServerException {
@@ -266,7 +314,12 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 		checkWritePermission(entity, cronJob.getProjectId(), user, "start");
 
 		try {
-			quartzHandler.addJob(cronJob);
+			// 非归属节点只做校验，由归属节点在下次心跳时调度
+			if (cronJobPartitioner.isOwner(cronJob.getId())) {
+				quartzHandler.addJob(cronJob);
+			} else {
+				quartzHandler.checkJob(cronJob);
+			}
 			cronJob.setJobStatus(CronJobStatusEnum.START.getStatus());
 			cronJob.setUpdateTime(new Date());
 			cronJobMapper.update(cronJob);
@@ -317,6 +370,11 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 
 	@Override
 	public void startAllJobs() {
+		if (cronJobPartitioner.isEnable()) {
+			cronJobPartitioner.join();
+			return;
+		}
+
 		List<CronJob> jobList = cronJobMapper.getStartedJobs();
 		jobList.forEach((cronJob) -> {
 			String key = entity.getSource().toUpperCase() + Consts.UNDERLINE + cronJob.getId() + Consts.UNDERLINE
@@ -365,6 +423,22 @@ public class CronJobServiceImpl extends BaseEntityService implements CronJobServ
 							log.error(e.toString(), e);
 							scheduleLogger.error(e.getMessage());
 						}
+					} else if (jobType.equals(ExtractScheduleServiceImpl.JOB_TYPE)) {
+						try {
+							// view数据抽取
+							extractScheduleService.execute(cronJob.getId());
+						} catch (Exception e) {
+							log.error(e.toString(), e);
+							scheduleLogger.error(e.getMessage());
+						}
+					} else if (jobType.equals(WarmUpScheduleServiceImpl.JOB_TYPE)) {
+						try {
+							// 看板缓存预热
+							warmUpScheduleService.execute(cronJob.getId());
+						} catch (Exception e) {
+							log.error(e.toString(), e);
+							scheduleLogger.error(e.getMessage());
+						}
 					}
 
 				} else {
@@ -30,6 +30,7 @@ import edp.davinci.core.enums.CheckEntityEnum;
 import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.enums.UserPermissionEnum;
 import edp.davinci.core.enums.VizEnum;
+import edp.davinci.core.utils.VizUtils;
 import edp.davinci.dao.MemDashboardWidgetMapper;
 import edp.davinci.dao.RelRoleDashboardWidgetMapper;
 import edp.davinci.dao.ViewMapper;
@@ -43,6 +44,7 @@ import edp.davinci.model.*;
 import edp.davinci.service.DashboardService;
 import edp.davinci.service.ShareService;
 import edp.davinci.service.share.ShareFactor;
+import edp.davinci.service.share.ShareFactorCache;
 import edp.davinci.service.share.ShareResult;
 import edp.davinci.service.share.ShareType;
 import lombok.extern.slf4j.Slf4j;
@@ -79,6 +81,9 @@ public class DashboardServiceImpl extends VizCommonService implements DashboardS
     @Autowired
     private ShareService shareService;
 
+    @Autowired
+    private ShareFactorCache shareFactorCache;
+
     @Autowired
     private String TOKEN_SECRET;
 
@@ -201,18 +206,22 @@ public class DashboardServiceImpl extends VizCommonService implements DashboardS
         Set<SimpleView> simpleViews = CollectionUtils.isEmpty(widgetIds) ? new HashSet<>() : viewMapper.selectSimpleByWidgetIds(widgetIds);
 
         // global controller views
+        Set<Long> controllerViewIds = new HashSet<>();
         Map<String, Object> dashboardConfig = JSON.parseObject(dashboard.getConfig(), Map.class);
         if (!CollectionUtils.isEmpty(dashboardConfig)) {
-            setControllerViews(simpleViews, (List<Map<String, Object>>) dashboardConfig.get("filters"));
+            controllerViewIds.addAll(VizUtils.getControllerViewIds((List<Map<String, Object>>) dashboardConfig.get("filters")));
         }
 
         // widget controller views
-        memDashboardWidgets.forEach(mw -> {
-            Map<String, Object> widgetConfigMap = JSON.parseObject(widgetMapper.getById(mw.getWidgetId()).getConfig(), Map.class);
-            if (!CollectionUtils.isEmpty(widgetConfigMap)) {
-                setControllerViews(simpleViews, (List<Map<String, Object>>)widgetConfigMap.get("controls"));
-            }
-        });
+        if (!CollectionUtils.isEmpty(widgetIds)) {
+            widgetMapper.getByIds(widgetIds).forEach(widget -> {
+                Map<String, Object> widgetConfigMap = JSON.parseObject(widget.getConfig(), Map.class);
+                if (!CollectionUtils.isEmpty(widgetConfigMap)) {
+                    controllerViewIds.addAll(VizUtils.getControllerViewIds((List<Map<String, Object>>) widgetConfigMap.get("controls")));
+                }
+            });
+        }
+        simpleViews.addAll(VizUtils.getSimpleViews(controllerViewIds));
 
         DashboardWithMem dashboardWithMem = new DashboardWithMem();
         BeanUtils.copyProperties(dashboard, dashboardWithMem);
@@ -222,14 +231,6 @@ public class DashboardServiceImpl extends VizCommonService implements DashboardS
         return dashboardWithMem;
     }
 
-    private void setControllerViews(Set<SimpleView> views, List<Map<String, Object>> list) {
-        if (!CollectionUtils.isEmpty(list)) {
-            list.stream().filter(m -> m.containsKey("valueViewId")).collect(Collectors.toList()).forEach(m -> {
-                views.add(viewMapper.getSimpleViewById(Long.parseLong(String.valueOf(m.get("valueViewId")))));
-            });
-        }
-    }
-
     /**
      * 新建dashboard
      *
@@ -363,6 +364,7 @@ public class DashboardServiceImpl extends VizCommonService implements DashboardS
         if (dashboardMapper.updateBatch(dashboardList) > 0) {
 
             optLogger.info("Dashboard({}) is update by user({}), origin:{}", dashboardList.toString(), user.getId(), dashboards);
+            dashboardList.forEach(d -> shareFactorCache.purgeEntity(ShareType.DASHBOARD, d.getId()));
 
             Set<Long> emptyRelDashboardId = new HashSet<>();
             List<RelRoleDashboard> relList = new ArrayList<>();
@@ -444,6 +446,7 @@ public class DashboardServiceImpl extends VizCommonService implements DashboardS
             memDashboardWidgetMapper.deleteByDashboardId(deletingDashboard.getId());
             relRoleDashboardMapper.deleteByDashboardId(deletingDashboard.getId());
             dashboardMapper.deleteById(deletingDashboard.getId());
+            shareFactorCache.purgeEntity(ShareType.DASHBOARD, deletingDashboard.getId());
         }
 
         optLogger.info("Dashboard({}) is delete by user({})", JSON.toJSON(deletingDashboards), user.getId());
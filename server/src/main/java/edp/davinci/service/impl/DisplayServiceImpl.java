@@ -48,6 +48,7 @@ import edp.davinci.service.DisplayService;
 import edp.davinci.service.DisplaySlideService;
 import edp.davinci.service.ProjectService;
 import edp.davinci.service.share.ShareFactor;
+import edp.davinci.service.share.ShareFactorCache;
 import edp.davinci.service.share.ShareResult;
 import edp.davinci.service.share.ShareType;
 import lombok.extern.slf4j.Slf4j;
@@ -78,6 +79,9 @@ public class DisplayServiceImpl extends VizCommonService implements DisplayServi
     @Autowired
     private ShareServiceImpl shareService;
 
+    @Autowired
+    private ShareFactorCache shareFactorCache;
+
     @Autowired
     private MemDisplaySlideWidgetMapper memDisplaySlideWidgetMapper;
 
@@ -194,6 +198,7 @@ public class DisplayServiceImpl extends VizCommonService implements DisplayServi
         displaySlideMapper.deleteByDisplayId(id);
         relRoleDisplayMapper.deleteByDisplayId(id);
         displayMapper.deleteById(id);
+        shareFactorCache.purgeEntity(ShareType.DISPLAY, id);
 
         return true;
     }
@@ -268,6 +273,7 @@ public class DisplayServiceImpl extends VizCommonService implements DisplayServi
             }
 
             optLogger.info("Display({}) is update by user({}), origin:{}", display.toString(), user.getId(), origin);
+            shareFactorCache.purgeEntity(ShareType.DISPLAY, display.getId());
             if (displayUpdate.getRoleIds() != null) {
                 relRoleDisplayMapper.deleteByDisplayId(display.getId());
                 if (!CollectionUtils.isEmpty(displayUpdate.getRoleIds())) {
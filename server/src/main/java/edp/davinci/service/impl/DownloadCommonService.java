@@ -94,16 +94,15 @@ public class DownloadCommonService {
                 // order by mem_dashboard_widget create_time
                 widgets = orderBy(mdw, widgets);
                 Map<Long, MemDashboardWidget> map = mdw.stream().collect(Collectors.toMap(o -> o.getWidgetId(), o -> o, (oldV, newV) -> oldV));
+                Map<Long, ViewExecuteParam> paramMap = new HashMap<>();
+                if (!CollectionUtils.isEmpty(params)) {
+                    params.stream().filter(p -> null != p.getParam() && null != p.getId())
+                            .forEach(p -> paramMap.putIfAbsent(p.getId(), p.getParam()));
+                }
                 widgets.stream().forEach(t -> {
-                    ViewExecuteParam executeParam = null;
-                    if (!CollectionUtils.isEmpty(params) && map.containsKey(t.getId())) {
-                        MemDashboardWidget memDashboardWidget = map.get(t.getId());
-                        try {
-                            executeParam = params.stream().filter(p -> null != p.getParam() && p.getId().equals(memDashboardWidget.getId())).findFirst().get().getParam();
-                        } catch (Exception e) {
-                        }
-                    }
-                    widgetList.add(new WidgetContext(t, dashboard, map.get(t.getId()), executeParam));
+                    MemDashboardWidget memDashboardWidget = map.get(t.getId());
+                    ViewExecuteParam executeParam = null == memDashboardWidget ? null : paramMap.get(memDashboardWidget.getId());
+                    widgetList.add(new WidgetContext(t, dashboard, memDashboardWidget, executeParam));
                 });
             }
         }
@@ -111,9 +110,13 @@ public class DownloadCommonService {
     }
 
     private List<Widget> orderBy(List<MemDashboardWidget> memDashboardWidgets, List<Widget> widgets) {
-        List<Widget> list = new ArrayList<>();
+        Map<Long, Widget> widgetMap = widgets.stream().collect(Collectors.toMap(Widget::getId, w -> w, (oldV, newV) -> oldV));
+        List<Widget> list = new ArrayList<>(memDashboardWidgets.size());
         memDashboardWidgets.forEach(m -> {
-            list.add(widgets.stream().filter(w -> w.getId().equals(m.getWidgetId())).findFirst().get());
+            Widget widget = widgetMap.get(m.getWidgetId());
+            if (null != widget) {
+                list.add(widget);
+            }
         });
         return list;
     }
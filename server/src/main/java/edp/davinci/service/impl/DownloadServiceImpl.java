@@ -21,28 +21,23 @@ package edp.davinci.service.impl;
 
 import com.alibaba.druid.util.StringUtils;
 import edp.core.exception.UnAuthorizedException;
+import edp.core.utils.CollectionUtils;
 import edp.davinci.core.enums.ActionEnum;
 import edp.davinci.core.enums.DownloadTaskStatus;
 import edp.davinci.core.enums.DownloadType;
-import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.dao.DownloadRecordMapper;
 import edp.davinci.dao.UserMapper;
 import edp.davinci.dto.viewDto.DownloadViewExecuteParam;
 import edp.davinci.model.DownloadRecord;
 import edp.davinci.model.User;
 import edp.davinci.service.DownloadService;
-import edp.davinci.service.excel.ExecutorUtils;
-import edp.davinci.service.excel.MsgWrapper;
-import edp.davinci.service.excel.WidgetContext;
-import edp.davinci.service.excel.WorkBookContext;
 import lombok.extern.slf4j.Slf4j;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
 
 
 /**
@@ -56,17 +51,23 @@ import java.util.List;
 @Slf4j
 public class DownloadServiceImpl extends DownloadCommonService implements DownloadService {
 
-    private static final Logger downloadLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_DOWNLOAD.getName());
-
     @Autowired
     private DownloadRecordMapper downloadRecordMapper;
 
     @Autowired
     private UserMapper userMapper;
 
+    @Autowired
+    private ExportTaskScheduler exportTaskScheduler;
+
     @Override
     public List<DownloadRecord> queryDownloadRecordPage(Long userId) {
-        return downloadRecordMapper.getDownloadRecordsByUser(userId);
+        List<DownloadRecord> records = downloadRecordMapper.getDownloadRecordsByUser(userId);
+        if (!CollectionUtils.isEmpty(records)) {
+            exportTaskScheduler.fillQueueInfo(ActionEnum.DOWNLOAD,
+                    records.stream().collect(Collectors.toMap(DownloadRecord::getId, r -> r, (o, n) -> o)));
+        }
+        return records;
     }
 
     @Override
@@ -100,26 +101,16 @@ public class DownloadServiceImpl extends DownloadCommonService implements Downlo
     @Override
     public Boolean submit(DownloadType type, Long id, User user, List<DownloadViewExecuteParam> params) {
         try {
-            List<WidgetContext> widgetList = getWidgetContexts(type, id, user, params);
+            // 提交时校验权限，任务执行时再构建组件上下文
+            getWidgetContexts(type, id, user, params);
             DownloadRecord record = new DownloadRecord();
             record.setName(getDownloadFileName(type, id));
             record.setUserId(user.getId());
             record.setCreateTime(new Date());
             record.setStatus(DownloadTaskStatus.PROCESSING.getStatus());
             downloadRecordMapper.insert(record);
-            MsgWrapper wrapper = new MsgWrapper(record, ActionEnum.DOWNLOAD, record.getId());
-
-            WorkBookContext workBookContext = WorkBookContext.WorkBookContextBuilder.newBuilder()
-                    .withWrapper(wrapper)
-                    .withWidgets(widgetList)
-                    .withUser(user)
-                    .withResultLimit(resultLimit)
-                    .withTaskKey("DownloadTask_" + id)
-                    .withCustomLogger(downloadLogger)
-                    .build();
-
-            ExecutorUtils.submitWorkbookTask(workBookContext, downloadLogger);
-            log.info("Download task submit:{}", wrapper);
+            exportTaskScheduler.submit(ActionEnum.DOWNLOAD, record.getId(), user, type, id, params);
+            log.info("Download task submit:{}", record);
         } catch (Exception e) {
             log.error("Submit download task error", e);
             return false;
@@ -57,6 +57,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -196,6 +197,7 @@ public class EmailScheduleServiceImpl extends BaseScheduleService implements Sch
         Map<String, Integer> vizOrderMap = new HashMap<>();
         Map<Long, Map<Long, Integer>> displayPageMap = new HashMap<>();
         Map<String, Integer> excelEntityOrderMap = new HashMap<>();
+        Map<String, String> excelShareKeyMap = new HashMap<>();
 
         List<CronJobContent> jobContentList = getCronJobContents(cronJobConfig, vizOrderMap, displayPageMap);
 
@@ -250,6 +252,7 @@ public class EmailScheduleServiceImpl extends BaseScheduleService implements Sch
                         String workBookName = slidePageSize == 1 ? display.getName() : display.getName() + "(" + page + ")";
                         workBookContextMap.put(workBookName, workBookContext);
                         excelEntityOrderMap.put(workBookName, order + page);
+                        excelShareKeyMap.put(workBookName, getExcelShareKey(DISPLAY + AT_SYMBOL + display.getId() + AT_SYMBOL + slideId, user));
                     }
                 }
             } else {
@@ -287,6 +290,7 @@ public class EmailScheduleServiceImpl extends BaseScheduleService implements Sch
 
                     workBookContextMap.put(dashboard.getName(), workBookContext);
                     excelEntityOrderMap.put(dashboard.getName(), order);
+                    excelShareKeyMap.put(dashboard.getName(), getExcelShareKey(DASHBOARD + AT_SYMBOL + dashboard.getId(), user));
                 }
             }
         }
@@ -299,9 +303,18 @@ public class EmailScheduleServiceImpl extends BaseScheduleService implements Sch
 
         List<ExcelContent> excelContents = new CopyOnWriteArrayList<>();
         Map<String, Future<String>> excelPathFutureMap = new LinkedHashMap<>();
+        Map<String, CompletableFuture<String>> sharedExcelPathFutureMap = new LinkedHashMap<>();
         int contextSize = workBookContextMap.size();
         final AtomicInteger index = new AtomicInteger(1);
         workBookContextMap.forEach((name, context) -> {
+            // 同一时间窗口内其他job已认领相同内容时复用其结果
+            CompletableFuture<String> shared = scheduleContentPlanner.claim(excelShareKeyMap.get(name));
+            if (shared != null) {
+                scheduleLogger.info("CronJob({}) share workbook task:{} with other job", jobId, name);
+                sharedExcelPathFutureMap.put(name, shared);
+                index.incrementAndGet();
+                return;
+            }
             scheduleLogger.info("CronJob({}) submit workbook task:{}, thread:{}, total:{}", jobId, name, index, contextSize);
             try {
             	String uuid = UUID.randomUUID().toString().replace("-", EMPTY);
@@ -310,6 +323,7 @@ public class EmailScheduleServiceImpl extends BaseScheduleService implements Sch
             }catch (Exception e) {
             	scheduleLogger.error("Cronjob({}) submit workbook task error, thread:{}", jobId, index.get());
             	scheduleLogger.error(e.getMessage(), e);
+                scheduleContentPlanner.complete(excelShareKeyMap.get(name), null);
 			}finally {
                 index.incrementAndGet();
 			}
@@ -323,14 +337,30 @@ public class EmailScheduleServiceImpl extends BaseScheduleService implements Sch
             } catch (Exception e) {
             	scheduleLogger.info("CronJob({}) workbook task:{} error", jobId, name);
             	scheduleLogger.error(e.getMessage(), e);
+            } finally {
+                scheduleContentPlanner.complete(excelShareKeyMap.get(name), excelPath);
+            }
+            if (!StringUtils.isEmpty(excelPath)) {
+                excelContents.add(new ExcelContent(excelEntityOrderMap.get(name), name, excelPath));
             }
+        });
+
+        sharedExcelPathFutureMap.forEach((name, future) -> {
+            String excelPath = scheduleContentPlanner.await(future);
             if (!StringUtils.isEmpty(excelPath)) {
                 excelContents.add(new ExcelContent(excelEntityOrderMap.get(name), name, excelPath));
             }
         });
+        if (!sharedExcelPathFutureMap.isEmpty()) {
+            scheduleLogger.info("CronJob({}) shared {} workbooks with other jobs, {}", jobId, sharedExcelPathFutureMap.size(), scheduleContentPlanner.getStats());
+        }
 
         excelContents.sort(Comparator.comparing(ExcelContent::getOrder));
         scheduleLogger.info("CronJob({}) fetched excel contents, count:{}", jobId, excelContents.size());
         return excelContents.isEmpty() ? null : excelContents;
     }
+
+    private String getExcelShareKey(String content, User user) {
+        return "EXCEL" + AT_SYMBOL + content + AT_SYMBOL + user.getId() + AT_SYMBOL + resultLimit;
+    }
 }
@@ -0,0 +1,464 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.impl;
+
+import com.alibaba.fastjson.JSON;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.ServerUtils;
+import edp.davinci.core.enums.ActionEnum;
+import edp.davinci.core.enums.DownloadTaskStatus;
+import edp.davinci.core.enums.DownloadType;
+import edp.davinci.core.enums.ExportTaskStatus;
+import edp.davinci.core.enums.LogNameEnum;
+import edp.davinci.dao.DownloadRecordMapper;
+import edp.davinci.dao.ExportTaskMapper;
+import edp.davinci.dao.ShareDownloadRecordMapper;
+import edp.davinci.dao.UserMapper;
+import edp.davinci.dto.viewDto.DownloadViewExecuteParam;
+import edp.davinci.model.DownloadRecord;
+import edp.davinci.model.DownloadRecordBaseInfo;
+import edp.davinci.model.ExportTask;
+import edp.davinci.model.ShareDownloadRecord;
+import edp.davinci.model.User;
+import edp.davinci.service.excel.ExecutorUtils;
+import edp.davinci.service.excel.MsgWrapper;
+import edp.davinci.service.excel.WidgetContext;
+import edp.davinci.service.excel.WorkBookContext;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * 下载任务调度
+ * 下载任务持久化在 export_task 表中，集群内各节点按优先级抢占等待中的任务执行，
+ * 并限制单节点及单用户的并发数；节点宕机或重启后，其未完成的任务由心跳超时重新入队
+ */
+@Slf4j
+@Component
+public class ExportTaskScheduler extends DownloadCommonService {
+
+    private static final Logger downloadLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_DOWNLOAD.getName());
+
+    @Autowired
+    private ExportTaskMapper exportTaskMapper;
+
+    @Autowired
+    private DownloadRecordMapper downloadRecordMapper;
+
+    @Autowired
+    private ShareDownloadRecordMapper shareDownloadRecordMapper;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private ServerUtils serverUtils;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${download.queue.node-concurrency:4}")
+    private int nodeConcurrency;
+
+    @Value("${download.queue.user-concurrency:2}")
+    private int userConcurrency;
+
+    @Value("${download.queue.heartbeat-timeout-seconds:60}")
+    private int heartbeatTimeout;
+
+    private volatile String node;
+
+    private final Map<Long, RunningTask> runningTasks = new ConcurrentHashMap<>();
+
+    /**
+     * 心跳使用独立线程，避免被共享的 @Scheduled 线程上的其他任务阻塞而超时
+     */
+    private ScheduledExecutorService heartbeatExecutor;
+
+    /**
+     * 提交任务后在独立线程上调度，请求线程不等待其他节点或调度中的抢占
+     */
+    private ScheduledExecutorService dispatchExecutor;
+
+    private final AtomicBoolean dispatchRequested = new AtomicBoolean(false);
+
+    /**
+     * 提交下载任务到队列
+     *
+     * @param action
+     * @param recordId
+     * @param user
+     * @param type
+     * @param entityId
+     * @param params
+     * @return
+     */
+    public ExportTask submit(ActionEnum action, Long recordId, User user, DownloadType type, Long entityId, List<DownloadViewExecuteParam> params) {
+        ExportTask task = new ExportTask();
+        task.setAction(action.name());
+        task.setRecordId(recordId);
+        task.setUserId(user == null ? null : user.getId());
+        task.setType(type.name());
+        task.setEntityId(entityId);
+        task.setParams(CollectionUtils.isEmpty(params) ? null : JSON.toJSONString(params));
+        task.setPriority(getPriority(type));
+        task.setStatus(ExportTaskStatus.WAITING.getStatus());
+        task.setProgress(0);
+        task.setCreateTime(new Date());
+        exportTaskMapper.insert(task);
+        downloadLogger.info("Export task({}) queued action={}, recordId={}, type={}, entityId={}, priority={}",
+                task.getId(), action, recordId, type, entityId, task.getPriority());
+        requestDispatch();
+        return task;
+    }
+
+    /**
+     * 单个组件的下载优先执行，文件夹下载最后执行
+     *
+     * @param type
+     * @return
+     */
+    private int getPriority(DownloadType type) {
+        switch (type) {
+            case Widget:
+                return 10;
+            case DashBoard:
+                return 5;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 节点启动后将本节点遗留的任务重新入队并开始调度
+     */
+    public void start() {
+        String localNode = serverUtils.getLocalHost();
+        int count = exportTaskMapper.requeueByNode(localNode);
+        if (count > 0) {
+            downloadLogger.info("Export task requeue {} tasks left by node {}", count, localNode);
+        }
+        this.node = localNode;
+
+        long interval = Math.max(1L, heartbeatTimeout / 3);
+        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "export-task-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeatExecutor.scheduleWithFixedDelay(this::heartbeat, interval, interval, TimeUnit.SECONDS);
+
+        dispatchExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "export-task-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        requestDispatch();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (heartbeatExecutor != null) {
+            heartbeatExecutor.shutdownNow();
+        }
+        if (dispatchExecutor != null) {
+            dispatchExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 异步调度，已有未开始的调度时合并为一次
+     */
+    private void requestDispatch() {
+        ScheduledExecutorService executor = dispatchExecutor;
+        if (executor == null || !dispatchRequested.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                dispatchRequested.set(false);
+                try {
+                    dispatch();
+                } catch (Exception e) {
+                    log.error("Export task dispatch error", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            dispatchRequested.set(false);
+        }
+    }
+
+    @Scheduled(fixedDelay = 2000L)
+    public void schedule() {
+        if (node == null) {
+            return;
+        }
+        try {
+            collect();
+            // 超时按数据库时钟判断，与心跳写入的时间一致
+            int count = exportTaskMapper.requeueExpired(heartbeatTimeout);
+            if (count > 0) {
+                downloadLogger.warn("Export task requeue {} tasks with expired heartbeat", count);
+            }
+            dispatch();
+        } catch (Exception e) {
+            log.error("Export task schedule error", e);
+        }
+    }
+
+    @Scheduled(cron = "0 0 1 * * *")
+    public void clearFinishedTasks() {
+        exportTaskMapper.deleteBeforeAWeekTask();
+    }
+
+    /**
+     * 在并发限制内按优先级抢占等待中的任务，多节点通过条件更新保证同一任务只被一个节点执行
+     */
+    private synchronized void dispatch() {
+        if (node == null) {
+            return;
+        }
+        int free = nodeConcurrency - runningTasks.size();
+        if (free <= 0) {
+            return;
+        }
+        // 多取一些候选任务，同一用户超出并发上限的任务被跳过后仍可调度其他用户的任务
+        List<ExportTask> tasks = exportTaskMapper.getWaitingTasks(userConcurrency, free * 4);
+        Set<Long> fullUsers = new HashSet<>();
+        for (ExportTask task : tasks) {
+            if (free <= 0) {
+                break;
+            }
+            Long userId = task.getUserId();
+            if (userId != null && fullUsers.contains(userId)) {
+                continue;
+            }
+            if (!claim(task)) {
+                // 已被其他节点抢占，或该用户已达并发上限
+                if (userId != null && exportTaskMapper.countRunningByUser(userId) >= userConcurrency) {
+                    fullUsers.add(userId);
+                }
+                continue;
+            }
+            free--;
+            task.setNode(node);
+            execute(task);
+        }
+    }
+
+    /**
+     * 抢占任务，有用户的任务在锁定用户行的事务内检查该用户执行中的任务数，
+     * 各节点对同一用户的抢占串行执行，不会超出单用户并发上限
+     *
+     * @param task
+     * @return
+     */
+    private boolean claim(ExportTask task) {
+        Long userId = task.getUserId();
+        if (userId == null) {
+            return exportTaskMapper.claim(task.getId(), node) > 0;
+        }
+        Boolean claimed = transactionTemplate.execute(status -> {
+            exportTaskMapper.lockUser(userId);
+            if (exportTaskMapper.countRunningByUser(userId) >= userConcurrency) {
+                return false;
+            }
+            return exportTaskMapper.claim(task.getId(), node) > 0;
+        });
+        return Boolean.TRUE.equals(claimed);
+    }
+
+    private void execute(ExportTask task) {
+        RunningTask runningTask = new RunningTask(task);
+        try {
+            WorkBookContext context = buildWorkBookContext(task, runningTask.progress);
+            runningTask.future = ExecutorUtils.submitWorkbookTask(context, downloadLogger);
+            runningTasks.put(task.getId(), runningTask);
+            downloadLogger.info("Export task({}) start on node {}", task.getId(), node);
+        } catch (Exception e) {
+            downloadLogger.error("Export task({}) start error", task.getId(), e);
+            failRecord(task);
+            exportTaskMapper.finish(task.getId(), node, ExportTaskStatus.FAILED.getStatus(), 0);
+        }
+    }
+
+    private WorkBookContext buildWorkBookContext(ExportTask task, AtomicInteger progress) {
+        ActionEnum action = ActionEnum.valueOf(task.getAction());
+        User user = task.getUserId() == null ? null : userMapper.getById(task.getUserId());
+        List<DownloadViewExecuteParam> params = StringUtils.isEmpty(task.getParams()) ? null : JSON.parseArray(task.getParams(), DownloadViewExecuteParam.class);
+        List<WidgetContext> widgets = getWidgetContexts(DownloadType.valueOf(task.getType()), task.getEntityId(), user, params);
+
+        MsgWrapper wrapper;
+        String taskKey;
+        if (action == ActionEnum.DOWNLOAD) {
+            DownloadRecord record = downloadRecordMapper.getById(task.getRecordId());
+            wrapper = new MsgWrapper(record, ActionEnum.DOWNLOAD, record.getId());
+            taskKey = "DownloadTask_" + task.getEntityId();
+        } else {
+            ShareDownloadRecord record = shareDownloadRecordMapper.getById(task.getRecordId());
+            wrapper = new MsgWrapper(record, ActionEnum.SHAREDOWNLOAD, record.getUuid());
+            taskKey = "ShareDownload_" + record.getUuid();
+        }
+
+        return WorkBookContext.WorkBookContextBuilder.newBuilder()
+                .withWrapper(wrapper)
+                .withWidgets(widgets)
+                .withUser(user)
+                .withResultLimit(resultLimit)
+                .withTaskKey(taskKey)
+                .withCustomLogger(downloadLogger)
+                .withProgressListener((finished, total) -> progress.set(finished * 100 / total))
+                .build();
+    }
+
+    /**
+     * 回收已完成的任务
+     */
+    private void collect() {
+        Iterator<RunningTask> iterator = runningTasks.values().iterator();
+        while (iterator.hasNext()) {
+            RunningTask runningTask = iterator.next();
+            if (!runningTask.future.isDone()) {
+                continue;
+            }
+            iterator.remove();
+            String filePath = null;
+            try {
+                filePath = (String) runningTask.future.get();
+            } catch (Exception e) {
+                downloadLogger.error("Export task({}) execute error", runningTask.task.getId(), e);
+            }
+            boolean success = !StringUtils.isEmpty(filePath);
+            if (!success) {
+                failRecord(runningTask.task);
+            }
+            exportTaskMapper.finish(runningTask.task.getId(), node,
+                    success ? ExportTaskStatus.FINISHED.getStatus() : ExportTaskStatus.FAILED.getStatus(),
+                    success ? 100 : runningTask.progress.get());
+            downloadLogger.info("Export task({}) finish status={}", runningTask.task.getId(), success);
+        }
+    }
+
+    private void heartbeat() {
+        try {
+            for (RunningTask runningTask : runningTasks.values()) {
+                exportTaskMapper.heartbeat(runningTask.task.getId(), node, runningTask.progress.get());
+            }
+        } catch (Exception e) {
+            log.error("Export task heartbeat error", e);
+        }
+    }
+
+    /**
+     * 任务无法执行时将下载记录置为失败，避免一直处于处理中
+     *
+     * @param task
+     */
+    private void failRecord(ExportTask task) {
+        if (ActionEnum.DOWNLOAD.name().equals(task.getAction())) {
+            DownloadRecord record = downloadRecordMapper.getById(task.getRecordId());
+            if (record != null && record.getStatus() == DownloadTaskStatus.PROCESSING.getStatus()) {
+                record.setStatus(DownloadTaskStatus.FAILED.getStatus());
+                downloadRecordMapper.updateById(record);
+            }
+        } else {
+            ShareDownloadRecord record = shareDownloadRecordMapper.getById(task.getRecordId());
+            if (record != null && record.getStatus() == DownloadTaskStatus.PROCESSING.getStatus()) {
+                record.setStatus(DownloadTaskStatus.FAILED.getStatus());
+                shareDownloadRecordMapper.updateById(record);
+            }
+        }
+    }
+
+    /**
+     * 填充处理中的下载记录的排队位置及进度
+     *
+     * @param action
+     * @param records  record id -> record
+     */
+    public void fillQueueInfo(ActionEnum action, Map<Long, ? extends DownloadRecordBaseInfo> records) {
+        if (CollectionUtils.isEmpty(records)) {
+            return;
+        }
+        List<Long> recordIds = records.entrySet().stream()
+                .filter(e -> e.getValue().getStatus() != null && e.getValue().getStatus() == DownloadTaskStatus.PROCESSING.getStatus())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        if (CollectionUtils.isEmpty(recordIds)) {
+            return;
+        }
+        List<ExportTask> tasks = exportTaskMapper.getUnfinishedByRecords(action.name(), recordIds);
+        if (CollectionUtils.isEmpty(tasks)) {
+            return;
+        }
+        Map<Long, Integer> positions = new HashMap<>();
+        if (tasks.stream().anyMatch(t -> t.getStatus() == ExportTaskStatus.WAITING.getStatus())) {
+            List<Long> waitingIds = exportTaskMapper.getWaitingTaskIds();
+            for (int i = 0; i < waitingIds.size(); i++) {
+                positions.put(waitingIds.get(i), i + 1);
+            }
+        }
+        for (ExportTask task : tasks) {
+            DownloadRecordBaseInfo record = records.get(task.getRecordId());
+            if (record == null) {
+                continue;
+            }
+            record.setProgress(task.getProgress());
+            record.setQueuePosition(task.getStatus() == ExportTaskStatus.WAITING.getStatus() ? positions.get(task.getId()) : 0);
+        }
+    }
+
+    private static class RunningTask {
+
+        private final ExportTask task;
+
+        private final AtomicInteger progress = new AtomicInteger(0);
+
+        private Future future;
+
+        private RunningTask(ExportTask task) {
+            this.task = task;
+        }
+    }
+}
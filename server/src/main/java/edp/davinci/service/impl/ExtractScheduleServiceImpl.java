@@ -0,0 +1,97 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.impl;
+
+import com.alibaba.druid.util.StringUtils;
+import com.alibaba.fastjson.JSONObject;
+import edp.core.common.quartz.ScheduleService;
+import edp.davinci.core.enums.LogNameEnum;
+import edp.davinci.dao.CronJobMapper;
+import edp.davinci.dao.ViewMapper;
+import edp.davinci.model.CronJob;
+import edp.davinci.model.View;
+import edp.davinci.service.extract.ViewExtractManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * View数据抽取任务，config格式：{"viewId": 1}
+ */
+@Service("extractScheduleService")
+public class ExtractScheduleServiceImpl implements ScheduleService {
+
+    private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
+
+    public static final String JOB_TYPE = "extract";
+
+    @Autowired
+    private CronJobMapper cronJobMapper;
+
+    @Autowired
+    private ViewMapper viewMapper;
+
+    @Autowired
+    private ViewExtractManager viewExtractManager;
+
+    @Override
+    public void execute(long jobId) throws Exception {
+        CronJob cronJob = cronJobMapper.getById(jobId);
+        Long viewId = getViewId(cronJob);
+        if (viewId == null) {
+            scheduleLogger.error("CronJob({}) config viewId is empty", jobId);
+            return;
+        }
+
+        View view = viewMapper.getById(viewId);
+        if (view == null || !view.getProjectId().equals(cronJob.getProjectId())) {
+            scheduleLogger.error("CronJob({}) view({}) is not found in project({})", jobId, viewId, cronJob.getProjectId());
+            return;
+        }
+
+        scheduleLogger.info("CronJob({}) is start! --------------", jobId);
+        cronJobMapper.updateExecLog(jobId, "");
+        try {
+            viewExtractManager.refresh(viewId);
+        } catch (Exception e) {
+            cronJobMapper.updateExecLog(jobId, e.getMessage());
+            throw e;
+        }
+        scheduleLogger.info("CronJob({}) is finish! --------------", jobId);
+    }
+
+    /**
+     * 获取抽取任务对应的view
+     *
+     * @param cronJob
+     * @return
+     */
+    public static Long getViewId(CronJob cronJob) {
+        if (null == cronJob || StringUtils.isEmpty(cronJob.getConfig())) {
+            return null;
+        }
+        try {
+            return JSONObject.parseObject(cronJob.getConfig()).getLong("viewId");
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
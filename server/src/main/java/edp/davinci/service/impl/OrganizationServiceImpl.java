@@ -31,6 +31,7 @@ import edp.davinci.core.enums.CheckEntityEnum;
 import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.enums.UserOrgRoleEnum;
 import edp.davinci.core.model.TokenEntity;
+import edp.davinci.core.service.ProjectPermissionCache;
 import edp.davinci.dao.*;
 import edp.davinci.dto.organizationDto.*;
 import edp.davinci.dto.userDto.UserBaseInfo;
@@ -39,6 +40,7 @@ import edp.davinci.model.Project;
 import edp.davinci.model.RelUserOrganization;
 import edp.davinci.model.User;
 import edp.davinci.service.OrganizationService;
+import edp.davinci.service.share.ShareFactorCache;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +65,12 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
     @Autowired
     private RelUserOrganizationMapper relUserOrganizationMapper;
 
+    @Autowired
+    private ProjectPermissionCache projectPermissionCache;
+
+    @Autowired
+    private ShareFactorCache shareFactorCache;
+
     @Autowired
     public OrganizationMapper organizationMapper;
 
@@ -185,6 +193,8 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
             }
 
             optLogger.info("Organization({}) is update by user({}), origin:{}", organization.toString(), user.getId(), origin);
+            projectPermissionCache.invalidateOrganization(id);
+            shareFactorCache.purgeOrganization(id);
             return true;
 
         } finally {
@@ -615,6 +625,8 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
         int memberNum = organization.getMemberNum();
         organization.setMemberNum(memberNum > 0 ? memberNum - 1 : memberNum);
         organizationMapper.updateMemberNum(organization);
+        projectPermissionCache.invalidateOrganization(orgId);
+        shareFactorCache.purgeOrganization(orgId);
         return true;
     }
 
@@ -673,6 +685,8 @@ public class OrganizationServiceImpl extends BaseEntityService implements Organi
         }
 
         optLogger.info("RelUserOrganization({}) is update by user({}), origin:{}", rel.toString(), user.getId(), origin);
+        projectPermissionCache.invalidateOrganization(orgId);
+        shareFactorCache.purgeOrganization(orgId);
         return true;
     }
 
@@ -33,6 +33,8 @@ import edp.davinci.core.enums.CronJobStatusEnum;
 import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.enums.UserOrgRoleEnum;
 import edp.davinci.core.enums.UserPermissionEnum;
+import edp.davinci.core.service.ProjectPermissionCache;
+import edp.davinci.core.service.ProjectPermissionCache.ProjectAccess;
 import edp.davinci.dao.*;
 import edp.davinci.dto.organizationDto.OrganizationInfo;
 import edp.davinci.dto.projectDto.*;
@@ -42,6 +44,7 @@ import edp.davinci.model.*;
 import edp.davinci.service.DashboardService;
 import edp.davinci.service.DisplayService;
 import edp.davinci.service.ProjectService;
+import edp.davinci.service.share.ShareFactorCache;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -107,6 +110,12 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
     @Autowired
     private RelRoleViewMapper relRoleViewMapper;
 
+    @Autowired
+    private ProjectPermissionCache projectPermissionCache;
+
+    @Autowired
+    private ShareFactorCache shareFactorCache;
+
     private static final CheckEntityEnum entity = CheckEntityEnum.PROJECT;
     
     @Override
@@ -314,6 +323,8 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
         organizationMapper.updateProjectNum(organization);
 
         projectMapper.deleteBeforeOrgRole(project.getId(), beforeOrgId);
+        projectPermissionCache.invalidateProject(project.getId());
+        shareFactorCache.purgeProject(project.getId());
 
         return project;
     }
@@ -358,6 +369,8 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
         }
         
         optLogger.info("Project({}) is delete by user({})", project.toString(), user.getId());
+        projectPermissionCache.invalidateProject(project.getId());
+        shareFactorCache.purgeProject(project.getId());
         Organization organization = organizationMapper.getById(project.getOrgId());
         organization.setProjectNum(organization.getProjectNum() - 1);
         organizationMapper.updateProjectNum(organization);
@@ -404,6 +417,8 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
 	        }
 	        
 	        optLogger.info("Project({}) is update to {} by user({})", originInfo, project.baseInfoToString(), user.getId());
+	        projectPermissionCache.invalidateProject(id);
+	        shareFactorCache.purgeProject(id);
 	        return project;
 			
 		}finally {
@@ -496,6 +511,8 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
 		if (relProjectAdminMapper.insertBatch(relProjectAdmins) <= 0) {
 			throw new ServerException("Unspecified error");
 		}
+		projectPermissionCache.invalidateProject(id);
+		shareFactorCache.purgeProject(id);
 
 		Map<Long, User> userMap = new HashMap<>();
 		admins.forEach(u -> userMap.put(u.getId(), u));
@@ -541,6 +558,8 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
         }
         
         optLogger.info("RelProjectAdmin({}) is delete by user({})", relProjectAdmin.toString(), user.getId());
+        projectPermissionCache.invalidateProject(relProjectAdmin.getProjectId());
+        shareFactorCache.purgeProject(relProjectAdmin.getProjectId());
         return true;
     }
 
@@ -558,16 +577,14 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
      */
     @Override
     public ProjectDetail getProjectDetail(Long id, User user, boolean modify) throws NotFoundException, UnAuthorizedException {
-        ProjectDetail projectDetail = projectMapper.getProjectDetail(id);
-        if (null == projectDetail) {
+        ProjectAccess access = getProjectAccess(id, user);
+        if (null == access) {
             log.error("Project({}) is not found", id);
             throw new NotFoundException("Project is not found");
         }
 
-        RelUserOrganization rel = relUserOrganizationMapper.getRel(user.getId(), projectDetail.getOrgId());
-        RelProjectAdmin relProjectAdmin = relProjectAdminMapper.getByProjectAndUser(id, user.getId());
-        boolean isCreator = projectDetail.getUserId().equals(user.getId()) && !projectDetail.getIsTransfer();
-        boolean notOwner = !isCreator && null == relProjectAdmin && (null == rel || rel.getRole() != UserOrgRoleEnum.OWNER.getRole());
+        ProjectDetail projectDetail = access.getProjectDetail();
+        boolean notOwner = !access.isOwner();
         if (modify) {
             //项目的创建人和当前项目对应组织的owner可以修改
             if (notOwner) {
@@ -587,6 +604,32 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
         return projectDetail;
     }
 
+    /**
+     * 解析用户在项目中的身份，结果按(userId, projectId)缓存
+     *
+     * @param id
+     * @param user
+     * @return
+     */
+    private ProjectAccess getProjectAccess(Long id, User user) {
+        return projectPermissionCache.get(id, user.getId(), () -> {
+            ProjectDetail projectDetail = projectMapper.getProjectDetail(id);
+            if (null == projectDetail) {
+                return null;
+            }
+
+            RelUserOrganization rel = relUserOrganizationMapper.getRel(user.getId(), projectDetail.getOrgId());
+            RelProjectAdmin relProjectAdmin = relProjectAdminMapper.getByProjectAndUser(id, user.getId());
+            boolean isCreator = projectDetail.getUserId().equals(user.getId()) && !projectDetail.getIsTransfer();
+            boolean isOrgOwner = null != rel && rel.getRole() == UserOrgRoleEnum.OWNER.getRole();
+            boolean isOwner = isCreator || null != relProjectAdmin || isOrgOwner;
+            boolean isMaintainer = projectDetail.getOrganization().getUserId().equals(user.getId())
+                    || isCreator
+                    || (null != rel && (isOrgOwner || null != relProjectAdmin));
+            return new ProjectAccess(projectDetail, isOwner, isMaintainer);
+        });
+    }
+
 
 	/**
 	 * 批量添加权限
@@ -606,6 +649,8 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
 
 		ProjectDetail projectDetail = getProjectDetail(id, user, true);
 		List<Role> roleList = roleMapper.selectByIdsAndOrgId(projectDetail.getOrgId(), roleIds);
+		projectPermissionCache.invalidateProject(id);
+		shareFactorCache.purgeProject(id);
 
 		if (CollectionUtils.isEmpty(roleList)) {
 			relRoleProjectMapper.deleteByProjectId(id);
@@ -722,6 +767,14 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
 	 * @return
 	 */
 	public ProjectPermission getProjectPermission(ProjectDetail projectDetail, User user) {
+		ProjectAccess access = getProjectAccess(projectDetail.getId(), user);
+		if (null == access) {
+			return loadProjectPermission(projectDetail, user);
+		}
+		return access.getPermission(() -> loadProjectPermission(projectDetail, user));
+	}
+
+	private ProjectPermission loadProjectPermission(ProjectDetail projectDetail, User user) {
 		if (isMaintainer(projectDetail, user)) {
 			return ProjectPermission.adminPermission();
 		}
@@ -771,6 +824,11 @@ public class ProjectServiceImpl extends BaseEntityService implements ProjectServ
             return false;
         }
 
+        ProjectAccess access = getProjectAccess(projectDetail.getId(), user);
+        if (null != access) {
+            return access.isMaintainer();
+        }
+
         //project所在org的creator
         if (projectDetail.getOrganization().getUserId().equals(user.getId())) {
             return true;
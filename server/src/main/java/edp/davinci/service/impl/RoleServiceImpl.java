@@ -27,10 +27,13 @@ import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.enums.UserOrgRoleEnum;
 import edp.davinci.core.enums.UserPermissionEnum;
 import edp.davinci.core.enums.VizVisibilityEnum;
+import edp.davinci.core.service.ProjectPermissionCache;
+import edp.davinci.core.service.ViewAccessPolicyCache;
 import edp.davinci.dao.*;
 import edp.davinci.dto.roleDto.*;
 import edp.davinci.model.*;
 import edp.davinci.service.*;
+import edp.davinci.service.share.ShareFactorCache;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -75,6 +78,15 @@ public class RoleServiceImpl implements RoleService {
     @Autowired
     private ProjectService projectService;
 
+    @Autowired
+    private ProjectPermissionCache projectPermissionCache;
+
+    @Autowired
+    private ViewAccessPolicyCache viewAccessPolicyCache;
+
+    @Autowired
+    private ShareFactorCache shareFactorCache;
+
     @Autowired
     private RelRoleViewMapper relRoleViewMapper;
 
@@ -171,6 +183,9 @@ public class RoleServiceImpl implements RoleService {
         int delete = roleMapper.deleteById(id);
         if (delete > 0) {
             optLogger.info("Role({}) is delete by user({})", role.toString(), user.getId());
+            projectPermissionCache.invalidateOrganization(role.getOrgId());
+            shareFactorCache.purgeOrganization(role.getOrgId());
+            viewAccessPolicyCache.invalidateRole(id);
 
             Organization organization = organizationMapper.getById(role.getOrgId());
             if (null != organization) {
@@ -279,13 +294,17 @@ public class RoleServiceImpl implements RoleService {
     @Transactional
     public List<RelRoleMember> addMembers(Long id, List<Long> memberIds, User user) throws ServerException, UnAuthorizedException, NotFoundException {
 
+        Role role = null;
         try {
-            getRole(id, user, true);
+            role = getRole(id, user, true);
         } catch (NotFoundException e) {
             throw e;
         } catch (UnAuthorizedException e) {
             throw new UnAuthorizedException("Insufficient permissions");
         }
+        projectPermissionCache.invalidateOrganization(role.getOrgId());
+        shareFactorCache.purgeOrganization(role.getOrgId());
+        viewAccessPolicyCache.invalidateRole(id);
 
         if (CollectionUtils.isEmpty(memberIds)) {
             relRoleUserMapper.deleteByRoleId(id);
@@ -305,6 +324,7 @@ public class RoleServiceImpl implements RoleService {
                 .collect(Collectors.toList());
 
         int i = relRoleUserMapper.insertBatch(relRoleUsers);
+        relRoleUsers.forEach(r -> viewAccessPolicyCache.invalidateUser(r.getUserId()));
         if (i > 0) {
             Map<Long, User> map = new HashMap<>();
             members.forEach(m -> map.put(m.getId(), m));
@@ -337,8 +357,9 @@ public class RoleServiceImpl implements RoleService {
             throw new NotFoundException("Member not found");
         }
 
+        Role role = null;
         try {
-            getRole(relRoleUser.getRoleId(), user, true);
+            role = getRole(relRoleUser.getRoleId(), user, true);
         } catch (NotFoundException e) {
             throw e;
         } catch (UnAuthorizedException e) {
@@ -353,6 +374,9 @@ public class RoleServiceImpl implements RoleService {
         int i = relRoleUserMapper.deleteById(relationId);
         if (i > 0) {
             optLogger.info("RelRoleUser({}) is delete by user({})", relRoleUser.toString(), user.getId());
+            projectPermissionCache.invalidateOrganization(role.getOrgId());
+            shareFactorCache.purgeOrganization(role.getOrgId());
+            viewAccessPolicyCache.invalidateUser(relRoleUser.getUserId());
             return true;
         } else {
             log.error("Delete role member fail, relationId:{}", relationId);
@@ -365,7 +389,7 @@ public class RoleServiceImpl implements RoleService {
     @Transactional
     public List<RelRoleMember> updateMembers(Long id, List<Long> memberIds, User user) throws ServerException, UnAuthorizedException, NotFoundException {
 
-        getRole(id, user, true);
+        Role role = getRole(id, user, true);
 
         List<User> users = userMapper.getByIds(memberIds);
         if (CollectionUtils.isEmpty(users)) {
@@ -384,6 +408,10 @@ public class RoleServiceImpl implements RoleService {
             relRoleUserMapper.deleteByRoleIdAndMemberIds(id, deleteIds);
         }
         relRoleUserMapper.insertBatch(collect);
+        projectPermissionCache.invalidateOrganization(role.getOrgId());
+        shareFactorCache.purgeOrganization(role.getOrgId());
+        deleteIds.forEach(viewAccessPolicyCache::invalidateUser);
+        userIds.forEach(viewAccessPolicyCache::invalidateUser);
 
         optLogger.info("Replace role({}) member by user({})", id, user.getId());
         return relRoleUserMapper.getMembersByRoleId(id);
@@ -454,6 +482,8 @@ public class RoleServiceImpl implements RoleService {
         relRoleProjectMapper.insert(relRoleProject);
         if (null != relRoleProject.getId() && relRoleProject.getId().longValue() > 0L) {
             optLogger.info("Create relRoleProject({}) is update by user({})", relRoleProject.toString(), user.getId());
+            projectPermissionCache.invalidateProject(projectId);
+            shareFactorCache.purgeProject(projectId);
             RoleProject roleProject = new RoleProject(project);
             BeanUtils.copyProperties(relRoleProject, roleProject);
             return roleProject;
@@ -503,8 +533,11 @@ public class RoleServiceImpl implements RoleService {
             relRolePortalMapper.deleteByRoleAndProject(roleId, projectId);
             relRoleSlideMapper.deleteByRoleAndProject(roleId, projectId);
             relRoleViewMapper.deleteByRoleAndProject(roleId, projectId);
+            viewAccessPolicyCache.invalidateRole(roleId);
             
             optLogger.info("RelRoleProject({}) is delete by user({})", relRoleProject.toString(), user.getId());
+            projectPermissionCache.invalidateProject(projectId);
+            shareFactorCache.purgeProject(projectId);
             return true;
         } else {
             log.error("Delete role project fail, relationId:", role);
@@ -586,6 +619,8 @@ public class RoleServiceImpl implements RoleService {
 
         if (i > 0) {
             optLogger.info("RelRoleProject({}) is update by user({}), origin:{}", relRoleProject.toString(), user.getId(), origin);
+            projectPermissionCache.invalidateProject(projectId);
+            shareFactorCache.purgeProject(projectId);
             return true;
         } else {
             log.info("Update role fail, role:{}", role.toString());
@@ -691,6 +726,9 @@ public class RoleServiceImpl implements RoleService {
                 result = displaySlideService.postSlideVisibility(role, vizVisibility, user);
                 break;
         }
+        if (result) {
+            shareFactorCache.purgeOrganization(role.getOrgId());
+        }
         return result;
     }
 
@@ -21,6 +21,7 @@ package edp.davinci.service.impl;
 
 import edp.core.exception.ServerException;
 import edp.core.exception.UnAuthorizedException;
+import edp.core.utils.CollectionUtils;
 import edp.davinci.core.common.ErrorMsg;
 import edp.davinci.core.enums.ActionEnum;
 import edp.davinci.core.enums.DownloadTaskStatus;
@@ -32,10 +33,6 @@ import edp.davinci.dto.viewDto.DownloadViewExecuteParam;
 import edp.davinci.model.ShareDownloadRecord;
 import edp.davinci.service.ShareDownloadService;
 import edp.davinci.service.ShareService;
-import edp.davinci.service.excel.ExecutorUtils;
-import edp.davinci.service.excel.MsgWrapper;
-import edp.davinci.service.excel.WidgetContext;
-import edp.davinci.service.excel.WorkBookContext;
 import edp.davinci.service.share.ShareFactor;
 import edp.davinci.service.share.aspect.ShareAuthAspect;
 import lombok.extern.slf4j.Slf4j;
@@ -44,6 +41,7 @@ import org.springframework.stereotype.Service;
 
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
@@ -55,11 +53,15 @@ public class ShareDownloadServiceImpl extends DownloadCommonService implements S
     @Autowired
     private ShareService shareService;
 
+    @Autowired
+    private ExportTaskScheduler exportTaskScheduler;
+
     @Override
     public boolean submit(DownloadType downloadType, String uuid, List<DownloadViewExecuteParam> params) {
         ShareFactor shareFactor = ShareAuthAspect.SHARE_FACTOR_THREAD_LOCAL.get();
         try {
-            List<WidgetContext> widgetList = getWidgetContexts(downloadType, shareFactor.getEntityId(), shareFactor.getUser(), params);
+            // 提交时校验权限，任务执行时再构建组件上下文
+            getWidgetContexts(downloadType, shareFactor.getEntityId(), shareFactor.getUser(), params);
 
             ShareDownloadRecord record = new ShareDownloadRecord();
             record.setUuid(uuid);
@@ -68,16 +70,8 @@ public class ShareDownloadServiceImpl extends DownloadCommonService implements S
             record.setCreateTime(new Date());
             shareDownloadRecordMapper.insertSelective(record);
 
-            MsgWrapper wrapper = new MsgWrapper(record, ActionEnum.SHAREDOWNLOAD, uuid);
-            WorkBookContext workBookContext = WorkBookContext.WorkBookContextBuilder.newBuilder()
-                    .withWrapper(wrapper)
-                    .withWidgets(widgetList)
-                    .withUser(shareFactor.getUser())
-                    .withResultLimit(resultLimit)
-                    .withTaskKey("ShareDownload_" + uuid)
-                    .build();
-            ExecutorUtils.submitWorkbookTask(workBookContext, null);
-            log.info("Share download task submit:{}", wrapper);
+            exportTaskScheduler.submit(ActionEnum.SHAREDOWNLOAD, record.getId(), shareFactor.getUser(), downloadType, shareFactor.getEntityId(), params);
+            log.info("Share download task submit:{}", record);
             return true;
         } catch (UnAuthorizedException | ServerException e) {
             throw e;
@@ -99,7 +93,12 @@ public class ShareDownloadServiceImpl extends DownloadCommonService implements S
         if (!projectPermission.getDownloadPermission()) {
             return null;
         }
-        return shareDownloadRecordMapper.getShareDownloadRecordsByUuid(uuid);
+        List<ShareDownloadRecord> records = shareDownloadRecordMapper.getShareDownloadRecordsByUuid(uuid);
+        if (!CollectionUtils.isEmpty(records)) {
+            exportTaskScheduler.fillQueueInfo(ActionEnum.SHAREDOWNLOAD,
+                    records.stream().collect(Collectors.toMap(ShareDownloadRecord::getId, r -> r, (o, n) -> o)));
+        }
+        return records;
     }
 
     @Override
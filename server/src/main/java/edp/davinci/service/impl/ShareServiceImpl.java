@@ -159,13 +159,14 @@ public class ShareServiceImpl implements ShareService {
         widgetFactor.freshWidgetDataToken(simpleShareWidget, TOKEN_SECRET);
 
         // widget controller views
-        Set<SimpleView> simpleViews = new HashSet<>();
+        Set<Long> viewIds = new HashSet<>();
         Map<String, Object> widgetConfigMap = JSON.parseObject(simpleShareWidget.getConfig(), Map.class);
         if (!CollectionUtils.isEmpty(widgetConfigMap)) {
-            simpleViews.addAll(VizUtils.getControllerViews((List<Map<String, Object>>) widgetConfigMap.get("controls")));
+            viewIds.addAll(VizUtils.getControllerViewIds((List<Map<String, Object>>) widgetConfigMap.get("controls")));
         }
 
-        simpleViews.add(viewMapper.getSimpleViewById(simpleShareWidget.getViewId()));
+        viewIds.add(simpleShareWidget.getViewId());
+        Set<SimpleView> simpleViews = VizUtils.getSimpleViews(viewIds);
 
         ShareWidget shareWidget = new ShareWidget();
         shareWidget.setWidget(simpleShareWidget);
@@ -218,13 +219,15 @@ public class ShareServiceImpl implements ShareService {
 
         Set<SimpleShareWidget> widgets = widgetMapper.getShareWidgetsByDisplayId(display.getId());
         Set<SimpleView> simpleViews = CollectionUtils.isEmpty(widgets) ? new HashSet<>() : viewMapper.selectSimpleByWidgetIds(widgets.stream().map(w -> w.getId()).collect(Collectors.toSet()));
+        Set<Long> controllerViewIds = new HashSet<>();
         widgets.forEach(w -> {
             widgetFactor.freshWidgetDataToken(w, TOKEN_SECRET);
-            Map<String, Object> widgetConfigMap = JSON.parseObject(widgetMapper.getShareWidgetById(w.getId()).getConfig(), Map.class);
+            Map<String, Object> widgetConfigMap = JSON.parseObject(w.getConfig(), Map.class);
             if (!CollectionUtils.isEmpty(widgetConfigMap)) {
-                simpleViews.addAll(VizUtils.getControllerViews((List<Map<String, Object>>) widgetConfigMap.get("controls")));
+                controllerViewIds.addAll(VizUtils.getControllerViewIds((List<Map<String, Object>>) widgetConfigMap.get("controls")));
             }
         });
+        simpleViews.addAll(VizUtils.getSimpleViews(controllerViewIds));
         shareDisplay.setWidgets(widgets);
         shareDisplay.setViews(generateShareViews(simpleViews, viewFactor));
 
@@ -264,18 +267,22 @@ public class ShareServiceImpl implements ShareService {
         Set<SimpleView> simpleViews = CollectionUtils.isEmpty(widgetIds) ? new HashSet<>() : viewMapper.selectSimpleByWidgetIds(widgetIds);
 
         // global controller views
+        Set<Long> controllerViewIds = new HashSet<>();
         Map<String, Object> dashboardConfig = JSON.parseObject(dashboard.getConfig(), Map.class);
         if (!CollectionUtils.isEmpty(dashboardConfig)) {
-            simpleViews.addAll(VizUtils.getControllerViews((List<Map<String, Object>>) dashboardConfig.get("filters")));
+            controllerViewIds.addAll(VizUtils.getControllerViewIds((List<Map<String, Object>>) dashboardConfig.get("filters")));
         }
 
         // widget controller views
-        memDashboardWidgets.forEach(mw -> {
-            Map<String, Object> widgetConfigMap = JSON.parseObject(widgetMapper.getShareWidgetById(mw.getWidgetId()).getConfig(), Map.class);
-            if (!CollectionUtils.isEmpty(widgetConfigMap)) {
-                simpleViews.addAll(VizUtils.getControllerViews((List<Map<String, Object>>)widgetConfigMap.get("controls")));
-            }
-        });
+        if (!CollectionUtils.isEmpty(simpleShareWidgets)) {
+            simpleShareWidgets.forEach(w -> {
+                Map<String, Object> widgetConfigMap = JSON.parseObject(w.getConfig(), Map.class);
+                if (!CollectionUtils.isEmpty(widgetConfigMap)) {
+                    controllerViewIds.addAll(VizUtils.getControllerViewIds((List<Map<String, Object>>) widgetConfigMap.get("controls")));
+                }
+            });
+        }
+        simpleViews.addAll(VizUtils.getSimpleViews(controllerViewIds));
 
         shareDashboard.setViews(generateShareViews(simpleViews, viewFactor));
 
@@ -1,6 +1,7 @@
 package edp.davinci.service.impl;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
 import edp.core.model.QueryColumn;
 import edp.core.model.TableInfo;
 import edp.core.utils.SqlUtils;
@@ -13,6 +14,7 @@ import edp.davinci.service.kafka.KafkaOperationService;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 import org.stringtemplate.v4.ST;
@@ -20,8 +22,12 @@ import org.stringtemplate.v4.STGroup;
 import org.stringtemplate.v4.STGroupFile;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service("statisticService")
 @Slf4j
@@ -41,20 +47,130 @@ public class StatisticServiceImpl implements StatisticService {
 
     boolean statisticOpen = false;  //是否开启埋点统计
 
+    @Value("${statistic.buffer-size:10000}")
+    private int bufferSize;
+
+    @Value("${statistic.batch-size:500}")
+    private int batchSize;
+
+    @Value("${statistic.flush-interval-millis:1000}")
+    private long flushIntervalMillis;
+
+    /**
+     * 每种埋点一个有界缓冲区，写入不阻塞请求线程，缓冲区满时丢弃
+     */
+    private final Map<Class, ArrayBlockingQueue<Object>> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * 表头及插入语句按表缓存
+     */
+    private final Map<String, Set<QueryColumn>> tableHeaders = new ConcurrentHashMap<>();
+
+    private final Map<String, String> tableInsertSql = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+
+    private final AtomicLong accepted = new AtomicLong(0);
+
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    private final AtomicLong flushed = new AtomicLong(0);
+
+    private final AtomicLong failed = new AtomicLong(0);
+
+    private ScheduledExecutorService flushExecutor;
+
+    private SqlUtils statisticSqlUtils;
+
+    private String statisticMysqlUrl;
+
     @PostConstruct
     public void init(){
         String statistic_open = environment.getProperty("statistic.enable");
         if("true".equalsIgnoreCase(statistic_open)){
             this.statisticOpen = true;
         }
+
+        if (!statisticOpen) {
+            return;
+        }
+
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "statistic-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushExecutor.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (flushExecutor == null) {
+            return;
+        }
+        flushExecutor.shutdown();
+        try {
+            flushExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        log.info("Statistic buffer closed, {}", getStats());
     }
 
     @Override
     public <T> void insert(List<T> infoList, Class clz){
-        if(!statisticOpen) {
+        if(!statisticOpen || infoList == null || infoList.isEmpty()) {
             return;
         }
 
+        ArrayBlockingQueue<Object> buffer = buffers.computeIfAbsent(clz, k -> new ArrayBlockingQueue<>(bufferSize));
+        for (T info : infoList) {
+            if (buffer.offer(info)) {
+                accepted.incrementAndGet();
+            } else {
+                if (dropped.incrementAndGet() % 1000 == 1) {
+                    log.warn("Statistic buffer of {} is full, events dropped, {}", clz.getSimpleName(), getStats());
+                }
+            }
+        }
+
+        if (buffer.size() >= batchSize && !flushing.get()) {
+            flushExecutor.execute(this::flush);
+        }
+    }
+
+    public String getStats() {
+        return String.format("accepted:%d, dropped:%d, flushed:%d, failed:%d", accepted.get(), dropped.get(), flushed.get(), failed.get());
+    }
+
+    /**
+     * 按批次将缓冲区写入存储
+     */
+    private void flush() {
+        if (!flushing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            buffers.forEach((clz, buffer) -> {
+                List<Object> batch = new ArrayList<>(batchSize);
+                while (buffer.drainTo(batch, batchSize) > 0) {
+                    try {
+                        write(batch, clz);
+                        flushed.addAndGet(batch.size());
+                    } catch (Exception e) {
+                        failed.addAndGet(batch.size());
+                        log.error("Statistic flush {} events of {} error:{}", batch.size(), clz.getSimpleName(), e.getMessage());
+                    }
+                    batch = new ArrayList<>(batchSize);
+                }
+            });
+        } finally {
+            flushing.set(false);
+        }
+    }
+
+    private <T> void write(List<T> infoList, Class clz){
         String tableName = getTableName4Info(clz);
 
         String elastic_urls = environment.getProperty("statistic.elastic_urls");
@@ -65,51 +181,64 @@ public class StatisticServiceImpl implements StatisticService {
             return;
         }
 
-        String mysqlUrl = environment.getProperty("statistic.mysql_url");
-        if(StringUtils.isNotBlank(mysqlUrl)) {
-            String mysqlUsername = environment.getProperty("statistic.mysql_username");
-            String mysqlPassword = environment.getProperty("statistic.mysql_password");
-            // Password encryption
-            String encrypt = SourcePasswordEncryptUtils.encrypt(mysqlPassword);
-            this.sqlUtils = this.sqlUtils.init("statistic", SourceTypeEnum.JDBC.getType(), mysqlUrl, mysqlUsername,
-                    encrypt, null, null, false);
-
-            List<Map<String, Object>> values = entityConvertIntoMap(infoList);
-            Set<QueryColumn> headers = getHeaders(mysqlUrl, tableName);
-            String sql = getInsertSql(clz, headers);
-
-            sqlUtils.executeBatch(sql, headers, values);
-            return;
-        }
-
         String kafkaServers = environment.getProperty("statistic.kafka.bootstrap.servers");
-        if(StringUtils.isNotBlank(kafkaServers)) {
+        if(StringUtils.isBlank(environment.getProperty("statistic.mysql_url")) && StringUtils.isNotBlank(kafkaServers)) {
             String topic = environment.getProperty("statistic.kafka.topic");
-            kafkaOperationService.send(topic, JSON.toJSONString(infoList));
+            // 每条埋点一条消息，按用户分区
+            for (T info : infoList) {
+                JSONObject event = (JSONObject) JSON.toJSON(info);
+                Object userId = event.get("user_id");
+                kafkaOperationService.send(topic, userId == null ? null : String.valueOf(userId), tableName, event.toJSONString());
+            }
             return;
         }
 
-        mysqlUrl = environment.getProperty("spring.datasource.url");
-        String mysqlUsername = environment.getProperty("spring.datasource.username");
-        String mysqlPassword = environment.getProperty("spring.datasource.password");
-        // Password encryption
-        String encrypt = SourcePasswordEncryptUtils.encrypt(mysqlPassword);
-        this.sqlUtils = this.sqlUtils.init("statistic", SourceTypeEnum.JDBC.getType(), mysqlUrl, mysqlUsername, encrypt, null, null, false);
-
+        SqlUtils utils = getStatisticSqlUtils();
         List<Map<String, Object>> values = entityConvertIntoMap(infoList);
-        Set<QueryColumn> headers = getHeaders(mysqlUrl, tableName);
-        String sql = getInsertSql(clz, headers);
+        Set<QueryColumn> headers = tableHeaders.computeIfAbsent(tableName, t -> getHeaders(utils, statisticMysqlUrl, t));
+        String sql = tableInsertSql.computeIfAbsent(tableName, t -> getInsertSql(clz, headers));
 
-        sqlUtils.executeBatch(sql, headers, values);
+        utils.executeBatch(sql, headers, values);
+    }
+
+    /**
+     * 统计库连接只初始化一次，优先使用statistic.mysql_url，否则使用davinci库
+     */
+    private synchronized SqlUtils getStatisticSqlUtils() {
+        if (statisticSqlUtils != null) {
+            return statisticSqlUtils;
+        }
+
+        String mysqlUrl = environment.getProperty("statistic.mysql_url");
+        String mysqlUsername;
+        String mysqlPassword;
+        if(StringUtils.isNotBlank(mysqlUrl)) {
+            mysqlUsername = environment.getProperty("statistic.mysql_username");
+            mysqlPassword = environment.getProperty("statistic.mysql_password");
+        } else {
+            mysqlUrl = environment.getProperty("spring.datasource.url");
+            mysqlUsername = environment.getProperty("spring.datasource.username");
+            mysqlPassword = environment.getProperty("spring.datasource.password");
+        }
+        // Password encryption
+        String encrypt = SourcePasswordEncryptUtils.encrypt(mysqlPassword);
+        statisticSqlUtils = this.sqlUtils.init("statistic", SourceTypeEnum.JDBC.getType(), mysqlUrl, mysqlUsername,
+                encrypt, null, null, false);
+        statisticMysqlUrl = mysqlUrl;
+        return statisticSqlUtils;
     }
 
     public Set<QueryColumn> getHeaders(String url, String tableName){
+        return getHeaders(getStatisticSqlUtils(), url, tableName);
+    }
+
+    private Set<QueryColumn> getHeaders(SqlUtils utils, String url, String tableName){
         String dbName = url.substring(0, url.indexOf("?"));
         dbName = dbName.substring(dbName.lastIndexOf("/")+1, dbName.length());
 
-        TableInfo tableInfo = sqlUtils.getTableInfo(dbName, tableName);
+        TableInfo tableInfo = utils.getTableInfo(dbName, tableName);
 
-        return new HashSet<>(tableInfo.getColumns());
+        return new LinkedHashSet<>(tableInfo.getColumns());
     }
 
     private String getTableName4Info(Class clz){
@@ -0,0 +1,46 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.impl;
+
+import edp.davinci.core.service.AuthUserCache;
+import edp.davinci.core.service.RedisMessageHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+public class UserCacheMessageHandler implements RedisMessageHandler {
+
+    @Autowired
+    private AuthUserCache authUserCache;
+
+    @Override
+    public void handle(Object message, String flag) {
+
+        log.debug("UserCacheHandler received invalidate message({})", message);
+
+        if (!(message instanceof String)) {
+            return;
+        }
+
+        authUserCache.invalidateLocal((String) message);
+    }
+}
@@ -23,16 +23,22 @@ import com.alibaba.druid.util.StringUtils;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import edp.core.common.jdbc.QueryLogContext;
+import edp.core.common.jdbc.QueryLogWriter;
 import edp.core.exception.NotFoundException;
 import edp.core.exception.ServerException;
 import edp.core.exception.UnAuthorizedException;
 import edp.core.model.Paginate;
 import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.ViewQueryStats;
 import edp.core.utils.*;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.enums.*;
+import edp.davinci.core.model.BindParams;
 import edp.davinci.core.model.SqlEntity;
 import edp.davinci.core.model.SqlFilter;
+import edp.davinci.core.model.ViewAccessPolicy;
+import edp.davinci.core.service.ViewAccessPolicyCache;
 import edp.davinci.core.utils.SqlParseUtils;
 import edp.davinci.dao.RelRoleViewMapper;
 import edp.davinci.dao.SourceMapper;
@@ -46,11 +52,17 @@ import edp.davinci.model.*;
 import edp.davinci.service.ProjectService;
 import edp.davinci.service.ViewService;
 import edp.davinci.service.excel.SQLContext;
+import edp.davinci.service.distinct.DistinctValueDictionary;
+import edp.davinci.service.extract.ViewExtractManager;
+import edp.davinci.service.extract.ViewRollupManager;
+import edp.davinci.service.share.ShareFactorCache;
+import edp.davinci.service.share.ShareType;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.stringtemplate.v4.ST;
@@ -65,7 +77,6 @@ import java.util.stream.Collectors;
 import static edp.core.consts.Consts.COMMA;
 import static edp.core.consts.Consts.MINUS;
 import static edp.davinci.core.common.Constants.NO_AUTH_PERMISSION;
-import static edp.davinci.core.enums.SqlVariableTypeEnum.AUTHVAR;
 import static edp.davinci.core.enums.SqlVariableTypeEnum.QUERYVAR;
 
 @Slf4j
@@ -87,9 +98,33 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     @Autowired
     private RelRoleViewMapper relRoleViewMapper;
 
+    @Autowired
+    private ViewAccessPolicyCache viewAccessPolicyCache;
+
+    @Autowired
+    private ShareFactorCache shareFactorCache;
+
     @Autowired
     private SqlUtils sqlUtils;
 
+    @Autowired
+    private QueryLogWriter queryLogWriter;
+
+    @Autowired
+    private ViewExtractManager viewExtractManager;
+
+    @Autowired
+    private ViewRollupManager viewRollupManager;
+
+    @Autowired
+    private DistinctValueDictionary distinctValueDictionary;
+
+    @Value("${distinct.default-page-size:100}")
+    private int distinctDefaultPageSize;
+
+    @Value("${distinct.max-page-size:1000}")
+    private int distinctMaxPageSize;
+
     @Autowired
     private RedisUtils redisUtils;
 
@@ -143,6 +178,49 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
         return views;
     }
 
+    /**
+     * 获取项目下平均查询耗时最长的view，仅项目维护者可见
+     *
+     * @param projectId
+     * @param top
+     * @param user
+     * @return
+     */
+    @Override
+    public List<ViewQueryStats> getSlowestViews(Long projectId, int top, User user) throws NotFoundException, UnAuthorizedException {
+        ProjectDetail projectDetail = projectService.getProjectDetail(projectId, user, false);
+        if (!projectService.isMaintainer(projectDetail, user)) {
+            throw new UnAuthorizedException("You have not permission to view query statistics of this project");
+        }
+        return queryLogWriter.getSlowestViews(projectId, top);
+    }
+
+    /**
+     * 获取view的上卷命中率、上卷表及候选查询签名，仅项目维护者可见
+     *
+     * @param id
+     * @param user
+     * @return
+     */
+    @Override
+    public ViewRollupStats getRollupStats(Long id, User user) throws NotFoundException, UnAuthorizedException {
+        ViewWithSource viewWithSource = viewMapper.getViewWithSource(id);
+        if (null == viewWithSource) {
+            throw new NotFoundException("View is not found");
+        }
+
+        ProjectDetail projectDetail = projectService.getProjectDetail(viewWithSource.getProjectId(), user, false);
+        if (!projectService.isMaintainer(projectDetail, user)) {
+            throw new UnAuthorizedException("You have not permission to view rollup statistics of this view");
+        }
+
+        Source extractSource = viewExtractManager.getExtractSource(viewWithSource);
+        if (extractSource == null) {
+            return viewRollupManager.getStats(id, null, null);
+        }
+        return viewRollupManager.getStats(id, viewWithSource.getExtractVersion(), viewExtractManager.getSqlUtils(extractSource));
+    }
+
     private boolean isHiddenPermission(ProjectDetail projectDetail, User user, boolean basePermission) {
         ProjectPermission projectPermission = projectService.getProjectPermission(projectDetail, user);
         return (projectPermission.getVizPermission() == UserPermissionEnum.HIDDEN.getPermission() || basePermission)
@@ -317,6 +395,21 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
         try {
 
             String originStr = view.toString();
+            if (viewUpdate.getExtractWatermarkColumn() == null) {
+                viewUpdate.setExtractWatermarkColumn(view.getExtractWatermarkColumn());
+            } else if (StringUtils.isEmpty(viewUpdate.getExtractWatermarkColumn().trim())) {
+                viewUpdate.setExtractWatermarkColumn(null);
+            }
+            if (viewUpdate.getExtractMergeKey() == null) {
+                viewUpdate.setExtractMergeKey(view.getExtractMergeKey());
+            } else if (StringUtils.isEmpty(viewUpdate.getExtractMergeKey().trim())) {
+                viewUpdate.setExtractMergeKey(null);
+            }
+            boolean extractExpired = view.getExtractVersion() != null
+                    && (!Objects.equals(view.getSql(), viewUpdate.getSql()) || !Objects.equals(view.getSourceId(), viewUpdate.getSourceId())
+                    || !Objects.equals(view.getVariable(), viewUpdate.getVariable())
+                    || !Objects.equals(view.getExtractWatermarkColumn(), viewUpdate.getExtractWatermarkColumn())
+                    || !Objects.equals(view.getExtractMergeKey(), viewUpdate.getExtractMergeKey()));
             BeanUtils.copyProperties(viewUpdate, view);
             view.updatedBy(user.getId());
 
@@ -329,6 +422,11 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
             if (CollectionUtils.isEmpty(viewUpdate.getRoles())) {
                 relRoleViewMapper.deleteByViewId(id);
             }
+            viewAccessPolicyCache.invalidateView(id);
+            shareFactorCache.purgeEntity(ShareType.VIEW, id);
+            if (extractExpired) {
+                viewExtractManager.drop(id);
+            }
 
             if (!StringUtils.isEmpty(viewUpdate.getVariable())) {
                 checkAndInsertRoleParam(viewUpdate.getVariable(), viewUpdate.getRoles(), user, view);
@@ -385,6 +483,12 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
 
         optLogger.info("View({}) is delete by user({})", view.toString(), user.getId());
         relRoleViewMapper.deleteByViewId(id);
+        viewAccessPolicyCache.invalidateView(id);
+        shareFactorCache.purgeEntity(ShareType.VIEW, id);
+        if (view.getExtractVersion() != null) {
+            viewExtractManager.drop(id);
+        }
+        viewRollupManager.clear(id);
         return true;
     }
 
@@ -503,6 +607,14 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     }
 
     public void buildQuerySql(List<String> querySqlList, Source source, ViewExecuteParam executeParam) {
+        buildQuerySql(querySqlList, source, executeParam, null, null);
+    }
+
+    /**
+     * @param aggregators 替换默认聚合表达式，用于在上卷表上重新聚合
+     * @param bindParams  不为空时过滤条件值以绑定变量标记代入
+     */
+    private void buildQuerySql(List<String> querySqlList, Source source, ViewExecuteParam executeParam, List<String> aggregators, BindParams bindParams) {
         if (null == executeParam) {
             return;
         }
@@ -515,11 +627,13 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
 
         if (executeParam.isNativeQuery()) {
             st.add("aggregators", executeParam.getAggregators());
+        } else if (aggregators != null) {
+            st.add("aggregators", aggregators.isEmpty() ? null : aggregators);
         } else {
             st.add("aggregators", executeParam.getAggregators(source.getJdbcUrl(), source.getDbVersion()));
         }
         st.add("orders", executeParam.getOrders(source.getJdbcUrl(), source.getDbVersion()));
-        st.add("filters", convertFilters(executeParam.getFilters(), source));
+        st.add("filters", convertFilters(executeParam.getFilters(), source, bindParams));
         st.add("keywordPrefix", sqlUtils.getKeywordPrefix(source.getJdbcUrl(), source.getDbVersion()));
         st.add("keywordSuffix", sqlUtils.getKeywordSuffix(source.getJdbcUrl(), source.getDbVersion()));
 
@@ -530,6 +644,10 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     }
 
     public List<String> convertFilters(List<String> filterStrs, Source source) {
+        return convertFilters(filterStrs, source, null);
+    }
+
+    private List<String> convertFilters(List<String> filterStrs, Source source, BindParams bindParams) {
         List<String> whereClauses = new ArrayList<>();
         List<SqlFilter> filters = new ArrayList<>();
         try {
@@ -544,7 +662,7 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                 }
                 filters.add(obj);
             }
-            filters.forEach(filter -> whereClauses.add(SqlFilter.dealFilter(filter)));
+            filters.forEach(filter -> whereClauses.add(SqlFilter.dealFilter(filter, bindParams)));
 
         } catch (Exception e) {
             log.error("ConvertFilters error, filterStrs={}, source={}, filters={} , whereClauses={}",
@@ -582,6 +700,7 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
         }
 
         String cacheKey = null;
+        QueryLogContext.set(viewWithSource.getId(), viewWithSource.getProjectId(), null == user ? null : user.getId());
         try {
 
             if (StringUtils.isEmpty(viewWithSource.getSql())) {
@@ -597,18 +716,40 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
             Set<String> excludeColumns = new HashSet<>();
             packageParams(isMaintainer, viewWithSource.getId(), sqlEntity, variables, executeParam.getParams(), excludeColumns, user);
 
-            String srcSql = sqlParseUtils.replaceParams(sqlEntity.getSql(), sqlEntity.getQueryParams(), sqlEntity.getAuthParams(), sqlTempDelimiter);
+            // 参数化执行时变量与过滤条件的值以绑定变量传入，同结构的查询可复用执行计划
+            BindParams bindParams = SqlUtils.isBindParams(source.getProperties()) ? new BindParams(variables) : null;
+            String srcSql = sqlParseUtils.replaceParams(sqlEntity.getSql(), sqlEntity.getQueryParams(), sqlEntity.getAuthParams(), sqlTempDelimiter, bindParams);
+
+            SqlUtils sqlUtils;
+            List<String> querySqlList;
+            List<String> rollupAggregators = null;
+            viewRollupManager.record(viewWithSource.getId(), executeParam);
+            Source extractSource = viewExtractManager.getExtractSource(viewWithSource);
+            if (extractSource != null) {
+                // 在本地抽取数据上执行，有覆盖请求的上卷表时在上卷表上重新聚合
+                source = extractSource;
+                sqlUtils = viewExtractManager.getSqlUtils(extractSource);
+                ViewRollupManager.RollupRoute route = viewRollupManager.route(viewWithSource.getId(),
+                        viewWithSource.getExtractVersion(), sqlUtils, executeParam);
+                if (route != null) {
+                    querySqlList = route.getQuerySqls();
+                    rollupAggregators = route.getAggregators();
+                } else {
+                    querySqlList = viewExtractManager.getQuerySqls(viewWithSource.getId());
+                }
+            } else {
+                sqlUtils = this.sqlUtils.init(source);
 
-            SqlUtils sqlUtils = this.sqlUtils.init(source);
+                List<String> executeSqlList = sqlParseUtils.getSqls(srcSql, false);
+                if (!CollectionUtils.isEmpty(executeSqlList)) {
+                    executeSqlList.forEach(sql -> sqlUtils.execute(null == bindParams ? sql : bindParams.inline(sql)));
+                }
 
-            List<String> executeSqlList = sqlParseUtils.getSqls(srcSql, false);
-            if (!CollectionUtils.isEmpty(executeSqlList)) {
-                executeSqlList.forEach(sqlUtils::execute);
+                querySqlList = sqlParseUtils.getSqls(srcSql, true);
             }
 
-            List<String> querySqlList = sqlParseUtils.getSqls(srcSql, true);
             if (!CollectionUtils.isEmpty(querySqlList)) {
-                buildQuerySql(querySqlList, source, executeParam);
+                buildQuerySql(querySqlList, source, executeParam, rollupAggregators, bindParams);
                 executeParam.addExcludeColumn(excludeColumns, source.getJdbcUrl(), source.getDbVersion());
 
                 if (null != executeParam.getCache() && executeParam.getCache() && executeParam.getExpired() > 0L) {
@@ -620,7 +761,8 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                     saltBuilder.append(MINUS);
                     saltBuilder.append(executeParam.getPageSize());
                     excludeColumns.forEach(saltBuilder::append);
-                    cacheKey = MD5Util.getMD5(saltBuilder.toString() + querySqlList.get(querySqlList.size() - 1), true,
+                    String lastSql = querySqlList.get(querySqlList.size() - 1);
+                    cacheKey = MD5Util.getMD5(saltBuilder.toString() + (null == bindParams ? lastSql : bindParams.inline(lastSql)), true,
                             32);
                     if (!executeParam.getFlush()) {
 
@@ -637,7 +779,7 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
                 }
 
                 for (String sql : querySqlList) {
-                    paginate = sqlUtils.syncQuery4Paginate(SqlParseUtils.rebuildSqlWithFragment(sql),
+                    paginate = sqlUtils.syncQuery4Paginate(SqlParseUtils.rebuildSqlWithFragment(sql), bindParams,
                             executeParam.getPageNo(), executeParam.getPageSize(), executeParam.getTotalCount(),
                             executeParam.getLimit(), excludeColumns);
                 }
@@ -646,6 +788,8 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
         } catch (Exception e) {
             log.error(e.toString(), e);
             throw new ServerException(e.getMessage());
+        } finally {
+            QueryLogContext.clear();
         }
 
         if (null != executeParam.getCache() && executeParam.getCache() && executeParam.getExpired() > 0L
@@ -671,6 +815,7 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     @Override
     public List<Map<String, Object>> getDistinctValueData(boolean isMaintainer, ViewWithSource viewWithSource, DistinctParam param, User user) throws ServerException {
 
+        QueryLogContext.set(viewWithSource.getId(), viewWithSource.getProjectId(), null == user ? null : user.getId());
         try {
 
             if (StringUtils.isEmpty(viewWithSource.getSql())) {
@@ -696,6 +841,11 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
 
             List<String> querySqlList = sqlParseUtils.getSqls(srcSql, true);
             if (!CollectionUtils.isEmpty(querySqlList)) {
+                if (null != param && param.isPaged()) {
+                    return getDistinctValuePage(sqlUtils, source, querySqlList.get(querySqlList.size() - 1), param,
+                            getColumnSqlType(viewWithSource.getModel(), param.getColumns().get(0)));
+                }
+
                 String cacheKey = null;
                 if (null != param) {
                     STGroup stg = new STGroupFile(Constants.SQL_TEMPLATE);
@@ -739,20 +889,95 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
         } catch (Exception e) {
             log.error(e.toString(), e);
             throw new ServerException(e.getMessage());
+        } finally {
+            QueryLogContext.clear();
         }
 
         return null;
     }
 
+    /**
+     * 单列distinct值的搜索与分页：关键字过滤、按值排序的keyset分页及limit下推，可选使用缓存的有序字典
+     *
+     * @param sqlType 列在view模型中的sqlType，关键字搜索只用于字符列，after按此类型绑定
+     */
+    private List<Map<String, Object>> getDistinctValuePage(SqlUtils sqlUtils, Source source, String querySql, DistinctParam param, String sqlType) {
+        String column = param.getColumns().get(0);
+        String field = "T." + ViewExecuteParam.getField(column, source.getJdbcUrl(), source.getDbVersion());
+        List<String> filters = convertFilters(param.getFilters(), source);
+        int limit = param.getLimit() > 0 ? Math.min(param.getLimit(), distinctMaxPageSize) : distinctDefaultPageSize;
+        String keyword = StringUtils.isEmpty(param.getKeyword()) ? null : param.getKeyword();
+        if (keyword != null && !BindParams.isSearchable(sqlType)) {
+            throw new ServerException("Keyword search is only supported on string columns");
+        }
+
+        if (Boolean.TRUE.equals(param.getDictionary())) {
+            String dictionarySql = renderDistinctPageSql(field, filters, querySql, false, false);
+            // 渲染后的sql已包含权限变量取值，可区分权限范围
+            String key = MD5Util.getMD5(source.getId() + MINUS + column + MINUS + dictionarySql, true, 32);
+            DistinctValueDictionary.Dictionary dictionary = distinctValueDictionary.get(key, () ->
+                    sqlUtils.query4List(dictionarySql, null, distinctValueDictionary.getMaxValues() + 1).stream()
+                            .map(row -> row.values().iterator().next())
+                            .collect(Collectors.toList()));
+            if (dictionary != null) {
+                List<Map<String, Object>> list = new ArrayList<>();
+                for (Object value : dictionary.search(keyword, param.isPrefixMatch(), param.getAfter(), limit)) {
+                    Map<String, Object> row = new HashMap<>();
+                    row.put(column, value);
+                    list.add(row);
+                }
+                return list;
+            }
+        }
+
+        List<Object> args = new ArrayList<>();
+        if (keyword != null) {
+            // 与字典一致，关键字匹配不区分大小写
+            String pattern = keyword.toUpperCase(Locale.ROOT).replace("!", "!!").replace("%", "!%").replace("_", "!_");
+            args.add((param.isPrefixMatch() ? "" : "%") + pattern + "%");
+        }
+        if (param.getAfter() != null) {
+            try {
+                args.add(BindParams.convert(param.getAfter(), sqlType));
+            } catch (IllegalArgumentException e) {
+                throw new ServerException("Invalid after value: " + param.getAfter());
+            }
+        }
+        String sql = renderDistinctPageSql(field, filters, querySql, keyword != null, param.getAfter() != null);
+        return sqlUtils.query4List(sql, args.toArray(), limit);
+    }
+
+    /**
+     * view模型中列的sqlType，模型中没有该列时返回null
+     */
+    private String getColumnSqlType(String model, String column) {
+        if (StringUtils.isEmpty(model)) {
+            return null;
+        }
+        JSONObject columnModel = JSONObject.parseObject(model).getJSONObject(column);
+        return null == columnModel ? null : columnModel.getString("sqlType");
+    }
+
+    private String renderDistinctPageSql(String field, List<String> filters, String querySql, boolean search, boolean after) {
+        STGroup stg = new STGroupFile(Constants.SQL_TEMPLATE);
+        ST st = stg.getInstanceOf("queryDistinctPageSql");
+        st.add("field", field);
+        st.add("filters", filters);
+        st.add("sql", querySql);
+        st.add("search", search);
+        st.add("after", after);
+        return SqlParseUtils.rebuildSqlWithFragment(st.render());
+    }
+
     public void packageParams(boolean isProjectMaintainer, Long viewId, SqlEntity sqlEntity, List<SqlVariable> variables, List<Param> paramList, Set<String> excludeColumns, User user) {
 
         List<SqlVariable> queryVariables = getQueryVariables(variables);
         List<SqlVariable> authVariables = null;
         if (!isProjectMaintainer) {
-            List<RelRoleView> roleViewList = relRoleViewMapper.getByUserAndView(user.getId(), viewId);
-            authVariables = getAuthVariables(roleViewList, variables);
+            ViewAccessPolicy policy = viewAccessPolicyCache.get(user.getId(), viewId);
+            authVariables = policy.getAuthVariables(variables);
             if (null != excludeColumns) {
-                Set<String> columns = getExcludeColumnsViaOneView(roleViewList);
+                Set<String> columns = policy.getExcludeColumns();
                 if (!CollectionUtils.isEmpty(columns)) {
                     excludeColumns.addAll(columns);
                 }
@@ -843,47 +1068,6 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
     }
 
 
-    private Set<String> getExcludeColumnsViaOneView(List<RelRoleView> roleViewList) {
-        if (CollectionUtils.isEmpty(roleViewList)) {
-            return null;
-        }
-
-        Set<String> columns = new HashSet<>();
-        boolean isFullAuth = false;
-        for (RelRoleView r : roleViewList) {
-            if (StringUtils.isEmpty(r.getColumnAuth())) {
-                isFullAuth = true;
-                break;
-            }
-
-            List<String> authColumns = JSONObject.parseArray(r.getColumnAuth(), String.class);
-            if (CollectionUtils.isEmpty(authColumns)) {
-                isFullAuth = true;
-                break;
-            }
-
-            columns.addAll(authColumns);
-        }
-
-        if (isFullAuth) {
-            return null;
-        }
-
-        for (RelRoleView r : roleViewList) {
-            List<String> authColumns = JSONObject.parseArray(r.getColumnAuth(), String.class);
-            Iterator<String> iterator = columns.iterator();
-            while (iterator.hasNext()) {
-                String column = iterator.next();
-                if (!authColumns.contains(column)) {
-                    iterator.remove();
-                }
-            }
-        }
-
-        return columns.isEmpty() ? null : columns;
-    }
-
-
     private List<SqlVariable> getQueryVariables(List<SqlVariable> variables) {
         if (!CollectionUtils.isEmpty(variables)) {
             return variables.stream().filter(v -> QUERYVAR == SqlVariableTypeEnum.typeOf(v.getType())).collect(Collectors.toList());
@@ -891,92 +1075,11 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
         return null;
     }
 
-    private List<SqlVariable> getAuthVariables(List<RelRoleView> roleViewList, List<SqlVariable> variables) {
-
-        if (CollectionUtils.isEmpty(variables)) {
-            return null;
-        }
-
-        List<SqlVariable> list = new ArrayList<>();
-        variables.forEach(v -> {
-            if (null != v.getChannel()) {
-                list.add(v);
-            }
-        });
-
-        if (CollectionUtils.isEmpty(roleViewList)) {
-            return list;
-        }
-
-        List<SqlVariable> authVars = variables.stream()
-                .filter(v -> AUTHVAR == SqlVariableTypeEnum.typeOf(v.getType())).collect(Collectors.toList());
-
-        Map<String, SqlVariable> authVarMap = new HashMap<>();
-        authVars.forEach(v -> authVarMap.put(v.getName(), v));
-
-        List<SqlVariable> dacVars = authVars.stream()
-                .filter(v -> null != v.getChannel() && !v.getChannel().getBizId().equals(0L))
-                .collect(Collectors.toList());
-
-        roleViewList.forEach(r -> {
-            if (!StringUtils.isEmpty(r.getRowAuth())) {
-                List<AuthParamValue> authParamValues = JSONObject.parseArray(r.getRowAuth(), AuthParamValue.class);
-                authVarMap.forEach((k, v) -> {
-                    SqlVariable sqlVariable = v;
-                    Optional<AuthParamValue> optional = authParamValues.stream().filter(p -> k.equals(p.getName())).findFirst();
-
-                    List<Object> defaultValues = sqlVariable.getDefaultValues();
-                    // first time defaultValues will be null
-                    if (defaultValues == null) {
-                        // empty list means has all data auth
-                        sqlVariable.setDefaultValues(new ArrayList<>());
-                        optional.ifPresent(p -> {
-                            if (p.isEnable()) {
-                                if (CollectionUtils.isEmpty(p.getValues())) {
-                                    sqlVariable.setDefaultValues(Arrays.asList(new String[]{NO_AUTH_PERMISSION}));
-                                } else {
-                                    sqlVariable.setDefaultValues(p.getValues());
-                                }
-                            }
-                        });
-                        return;
-                    }
-
-                    if (optional.isPresent()) {
-                        AuthParamValue p = optional.get();
-                        if (p.isEnable()) {
-                            if (!CollectionUtils.isEmpty(p.getValues())) {
-                                boolean denied = defaultValues.size() == 1 && defaultValues.get(0).equals(NO_AUTH_PERMISSION);
-                                boolean disable = defaultValues.size() == 0;
-                                if (denied) {
-                                    sqlVariable.setDefaultValues(p.getValues());
-                                } else if (!disable) {
-                                    sqlVariable.getDefaultValues().addAll(p.getValues());
-                                }
-                            }
-                        } else {
-                            sqlVariable.setDefaultValues(new ArrayList<>());
-                        }
-                        return;
-                    }
-
-                    sqlVariable.setDefaultValues(new ArrayList<>());
-
-                });
-
-                list.addAll(authVarMap.values());
-            } else {
-                list.addAll(dacVars);
-            }
-        });
-
-        return list;
-    }
-
     private void checkAndInsertRoleParam(String sqlVariable, List<RelRoleViewDto> roles, User user, View view) {
         List<SqlVariable> variables = JSONObject.parseArray(sqlVariable, SqlVariable.class);
         if (CollectionUtils.isEmpty(roles)) {
             relRoleViewMapper.deleteByViewId(view.getId());
+            viewAccessPolicyCache.invalidateView(view.getId());
             return;
         }
         
@@ -1031,6 +1134,7 @@ ViewServiceImpl extends BaseEntityService implements ViewService {
 			if (!CollectionUtils.isEmpty(relRoleViews)) {
 				relRoleViewMapper.insertBatch(relRoleViews);
 			}
+			viewAccessPolicyCache.invalidateView(view.getId());
         });
     }
 }
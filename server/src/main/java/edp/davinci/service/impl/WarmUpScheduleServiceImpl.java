@@ -0,0 +1,416 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.impl;
+
+import com.alibaba.druid.util.StringUtils;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.core.common.quartz.ScheduleService;
+import edp.core.model.Paginate;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.RedisUtils;
+import edp.davinci.common.utils.ScriptUtils;
+import edp.davinci.core.enums.LogNameEnum;
+import edp.davinci.core.utils.VizUtils;
+import edp.davinci.dao.*;
+import edp.davinci.dto.dashboardDto.DashboardWithPortal;
+import edp.davinci.dto.viewDto.SimpleView;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import edp.davinci.dto.widgetDto.WidgetWithRelationDashboardId;
+import edp.davinci.model.*;
+import edp.davinci.service.ViewService;
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 门户/看板缓存预热任务，config格式：
+ * {"contentList": [{"contentType": "portal", "id": 1}, {"contentType": "dashboard", "id": 2}],
+ * "scopes": [{"type": "user", "id": 1}, {"type": "role", "id": 2}]}
+ * 以scope内的用户身份（role按成员在项目内的角色组合分组，每组取一个成员）按正常查询路径刷新看板下开启缓存的widget数据，
+ * 同一数据源上的并发查询数受 warmup.max-concurrency-per-source 限制
+ */
+@Service("warmUpScheduleService")
+public class WarmUpScheduleServiceImpl implements ScheduleService {
+
+    private static final Logger scheduleLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
+
+    public static final String JOB_TYPE = "warmUp";
+
+    private static final String PORTAL = "portal";
+
+    private static final String DASHBOARD = "dashboard";
+
+    private static final String SCOPE_USER = "user";
+
+    private static final String SCOPE_ROLE = "role";
+
+    @Value("${warmup.threads:4}")
+    private int threads;
+
+    @Value("${warmup.max-concurrency-per-source:2}")
+    private int maxConcurrencyPerSource;
+
+    @Value("${warmup.timeout-minutes:60}")
+    private long timeoutMinutes;
+
+    @Autowired
+    private CronJobMapper cronJobMapper;
+
+    @Autowired
+    private DashboardPortalMapper dashboardPortalMapper;
+
+    @Autowired
+    private DashboardMapper dashboardMapper;
+
+    @Autowired
+    private MemDashboardWidgetMapper memDashboardWidgetMapper;
+
+    @Autowired
+    private WidgetMapper widgetMapper;
+
+    @Autowired
+    private ViewMapper viewMapper;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private RelRoleUserMapper relRoleUserMapper;
+
+    @Autowired
+    private RoleMapper roleMapper;
+
+    @Autowired
+    private ViewService viewService;
+
+    @Autowired
+    private RedisUtils redisUtils;
+
+    private ExecutorService executor;
+
+    /**
+     * 跨任务共享的数据源并发许可
+     */
+    private final Map<Long, Semaphore> sourcePermits = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newFixedThreadPool(Math.max(1, threads),
+                new ThreadFactoryBuilder().setNameFormat("Warmup-worker-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void execute(long jobId) throws Exception {
+        CronJob cronJob = cronJobMapper.getById(jobId);
+        if (null == cronJob || StringUtils.isEmpty(cronJob.getConfig())) {
+            scheduleLogger.error("CronJob({}) config is empty", jobId);
+            return;
+        }
+
+        JSONObject config;
+        try {
+            config = JSONObject.parseObject(cronJob.getConfig());
+        } catch (Exception e) {
+            scheduleLogger.error("CronJob({}) config is invalid: {}", jobId, e.getMessage());
+            cronJobMapper.updateExecLog(jobId, "Invalid config");
+            return;
+        }
+
+        if (!redisUtils.isRedisEnable()) {
+            scheduleLogger.warn("CronJob({}) redis is disabled, nothing to warm up", jobId);
+            cronJobMapper.updateExecLog(jobId, "Redis is disabled");
+            return;
+        }
+
+        scheduleLogger.info("CronJob({}) is start! --------------", jobId);
+        cronJobMapper.updateExecLog(jobId, "");
+
+        long start = System.currentTimeMillis();
+        List<User> users = getUsers(cronJob, config.getJSONArray("scopes"));
+        List<DashboardWithPortal> dashboards = getDashboards(cronJob, config.getJSONArray("contentList"));
+
+        WarmUpResult result = new WarmUpResult();
+        Map<Long, Queue<Runnable>> sourceTasks = new LinkedHashMap<>();
+        Map<Long, Long> viewSources = new HashMap<>();
+        for (DashboardWithPortal dashboard : dashboards) {
+            List<WidgetWithRelationDashboardId> widgets = widgetMapper.getByDashboard(dashboard.getId());
+            if (CollectionUtils.isEmpty(widgets)) {
+                continue;
+            }
+            List<MemDashboardWidget> mdws = memDashboardWidgetMapper.getByDashboardId(dashboard.getId());
+            Map<Long, MemDashboardWidget> mdwMap = CollectionUtils.isEmpty(mdws) ? Collections.emptyMap() :
+                    mdws.stream().collect(Collectors.toMap(MemDashboardWidget::getWidgetId, o -> o, (oldV, newV) -> oldV));
+            Map<Long, Set<SimpleView>> widgetViews = getWidgetViews(dashboard, widgets);
+
+            for (Widget widget : widgets) {
+                Long sourceId = viewSources.computeIfAbsent(widget.getViewId(), viewId -> {
+                    View view = viewMapper.getById(viewId);
+                    return view == null ? null : view.getSourceId();
+                });
+                if (sourceId == null) {
+                    continue;
+                }
+                for (User user : users) {
+                    result.getWidgets().incrementAndGet();
+                    sourceTasks.computeIfAbsent(sourceId, id -> new ConcurrentLinkedQueue<>())
+                            .add(() -> warmUp(jobId, dashboard, mdwMap.get(widget.getId()), widget, widgetViews.get(widget.getId()), user, result));
+                }
+            }
+        }
+
+        List<Future<?>> futures = new ArrayList<>();
+        sourceTasks.forEach((sourceId, tasks) -> {
+            for (int i = 0; i < Math.min(maxConcurrencyPerSource, tasks.size()); i++) {
+                futures.add(executor.submit(() -> drain(sourceId, tasks)));
+            }
+        });
+
+        boolean timeout = false;
+        long deadline = start + TimeUnit.MINUTES.toMillis(timeoutMinutes);
+        for (Future<?> future : futures) {
+            try {
+                future.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                timeout = true;
+                future.cancel(true);
+            } catch (ExecutionException e) {
+                scheduleLogger.warn("CronJob({}) warm-up worker error: {}", jobId, e.getMessage());
+            }
+        }
+        sourceTasks.values().forEach(Queue::clear);
+
+        JSONObject summary = new JSONObject(true);
+        summary.put("users", users.size());
+        summary.put("dashboards", dashboards.size());
+        summary.put("widgets", result.getWidgets().get());
+        summary.put("filled", result.getFilled().get());
+        summary.put("empty", result.getEmpty().get());
+        summary.put("skipped", result.getSkipped().get());
+        summary.put("failed", result.getFailed().get());
+        summary.put("timeout", timeout);
+        summary.put("costMillis", System.currentTimeMillis() - start);
+        cronJobMapper.updateExecLog(jobId, summary.toJSONString());
+        scheduleLogger.info("CronJob({}) is finish! warm-up result: {} --------------", jobId, summary.toJSONString());
+    }
+
+    private void drain(Long sourceId, Queue<Runnable> tasks) {
+        Semaphore permits = sourcePermits.computeIfAbsent(sourceId, id -> new Semaphore(Math.max(1, maxConcurrencyPerSource)));
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            Runnable task;
+            while (!Thread.currentThread().isInterrupted() && (task = tasks.poll()) != null) {
+                task.run();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 一次查询看板全局控制器、各widget控制器及widget所用的view，供所有用户复用
+     *
+     * @param dashboard
+     * @param widgets
+     * @return widget id -> views
+     */
+    private Map<Long, Set<SimpleView>> getWidgetViews(DashboardWithPortal dashboard, List<WidgetWithRelationDashboardId> widgets) {
+        Set<Long> dashboardViewIds = new HashSet<>();
+        Map<String, Object> dashboardConfig = JSON.parseObject(dashboard.getConfig(), Map.class);
+        if (!CollectionUtils.isEmpty(dashboardConfig)) {
+            dashboardViewIds.addAll(VizUtils.getControllerViewIds((List<Map<String, Object>>) dashboardConfig.get("filters")));
+        }
+
+        Set<Long> allViewIds = new HashSet<>(dashboardViewIds);
+        Map<Long, Set<Long>> widgetViewIds = new HashMap<>();
+        for (Widget widget : widgets) {
+            Set<Long> viewIds = new HashSet<>(dashboardViewIds);
+            Map<String, Object> widgetConfigMap = JSON.parseObject(widget.getConfig(), Map.class);
+            if (!CollectionUtils.isEmpty(widgetConfigMap)) {
+                viewIds.addAll(VizUtils.getControllerViewIds((List<Map<String, Object>>) widgetConfigMap.get("controls")));
+            }
+            viewIds.add(widget.getViewId());
+            allViewIds.addAll(viewIds);
+            widgetViewIds.put(widget.getId(), viewIds);
+        }
+
+        Map<Long, SimpleView> views = VizUtils.getSimpleViews(allViewIds).stream()
+                .collect(Collectors.toMap(SimpleView::getId, v -> v, (oldV, newV) -> oldV));
+        Map<Long, Set<SimpleView>> widgetViews = new HashMap<>();
+        widgetViewIds.forEach((widgetId, viewIds) -> widgetViews.put(widgetId,
+                viewIds.stream().map(views::get).filter(Objects::nonNull).collect(Collectors.toSet())));
+        return widgetViews;
+    }
+
+    private void warmUp(long jobId, DashboardWithPortal dashboard, MemDashboardWidget memDashboardWidget, Widget widget,
+                        Set<SimpleView> simpleViews, User user, WarmUpResult result) {
+        try {
+            ViewExecuteParam executeParam = ScriptUtils.getViewExecuteParam(dashboard.getConfig(), widget.getConfig(),
+                    simpleViews, memDashboardWidget != null ? memDashboardWidget.getId() : null);
+
+            // 未开启缓存的widget请求不读缓存，无需预热
+            if (executeParam == null || executeParam.getCache() == null || !executeParam.getCache()
+                    || executeParam.getExpired() == null || executeParam.getExpired() <= 0L) {
+                result.getSkipped().incrementAndGet();
+                return;
+            }
+            executeParam.setFlush(true);
+
+            Paginate<Map<String, Object>> paginate = viewService.getData(widget.getViewId(), executeParam, user);
+            if (paginate == null || CollectionUtils.isEmpty(paginate.getResultList())) {
+                result.getEmpty().incrementAndGet();
+            } else {
+                result.getFilled().incrementAndGet();
+            }
+        } catch (Exception e) {
+            result.getFailed().incrementAndGet();
+            scheduleLogger.warn("CronJob({}) warm up widget({}) of dashboard({}) for user({}) error: {}",
+                    jobId, widget.getId(), dashboard.getId(), user.getId(), e.getMessage());
+        }
+    }
+
+    private List<User> getUsers(CronJob cronJob, JSONArray scopes) {
+        Map<Long, User> users = new LinkedHashMap<>();
+        if (scopes != null) {
+            for (int i = 0; i < scopes.size(); i++) {
+                JSONObject scope = scopes.getJSONObject(i);
+                Long id = scope.getLong("id");
+                if (id == null) {
+                    continue;
+                }
+                if (SCOPE_USER.equalsIgnoreCase(scope.getString("type"))) {
+                    addUser(users, id);
+                } else if (SCOPE_ROLE.equalsIgnoreCase(scope.getString("type"))) {
+                    getRoleRepresentatives(cronJob, id).forEach(memberId -> addUser(users, memberId));
+                }
+            }
+        }
+
+        if (users.isEmpty() && cronJob.getCreateBy() != null) {
+            User creator = userMapper.getById(cronJob.getCreateBy());
+            if (creator != null) {
+                users.put(creator.getId(), creator);
+            }
+        }
+        return new ArrayList<>(users.values());
+    }
+
+    private void addUser(Map<Long, User> users, Long userId) {
+        if (userId == null || users.containsKey(userId)) {
+            return;
+        }
+        User user = userMapper.getById(userId);
+        if (user != null) {
+            users.put(userId, user);
+        }
+    }
+
+    /**
+     * 权限变量取值由用户在项目内所属的角色决定，按角色组合对成员分组，每组取一个成员预热
+     *
+     * @param cronJob
+     * @param roleId
+     * @return
+     */
+    private List<Long> getRoleRepresentatives(CronJob cronJob, Long roleId) {
+        List<Long> memberIds = relRoleUserMapper.getUserIdsByRoleId(roleId);
+        if (CollectionUtils.isEmpty(memberIds)) {
+            return Collections.emptyList();
+        }
+        Map<List<Long>, Long> representatives = new LinkedHashMap<>();
+        for (Long memberId : memberIds) {
+            List<Long> roleIds = new ArrayList<>(roleMapper.getRolesByUserAndProject(memberId, cronJob.getProjectId()));
+            Collections.sort(roleIds);
+            representatives.putIfAbsent(roleIds, memberId);
+        }
+        return new ArrayList<>(representatives.values());
+    }
+
+    private List<DashboardWithPortal> getDashboards(CronJob cronJob, JSONArray contentList) {
+        Set<Long> dashboardIds = new LinkedHashSet<>();
+        if (contentList != null) {
+            for (int i = 0; i < contentList.size(); i++) {
+                JSONObject content = contentList.getJSONObject(i);
+                Long id = content.getLong("id");
+                if (id == null) {
+                    continue;
+                }
+                String contentType = content.getString("contentType");
+                if (PORTAL.equalsIgnoreCase(contentType)) {
+                    DashboardPortal portal = dashboardPortalMapper.getById(id);
+                    if (portal == null || !cronJob.getProjectId().equals(portal.getProjectId())) {
+                        continue;
+                    }
+                    List<Dashboard> list = dashboardMapper.getByPortalId(id);
+                    if (!CollectionUtils.isEmpty(list)) {
+                        list.forEach(d -> dashboardIds.add(d.getId()));
+                    }
+                } else if (DASHBOARD.equalsIgnoreCase(contentType)) {
+                    dashboardIds.add(id);
+                }
+            }
+        }
+
+        List<DashboardWithPortal> dashboards = new ArrayList<>();
+        for (Long dashboardId : dashboardIds) {
+            DashboardWithPortal dashboard = dashboardMapper.getDashboardWithPortalAndProject(dashboardId);
+            if (dashboard != null && dashboard.getProject() != null && cronJob.getProjectId().equals(dashboard.getProject().getId())) {
+                dashboards.add(dashboard);
+            }
+        }
+        return dashboards;
+    }
+
+    @Data
+    private static class WarmUpResult {
+
+        private final AtomicLong widgets = new AtomicLong();
+
+        private final AtomicLong filled = new AtomicLong();
+
+        private final AtomicLong empty = new AtomicLong();
+
+        private final AtomicLong skipped = new AtomicLong();
+
+        private final AtomicLong failed = new AtomicLong();
+    }
+}
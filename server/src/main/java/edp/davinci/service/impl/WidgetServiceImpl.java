@@ -61,6 +61,7 @@ import edp.davinci.service.ShareService;
 import edp.davinci.service.ViewService;
 import edp.davinci.service.WidgetService;
 import edp.davinci.service.share.ShareFactor;
+import edp.davinci.service.share.ShareFactorCache;
 import edp.davinci.service.share.ShareResult;
 import edp.davinci.service.share.ShareType;
 import lombok.extern.slf4j.Slf4j;
@@ -94,6 +95,9 @@ public class WidgetServiceImpl extends BaseEntityService implements WidgetServic
     @Autowired
     private WidgetMapper widgetMapper;
 
+    @Autowired
+    private ShareFactorCache shareFactorCache;
+
     @Autowired
     private ViewMapper viewMapper;
 
@@ -283,6 +287,7 @@ public class WidgetServiceImpl extends BaseEntityService implements WidgetServic
 
             optLogger.info("Widget({}) is update by user({}), origin:{}", widget.toString(), user.getId(),
                     originStr);
+            shareFactorCache.purgeEntity(ShareType.WIDGET, id);
             return true;
 
         } finally {
@@ -319,6 +324,7 @@ public class WidgetServiceImpl extends BaseEntityService implements WidgetServic
         widgetMapper.deleteById(id);
 
         optLogger.info("Widget({}) is delete by user({})", widget.toString(), user.getId());
+        shareFactorCache.purgeEntity(ShareType.WIDGET, id);
         return true;
     }
 
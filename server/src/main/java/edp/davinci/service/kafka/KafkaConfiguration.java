@@ -10,6 +10,7 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 @Configuration
 @Slf4j
@@ -17,6 +18,16 @@ public class KafkaConfiguration {
 
     protected Producer<String, String> producer;
 
+    private static final String[] PRODUCER_OVERRIDES = {
+            ProducerConfig.LINGER_MS_CONFIG,
+            ProducerConfig.BATCH_SIZE_CONFIG,
+            ProducerConfig.COMPRESSION_TYPE_CONFIG,
+            ProducerConfig.BUFFER_MEMORY_CONFIG,
+            ProducerConfig.MAX_BLOCK_MS_CONFIG,
+            ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION_CONFIG,
+            ProducerConfig.RETRIES_CONFIG
+    };
+
     private String servers;
 
     @Autowired
@@ -39,7 +50,9 @@ public class KafkaConfiguration {
         String keytab = environment.getProperty("statistic.java.security.keytab");
         String principal = environment.getProperty("statistic.java.security.principal");
 
-        System.setProperty("java.security.krb5.conf", krb5);
+        if (StringUtils.isNotBlank(krb5)) {
+            System.setProperty("java.security.krb5.conf", krb5);
+        }
         KafkaProperties.configureJAAS(keytab, principal);
         System.setProperty("javax.security.auth.useSubjectCredsOnly", "false");
 
@@ -54,8 +67,23 @@ public class KafkaConfiguration {
 
         KafkaProperties producerProps = KafkaProperties.initProducer();
         producerProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, servers);
+        // 允许通过statistic.kafka.*覆盖批量及缓冲配置
+        for (String key : PRODUCER_OVERRIDES) {
+            String value = environment.getProperty("statistic.kafka." + key);
+            if (StringUtils.isNotBlank(value)) {
+                producerProps.put(key, value);
+            }
+        }
 
         producer = new KafkaProducer<>(producerProps.getProperties());
     }
 
+    @PreDestroy
+    public void destroy() {
+        if (producer != null) {
+            producer.flush();
+            producer.close();
+        }
+    }
+
 }
@@ -4,39 +4,61 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
 @Component
 @Slf4j
 public class KafkaOperationService extends KafkaConfiguration {
 
+    public static final String HEADER_TYPE = "type";
+
+    private final AtomicLong sent = new AtomicLong(0);
+
+    private final AtomicLong failed = new AtomicLong(0);
+
     public void send(String topic, String msg) {
+        send(topic, null, null, msg);
+    }
+
+    /**
+     * 异步发送，由producer负责批量、压缩及重试，发送结果在回调中统计
+     *
+     * @param topic
+     * @param key   分区键
+     * @param type  消息类型，写入record header
+     * @param msg
+     */
+    public void send(String topic, String key, String type, String msg) {
+        if (this.producer == null) {
+            failed.incrementAndGet();
+            throw new RuntimeException("Producer of kafka is null .");
+        }
+
+        ProducerRecord<String, String> record = new ProducerRecord<>(topic, key, msg);
+        if (type != null) {
+            record.headers().add(HEADER_TYPE, type.getBytes(StandardCharsets.UTF_8));
+        }
+
         try {
-            doSend(topic, msg);
-
-        }catch (Exception e){
-            log.error("Send msg to kafka error . topic={}, msg={}", topic, msg, e);
-            super.initProducer();
-
-            //重试
-            for(int i=1; i<=2; i++){
-                log.info("Send msg to kafka retry {} time . topic={}, msg={}", i, topic, msg);
-                try {
-                    doSend(topic, msg);
-                    break;
-                }catch (Exception ex){
-                    log.error("Send msg to kafka retry {} time . topic={}, msg={}", i, topic, msg, ex);
-                }finally {
-                    super.initProducer();
+            this.producer.send(record, (metadata, exception) -> {
+                if (exception == null) {
+                    sent.incrementAndGet();
+                    return;
+                }
+                if (failed.incrementAndGet() % 1000 == 1) {
+                    log.error("Send msg to kafka error . topic={}, {}", topic, getStats(), exception);
                 }
+            });
+        } catch (Exception e) {
+            // 缓冲区已满或元数据不可用时在max.block.ms后快速失败
+            if (failed.incrementAndGet() % 1000 == 1) {
+                log.error("Send msg to kafka error . topic={}, {}", topic, getStats(), e);
             }
         }
     }
 
-    private void doSend(String topic, String msg){
-        if(this.producer == null){
-            throw new RuntimeException("Producer of kafka is null .");
-        }else{
-            this.producer.send(new ProducerRecord<>(topic, msg));
-        }
+    public String getStats() {
+        return String.format("sent:%d, failed:%d", sent.get(), failed.get());
     }
-
 }
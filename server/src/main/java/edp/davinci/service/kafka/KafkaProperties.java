@@ -63,6 +63,14 @@ public class KafkaProperties extends Properties {
                 .put(ProducerConfig.ACKS_CONFIG, "all")
                 .put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringSerializer")
                 .put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringSerializer")
+                // 异步批量发送，缓冲区满时快速失败而不是阻塞调用线程
+                .put(ProducerConfig.LINGER_MS_CONFIG, "50")
+                .put(ProducerConfig.BATCH_SIZE_CONFIG, "65536")
+                .put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4")
+                .put(ProducerConfig.BUFFER_MEMORY_CONFIG, "33554432")
+                .put(ProducerConfig.MAX_BLOCK_MS_CONFIG, "100")
+                .put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION_CONFIG, "5")
+                .put(ProducerConfig.RETRIES_CONFIG, "3")
                 .put(CommonClientConfigs.SECURITY_PROTOCOL_CONFIG, "SASL_PLAINTEXT")
                 .put("sasl.kerberos.service.name", "kafka");
     }
@@ -30,6 +30,11 @@ public class ImageContent {
     private String desc;
     private File imageFile;
     private String url;
+    /**
+     * display截图对应的slide
+     */
+    private Long vizId;
+    private String fingerprint;
 
     public ImageContent(int order, Long cid, String desc, String url) {
         this.cId = cid;
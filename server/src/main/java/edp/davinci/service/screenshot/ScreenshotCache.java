@@ -0,0 +1,393 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.screenshot;
+
+import com.alibaba.fastjson.JSON;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import edp.core.consts.Consts;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import edp.core.utils.CollectionUtils;
+import edp.core.utils.DateUtils;
+import edp.core.utils.FileUtils;
+import edp.davinci.common.utils.ScriptUtils;
+import edp.davinci.core.utils.VizUtils;
+import edp.davinci.dao.*;
+import edp.davinci.dto.dashboardDto.DashboardWithPortal;
+import edp.davinci.dto.projectDto.ProjectDetail;
+import edp.davinci.dto.viewDto.SimpleView;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import edp.davinci.dto.viewDto.ViewWithProjectAndSource;
+import edp.davinci.dto.widgetDto.WidgetWithRelationDashboardId;
+import edp.davinci.dto.widgetDto.WidgetWithVizId;
+import edp.davinci.model.*;
+import edp.davinci.service.ProjectService;
+import edp.davinci.service.ViewService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static edp.core.consts.Consts.AT_SYMBOL;
+
+/**
+ * 定时任务截图缓存
+ * 根据页面内所有widget的查询参数及查询结果计算指纹，指纹未变化时复用上次截图，避免重复启动浏览器渲染
+ */
+@Slf4j
+@Component
+public class ScreenshotCache {
+
+    @Value("${screenshot.cache.enable:true}")
+    private boolean enable;
+
+    @Value("${screenshot.cache.retention_hours:24}")
+    private int retentionHours;
+
+    private static final String DIR_SCHEDULE_IMAGE = File.separator + "schedule" + File.separator + "images" + File.separator;
+
+    private static final String DISPLAY = "DISPLAY";
+
+    @Autowired
+    private FileUtils fileUtils;
+
+    @Autowired
+    private DashboardMapper dashboardMapper;
+
+    @Autowired
+    private MemDashboardWidgetMapper memDashboardWidgetMapper;
+
+    @Autowired
+    private DisplayMapper displayMapper;
+
+    @Autowired
+    private DisplaySlideMapper displaySlideMapper;
+
+    @Autowired
+    private MemDisplaySlideWidgetMapper memDisplaySlideWidgetMapper;
+
+    @Autowired
+    private WidgetMapper widgetMapper;
+
+    @Autowired
+    private ViewMapper viewMapper;
+
+    @Autowired
+    private ViewService viewService;
+
+    @Autowired
+    private ProjectService projectService;
+
+    /**
+     * jobId -> (content key -> cached image)
+     */
+    private final Map<Long, Map<String, CachedImage>> jobImages = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong(0);
+
+    private final AtomicLong misses = new AtomicLong(0);
+
+    public boolean isEnable() {
+        return enable;
+    }
+
+    /**
+     * 计算截图内容指纹，无法计算时返回null
+     *
+     * @param jobId
+     * @param content
+     * @param imageWidth
+     * @param user
+     * @return
+     */
+    public String fingerprint(long jobId, ImageContent content, Integer imageWidth, User user) {
+        if (!enable || user == null) {
+            return null;
+        }
+
+        try {
+            Hasher hasher = Hashing.murmur3_128().newHasher();
+            putString(hasher, content.getDesc());
+            putString(hasher, String.valueOf(content.getCId()));
+            putString(hasher, String.valueOf(content.getVizId()));
+            putString(hasher, String.valueOf(imageWidth));
+
+            if (DISPLAY.equalsIgnoreCase(content.getDesc())) {
+                if (!hashDisplaySlide(hasher, content, user)) {
+                    return null;
+                }
+            } else {
+                if (!hashDashboard(hasher, content, user)) {
+                    return null;
+                }
+            }
+            return hasher.hash().toString();
+        } catch (Exception e) {
+            log.warn("Cronjob({}) fingerprint {}({}) error:{}", jobId, content.getDesc(), content.getCId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean hashDashboard(Hasher hasher, ImageContent content, User user) throws Exception {
+        DashboardWithPortal dashboard = dashboardMapper.getDashboardWithPortalAndProject(content.getCId());
+        if (dashboard == null) {
+            return false;
+        }
+        putString(hasher, dashboard.getConfig());
+
+        ProjectDetail projectDetail = projectService.getProjectDetail(dashboard.getProject().getId(), user, false);
+        boolean isMaintainer = projectService.isMaintainer(projectDetail, user);
+
+        List<MemDashboardWidget> mdws = memDashboardWidgetMapper.getByDashboardId(dashboard.getId());
+        if (!CollectionUtils.isEmpty(mdws)) {
+            mdws.sort(Comparator.comparing(MemDashboardWidget::getId));
+            putString(hasher, JSON.toJSONString(mdws));
+        }
+        Map<Long, MemDashboardWidget> mdwMap = CollectionUtils.isEmpty(mdws) ? Collections.emptyMap() :
+                mdws.stream().collect(Collectors.toMap(MemDashboardWidget::getWidgetId, o -> o, (oldV, newV) -> oldV));
+
+        List<WidgetWithRelationDashboardId> widgets = widgetMapper.getByDashboard(dashboard.getId());
+        if (!CollectionUtils.isEmpty(widgets)) {
+            widgets.sort(Comparator.comparing(Widget::getId));
+            for (Widget widget : widgets) {
+                hashWidget(hasher, widget, dashboard, mdwMap.get(widget.getId()), isMaintainer, user);
+            }
+        }
+        return true;
+    }
+
+    private boolean hashDisplaySlide(Hasher hasher, ImageContent content, User user) throws Exception {
+        Display display = displayMapper.getById(content.getCId());
+        if (display == null || content.getVizId() == null) {
+            return false;
+        }
+        putString(hasher, display.getConfig());
+
+        DisplaySlide slide = displaySlideMapper.getById(content.getVizId());
+        if (slide == null) {
+            return false;
+        }
+        putString(hasher, slide.getConfig());
+
+        // 图层包含文本、图片等非widget内容
+        List<MemDisplaySlideWidget> layers = memDisplaySlideWidgetMapper.getMemDisplaySlideWidgetListBySlideId(slide.getId());
+        if (!CollectionUtils.isEmpty(layers)) {
+            layers.sort(Comparator.comparing(MemDisplaySlideWidget::getId));
+            putString(hasher, JSON.toJSONString(layers));
+        }
+
+        ProjectDetail projectDetail = projectService.getProjectDetail(display.getProjectId(), user, false);
+        boolean isMaintainer = projectService.isMaintainer(projectDetail, user);
+
+        List<WidgetWithVizId> widgets = widgetMapper.queryByDisplayId(display.getId());
+        if (!CollectionUtils.isEmpty(widgets)) {
+            List<WidgetWithVizId> slideWidgets = widgets.stream()
+                    .filter(w -> slide.getId().equals(w.getVizId()))
+                    .sorted(Comparator.comparing(Widget::getId))
+                    .collect(Collectors.toList());
+            for (Widget widget : slideWidgets) {
+                hashWidget(hasher, widget, null, null, isMaintainer, user);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按widget的查询参数取数并对结果求校验值
+     */
+    private void hashWidget(Hasher hasher, Widget widget, Dashboard dashboard, MemDashboardWidget memDashboardWidget,
+                            boolean isMaintainer, User user) throws Exception {
+        putString(hasher, String.valueOf(widget.getId()));
+        putString(hasher, widget.getConfig());
+
+        Set<SimpleView> simpleViews = new HashSet<>();
+        if (dashboard != null) {
+            Map<String, Object> dashboardConfig = JSON.parseObject(dashboard.getConfig(), Map.class);
+            if (!CollectionUtils.isEmpty(dashboardConfig)) {
+                simpleViews.addAll(VizUtils.getControllerViews((List<Map<String, Object>>) dashboardConfig.get("filters")));
+            }
+        }
+        Map<String, Object> widgetConfigMap = JSON.parseObject(widget.getConfig(), Map.class);
+        if (!CollectionUtils.isEmpty(widgetConfigMap)) {
+            simpleViews.addAll(VizUtils.getControllerViews((List<Map<String, Object>>) widgetConfigMap.get("controls")));
+        }
+        simpleViews.add(viewMapper.getSimpleViewById(widget.getViewId()));
+
+        ViewExecuteParam executeParam = ScriptUtils.getViewExecuteParam(
+                dashboard != null ? dashboard.getConfig() : null,
+                widget.getConfig(),
+                simpleViews,
+                memDashboardWidget != null ? memDashboardWidget.getId() : null);
+
+        putString(hasher, JSON.toJSONString(executeParam));
+
+        // 与渲染时相同的取数路径，开启缓存的widget直接命中结果缓存，渲染时也复用本次查询结果
+        ViewWithProjectAndSource viewWithProjectAndSource = viewMapper.getViewWithProjectAndSourceById(widget.getViewId());
+        PaginateWithQueryColumns paginate = viewService.getResultDataList(isMaintainer, viewWithProjectAndSource, executeParam, user);
+        if (paginate == null) {
+            return;
+        }
+        List<QueryColumn> columns = paginate.getColumns();
+        if (!CollectionUtils.isEmpty(columns)) {
+            columns.forEach(column -> putString(hasher, column.getName()));
+        }
+        putString(hasher, String.valueOf(paginate.getTotalCount()));
+        for (Map<String, Object> row : paginate.getResultList()) {
+            if (CollectionUtils.isEmpty(columns)) {
+                row.values().forEach(value -> putString(hasher, String.valueOf(value)));
+                continue;
+            }
+            columns.forEach(column -> putString(hasher, String.valueOf(row.get(column.getName()))));
+        }
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        hasher.putString(value == null ? Consts.EMPTY : value, StandardCharsets.UTF_8).putChar('\u0000');
+    }
+
+    /**
+     * 获取指纹一致的缓存截图副本
+     *
+     * @param jobId
+     * @param content
+     * @param fingerprint
+     * @return
+     */
+    public File get(long jobId, ImageContent content, String fingerprint) {
+        if (!enable || fingerprint == null) {
+            return null;
+        }
+        Map<String, CachedImage> images = jobImages.get(jobId);
+        CachedImage cached = images == null ? null : images.get(getContentKey(content));
+        if (cached == null || !fingerprint.equals(cached.fingerprint) || !cached.file.exists()) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        File tempDir = new File(fileUtils.fileBasePath + Consts.DIR_TEMP + DateUtils.getNowDateYYYYMMDD());
+        if (!tempDir.exists()) {
+            tempDir.mkdirs();
+        }
+        File image = new File(tempDir.getPath() + File.separator + UUID.randomUUID().toString() + cached.file.getName());
+        if (FileUtils.copy(cached.file, image) < 0) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return image;
+    }
+
+    /**
+     * 保存截图
+     *
+     * @param jobId
+     * @param content
+     * @param fingerprint
+     */
+    public void put(long jobId, ImageContent content, String fingerprint) {
+        if (!enable || fingerprint == null || content.getImageFile() == null) {
+            return;
+        }
+        File dir = new File(fileUtils.fileBasePath + DIR_SCHEDULE_IMAGE + jobId);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        String key = getContentKey(content);
+        File file = new File(dir.getPath() + File.separator + fingerprint + ".png");
+        if (FileUtils.copy(content.getImageFile(), file) < 0) {
+            return;
+        }
+        CachedImage old = jobImages.computeIfAbsent(jobId, k -> new ConcurrentHashMap<>())
+                .put(key, new CachedImage(fingerprint, file, System.currentTimeMillis()));
+        if (old != null && !old.file.equals(file)) {
+            old.file.delete();
+        }
+    }
+
+    /**
+     * 清理超过保留时间的截图
+     * 内存索引重启后丢失，按文件修改时间清理截图目录，重启前遗留的截图同样会被删除
+     */
+    @Scheduled(cron = "0 30 * * * *")
+    public void evictExpired() {
+        long deadline = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(retentionHours);
+        jobImages.forEach((jobId, images) -> {
+            images.entrySet().removeIf(entry -> entry.getValue().createTime < deadline);
+            if (images.isEmpty()) {
+                jobImages.remove(jobId);
+            }
+        });
+
+        File[] jobDirs = new File(fileUtils.fileBasePath + DIR_SCHEDULE_IMAGE).listFiles(File::isDirectory);
+        if (jobDirs != null) {
+            for (File jobDir : jobDirs) {
+                File[] files = jobDir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (file.isFile() && file.lastModified() < deadline) {
+                            file.delete();
+                        }
+                    }
+                }
+                String[] left = jobDir.list();
+                if (left == null || left.length == 0) {
+                    jobDir.delete();
+                }
+            }
+        }
+        log.info("Screenshot cache {}", getStats());
+    }
+
+    public String getStats() {
+        long hit = hits.get();
+        long total = hit + misses.get();
+        return String.format("jobs:%d, hits:%d, misses:%d, hitRatio:%.2f", jobImages.size(), hit, misses.get(),
+                total == 0 ? 0D : (double) hit / total);
+    }
+
+    private String getContentKey(ImageContent content) {
+        return content.getDesc() + AT_SYMBOL + content.getCId() + AT_SYMBOL + content.getVizId();
+    }
+
+    private static class CachedImage {
+
+        private final String fingerprint;
+
+        private final File file;
+
+        private final long createTime;
+
+        private CachedImage(String fingerprint, File file, long createTime) {
+            this.fingerprint = fingerprint;
+            this.file = file;
+            this.createTime = createTime;
+        }
+    }
+}
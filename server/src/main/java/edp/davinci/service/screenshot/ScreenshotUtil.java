@@ -23,69 +23,63 @@ import com.alibaba.druid.util.StringUtils;
 import edp.core.consts.Consts;
 import edp.core.utils.DateUtils;
 import edp.core.utils.FileUtils;
-import edp.davinci.core.enums.LogNameEnum;
 import lombok.extern.slf4j.Slf4j;
 import org.openqa.selenium.*;
 import org.openqa.selenium.TimeoutException;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeDriverService;
-import org.openqa.selenium.chrome.ChromeOptions;
 import org.openqa.selenium.logging.LogEntries;
 import org.openqa.selenium.logging.LogEntry;
 import org.openqa.selenium.logging.LogType;
-import org.openqa.selenium.phantomjs.PhantomJSDriver;
-import org.openqa.selenium.phantomjs.PhantomJSDriverService;
-import org.openqa.selenium.remote.DesiredCapabilities;
-import org.openqa.selenium.remote.RemoteWebDriver;
 import org.openqa.selenium.support.ui.ExpectedCondition;
 import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.openqa.selenium.support.ui.WebDriverWait;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.File;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import static edp.davinci.service.screenshot.BrowserEnum.valueOf;
-
 @Slf4j
 @Component
 public class ScreenshotUtil {
-	
-//	private static final Logger log = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SCHEDULE.getName());
-
-    @Value("${screenshot.default_browser:PHANTOMJS}")
-    private String DEFAULT_BROWSER;
-
-    @Value("${screenshot.chromedriver_path:}")
-    private String CHROME_DRIVER_PATH;
-
-    @Value("${screenshot.phantomjs_path:}")
-    private String PHANTOMJS_PATH;
-
-    @Value("${screenshot.remote_webdriver_url:}")
-    private String REMOTE_WEBDRIVER_URL;
 
     @Value("${screenshot.timeout_second:600}")
     private int timeOutSecond;
 
+    @Value("${screenshot.render_wait_millis:2000}")
+    private long renderWaitMillis;
+
     private static final int DEFAULT_SCREENSHOT_WIDTH = 1920;
     private static final int DEFAULT_SCREENSHOT_HEIGHT = 1080;
 
-    private static final ExecutorService executorService = Executors.newFixedThreadPool(8);
+    private static final long RENDER_POLL_MILLIS = 200L;
+
+    private static final String RENDER_STATE_SCRIPT = "return document.readyState + '|' + document.documentElement.scrollWidth + 'x' + document.documentElement.scrollHeight + '|' + document.getElementsByTagName('*').length;";
+
+    private ExecutorService executorService;
 
     @Autowired
     private FileUtils fileUtils;
 
+    @Autowired
+    private WebDriverPool webDriverPool;
+
+    @PostConstruct
+    public void init() {
+        executorService = Executors.newFixedThreadPool(webDriverPool.getPoolSize());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executorService.shutdownNow();
+    }
+
     public void screenshot(long jobId, List<ImageContent> imageContents, Integer imageWidth) {
     	log.info("Start screenshot for job({})", jobId);
         try {
@@ -119,16 +113,19 @@ public class ScreenshotUtil {
         } catch (InterruptedException e) {
         	log.error(e.getMessage(), e);
         } finally {
-        	log.info("Cronjob({}) finish screenshot", jobId);
+        	log.info("Cronjob({}) finish screenshot, web driver pool {}", jobId, webDriverPool.getStats());
         }
     }
 
     private File doScreenshot(long jobId, String url, Integer imageWidth) throws Exception {
-        WebDriver driver = generateWebDriver(jobId, imageWidth);
+        WebDriverPool.PooledWebDriver pooled = webDriverPool.borrow(jobId,
+                imageWidth != null && imageWidth > 0 ? imageWidth : DEFAULT_SCREENSHOT_WIDTH, DEFAULT_SCREENSHOT_HEIGHT);
+        WebDriver driver = pooled.getDriver();
+        boolean discard = false;
 
-        driver.get(url);
         log.info("Cronjob({}) do screenshot url={}, timeout={} start", jobId, url, timeOutSecond);
         try {
+            driver.get(url);
             WebDriverWait wait = new WebDriverWait(driver, timeOutSecond);
             ExpectedCondition<WebElement> ConditionOfSign = ExpectedConditions.presenceOfElementLocated(By.id("headlessBrowserRenderSign"));
             ExpectedCondition<WebElement> ConditionOfWidth = ExpectedConditions.presenceOfElementLocated(By.id("width"));
@@ -151,7 +148,7 @@ public class ScreenshotUtil {
             }
 
             driver.manage().window().setSize(new Dimension(width, height));
-            Thread.sleep(2000);
+            waitForRenderSettled(jobId, driver);
             File tempImage = ((TakesScreenshot) driver).getScreenshotAs(OutputType.FILE);
             File tempDir = new File(fileUtils.fileBasePath + Consts.DIR_TEMP + DateUtils.getNowDateYYYYMMDD());
             if (!tempDir.exists()) {
@@ -165,91 +162,45 @@ public class ScreenshotUtil {
 
         } catch (TimeoutException te) {
             String text = driver.findElements(By.tagName("html")).get(0).getAttribute("innerText");
-            log.info("Cronjob({}) do screenshot url={} text=\n{}", text);
+            log.info("Cronjob({}) do screenshot url={} text=\n{}", jobId, url, text);
             LogEntries logEntries = driver.manage().logs().get(LogType.BROWSER);
             for (LogEntry entry : logEntries) {
                 log.info(entry.getLevel() + " " + entry.getMessage());
             }
             log.error(te.getMessage(), te);
-        } catch (InterruptedException e) {
-            LogEntries logEntries= driver.manage().logs().get(LogType.BROWSER);
-            for (LogEntry entry : logEntries) {
-                log.info(entry.getLevel() + " " + entry.getMessage());
-            }
-        	log.error(e.getMessage(), e);
+        } catch (WebDriverException e) {
+            discard = true;
+            throw e;
         } finally {
         	log.info("Cronjob({}) do screenshot url={} finish", jobId, url);
-            driver.quit();
+            webDriverPool.release(pooled, discard);
         }
 
         return null;
     }
 
-    private WebDriver generateWebDriver(Long jobId, Integer imageWidth) throws ExecutionException {
-        WebDriver driver;
-        BrowserEnum browserEnum = valueOf(DEFAULT_BROWSER);
-        switch (browserEnum) {
-            case CHROME:
-                driver = generateChromeDriver();
-                log.info("Cronjob({}) generating chrome driver({})...", jobId, driver.getClass().toString());
-                break;
-            case PHANTOMJS:
-                driver = generatePhantomJsDriver();
-                log.info("Cronjob({}) generating PhantomJs driver({})...", jobId, PHANTOMJS_PATH);
-                break;
-            default:
-                throw new IllegalArgumentException("Unknown Web browser:" + DEFAULT_BROWSER);
-        }
-
-        driver.manage().timeouts().implicitlyWait(3, TimeUnit.MINUTES);
-        driver.manage().window().maximize();
-        driver.manage().window().setSize(new Dimension(imageWidth != null && imageWidth > 0 ? imageWidth : DEFAULT_SCREENSHOT_WIDTH, DEFAULT_SCREENSHOT_HEIGHT));
-        
-        return driver;
-    }
-
-
-    private WebDriver generateChromeDriver() throws ExecutionException {
-        if (!StringUtils.isEmpty(REMOTE_WEBDRIVER_URL)) {
-            log.info("User remoteWebDriver:{}", REMOTE_WEBDRIVER_URL);
-            try {
-                return new RemoteWebDriver(new URL(REMOTE_WEBDRIVER_URL), DesiredCapabilities.chrome());
-            } catch (MalformedURLException ex) {
-                log.error(ex.toString(), ex);
-            }
-        }
-        File file = new File(CHROME_DRIVER_PATH);
-        if (!file.canExecute()) {
-            if (!file.setExecutable(true)) {
-                throw new ExecutionException(new Exception(CHROME_DRIVER_PATH + " is not executable!"));
-            }
-        }
-
-        System.setProperty(ChromeDriverService.CHROME_DRIVER_EXE_PROPERTY, CHROME_DRIVER_PATH);
-        ChromeOptions options = new ChromeOptions();
-
-        options.addArguments("headless");
-        options.addArguments("no-sandbox");
-        options.addArguments("disable-gpu");
-        options.addArguments("disable-features=NetworkService");
-        options.addArguments("ignore-certificate-errors");
-        options.addArguments("silent-launch");
-        options.addArguments("disable-application-cache");
-        options.addArguments("disable-web-security");
-        options.addArguments("no-proxy-server");
-        options.addArguments("disable-dev-shm-usage");
-
-        return new ChromeDriver(options);
-    }
-
-    private WebDriver generatePhantomJsDriver() throws ExecutionException {
-        File file = new File(PHANTOMJS_PATH);
-        if (!file.canExecute()) {
-            if (!file.setExecutable(true)) {
-                throw new ExecutionException(new Exception(PHANTOMJS_PATH + " is not executable!"));
-            }
+    /**
+     * 等待页面渲染稳定，页面加载完成且连续两次轮询的尺寸与节点数不再变化即认为渲染结束，最多等待renderWaitMillis
+     *
+     * @param jobId
+     * @param driver
+     */
+    private void waitForRenderSettled(long jobId, WebDriver driver) {
+        long start = System.currentTimeMillis();
+        final String[] lastState = {null};
+        try {
+            new WebDriverWait(driver, 0, RENDER_POLL_MILLIS)
+                    .withTimeout(renderWaitMillis, TimeUnit.MILLISECONDS)
+                    .until((ExpectedCondition<Boolean>) d -> {
+                        String state = String.valueOf(((JavascriptExecutor) d).executeScript(RENDER_STATE_SCRIPT));
+                        boolean settled = state.startsWith("complete") && state.equals(lastState[0]);
+                        lastState[0] = state;
+                        return settled;
+                    });
+        } catch (TimeoutException e) {
+            log.info("Cronjob({}) render not settled in {}ms, take screenshot anyway", jobId, renderWaitMillis);
+            return;
         }
-        System.setProperty(PhantomJSDriverService.PHANTOMJS_EXECUTABLE_PATH_PROPERTY, PHANTOMJS_PATH);
-        return new PhantomJSDriver();
+        log.info("Cronjob({}) render settled in {}ms", jobId, System.currentTimeMillis() - start);
     }
 }
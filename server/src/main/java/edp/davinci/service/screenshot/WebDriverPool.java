@@ -0,0 +1,324 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.screenshot;
+
+import com.alibaba.druid.util.StringUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeDriverService;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.phantomjs.PhantomJSDriver;
+import org.openqa.selenium.phantomjs.PhantomJSDriverService;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edp.davinci.service.screenshot.BrowserEnum.valueOf;
+
+/**
+ * 浏览器池
+ * 复用已启动的浏览器，借出前检查可用性，达到最大使用次数后重建，归还时清理cookie及storage保证任务间隔离
+ */
+@Slf4j
+@Component
+public class WebDriverPool {
+
+    @Value("${screenshot.default_browser:PHANTOMJS}")
+    private String DEFAULT_BROWSER;
+
+    @Value("${screenshot.chromedriver_path:}")
+    private String CHROME_DRIVER_PATH;
+
+    @Value("${screenshot.phantomjs_path:}")
+    private String PHANTOMJS_PATH;
+
+    @Value("${screenshot.remote_webdriver_url:}")
+    private String REMOTE_WEBDRIVER_URL;
+
+    @Value("${screenshot.pool_size:8}")
+    private int poolSize;
+
+    @Value("${screenshot.max_uses_per_browser:50}")
+    private int maxUses;
+
+    @Value("${screenshot.borrow_timeout_second:600}")
+    private int borrowTimeoutSecond;
+
+    @Value("${screenshot.idle_timeout_second:600}")
+    private int idleTimeoutSecond;
+
+    private static final String BLANK_PAGE = "about:blank";
+
+    private static final String CLEAR_STORAGE_SCRIPT = "try { window.localStorage.clear(); window.sessionStorage.clear(); } catch (e) {}";
+
+    private final LinkedBlockingDeque<PooledWebDriver> idleDrivers = new LinkedBlockingDeque<>();
+
+    private Semaphore permits;
+
+    private final AtomicLong created = new AtomicLong(0);
+
+    private final AtomicLong reused = new AtomicLong(0);
+
+    private final AtomicLong recycled = new AtomicLong(0);
+
+    private final AtomicLong broken = new AtomicLong(0);
+
+    private final AtomicLong borrowed = new AtomicLong(0);
+
+    private final AtomicLong totalWaitMillis = new AtomicLong(0);
+
+    private final AtomicLong maxWaitMillis = new AtomicLong(0);
+
+    @PostConstruct
+    public void init() {
+        permits = new Semaphore(poolSize, true);
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * 借出浏览器
+     *
+     * @param jobId
+     * @param imageWidth
+     * @param height
+     * @return
+     * @throws ExecutionException
+     */
+    public PooledWebDriver borrow(long jobId, int imageWidth, int height) throws ExecutionException, InterruptedException {
+        long start = System.currentTimeMillis();
+        if (!permits.tryAcquire(borrowTimeoutSecond, TimeUnit.SECONDS)) {
+            throw new ExecutionException(new Exception("Cronjob(" + jobId + ") wait for web driver timeout, " + getStats()));
+        }
+        long wait = System.currentTimeMillis() - start;
+        borrowed.incrementAndGet();
+        totalWaitMillis.addAndGet(wait);
+        maxWaitMillis.accumulateAndGet(wait, Math::max);
+
+        try {
+            PooledWebDriver pooled;
+            while ((pooled = idleDrivers.pollFirst()) != null) {
+                if (pooled.uses >= maxUses) {
+                    recycled.incrementAndGet();
+                    quit(pooled);
+                    continue;
+                }
+                if (!isHealthy(pooled)) {
+                    broken.incrementAndGet();
+                    quit(pooled);
+                    continue;
+                }
+                reused.incrementAndGet();
+                break;
+            }
+            if (pooled == null) {
+                pooled = new PooledWebDriver(generateWebDriver(jobId));
+                created.incrementAndGet();
+            }
+            pooled.uses++;
+            pooled.driver.manage().window().setSize(new Dimension(imageWidth, height));
+            log.info("Cronjob({}) borrow web driver uses={}, wait={}ms", jobId, pooled.uses, wait);
+            return pooled;
+        } catch (Exception e) {
+            permits.release();
+            throw e instanceof ExecutionException ? (ExecutionException) e : new ExecutionException(e);
+        }
+    }
+
+    /**
+     * 归还浏览器，清理当前页面的cookie及storage后回到空白页
+     *
+     * @param pooled
+     * @param discard 浏览器状态异常时直接销毁
+     */
+    public void release(PooledWebDriver pooled, boolean discard) {
+        if (pooled == null) {
+            return;
+        }
+        try {
+            if (discard) {
+                broken.incrementAndGet();
+                quit(pooled);
+                return;
+            }
+            try {
+                WebDriver driver = pooled.driver;
+                ((JavascriptExecutor) driver).executeScript(CLEAR_STORAGE_SCRIPT);
+                driver.manage().deleteAllCookies();
+                driver.get(BLANK_PAGE);
+            } catch (Exception e) {
+                log.warn("Reset web driver error:{}", e.getMessage());
+                broken.incrementAndGet();
+                quit(pooled);
+                return;
+            }
+            pooled.lastUsedTime = System.currentTimeMillis();
+            idleDrivers.offerFirst(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Scheduled(fixedDelay = 60_000L)
+    public void evictIdle() {
+        long deadline = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(idleTimeoutSecond);
+        Iterator<PooledWebDriver> iterator = idleDrivers.descendingIterator();
+        while (iterator.hasNext()) {
+            PooledWebDriver pooled = iterator.next();
+            if (pooled.lastUsedTime < deadline && idleDrivers.remove(pooled)) {
+                quit(pooled);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        PooledWebDriver pooled;
+        while ((pooled = idleDrivers.pollFirst()) != null) {
+            quit(pooled);
+        }
+    }
+
+    public String getStats() {
+        long count = borrowed.get();
+        return String.format("poolSize:%d, idle:%d, available:%d, created:%d, reused:%d, recycled:%d, broken:%d, avgWait:%dms, maxWait:%dms",
+                poolSize, idleDrivers.size(), permits.availablePermits(), created.get(), reused.get(), recycled.get(), broken.get(),
+                count == 0 ? 0 : totalWaitMillis.get() / count, maxWaitMillis.get());
+    }
+
+    private boolean isHealthy(PooledWebDriver pooled) {
+        try {
+            pooled.driver.getWindowHandle();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void quit(PooledWebDriver pooled) {
+        try {
+            pooled.driver.quit();
+        } catch (Exception e) {
+            log.warn("Quit web driver error:{}", e.getMessage());
+        }
+    }
+
+    private WebDriver generateWebDriver(Long jobId) throws ExecutionException {
+        WebDriver driver;
+        BrowserEnum browserEnum = valueOf(DEFAULT_BROWSER);
+        switch (browserEnum) {
+            case CHROME:
+                driver = generateChromeDriver();
+                log.info("Cronjob({}) generating chrome driver({})...", jobId, driver.getClass().toString());
+                break;
+            case PHANTOMJS:
+                driver = generatePhantomJsDriver();
+                log.info("Cronjob({}) generating PhantomJs driver({})...", jobId, PHANTOMJS_PATH);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown Web browser:" + DEFAULT_BROWSER);
+        }
+
+        driver.manage().timeouts().implicitlyWait(3, TimeUnit.MINUTES);
+        driver.manage().window().maximize();
+
+        return driver;
+    }
+
+    private WebDriver generateChromeDriver() throws ExecutionException {
+        if (!StringUtils.isEmpty(REMOTE_WEBDRIVER_URL)) {
+            log.info("User remoteWebDriver:{}", REMOTE_WEBDRIVER_URL);
+            try {
+                return new RemoteWebDriver(new URL(REMOTE_WEBDRIVER_URL), DesiredCapabilities.chrome());
+            } catch (MalformedURLException ex) {
+                log.error(ex.toString(), ex);
+            }
+        }
+        File file = new File(CHROME_DRIVER_PATH);
+        if (!file.canExecute()) {
+            if (!file.setExecutable(true)) {
+                throw new ExecutionException(new Exception(CHROME_DRIVER_PATH + " is not executable!"));
+            }
+        }
+
+        System.setProperty(ChromeDriverService.CHROME_DRIVER_EXE_PROPERTY, CHROME_DRIVER_PATH);
+        ChromeOptions options = new ChromeOptions();
+
+        options.addArguments("headless");
+        options.addArguments("no-sandbox");
+        options.addArguments("disable-gpu");
+        options.addArguments("disable-features=NetworkService");
+        options.addArguments("ignore-certificate-errors");
+        options.addArguments("silent-launch");
+        options.addArguments("disable-application-cache");
+        options.addArguments("disable-web-security");
+        options.addArguments("no-proxy-server");
+        options.addArguments("disable-dev-shm-usage");
+
+        return new ChromeDriver(options);
+    }
+
+    private WebDriver generatePhantomJsDriver() throws ExecutionException {
+        File file = new File(PHANTOMJS_PATH);
+        if (!file.canExecute()) {
+            if (!file.setExecutable(true)) {
+                throw new ExecutionException(new Exception(PHANTOMJS_PATH + " is not executable!"));
+            }
+        }
+        System.setProperty(PhantomJSDriverService.PHANTOMJS_EXECUTABLE_PATH_PROPERTY, PHANTOMJS_PATH);
+        return new PhantomJSDriver();
+    }
+
+    public static class PooledWebDriver {
+
+        private final WebDriver driver;
+
+        private int uses;
+
+        private long lastUsedTime = System.currentTimeMillis();
+
+        private PooledWebDriver(WebDriver driver) {
+            this.driver = driver;
+        }
+
+        public WebDriver getDriver() {
+            return driver;
+        }
+    }
+}
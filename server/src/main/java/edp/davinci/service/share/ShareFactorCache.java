@@ -0,0 +1,355 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.share;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import edp.core.utils.MD5Util;
+import edp.core.utils.RedisUtils;
+import edp.davinci.core.model.RedisMessageEntity;
+import edp.davinci.dto.projectDto.ProjectDetail;
+import edp.davinci.model.User;
+import edp.davinci.service.impl.ShareFactorMessageHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import static edp.core.consts.Consts.AT_SYMBOL;
+import static edp.davinci.core.common.Constants.DAVINCI_TOPIC_CHANNEL;
+
+/**
+ * 分享token缓存
+ * 缓存解密后的ShareFactor及校验通过后解析出的分享实体、项目和用户，避免每次分享请求都解压解密并查询数据库
+ */
+@Slf4j
+@Component
+public class ShareFactorCache {
+
+    public static final String PROJECT_PREFIX = "project:";
+
+    public static final String ORGANIZATION_PREFIX = "organization:";
+
+    @Value("${share.cache.enable:true}")
+    private boolean enable;
+
+    @Value("${share.cache.max-size:20000}")
+    private long maxSize;
+
+    @Value("${share.cache.token-ttl-seconds:3600}")
+    private long tokenTtlSeconds;
+
+    @Value("${share.cache.resolved-ttl-seconds:60}")
+    private long resolvedTtlSeconds;
+
+    @Autowired
+    private RedisUtils redisUtils;
+
+    private Cache<String, ShareFactor> factors;
+
+    private Cache<String, ResolvedShare> resolved;
+
+    private Cache<String, Boolean> viewers;
+
+    private final AtomicLong purged = new AtomicLong();
+
+    /**
+     * 每次清除递增，避免解析过程中发生的清除被旧数据覆盖
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        factors = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(tokenTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        resolved = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(resolvedTtlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        viewers = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(resolvedTtlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public String getTokenKey(String token) {
+        return MD5Util.getMD5(token, true, 32);
+    }
+
+    /**
+     * 解析token，返回的ShareFactor为副本，可随请求修改
+     *
+     * @param token
+     * @param secret
+     * @return
+     */
+    public ShareFactor parse(String token, String secret) {
+        if (!enable) {
+            return ShareFactor.parseShareFactor(token, secret);
+        }
+
+        String key = getTokenKey(token);
+        ShareFactor factor = factors.getIfPresent(key);
+        if (factor == null) {
+            factor = ShareFactor.parseShareFactor(token, secret);
+            if (!isExpired(factor)) {
+                factors.put(key, factor);
+            }
+        } else if (isExpired(factor)) {
+            factors.invalidate(key);
+        }
+        return copy(factor);
+    }
+
+    /**
+     * 获取已校验的分享解析结果
+     *
+     * @param key
+     * @return
+     */
+    public ResolvedShare getResolved(String key) {
+        if (!enable) {
+            return null;
+        }
+        return resolved.getIfPresent(key);
+    }
+
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    public void putResolved(String key, ResolvedShare resolvedShare, long generation) {
+        if (enable && generation == this.generation.get()) {
+            resolved.put(key, resolvedShare);
+        }
+    }
+
+    /**
+     * 授权模式下校验通过的查看者
+     *
+     * @param tokenKey
+     * @param userId
+     * @return
+     */
+    public boolean isAuthorizedViewer(String tokenKey, Long userId) {
+        return enable && viewers.getIfPresent(tokenKey + AT_SYMBOL + userId) != null;
+    }
+
+    public void putAuthorizedViewer(String tokenKey, Long userId) {
+        if (enable) {
+            viewers.put(tokenKey + AT_SYMBOL + userId, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * 分享实体修改或删除后清除
+     *
+     * @param type
+     * @param entityId
+     */
+    public void purgeEntity(ShareType type, Long entityId) {
+        purge(type.name() + ":" + entityId);
+    }
+
+    /**
+     * 项目修改或删除后清除
+     *
+     * @param projectId
+     */
+    public void purgeProject(Long projectId) {
+        purge(PROJECT_PREFIX + projectId);
+    }
+
+    /**
+     * 组织内角色或成员变更后清除
+     *
+     * @param orgId
+     */
+    public void purgeOrganization(Long orgId) {
+        purge(ORGANIZATION_PREFIX + orgId);
+    }
+
+    /**
+     * 按消息清除本地缓存
+     *
+     * @param target {ShareType}:{id} 或 project:{id} 或 organization:{id}
+     */
+    public void purgeLocal(String target) {
+        generation.incrementAndGet();
+        Predicate<ResolvedShare> predicate = parseTarget(target);
+        if (predicate != null && resolved.asMap().values().removeIf(predicate)) {
+            purged.incrementAndGet();
+        }
+        // 授权结果与分享实体无关，清除时一并失效以便重新校验
+        viewers.invalidateAll();
+    }
+
+    @Scheduled(cron = "0 0/10 * * * *")
+    public void logStats() {
+        if (enable) {
+            log.info("Share token cache {}", getStats());
+        }
+    }
+
+    public String getStats() {
+        CacheStats tokenStats = factors.stats();
+        CacheStats resolvedStats = resolved.stats();
+        return String.format("tokens:%d, tokenHitRatio:%.2f, resolved:%d, resolvedHitRatio:%.2f, resolvedHits:%d, resolvedMisses:%d, purges:%d",
+                factors.size(), tokenStats.hitRate(), resolved.size(), resolvedStats.hitRate(),
+                resolvedStats.hitCount(), resolvedStats.missCount(), purged.get());
+    }
+
+    private void purge(String target) {
+        if (!enable) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    doPurge(target);
+                }
+            });
+        } else {
+            doPurge(target);
+        }
+    }
+
+    private void doPurge(String target) {
+        purgeLocal(target);
+        if (redisUtils.isRedisEnable()) {
+            redisUtils.convertAndSend(DAVINCI_TOPIC_CHANNEL, new RedisMessageEntity(ShareFactorMessageHandler.class, target, "-1"));
+        }
+    }
+
+    private Predicate<ResolvedShare> parseTarget(String target) {
+        try {
+            if (target.startsWith(PROJECT_PREFIX)) {
+                Long projectId = Long.valueOf(target.substring(PROJECT_PREFIX.length()));
+                return r -> projectId.equals(r.getProjectId());
+            }
+            if (target.startsWith(ORGANIZATION_PREFIX)) {
+                Long orgId = Long.valueOf(target.substring(ORGANIZATION_PREFIX.length()));
+                return r -> orgId.equals(r.getOrgId());
+            }
+            int index = target.indexOf(':');
+            if (index > 0) {
+                ShareType type = ShareType.valueOf(target.substring(0, index));
+                Long entityId = Long.valueOf(target.substring(index + 1));
+                return r -> type == r.getType() && entityId.equals(r.getEntityId());
+            }
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid share cache target:{}", target);
+        }
+        return null;
+    }
+
+    private static boolean isExpired(ShareFactor factor) {
+        return factor.getMode() != ShareMode.COMPATIBLE
+                && factor.getExpired() != null
+                && factor.getExpired().getTime() < System.currentTimeMillis();
+    }
+
+    private static ShareFactor copy(ShareFactor factor) {
+        ShareFactor copy = new ShareFactor();
+        BeanUtils.copyProperties(factor, copy);
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T copyBean(T bean) {
+        if (bean == null) {
+            return null;
+        }
+        T copy = (T) BeanUtils.instantiateClass(bean.getClass());
+        BeanUtils.copyProperties(bean, copy);
+        return copy;
+    }
+
+    /**
+     * 分享校验后解析出的用户、实体与项目
+     * 缓存与请求之间只传递副本，请求修改实体不影响缓存
+     */
+    public static class ResolvedShare {
+
+        private final ShareType type;
+
+        private final Long entityId;
+
+        private final User user;
+
+        private final Object shareEntity;
+
+        private final ProjectDetail projectDetail;
+
+        public ResolvedShare(ShareFactor shareFactor) {
+            // 记录和文件分享的实体为widget
+            this.type = shareFactor.getType() == ShareType.RECORD || shareFactor.getType() == ShareType.FILE ? ShareType.WIDGET : shareFactor.getType();
+            this.entityId = shareFactor.getEntityId();
+            this.user = copyBean(shareFactor.getUser());
+            this.shareEntity = copyBean(shareFactor.getShareEntity());
+            this.projectDetail = copyBean(shareFactor.getProjectDetail());
+        }
+
+        public ShareType getType() {
+            return type;
+        }
+
+        public Long getEntityId() {
+            return entityId;
+        }
+
+        public Long getProjectId() {
+            return projectDetail == null ? null : projectDetail.getId();
+        }
+
+        public Long getOrgId() {
+            return projectDetail == null ? null : projectDetail.getOrgId();
+        }
+
+        /**
+         * 写回请求的ShareFactor
+         *
+         * @param shareFactor
+         */
+        public void applyTo(ShareFactor shareFactor) {
+            shareFactor.setUser(copyBean(user));
+            shareFactor.setShareEntity(copyBean(shareEntity));
+            if (projectDetail != null) {
+                shareFactor.setProjectDetail(copyBean(projectDetail));
+            }
+        }
+    }
+}
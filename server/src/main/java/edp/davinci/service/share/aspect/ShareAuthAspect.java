@@ -47,6 +47,8 @@ import org.springframework.transaction.annotation.Transactional;
 import java.util.HashSet;
 import java.util.Set;
 
+import static edp.core.consts.Consts.AT_SYMBOL;
+
 @Component
 @Aspect
 @Slf4j
@@ -82,6 +84,9 @@ public class ShareAuthAspect {
     @Autowired
     private ProjectService projectService;
 
+    @Autowired
+    private ShareFactorCache shareFactorCache;
+
     @Pointcut("@annotation(edp.core.annotation.AuthShare)")
     public void shareAuth() {
     }
@@ -114,7 +119,7 @@ public class ShareAuthAspect {
             }
         }
 
-        ShareFactor shareFactor = ShareFactor.parseShareFactor(token, TOKEN_SECRET);
+        ShareFactor shareFactor = shareFactorCache.parse(token, TOKEN_SECRET);
         if (shareFactor.getType() == null) {
             shareFactor.setType(shareType);
         }
@@ -125,15 +130,23 @@ public class ShareAuthAspect {
 
         try {
 
+            // 老版本token依赖当前用户解析，不缓存校验结果
+            boolean cacheable = shareFactor.getMode() != ShareMode.COMPATIBLE;
+
             // 兼容老版本，token信息转换为新版本信息
             adaptShareInfo(token, shareFactor, user);
             convertShareType(shareType, shareOperation, shareFactor, args);
 
             if (shareType != ShareType.LOGIN) {
+                String tokenKey = shareFactorCache.getTokenKey(token);
                 // 校验token权限
-                verifyToken(shareOperation, shareFactor, user, args);
+                verifyToken(shareOperation, shareFactor, user, args, tokenKey);
                 // 校验数据权限
-                verifyPermission(shareOperation, shareType, shareFactor, user);
+                if (cacheable) {
+                    verifyPermissionWithCache(shareOperation, shareType, shareFactor, user, tokenKey);
+                } else {
+                    verifyPermission(shareOperation, shareType, shareFactor, user);
+                }
             }
 
             // thread local share factor
@@ -207,7 +220,7 @@ public class ShareAuthAspect {
      * @param args
      * @throws ForbiddenException
      */
-    private void verifyToken(ShareOperation operation, ShareFactor shareFactor, User user, Object[] args)
+    private void verifyToken(ShareOperation operation, ShareFactor shareFactor, User user, Object[] args, String tokenKey)
             throws ForbiddenException, UnAuthorizedException {
         switch (shareFactor.getMode()) {
             case PASSWORD:
@@ -223,11 +236,13 @@ public class ShareAuthAspect {
                 if (user == null) {
                     throw new UnAuthorizedException(ErrorMsg.ERR_MSG_AUTHENTICATION);
                 }
-                if (!shareFactor.getViewers().contains(user.getId())) {
+                if (!shareFactor.getViewers().contains(user.getId())
+                        && !shareFactorCache.isAuthorizedViewer(tokenKey, user.getId())) {
                     Set<RelRoleUser> relRoleUsers = relRoleUserMapper.selectByUserAndRoles(user.getId(), shareFactor.getRoles());
                     if (CollectionUtils.isEmpty(relRoleUsers)) {
                         throw new ForbiddenException(ErrorMsg.ERR_MSG_PERMISSION);
                     }
+                    shareFactorCache.putAuthorizedViewer(tokenKey, user.getId());
                 }
                 break;
             default:
@@ -236,6 +251,32 @@ public class ShareAuthAspect {
     }
 
 
+    /**
+     * 校验数据权限，校验通过的结果按token、操作及查看者缓存
+     *
+     * @param shareOperation
+     * @param shareType
+     * @param shareFactor
+     * @param viewer
+     * @param tokenKey
+     */
+    private void verifyPermissionWithCache(ShareOperation shareOperation, ShareType shareType, ShareFactor shareFactor, User viewer, String tokenKey) {
+        String key = tokenKey + AT_SYMBOL + shareOperation.name() + AT_SYMBOL + shareType.name();
+        if (shareFactor.getPermission() != ShareDataPermission.SHARER) {
+            key += AT_SYMBOL + (viewer == null ? "" : viewer.getId());
+        }
+
+        ShareFactorCache.ResolvedShare resolvedShare = shareFactorCache.getResolved(key);
+        if (resolvedShare != null) {
+            resolvedShare.applyTo(shareFactor);
+            return;
+        }
+
+        long generation = shareFactorCache.getGeneration();
+        verifyPermission(shareOperation, shareType, shareFactor, viewer);
+        shareFactorCache.putResolved(key, new ShareFactorCache.ResolvedShare(shareFactor), generation);
+    }
+
     /**
      * 校验数据权限
      *
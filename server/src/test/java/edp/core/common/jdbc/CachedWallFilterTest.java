@@ -0,0 +1,120 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.alibaba.druid.wall.WallConfig;
+import edp.core.model.JdbcSourceInfo;
+import edp.core.utils.H2SqlUtils;
+import edp.davinci.core.enums.SourceTypeEnum;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CachedWallFilterTest {
+
+    private DruidDataSource dataSource;
+
+    private CachedWallFilter wallFilter;
+
+    @Before
+    public void setUp() throws Exception {
+        wallFilter = new CachedWallFilter(new JdbcDataSource().wallConfig(), null, 100);
+        dataSource = new DruidDataSource();
+        dataSource.setUrl(H2SqlUtils.url("wall_filter_test"));
+        dataSource.setUsername("sa");
+        dataSource.setMaxActive(2);
+        dataSource.setProxyFilters(Collections.singletonList(wallFilter));
+        dataSource.init();
+    }
+
+    @After
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    @Test
+    public void repeatedSqlHitsVerdictCache() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        for (int i = 0; i < 5; i++) {
+            jdbcTemplate.queryForList("SELECT 1");
+            jdbcTemplate.queryForList("SELECT CAST(? AS INT)", i);
+        }
+
+        assertEquals(2, wallFilter.getChecks());
+        assertEquals(8, wallFilter.getHits());
+        assertEquals(0, wallFilter.getRejects());
+    }
+
+    @Test
+    public void rejectedSqlIsNotCached() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        for (int i = 0; i < 2; i++) {
+            try {
+                jdbcTemplate.execute("DROP TABLE IF EXISTS wall_test");
+                fail("drop table should be rejected");
+            } catch (DataAccessException e) {
+                // expected
+            }
+        }
+
+        assertEquals(2, wallFilter.getChecks());
+        assertEquals(0, wallFilter.getHits());
+        assertEquals(2, wallFilter.getRejects());
+    }
+
+    @Test
+    public void pooledSourceReportsHits() {
+        JdbcDataSource jdbcDataSource = H2SqlUtils.jdbcDataSource();
+        ReflectionTestUtils.setField(jdbcDataSource, "wallConfig", jdbcDataSource.wallConfig());
+        ReflectionTestUtils.setField(jdbcDataSource, "wallVerdictCacheSize", 100);
+
+        JdbcSourceInfo sourceInfo = JdbcSourceInfo.JdbcSourceInfoBuilder.aJdbcSourceInfo()
+                .withName("wall_pool_test")
+                .withType(SourceTypeEnum.JDBC.getType())
+                .withJdbcUrl(H2SqlUtils.url("wall_pool_test"))
+                .withUsername("sa")
+                .withPassword("")
+                .withDatabase("h2")
+                .build();
+        try {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(jdbcDataSource.getDataSource(sourceInfo));
+            for (int i = 0; i < 3; i++) {
+                jdbcTemplate.queryForList("SELECT 1");
+            }
+
+            String stats = String.join(";", jdbcDataSource.getPoolStats());
+            assertTrue(stats, stats.contains("wallHits:2, wallChecks:1"));
+        } finally {
+            jdbcDataSource.removeDatasource(sourceInfo);
+        }
+        assertFalse(jdbcDataSource.isDataSourceExist(sourceInfo));
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileUtilsTest {
+
+    private static final String VERSION = "1024-1600000000000";
+
+    @Test
+    public void matchExactETag() {
+        assertTrue(FileUtils.isETagMatched("\"1024-1600000000000\"", VERSION));
+        assertTrue(FileUtils.isETagMatched("W/\"1024-1600000000000\"", VERSION));
+        assertTrue(FileUtils.isETagMatched("\"1024-1600000000000-gzip\"", VERSION, VERSION + "-gzip"));
+    }
+
+    @Test
+    public void matchETagInList() {
+        assertTrue(FileUtils.isETagMatched("\"other\", W/\"1024-1600000000000\"", VERSION));
+        assertTrue(FileUtils.isETagMatched("\"a,b\",\"1024-1600000000000\"", VERSION));
+    }
+
+    @Test
+    public void rejectPartialETag() {
+        assertFalse(FileUtils.isETagMatched("\"11024-1600000000000\"", VERSION));
+        assertFalse(FileUtils.isETagMatched("\"1024-16000000000001\"", VERSION));
+        assertFalse(FileUtils.isETagMatched("\"1024-1600000000000-gzip\"", VERSION));
+        assertFalse(FileUtils.isETagMatched("\"x, 1024-1600000000000\"", VERSION));
+        assertFalse(FileUtils.isETagMatched("\"1024-1600000000000", VERSION));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.utils;
+
+import edp.core.common.jdbc.JdbcDataSource;
+import edp.core.enums.DataTypeEnum;
+import edp.davinci.runner.LoadSupportDataSourceRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static edp.core.consts.Consts.JDBC_PREFIX_FORMATTER;
+
+/**
+ * 测试用H2内存库数据源，不依赖Spring容器
+ */
+public final class H2SqlUtils {
+
+    private H2SqlUtils() {
+    }
+
+    public static JdbcDataSource jdbcDataSource() {
+        LoadSupportDataSourceRunner.getSupportDatasourceMap()
+                .putIfAbsent(DataTypeEnum.H2.getFeature(), String.format(JDBC_PREFIX_FORMATTER, DataTypeEnum.H2.getFeature()));
+
+        JdbcDataSource jdbcDataSource = new JdbcDataSource();
+        ReflectionTestUtils.setField(jdbcDataSource, "maxActive", 8);
+        ReflectionTestUtils.setField(jdbcDataSource, "maxWait", 5000L);
+        ReflectionTestUtils.setField(jdbcDataSource, "timeBetweenEvictionRunsMillis", 60000L);
+        ReflectionTestUtils.setField(jdbcDataSource, "minEvictableIdleTimeMillis", 300000L);
+        ReflectionTestUtils.setField(jdbcDataSource, "maxEvictableIdleTimeMillis", 900000L);
+        ReflectionTestUtils.setField(jdbcDataSource, "timeBetweenConnectErrorMillis", 60000L);
+        ReflectionTestUtils.setField(jdbcDataSource, "connectionErrorRetryAttempts", 1);
+        ReflectionTestUtils.setField(jdbcDataSource, "breakAfterAcquireFailure", true);
+        ReflectionTestUtils.setField(jdbcDataSource, "validationQueryTimeout", 5);
+        return jdbcDataSource;
+    }
+
+    public static SqlUtils sqlUtils(JdbcDataSource jdbcDataSource) {
+        SqlUtils sqlUtils = new SqlUtils();
+        ReflectionTestUtils.setField(sqlUtils, "jdbcDataSource", jdbcDataSource);
+        ReflectionTestUtils.setField(sqlUtils, "resultLimit", 1000000);
+        return sqlUtils;
+    }
+
+    /**
+     * @param name 内存库名称，各测试使用不同名称互不影响
+     */
+    public static SqlUtils create(String name) {
+        return sqlUtils(jdbcDataSource()).initEmbedded(name, url(name));
+    }
+
+    public static String url(String name) {
+        return "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1";
+    }
+}
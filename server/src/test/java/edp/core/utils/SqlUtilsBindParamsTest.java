@@ -0,0 +1,75 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.utils;
+
+import edp.core.model.PaginateWithQueryColumns;
+import edp.davinci.core.model.BindParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class SqlUtilsBindParamsTest {
+
+    private SqlUtils sqlUtils;
+
+    @Before
+    public void setUp() {
+        sqlUtils = H2SqlUtils.create("bind_params_test");
+        sqlUtils.execute("DROP TABLE IF EXISTS sales");
+        sqlUtils.execute("CREATE TABLE sales (name VARCHAR(16), region VARCHAR(16), sold DATE, amount DECIMAL(10,2))");
+        sqlUtils.execute("INSERT INTO sales VALUES ('a', 'east', DATE '2020-01-01', 1), ('b', 'east', DATE '2020-02-01', 2), "
+                + "('c', 'east', DATE '2020-03-01', 3), ('d', 'west', DATE '2020-04-01', 4)");
+    }
+
+    @Test
+    public void countAndPageBindTheirOwnParams() {
+        BindParams bindParams = new BindParams();
+        String region = bindParams.mark("'east'", "VARCHAR");
+        String first = bindParams.mark("'c'", "VARCHAR");
+        // 计数语句去掉 ORDER BY 后只剩一个参数
+        String sql = "SELECT name, amount FROM sales WHERE region IN (" + region + ") "
+                + "ORDER BY CASE WHEN name = " + first + " THEN 0 ELSE 1 END, name";
+
+        PaginateWithQueryColumns paginate = sqlUtils.query4Paginate(sql, bindParams, 1, 2, 0, 0, null);
+
+        assertEquals(3, paginate.getTotalCount());
+        assertEquals("[c, a]", names(paginate.getResultList()).toString());
+    }
+
+    @Test
+    public void bindTypedValues() {
+        BindParams bindParams = new BindParams();
+        String sql = "SELECT name FROM sales WHERE sold >= " + bindParams.mark("'2020-02-01'", "DATE")
+                + " AND amount < " + bindParams.mark("4", "DECIMAL") + " ORDER BY name";
+
+        PaginateWithQueryColumns paginate = sqlUtils.query4Paginate(sql, bindParams, 0, 0, 0, 0, null);
+
+        assertEquals("[b, c]", names(paginate.getResultList()).toString());
+    }
+
+    private List<Object> names(List<Map<String, Object>> resultList) {
+        return resultList.stream().map(row -> row.get("NAME")).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.utils;
+
+import edp.core.common.jdbc.QueryLogWriter;
+import edp.core.exception.ServerException;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class SqlUtilsQueryLogTest {
+
+    private QueryLogWriter queryLogWriter;
+
+    private SqlUtils sqlUtils;
+
+    @Before
+    public void setUp() {
+        queryLogWriter = mock(QueryLogWriter.class);
+        SqlUtils base = H2SqlUtils.sqlUtils(H2SqlUtils.jdbcDataSource());
+        ReflectionTestUtils.setField(base, "isQueryLogEnable", true);
+        ReflectionTestUtils.setField(base, "queryLogWriter", queryLogWriter);
+        sqlUtils = base.initEmbedded("query_log_test", H2SqlUtils.url("query_log_test"));
+    }
+
+    @Test
+    public void executedStatementIsLogged() {
+        String sql = "CREATE TABLE IF NOT EXISTS query_log (id INT)";
+        sqlUtils.execute(sql);
+
+        verify(queryLogWriter).submit(eq("execute"), any(), any(), eq(sql), isNull(), anyInt(), anyLong());
+        verify(queryLogWriter, never()).submitError(any(), any(), any(), any(), any(), anyLong());
+    }
+
+    @Test
+    public void failedStatementIsLoggedWithError() {
+        String sql = "INSERT INTO query_log_missing VALUES (1)";
+        try {
+            sqlUtils.execute(sql);
+            fail("statement on a missing table should fail");
+        } catch (ServerException e) {
+            // expected
+        }
+
+        verify(queryLogWriter).submitError(eq("execute"), any(), any(), eq(sql), any(Throwable.class), anyLong());
+        verify(queryLogWriter, never()).submit(any(), any(), any(), any(), any(), anyInt(), anyLong());
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.common.utils;
+
+import edp.davinci.core.model.ExcelHeader;
+import org.graalvm.polyglot.Context;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 导出表头脚本的吞吐随上下文池大小（CPU核数）扩展，单个上下文时所有线程串行执行
+ */
+public class ScriptContextPoolBenchmarkTest {
+
+    private static final String WIDGET_CONFIG = "{\"chartStyles\":{\"table\":{\"headerConfig\":[],\"withNoAggregators\":false}},"
+            + "\"cols\":[{\"name\":\"region\"},{\"name\":\"city\"}],\"rows\":[],\"metrics\":[{\"name\":\"amount\",\"agg\":\"sum\"}]}";
+
+    private static final int CALLS_PER_THREAD = 200;
+
+    private final int cores = Runtime.getRuntime().availableProcessors();
+
+    private ScriptContextPool pool;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("benchmark needs at least 2 cores", cores >= 2);
+        try (Context context = Context.create("js")) {
+            context.eval("js", "1");
+        } catch (Exception e) {
+            Assume.assumeNoException("GraalJS is not available", e);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.destroy();
+        }
+    }
+
+    @Test
+    public void throughputScalesWithCores() throws Exception {
+        double single = throughput(1);
+        double pooled = throughput(cores);
+
+        String result = String.format("cores:%d, single context:%.0f calls/s, %d contexts:%.0f calls/s", cores, single, cores, pooled);
+        // 留出调度及GC余量，多核下池化后的吞吐至少应明显高于单个上下文
+        assertTrue(result, pooled > single * Math.min(1.5, cores * 0.5));
+    }
+
+    /**
+     * 以CPU核数个线程并发生成导出表头，返回每秒调用次数
+     */
+    private double throughput(int poolSize) throws Exception {
+        if (pool != null) {
+            pool.destroy();
+        }
+        pool = new ScriptContextPool();
+        ReflectionTestUtils.setField(pool, "poolSize", poolSize);
+        ReflectionTestUtils.setField(pool, "warmUpSize", 0);
+        ReflectionTestUtils.setField(pool, "borrowTimeoutSecond", 60);
+        pool.init();
+
+        ExecutorService executor = Executors.newFixedThreadPool(cores);
+        try {
+            // 预热：每个上下文都完成脚本解析及JIT
+            run(executor, CALLS_PER_THREAD / 4);
+
+            long start = System.nanoTime();
+            run(executor, CALLS_PER_THREAD);
+            long elapsed = System.nanoTime() - start;
+            return (double) cores * CALLS_PER_THREAD * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void run(ExecutorService executor, int calls) throws Exception {
+        CountDownLatch ready = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>(cores);
+        for (int i = 0; i < cores; i++) {
+            futures.add(executor.submit(() -> {
+                ready.await();
+                for (int j = 0; j < calls; j++) {
+                    List<ExcelHeader> headers = ScriptUtils.formatHeader(WIDGET_CONFIG, Collections.emptyList());
+                    assertEquals(3, headers.size());
+                }
+                return null;
+            }));
+        }
+        ready.countDown();
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.MINUTES);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.model;
+
+import edp.davinci.model.SqlVariable;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BindParamsTest {
+
+    @Test
+    public void bindStringList() {
+        BindParams bindParams = new BindParams();
+        String marker = bindParams.mark("'a', 'it''s'", "VARCHAR");
+        assertNotEquals("'a', 'it''s'", marker);
+
+        List<Object> args = new ArrayList<>();
+        String sql = bindParams.bind("SELECT * FROM t WHERE name IN (" + marker + ")", args);
+        assertEquals("SELECT * FROM t WHERE name IN (?, ?)", sql);
+        assertEquals(Arrays.asList("a", "it's"), args);
+    }
+
+    @Test
+    public void bindByDataType() {
+        BindParams bindParams = new BindParams();
+        String number = bindParams.mark("1,2.5", "DECIMAL");
+        String date = bindParams.mark("'2020-01-02'", "DATE");
+        String datetime = bindParams.mark("'2020-01-02 03:04:05'", "DATETIME");
+        String day = bindParams.mark("'2020-01-02'", "TIMESTAMP");
+        String bool = bindParams.mark("'true'", "BOOLEAN");
+
+        List<Object> args = new ArrayList<>();
+        String sql = bindParams.bind(String.join(" AND ", number, date, datetime, day, bool), args);
+        assertEquals("?, ? AND ? AND ? AND ? AND ?", sql);
+        assertEquals(Arrays.asList(new BigDecimal("1"), new BigDecimal("2.5"), Date.valueOf("2020-01-02"),
+                Timestamp.valueOf("2020-01-02 03:04:05"), Timestamp.valueOf("2020-01-02 00:00:00"), Boolean.TRUE), args);
+    }
+
+    @Test
+    public void keepLiteralWhenValueCannotBeConverted() {
+        BindParams bindParams = new BindParams();
+        assertEquals("'%2020%'", bindParams.mark("'%2020%'", "DATE"));
+        assertEquals("'abc'", bindParams.mark("'abc'", "DECIMAL"));
+        assertEquals("'1'", bindParams.mark("'1'", "BIT"));
+        assertEquals("'12:00:00'", bindParams.mark("'12:00:00'", "TIME"));
+        assertEquals("'a'", bindParams.mark("'a'", null));
+        assertEquals("abc", bindParams.mark("abc", "VARCHAR"));
+        assertEquals("'a\\'b'", bindParams.mark("'a\\'b'", "VARCHAR"));
+        assertTrue(bindParams.isEmpty());
+    }
+
+    @Test
+    public void inlineMarkerInsideQuotesAndComments() {
+        BindParams bindParams = new BindParams();
+        String first = bindParams.mark("'x'", "VARCHAR");
+        String second = bindParams.mark("'y'", "VARCHAR");
+        String third = bindParams.mark("'z'", "VARCHAR");
+        String fourth = bindParams.mark("'w'", "VARCHAR");
+
+        String marked = "SELECT 'it''s " + first + " here', \"a " + second + "\" FROM t -- " + third + "\n"
+                + "WHERE a = 'it\\'s " + fourth + "'";
+        List<Object> args = new ArrayList<>();
+        String sql = bindParams.bind(marked, args);
+
+        assertEquals("SELECT 'it''s 'x' here', \"a 'y'\" FROM t -- 'z'\n"
+                + "WHERE a = 'it\\'s 'w''", sql);
+        assertTrue(args.isEmpty());
+    }
+
+    @Test
+    public void bindMarkerAfterClosedQuotesAndComments() {
+        BindParams bindParams = new BindParams();
+        String marker = bindParams.mark("'v'", "VARCHAR");
+
+        List<Object> args = new ArrayList<>();
+        String sql = bindParams.bind("SELECT 'a b' /* c ' d */ FROM t WHERE x = " + marker, args);
+        assertEquals("SELECT 'a b' /* c ' d */ FROM t WHERE x = ?", sql);
+        assertEquals(Collections.singletonList("v"), args);
+    }
+
+    @Test
+    public void inlineMarkerJoinedToIdentifier() {
+        BindParams bindParams = new BindParams();
+        String marker = bindParams.mark("'v'", "VARCHAR");
+
+        List<Object> args = new ArrayList<>();
+        assertEquals("SELECT * FROM t_'v'", bindParams.bind("SELECT * FROM t_" + marker, args));
+        assertTrue(args.isEmpty());
+    }
+
+    @Test
+    public void inlineRestoresLiterals() {
+        BindParams bindParams = new BindParams();
+        String marker = bindParams.mark("'a','b'", "VARCHAR");
+        assertEquals("x IN ('a','b')", bindParams.inline("x IN (" + marker + ")"));
+        assertFalse(bindParams.isEmpty());
+    }
+
+    @Test
+    public void markOnlyStringVariables() {
+        SqlVariable name = variable("name", "string");
+        SqlVariable day = variable("day", "date");
+        BindParams bindParams = new BindParams(Arrays.asList(name, day));
+
+        assertEquals("'2020-01-01'", bindParams.markVariable("day", "'2020-01-01'"));
+        String marker = bindParams.markVariable("name", "'a'");
+        assertNotEquals("'a'", marker);
+
+        List<Object> args = new ArrayList<>();
+        assertEquals("name = ?", bindParams.bind("name = " + marker, args));
+        assertEquals(Collections.singletonList("a"), args);
+    }
+
+    @Test
+    public void convertCursorByDataType() {
+        assertEquals(new BigDecimal("10"), BindParams.convert(10, "INT"));
+        assertEquals(new BigDecimal("1.5"), BindParams.convert("1.5", "DECIMAL"));
+        assertEquals(new Date(1577836800000L), BindParams.convert(1577836800000L, "DATE"));
+        assertEquals(new Timestamp(1577836800000L), BindParams.convert(1577836800000L, "DATETIME"));
+        assertEquals(Timestamp.valueOf("2020-01-01 00:00:00"), BindParams.convert("2020-01-01", "TIMESTAMP"));
+        assertEquals("10", BindParams.convert(10, "VARCHAR"));
+        assertEquals("raw", BindParams.convert("raw", "GEOMETRY"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectCursorOfWrongType() {
+        BindParams.convert("abc", "BIGINT");
+    }
+
+    @Test
+    public void searchOnlyStringColumns() {
+        assertTrue(BindParams.isSearchable("VARCHAR"));
+        assertTrue(BindParams.isSearchable("TEXT"));
+        assertTrue(BindParams.isSearchable(null));
+        assertFalse(BindParams.isSearchable("INT"));
+        assertFalse(BindParams.isSearchable("DATE"));
+        assertFalse(BindParams.isSearchable("DATETIME"));
+    }
+
+    private SqlVariable variable(String name, String valueType) {
+        SqlVariable variable = new SqlVariable();
+        variable.setName(name);
+        variable.setType("query");
+        variable.setValueType(valueType);
+        return variable;
+    }
+}
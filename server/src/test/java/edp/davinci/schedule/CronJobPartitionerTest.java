@@ -0,0 +1,220 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.schedule;
+
+import edp.core.model.ScheduleJob;
+import edp.core.utils.H2SqlUtils;
+import edp.core.utils.QuartzHandler;
+import edp.core.utils.ServerUtils;
+import edp.davinci.dao.CronJobMapper;
+import edp.davinci.dao.SchedulerNodeMapper;
+import edp.davinci.model.CronJob;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 多个节点共享同一个H2内存库中的scheduler_node表，模拟集群分区
+ */
+public class CronJobPartitionerTest {
+
+    private static final int JOB_COUNT = 200;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private SchedulerNodeMapper schedulerNodeMapper;
+
+    private CronJobMapper cronJobMapper;
+
+    private final Map<String, CronJobPartitioner> partitioners = new LinkedHashMap<>();
+
+    /**
+     * 各节点在Quartz中已调度的job
+     */
+    private final Map<String, Set<Long>> scheduled = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(H2SqlUtils.url("cron_partition_" + System.nanoTime()) + ";MODE=MySQL");
+        dataSource.setUser("sa");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE scheduler_node (node VARCHAR(255) NOT NULL PRIMARY KEY, heartbeat_time DATETIME NOT NULL)");
+        schedulerNodeMapper = new H2SchedulerNodeMapper(jdbcTemplate);
+
+        List<CronJob> jobs = new ArrayList<>();
+        for (long id = 1; id <= JOB_COUNT; id++) {
+            CronJob cronJob = new CronJob();
+            cronJob.setId(id);
+            cronJob.setCronExpression("0 0 * * * ?");
+            cronJob.setStartDate(new Date(0L));
+            cronJob.setEndDate(new Date(System.currentTimeMillis() + 86400000L));
+            jobs.add(cronJob);
+        }
+        cronJobMapper = mock(CronJobMapper.class);
+        when(cronJobMapper.getStartedJobs()).thenReturn(jobs);
+    }
+
+    @Test
+    public void everyJobIsOwnedByExactlyOneNode() throws Exception {
+        join("node-a", "node-b", "node-c");
+        heartbeatAll();
+
+        assertPartitioned("node-a", "node-b", "node-c");
+        for (String node : partitioners.keySet()) {
+            assertFalse(node, scheduled.get(node).isEmpty());
+        }
+    }
+
+    @Test
+    public void leftNodeJobsAreTakenOver() throws Exception {
+        join("node-a", "node-b", "node-c");
+        heartbeatAll();
+        Set<Long> released = new HashSet<>(scheduled.get("node-c"));
+
+        partitioners.remove("node-c").leave();
+        scheduled.remove("node-c");
+        heartbeatAll();
+
+        assertPartitioned("node-a", "node-b");
+        Set<Long> takenOver = new HashSet<>(scheduled.get("node-a"));
+        takenOver.addAll(scheduled.get("node-b"));
+        assertTrue(takenOver.containsAll(released));
+    }
+
+    @Test
+    public void expiredNodeIsJudgedByDatabaseClock() throws Exception {
+        join("node-a", "node-b", "node-c");
+        heartbeatAll();
+
+        // node-c停止心跳，其心跳时间早于数据库时钟的超时时间
+        partitioners.remove("node-c");
+        scheduled.remove("node-c");
+        jdbcTemplate.update("UPDATE scheduler_node SET heartbeat_time = DATEADD('SECOND', -60, NOW()) WHERE node = 'node-c'");
+        heartbeatAll();
+
+        assertEquals(2, schedulerNodeMapper.getLiveNodes(30).size());
+        assertPartitioned("node-a", "node-b");
+    }
+
+    private void join(String... nodes) throws Exception {
+        for (String node : nodes) {
+            CronJobPartitioner partitioner = partitioner(node);
+            partitioners.put(node, partitioner);
+            partitioner.join();
+        }
+    }
+
+    private void heartbeatAll() {
+        partitioners.values().forEach(CronJobPartitioner::heartbeat);
+    }
+
+    private void assertPartitioned(String... nodes) {
+        Set<Long> all = new HashSet<>();
+        int total = 0;
+        for (String node : nodes) {
+            Set<Long> ids = scheduled.get(node);
+            total += ids.size();
+            all.addAll(ids);
+            for (Long id : ids) {
+                assertTrue(node + " schedules job " + id + " it does not own", partitioners.get(node).isOwner(id));
+            }
+        }
+        assertEquals("job scheduled on more than one node", all.size(), total);
+        assertEquals(JOB_COUNT, all.size());
+    }
+
+    private CronJobPartitioner partitioner(String node) throws Exception {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        scheduled.put(node, ids);
+
+        QuartzHandler quartzHandler = mock(QuartzHandler.class);
+        when(quartzHandler.getScheduledJobIds()).thenAnswer(invocation -> new HashSet<>(ids));
+        doAnswer(invocation -> ids.add(((ScheduleJob) invocation.getArgument(0)).getId()))
+                .when(quartzHandler).addJob(any());
+        doAnswer(invocation -> ids.remove(((ScheduleJob) invocation.getArgument(0)).getId()))
+                .when(quartzHandler).removeJob(any());
+
+        ServerUtils serverUtils = mock(ServerUtils.class);
+        when(serverUtils.getLocalHost()).thenReturn(node);
+
+        CronJobPartitioner partitioner = new CronJobPartitioner();
+        ReflectionTestUtils.setField(partitioner, "enable", true);
+        ReflectionTestUtils.setField(partitioner, "nodeTimeoutSeconds", 30);
+        ReflectionTestUtils.setField(partitioner, "virtualNodes", 64);
+        ReflectionTestUtils.setField(partitioner, "schedulerNodeMapper", schedulerNodeMapper);
+        ReflectionTestUtils.setField(partitioner, "cronJobMapper", cronJobMapper);
+        ReflectionTestUtils.setField(partitioner, "quartzHandler", quartzHandler);
+        ReflectionTestUtils.setField(partitioner, "serverUtils", serverUtils);
+        return partitioner;
+    }
+
+    /**
+     * SchedulerNodeMapper的H2实现，语义与MySQL语句一致，时间均取数据库时钟
+     */
+    private static class H2SchedulerNodeMapper implements SchedulerNodeMapper {
+
+        private final JdbcTemplate jdbcTemplate;
+
+        H2SchedulerNodeMapper(JdbcTemplate jdbcTemplate) {
+            this.jdbcTemplate = jdbcTemplate;
+        }
+
+        @Override
+        public int heartbeat(String node) {
+            return jdbcTemplate.update("MERGE INTO scheduler_node (node, heartbeat_time) KEY (node) VALUES (?, NOW())", node);
+        }
+
+        @Override
+        public List<String> getLiveNodes(int timeoutSeconds) {
+            return jdbcTemplate.queryForList("SELECT node FROM scheduler_node WHERE heartbeat_time >= DATEADD('SECOND', ?, NOW()) ORDER BY node",
+                    String.class, -timeoutSeconds);
+        }
+
+        @Override
+        public int deleteByNode(String node) {
+            return jdbcTemplate.update("DELETE FROM scheduler_node WHERE node = ?", node);
+        }
+
+        @Override
+        public int deleteExpired(int timeoutSeconds) {
+            return jdbcTemplate.update("DELETE FROM scheduler_node WHERE heartbeat_time < DATEADD('SECOND', ?, NOW())", -timeoutSeconds);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.elastic;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexAction;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.shard.ShardId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 统计数据通过TransportClient写入，用进程内的bulk桩代替ES集群，按请求返回成功、拒绝或失败
+ */
+public class ElasticOperationServiceTest {
+
+    private static final String INDEX = "davinci_statistic_test";
+
+    private ElasticOperationService service;
+
+    /**
+     * 集群收到的bulk请求，包括重试
+     */
+    private final List<BulkRequest> received = new CopyOnWriteArrayList<>();
+
+    /**
+     * 前几次bulk请求的所有文档返回429拒绝
+     */
+    private final AtomicInteger rejectBulks = new AtomicInteger(0);
+
+    /**
+     * 为true时所有文档返回400失败
+     */
+    private volatile boolean failDocuments;
+
+    @Before
+    public void setUp() {
+        TransportClient client = mock(TransportClient.class);
+        when(client.prepareIndex(anyString(), anyString()))
+                .thenAnswer(invocation -> new IndexRequestBuilder(client, IndexAction.INSTANCE, invocation.getArgument(0))
+                        .setType(invocation.getArgument(1)));
+        doAnswer(invocation -> {
+            BulkRequest request = invocation.getArgument(0);
+            ActionListener<BulkResponse> listener = invocation.getArgument(1);
+            received.add(request);
+            listener.onResponse(respond(request));
+            return null;
+        }).when(client).bulk(any(BulkRequest.class), any());
+
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("statistic.elastic_bulk_actions", "10")
+                .withProperty("statistic.elastic_flush_interval_seconds", "60")
+                .withProperty("statistic.elastic_concurrent_requests", "1");
+
+        service = new ElasticOperationService();
+        ReflectionTestUtils.setField(service, "client", client);
+        ReflectionTestUtils.setField(service, "environment", environment);
+        service.initBulkProcessor();
+    }
+
+    @After
+    public void tearDown() {
+        service.closeBulkProcessor();
+    }
+
+    @Test
+    public void documentsAreIndexedInBulks() {
+        service.batchInsert(INDEX, "_doc", events(25));
+        service.closeBulkProcessor();
+
+        assertEquals(3, received.size());
+        int documents = 0;
+        for (BulkRequest request : received) {
+            assertTrue(request.numberOfActions() <= 10);
+            documents += request.numberOfActions();
+        }
+        assertEquals(25, documents);
+
+        IndexRequest first = (IndexRequest) received.get(0).requests().get(0);
+        assertEquals(INDEX, first.index());
+        Map<String, Object> source = first.sourceAsMap();
+        assertEquals("event-0", source.get("name"));
+        assertEquals(0, ((Number) source.get("count")).intValue());
+        assertEquals(25L, counter("indexed"));
+        assertEquals(0L, counter("failed"));
+    }
+
+    @Test
+    public void rejectedBulkIsRetriedWithBackoff() {
+        rejectBulks.set(2);
+        service.batchInsert(INDEX, "_doc", events(10));
+        service.closeBulkProcessor();
+
+        assertEquals(3, received.size());
+        assertEquals(10L, counter("indexed"));
+        assertEquals(0L, counter("failed"));
+    }
+
+    @Test
+    public void failedDocumentsAreCounted() {
+        failDocuments = true;
+        service.batchInsert(INDEX, "_doc", events(10));
+        service.closeBulkProcessor();
+
+        assertEquals(1, received.size());
+        assertEquals(0L, counter("indexed"));
+        assertEquals(10L, counter("failed"));
+    }
+
+    private BulkResponse respond(BulkRequest request) {
+        boolean reject = rejectBulks.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0;
+        List<DocWriteRequest<?>> requests = request.requests();
+        BulkItemResponse[] items = new BulkItemResponse[requests.size()];
+        for (int i = 0; i < items.length; i++) {
+            DocWriteRequest<?> doc = requests.get(i);
+            String id = String.valueOf(received.size() * 1000 + i);
+            if (reject || failDocuments) {
+                Exception cause = reject ? new EsRejectedExecutionException("bulk queue is full")
+                        : new IllegalArgumentException("failed to parse field");
+                items[i] = new BulkItemResponse(i, DocWriteRequest.OpType.INDEX,
+                        new BulkItemResponse.Failure(doc.index(), doc.type(), id, cause));
+            } else {
+                items[i] = new BulkItemResponse(i, DocWriteRequest.OpType.INDEX,
+                        new IndexResponse(new ShardId(doc.index(), "_na_", 0), doc.type(), id, i, 1, 1, true));
+            }
+        }
+        return new BulkResponse(items, 1L);
+    }
+
+    private long counter(String name) {
+        return ((AtomicLong) ReflectionTestUtils.getField(service, name)).get();
+    }
+
+    private static List<Event> events(int count) {
+        List<Event> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(new Event("event-" + i, i));
+        }
+        return events;
+    }
+
+    public static class Event {
+
+        private final String name;
+
+        private final Integer count;
+
+        public Event(String name, Integer count) {
+            this.name = name;
+            this.count = count;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Integer getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.impl;
+
+import edp.davinci.core.enums.VizEnum;
+import edp.davinci.core.utils.VizUtils;
+import edp.davinci.dao.DashboardMapper;
+import edp.davinci.dao.DashboardPortalMapper;
+import edp.davinci.dao.MemDashboardWidgetMapper;
+import edp.davinci.dao.RelRoleDashboardWidgetMapper;
+import edp.davinci.dao.ViewMapper;
+import edp.davinci.dao.WidgetMapper;
+import edp.davinci.dto.dashboardDto.DashboardWithMem;
+import edp.davinci.dto.projectDto.ProjectPermission;
+import edp.davinci.dto.viewDto.SimpleView;
+import edp.davinci.model.Dashboard;
+import edp.davinci.model.DashboardPortal;
+import edp.davinci.model.MemDashboardWidget;
+import edp.davinci.model.User;
+import edp.davinci.model.Widget;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * dashboard加载的查询次数与widget及控制器数量无关
+ */
+public class DashboardServiceImplTest {
+
+    private static final Long PORTAL_ID = 1L;
+
+    private static final Long DASHBOARD_ID = 10L;
+
+    private static final Long PROJECT_ID = 100L;
+
+    @Test
+    public void queryCountDoesNotGrowWithWidgets() {
+        Loader small = new Loader(2);
+        DashboardWithMem smallDashboard = small.load();
+        Loader large = new Loader(200);
+        DashboardWithMem largeDashboard = large.load();
+
+        assertEquals(2, smallDashboard.getRelations().size());
+        assertEquals(200, largeDashboard.getRelations().size());
+        // widget的view、全局控制器的view及每个widget控制器的view
+        assertEquals(1 + 1 + 2, smallDashboard.getViews().size());
+        assertEquals(1 + 1 + 200, largeDashboard.getViews().size());
+        assertEquals(small.queries(), large.queries());
+
+        verify(large.widgetMapper, times(1)).getByIds(anySet());
+        verify(large.widgetMapper, never()).getById(anyLong());
+        verify(large.viewMapper, times(1)).selectSimpleByWidgetIds(anySet());
+        verify(large.viewMapper, times(1)).selectSimpleByIds(anySet());
+        verify(large.viewMapper, never()).getSimpleViewById(anyLong());
+    }
+
+    @Test
+    public void controllerViewsAreLoadedInOneQuery() {
+        Loader loader = new Loader(0);
+        List<Map<String, Object>> controls = new ArrayList<>();
+        for (long i = 0; i < 50; i++) {
+            controls.add(Collections.singletonMap("valueViewId", 1000 + i % 10));
+        }
+
+        assertEquals(10, VizUtils.getControllerViews(controls).size());
+        assertEquals(0, VizUtils.getControllerViews(null).size());
+        verify(loader.viewMapper, times(1)).selectSimpleByIds(anySet());
+    }
+
+    /**
+     * 一次dashboard加载，所有mapper均为mock，通过mock上的调用次数统计查询次数
+     */
+    private static class Loader {
+
+        private final DashboardMapper dashboardMapper = mock(DashboardMapper.class);
+
+        private final DashboardPortalMapper dashboardPortalMapper = mock(DashboardPortalMapper.class);
+
+        private final MemDashboardWidgetMapper memDashboardWidgetMapper = mock(MemDashboardWidgetMapper.class);
+
+        private final RelRoleDashboardWidgetMapper relRoleDashboardWidgetMapper = mock(RelRoleDashboardWidgetMapper.class);
+
+        private final WidgetMapper widgetMapper = mock(WidgetMapper.class);
+
+        private final ViewMapper viewMapper = mock(ViewMapper.class);
+
+        private final DashboardServiceImpl dashboardService;
+
+        private Loader(int widgetCount) {
+            Dashboard dashboard = new Dashboard();
+            dashboard.setId(DASHBOARD_ID);
+            dashboard.setDashboardPortalId(PORTAL_ID);
+            dashboard.setConfig("{\"filters\":[{\"valueViewId\":1},{\"valueViewId\":1},{\"name\":\"date\"}]}");
+            when(dashboardMapper.getById(DASHBOARD_ID)).thenReturn(dashboard);
+
+            DashboardPortal portal = new DashboardPortal();
+            portal.setId(PORTAL_ID);
+            portal.setProjectId(PROJECT_ID);
+            when(dashboardPortalMapper.getById(PORTAL_ID)).thenReturn(portal);
+
+            List<MemDashboardWidget> memDashboardWidgets = new ArrayList<>();
+            List<Widget> widgets = new ArrayList<>();
+            for (long i = 1; i <= widgetCount; i++) {
+                MemDashboardWidget memDashboardWidget = new MemDashboardWidget();
+                memDashboardWidget.setId(i);
+                memDashboardWidget.setDashboardId(DASHBOARD_ID);
+                memDashboardWidget.setWidgetId(i);
+                memDashboardWidgets.add(memDashboardWidget);
+
+                Widget widget = new Widget();
+                widget.setId(i);
+                widget.setViewId(2L);
+                widget.setConfig("{\"controls\":[{\"valueViewId\":" + (1000 + i) + "}]}");
+                widgets.add(widget);
+            }
+            when(memDashboardWidgetMapper.getByDashboardId(DASHBOARD_ID)).thenReturn(memDashboardWidgets);
+            when(widgetMapper.getByIds(anySet())).thenReturn(widgets);
+            when(viewMapper.selectSimpleByWidgetIds(anySet())).thenAnswer(invocation -> views(Collections.singleton(2L)));
+            when(viewMapper.selectSimpleByIds(anySet())).thenAnswer(invocation -> views(invocation.getArgument(0)));
+            ReflectionTestUtils.setField(VizUtils.class, "staticViewMapper", viewMapper);
+
+            dashboardService = spy(new DashboardServiceImpl());
+            ReflectionTestUtils.setField(dashboardService, "dashboardMapper", dashboardMapper);
+            ReflectionTestUtils.setField(dashboardService, "dashboardPortalMapper", dashboardPortalMapper);
+            ReflectionTestUtils.setField(dashboardService, "memDashboardWidgetMapper", memDashboardWidgetMapper);
+            ReflectionTestUtils.setField(dashboardService, "relRoleDashboardWidgetMapper", relRoleDashboardWidgetMapper);
+            ReflectionTestUtils.setField(dashboardService, "widgetMapper", widgetMapper);
+            ReflectionTestUtils.setField(dashboardService, "viewMapper", viewMapper);
+            doReturn(ProjectPermission.adminPermission()).when(dashboardService).getProjectPermission(eq(PROJECT_ID), any(User.class));
+            doReturn(new ArrayList<Long>()).when(dashboardService).getDisableVizs(anyLong(), anyLong(), any(), any(VizEnum.class));
+        }
+
+        private DashboardWithMem load() {
+            User user = new User();
+            user.setId(1L);
+            return dashboardService.getDashboardMemWidgets(PORTAL_ID, DASHBOARD_ID, user);
+        }
+
+        private int queries() {
+            int count = 0;
+            for (Object mapper : new Object[]{dashboardMapper, dashboardPortalMapper, memDashboardWidgetMapper,
+                    relRoleDashboardWidgetMapper, widgetMapper, viewMapper}) {
+                count += Mockito.mockingDetails(mapper).getInvocations().size();
+            }
+            return count;
+        }
+
+        private static Set<SimpleView> views(Set<Long> ids) {
+            return ids.stream().map(id -> {
+                SimpleView view = new SimpleView();
+                view.setId(id);
+                view.setName("view" + id);
+                return view;
+            }).collect(Collectors.toSet());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.kafka;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import edp.davinci.dto.statistic.DavinciStatisticVisitorOperationInfo;
+import edp.davinci.service.impl.StatisticServiceImpl;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 用kafka-clients自带的MockProducer代替Kafka集群，验证埋点按条发送、按用户分区及发送结果统计
+ */
+public class KafkaOperationServiceTest {
+
+    private static final String TOPIC = "davinci_statistic_test";
+
+    private KafkaOperationService kafkaOperationService;
+
+    @Before
+    public void setUp() {
+        kafkaOperationService = new KafkaOperationService();
+    }
+
+    @Test
+    public void statisticsAreSentAsKeyedPerEventRecords() {
+        MockProducer<String, String> producer = useProducer(true);
+
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("statistic.kafka.bootstrap.servers", "localhost:9092")
+                .withProperty("statistic.kafka.topic", TOPIC);
+        StatisticServiceImpl statisticService = new StatisticServiceImpl();
+        ReflectionTestUtils.setField(statisticService, "environment", environment);
+        ReflectionTestUtils.setField(statisticService, "kafkaOperationService", kafkaOperationService);
+
+        List<DavinciStatisticVisitorOperationInfo> infoList = new ArrayList<>();
+        infoList.add(info(1L, "login"));
+        infoList.add(info(2L, "visit"));
+        infoList.add(info(1L, "logout"));
+        ReflectionTestUtils.invokeMethod(statisticService, "write", infoList, DavinciStatisticVisitorOperationInfo.class);
+
+        List<ProducerRecord<String, String>> history = producer.history();
+        assertEquals(3, history.size());
+        String[] keys = {"1", "2", "1"};
+        String[] actions = {"login", "visit", "logout"};
+        for (int i = 0; i < history.size(); i++) {
+            ProducerRecord<String, String> record = history.get(i);
+            assertEquals(TOPIC, record.topic());
+            assertEquals(keys[i], record.key());
+            assertEquals("davinci_statistic_visitor_operation",
+                    new String(record.headers().lastHeader(KafkaOperationService.HEADER_TYPE).value(), StandardCharsets.UTF_8));
+            JSONObject event = JSON.parseObject(record.value());
+            assertEquals(actions[i], event.getString("action"));
+            assertEquals(keys[i], event.getString("user_id"));
+        }
+        assertEquals("sent:3, failed:0", kafkaOperationService.getStats());
+    }
+
+    @Test
+    public void deliveryFailureIsCountedWithoutRebuildingProducer() {
+        MockProducer<String, String> producer = useProducer(false);
+
+        kafkaOperationService.send(TOPIC, "1", "event", "{}");
+        kafkaOperationService.send(TOPIC, "2", "event", "{}");
+        kafkaOperationService.send(TOPIC, "3", "event", "{}");
+        producer.completeNext();
+        producer.errorNext(new TimeoutException("expired"));
+        producer.completeNext();
+
+        assertEquals("sent:2, failed:1", kafkaOperationService.getStats());
+        assertSame(producer, ReflectionTestUtils.getField(kafkaOperationService, "producer"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void fullBufferFailsFast() {
+        Producer<String, String> producer = mock(Producer.class);
+        when(producer.send(any(), any())).thenThrow(new TimeoutException("buffer is full"));
+        ReflectionTestUtils.setField(kafkaOperationService, "producer", producer);
+
+        for (int i = 0; i < 5; i++) {
+            kafkaOperationService.send(TOPIC, String.valueOf(i), "event", "{}");
+        }
+
+        assertEquals("sent:0, failed:5", kafkaOperationService.getStats());
+    }
+
+    private MockProducer<String, String> useProducer(boolean autoComplete) {
+        MockProducer<String, String> producer = new MockProducer<>(autoComplete, new StringSerializer(), new StringSerializer());
+        ReflectionTestUtils.setField(kafkaOperationService, "producer", producer);
+        return producer;
+    }
+
+    private static DavinciStatisticVisitorOperationInfo info(Long userId, String action) {
+        DavinciStatisticVisitorOperationInfo info = new DavinciStatisticVisitorOperationInfo();
+        info.setUser_id(userId);
+        info.setEmail("user" + userId + "@davinci.com");
+        info.setAction(action);
+        info.setCreate_time(LocalDateTime.now());
+        return info;
+    }
+}
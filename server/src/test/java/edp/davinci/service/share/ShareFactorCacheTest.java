@@ -0,0 +1,192 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2020 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.share;
+
+import edp.core.utils.RedisUtils;
+import edp.davinci.dto.projectDto.ProjectDetail;
+import edp.davinci.model.User;
+import edp.davinci.model.Widget;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShareFactorCacheTest {
+
+    private static final String SECRET = "share_cache_test";
+
+    private static final int MAX_SIZE = 1000;
+
+    private ShareFactorCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new ShareFactorCache();
+        ReflectionTestUtils.setField(cache, "enable", true);
+        ReflectionTestUtils.setField(cache, "maxSize", (long) MAX_SIZE);
+        ReflectionTestUtils.setField(cache, "tokenTtlSeconds", 3600L);
+        ReflectionTestUtils.setField(cache, "resolvedTtlSeconds", 60L);
+        ReflectionTestUtils.setField(cache, "redisUtils", new RedisUtils());
+        cache.init();
+    }
+
+    @Test
+    public void parseThousandsOfDistinctTokens() throws Exception {
+        int tokenCount = 5000;
+        Date expired = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+        List<String> tokens = new ArrayList<>(tokenCount);
+        for (long i = 1; i <= tokenCount; i++) {
+            tokens.add(ShareFactor.Builder.shareFactor()
+                    .withMode(ShareMode.NORMAL)
+                    .withType(ShareType.WIDGET)
+                    .withEntityId(i)
+                    .withSharerId(1L)
+                    .withExpired(expired)
+                    .build()
+                    .toShareResult(SECRET)
+                    .getToken());
+        }
+
+        AtomicInteger mismatches = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int round = 0; round < 3; round++) {
+                for (int t = 0; t < 8; t++) {
+                    int offset = t;
+                    futures.add(executor.submit(() -> {
+                        for (int i = offset; i < tokenCount; i += 8) {
+                            ShareFactor factor = cache.parse(tokens.get(i), SECRET);
+                            if (factor.getMode() != ShareMode.NORMAL || factor.getEntityId() != i + 1) {
+                                mismatches.incrementAndGet();
+                            }
+                            // 返回副本，修改不影响缓存
+                            factor.setEntityId(-1L);
+                        }
+                    }));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, mismatches.get());
+        long cached = statOf("tokens");
+        assertTrue("cached tokens " + cached, cached > 0 && cached <= MAX_SIZE);
+
+        // 最近解析的token命中缓存
+        ShareFactor last = cache.parse(tokens.get(tokenCount - 1), SECRET);
+        assertEquals(Long.valueOf(tokenCount), last.getEntityId());
+    }
+
+    @Test
+    public void resolvedShareHandsOutCopies() {
+        Widget widget = new Widget();
+        widget.setId(1L);
+        widget.setName("origin");
+        ShareFactor source = resolvedFactor(widget, 10L, 100L);
+
+        ShareFactorCache.ResolvedShare resolvedShare = new ShareFactorCache.ResolvedShare(source);
+        widget.setName("changed by the verifying request");
+        source.getUser().setName("changed");
+
+        ShareFactor first = new ShareFactor();
+        resolvedShare.applyTo(first);
+        ((Widget) first.getShareEntity()).setName("changed by the first request");
+        first.getUser().setName("first");
+        first.getProjectDetail().setName("first");
+
+        ShareFactor second = new ShareFactor();
+        resolvedShare.applyTo(second);
+        assertNotSame(first.getShareEntity(), second.getShareEntity());
+        assertEquals("origin", ((Widget) second.getShareEntity()).getName());
+        assertEquals("sharer", second.getUser().getName());
+        assertEquals("project", second.getProjectDetail().getName());
+    }
+
+    @Test
+    public void purgeOrganizationDropsResolvedAndViewers() {
+        cache.putResolved("a", new ShareFactorCache.ResolvedShare(resolvedFactor(new Widget(), 10L, 100L)), cache.getGeneration());
+        cache.putResolved("b", new ShareFactorCache.ResolvedShare(resolvedFactor(new Widget(), 20L, 200L)), cache.getGeneration());
+        cache.putAuthorizedViewer("token", 1L);
+
+        cache.purgeOrganization(100L);
+
+        assertNull(cache.getResolved("a"));
+        assertNotNull(cache.getResolved("b"));
+        assertFalse(cache.isAuthorizedViewer("token", 1L));
+
+        cache.purgeProject(20L);
+        assertNull(cache.getResolved("b"));
+    }
+
+    @Test
+    public void resolvedBeforePurgeIsNotStored() {
+        long generation = cache.getGeneration();
+        cache.purgeOrganization(100L);
+        cache.putResolved("a", new ShareFactorCache.ResolvedShare(resolvedFactor(new Widget(), 10L, 100L)), generation);
+        assertNull(cache.getResolved("a"));
+    }
+
+    private ShareFactor resolvedFactor(Widget widget, Long projectId, Long orgId) {
+        User user = new User();
+        user.setId(1L);
+        user.setName("sharer");
+
+        ProjectDetail projectDetail = new ProjectDetail();
+        projectDetail.setId(projectId);
+        projectDetail.setOrgId(orgId);
+        projectDetail.setName("project");
+
+        ShareFactor shareFactor = new ShareFactor();
+        shareFactor.setType(ShareType.WIDGET);
+        shareFactor.setEntityId(widget.getId());
+        shareFactor.setUser(user);
+        shareFactor.setShareEntity(widget);
+        shareFactor.setProjectDetail(projectDetail);
+        return shareFactor;
+    }
+
+    private long statOf(String name) {
+        Matcher matcher = Pattern.compile(name + ":(\\d+)").matcher(cache.getStats());
+        assertTrue(matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+}